@@ -2,22 +2,59 @@
 package gabriel.intersection.alg;
 
 import java.util.*;
+import java.util.stream.IntStream;
+
+import java.io.File;
+import java.io.IOException;
 
 import gabriel.intersection.alg.*;
 
 
 /**
  * This is a factory of arrays populated with 
- * random data. For now, it produces arrays 
- * of int[]
+ * random data. It produces arrays of boxed 
+ * Integer[] and of primitive int[], and can 
+ * write them to int array files (IntArrayFile).
+ *
+ * The values follow a Distribution (uniform by default) over
+ * [0, random_range). The arrays are filled in parallel, by chunks:
+ * each chunk has its own SplittableRandom, split from a generator
+ * seeded by the factory seed, so a factory with an explicit seed
+ * produces the same sequence of arrays in every run, whatever the
+ * number of threads. A factory is not thread-safe.
  */
 public class ArrayFactory {
 
+    // Ints generated at a time when writing a file
+    private static final int FILE_CHUNK = 1 << 20;
+
+    // Ints generated by one task, with one generator
+    private static final int CHUNK = 1 << 16;
+
+    // Default number of clusters of the CLUSTERED distribution
+    private static final int CLUSTERS = 16;
+
 
     // Range of the the random numbers that 
     // populate the arrays created by the factory
     private int random_range = 1000;
 
+    // Distribution of the numbers
+    private Distribution distribution = Distribution.UNIFORM;
+
+    // Exponent of the ZIPF distribution
+    private double zipf_exponent = 1.0;
+
+    // Number of clusters of the CLUSTERED distribution
+    private int clusters = CLUSTERS;
+
+    // Seed of the arrays; each array is generated by a split of "seeds"
+    private long seed;
+    private SplittableRandom seeds;
+
+    // Told of the values generated, by chunks; null for none
+    private IntersectListener listener = null;
+
 
     //
     // Costructors
@@ -27,15 +64,63 @@ public class ArrayFactory {
 	if ( n > 0 ) {
 	    random_range = n;
 	}
+	setSeed(new SplittableRandom().nextLong());
     }
 
     public ArrayFactory () {
 	
 	; // Do not change randome_range
+	setSeed(new SplittableRandom().nextLong());
+    }
+
+    public ArrayFactory (int n, long seed ) {
+
+	this(n);
+	setSeed(seed);
     }
 
 
 
+    /**
+     * Write a random array to an int array file, so that the same input
+     * can be reused across runs:
+     *
+     *   java gabriel.intersection.alg.ArrayFactory FILE LENGTH [RANGE] [DISTRIBUTION] [SEED]
+     */
+    public static void main(String[] args) throws IOException {
+
+	if ( args.length < 2 ) {
+	    System.err.println("Usage: ArrayFactory FILE LENGTH [RANGE] [UNIFORM|ZIPF|CLUSTERED|SORTED] [SEED]");
+	    System.exit(1);
+	}
+
+	File file  = new File(args[0]);
+	long len   = Long.parseLong(args[1]);
+	int range  = (args.length > 2) ? Integer.parseInt(args[2]) : 0;
+
+	ArrayFactory factory = new ArrayFactory(range);
+
+	if ( args.length > 3 ) {
+	    Distribution dist = Distribution.parse(args[3]);
+	    if ( dist == null ) {
+		System.err.println("Unknown distribution " + args[3]);
+		System.exit(1);
+	    }
+	    factory.setDistribution(dist);
+	}
+
+	if ( args.length > 4 ) {
+	    factory.setSeed(Long.parseLong(args[4]));
+	}
+
+	factory.writeIntArray(file, len);
+
+	System.out.println(IntArrayFile.open(file) + ", seed " + factory.getSeed());
+
+    } // main()
+
+
+
     //
     // Create a factory instance
     //
@@ -46,6 +131,12 @@ public class ArrayFactory {
 
     }
 
+    public static ArrayFactory getArrayFactory(int n, long seed ) {
+
+	ArrayFactory af = new ArrayFactory(n, seed);
+	return af;
+    }
+
     public static ArrayFactory getFactory( ) {
 
 	ArrayFactory af = new ArrayFactory();
@@ -54,6 +145,73 @@ public class ArrayFactory {
 
 
 
+    //
+    // Settings
+    //
+
+    /**
+     * Restart the sequence of arrays from a seed
+     */
+    public void setSeed(long seed) {
+
+	this.seed = seed;
+	this.seeds = new SplittableRandom(seed);
+    }
+
+    public long getSeed() {
+
+	return seed;
+    }
+
+
+    public void setDistribution(Distribution dist) {
+
+	if ( dist != null ) {
+	    distribution = dist;
+	}
+    }
+
+    public Distribution getDistribution() {
+
+	return distribution;
+    }
+
+
+    /**
+     * Listener told of the values generated, from the threads that
+     * generate them, one chunk at a time; a cancelled listener stops
+     * the generation with a CancellationException
+     */
+    public void setListener(IntersectListener listener) {
+
+	this.listener = listener;
+    }
+
+
+    /**
+     * Exponent s of the ZIPF distribution, 1 by default
+     */
+    public void setZipfExponent(double s) {
+
+	if ( s > 0 ) {
+	    zipf_exponent = s;
+	}
+    }
+
+
+    /**
+     * Number of clusters of the CLUSTERED distribution;
+     * the clusters cover 1/8 of the range
+     */
+    public void setClusters(int n) {
+
+	if ( n > 0 ) {
+	    clusters = n;
+	}
+    }
+
+
+
     //
     // Factory of array of integers
     //
@@ -61,10 +219,10 @@ public class ArrayFactory {
 
 	Integer[] arr = new Integer[len];
 
-	Random random_gen = new Random();
+	fill(len, random_range, seeds.split(), (i, x) -> arr[i] = x);
 
-	for (int i = 0; i < len; i++ ) {
-	    arr[i] = random_gen.nextInt(random_range);
+	if ( distribution == Distribution.SORTED ) {
+	    Arrays.parallelSort(arr);
 	}
 
 	return arr;
@@ -72,4 +230,313 @@ public class ArrayFactory {
     } // getArray
 
 
+
+    //
+    // Factory of array of primitive ints
+    //
+    public int[] getIntArray(int len ) {
+
+	int[] arr = new int[len];
+
+	fill(len, random_range, seeds.split(), (i, x) -> arr[i] = x);
+
+	if ( distribution == Distribution.SORTED ) {
+	    Arrays.parallelSort(arr);
+	}
+
+	return arr;
+
+    } // getIntArray
+
+
+
+    /**
+     * A pair of arrays A and B with a controlled overlap: a fraction
+     * ratio of the elements of B are copies of random elements of A,
+     * and the other elements of B are not in A. So about ratio * len_b
+     * elements of B are in the intersection (fewer distinct ones if
+     * the same element of A is copied twice).
+     *
+     * To keep them apart, the values are drawn from the distribution
+     * over [0, random_range/2) and doubled; the values of B that are not
+     * copied from A are then made odd. Hence random_range must be at least 2.
+     */
+    public int[][] getIntArrays(int len_a, int len_b, double ratio ) {
+
+	if ( ratio < 0 || ratio > 1 ) {
+	    throw new IllegalArgumentException("The overlap ratio must be in [0, 1]: " + ratio);
+	}
+
+	if ( random_range < 2 ) {
+	    throw new IllegalArgumentException("Arrays kept apart need a range of at least 2: " + random_range);
+	}
+
+	int half = random_range / 2;
+
+	int[] a = new int[len_a];
+	int[] b = new int[len_b];
+
+	fill(len_a, half, seeds.split(), (i, x) -> a[i] = 2 * x);
+	fill(len_b, half, seeds.split(), (i, x) -> b[i] = 2 * x + 1);
+
+	// Replace a fraction ratio of B by elements of A
+	if ( len_a > 0 ) {
+	    SplittableRandom[] gens = splits(seeds.split(), chunks(len_b));
+
+	    IntStream.range(0, gens.length).parallel().forEach(c -> {
+
+		    SplittableRandom r = gens[c];
+		    int to = Math.min(len_b, (c + 1) * CHUNK);
+
+		    for (int i = c * CHUNK; i < to; i++) {
+			if ( r.nextDouble() < ratio ) {
+			    b[i] = a[r.nextInt(len_a)];
+			}
+		    }
+		});
+	}
+
+	if ( distribution == Distribution.SORTED ) {
+	    Arrays.parallelSort(a);
+	    Arrays.parallelSort(b);
+	}
+
+	return new int[][] { a, b };
+
+    } // getIntArrays
+
+
+
+    //
+    // Write a file of random primitive ints, generated in chunks,
+    // so the array need not fit in the heap; the SORTED distribution
+    // is sorted as a whole, in the heap
+    //
+    public void writeIntArray(File file, long len) throws IOException {
+
+	if ( distribution == Distribution.SORTED ) {
+	    if ( len > Integer.MAX_VALUE - 8 ) {
+		throw new IllegalArgumentException("A sorted file must fit in an array: " + len);
+	    }
+	    IntArrayFile.write(file, getIntArray((int) len));
+	    return;
+	}
+
+	int[] chunk = new int[(int) Math.min(len, FILE_CHUNK)];
+
+	SplittableRandom gen = seeds.split();
+
+	try ( IntArrayFile.Writer writer = new IntArrayFile.Writer(file) ) {
+
+	    for (long done = 0; done < len; done += chunk.length) {
+
+		int n = (int) Math.min(chunk.length, len - done);
+
+		fill(n, random_range, gen.split(), (i, x) -> chunk[i] = x);
+		writer.write(chunk, n);
+	    }
+	}
+
+    } // writeIntArray
+
+
+
+    //
+    // Write a pair of arrays with a controlled overlap (see getIntArrays)
+    // to two files
+    //
+    public void writeIntArrays(File file_a, File file_b, int len_a, int len_b, double ratio)
+	throws IOException {
+
+	int[][] pair = getIntArrays(len_a, len_b, ratio);
+
+	IntArrayFile.write(file_a, pair[0]);
+	IntArrayFile.write(file_b, pair[1]);
+
+    } // writeIntArrays
+
+
+
+    //
+    // Generation
+    //
+
+    /**
+     * Where fill() stores the value x of index i
+     */
+    private interface Sink {
+
+	void set(int i, int x);
+    }
+
+
+    /**
+     * Generate len values of the distribution over [0, range),
+     * in parallel, one generator split from gen per chunk
+     */
+    private void fill(int len, int range, SplittableRandom gen, Sink sink) {
+
+	SplittableRandom[] gens = splits(gen, chunks(len));
+
+	Distribution dist = distribution;
+	Zipf zipf = (dist == Distribution.ZIPF) ? new Zipf(range, zipf_exponent) : null;
+
+	// Clusters: a window of width values at each of the cluster starts
+	int width = Math.max(range / (8 * clusters), 1);
+	int[] starts = (dist == Distribution.CLUSTERED) ? clusterStarts(range, width) : null;
+
+	IntStream.range(0, gens.length).parallel().forEach(c -> {
+
+		SplittableRandom r = gens[c];
+		int to = Math.min(len, (c + 1) * CHUNK);
+
+		for (int i = c * CHUNK; i < to; i++) {
+
+		    int x;
+		    switch ( dist ) {
+
+		    case ZIPF:
+			x = zipf.sample(r) - 1;
+			break;
+
+		    case CLUSTERED:
+			x = starts[r.nextInt(starts.length)] + r.nextInt(width);
+			break;
+
+		    default:
+			x = r.nextInt(range);
+		    }
+
+		    sink.set(i, x);
+		}
+
+		IntersectListener.report(listener, IntersectListener.Phase.GENERATE, to - c * CHUNK);
+	    });
+
+    } // fill
+
+
+
+    /**
+     * Starts of the clusters; they depend on the seed and range only,
+     * so all the arrays of a factory share their clusters
+     */
+    private int[] clusterStarts(int range, int width) {
+
+	SplittableRandom r = new SplittableRandom(seed ^ 0x9E3779B97F4A7C15L);
+
+	int[] starts = new int[clusters];
+	for (int k = 0; k < clusters; k++) {
+	    starts[k] = r.nextInt(Math.max(range - width, 0) + 1);
+	}
+
+	return starts;
+
+    } // clusterStarts
+
+
+
+    private static int chunks(int len) {
+
+	return (len + CHUNK - 1) / CHUNK;
+    }
+
+
+    /**
+     * n generators split from gen, in order, in the calling thread
+     */
+    private static SplittableRandom[] splits(SplittableRandom gen, int n) {
+
+	SplittableRandom[] gens = new SplittableRandom[n];
+	for (int c = 0; c < n; c++) {
+	    gens[c] = gen.split();
+	}
+
+	return gens;
+
+    } // splits
+
+
+
+    /**
+     * Sampler of the Zipf distribution over 1 .. n, with exponent s,
+     * by rejection-inversion (Hormann and Derflinger, 1996):
+     * O(1) expected time per sample, and no table of n probabilities
+     */
+    static class Zipf {
+
+	private final int n;
+	private final double s;
+
+	private final double h_integral_x1;
+	private final double h_integral_n;
+	private final double threshold;
+
+
+	Zipf (int n, double s) {
+
+	    this.n = n;
+	    this.s = s;
+
+	    h_integral_x1 = hIntegral(1.5) - 1.0;
+	    h_integral_n  = hIntegral(n + 0.5);
+	    threshold     = 2.0 - hIntegralInverse(hIntegral(2.5) - h(2.0));
+	}
+
+
+	int sample(SplittableRandom r) {
+
+	    for (;;) {
+
+		double u = h_integral_n + r.nextDouble() * (h_integral_x1 - h_integral_n);
+		double x = hIntegralInverse(u);
+
+		int k = (int) (x + 0.5);
+		if ( k < 1 ) {
+		    k = 1;
+		}
+		else if ( k > n ) {
+		    k = n;
+		}
+
+		if ( k - x <= threshold || u >= hIntegral(k + 0.5) - h(k) ) {
+		    return k;
+		}
+	    }
+
+	} // sample
+
+
+	// h(x) = x^-s, and its integral H(x) = (x^(1-s) - 1) / (1 - s)
+	private double h(double x) {
+
+	    return Math.exp(-s * Math.log(x));
+	}
+
+	private double hIntegral(double x) {
+
+	    double log_x = Math.log(x);
+	    return helper2((1.0 - s) * log_x) * log_x;
+	}
+
+	private double hIntegralInverse(double x) {
+
+	    double t = Math.max(x * (1.0 - s), -1.0);
+	    return Math.exp(helper1(t) * x);
+	}
+
+	// log(1 + x) / x and (exp(x) - 1) / x, accurate near 0
+	private static double helper1(double x) {
+
+	    return (Math.abs(x) > 1e-8) ? Math.log1p(x) / x : 1.0 - x * (0.5 - x * (1.0 / 3 - x * 0.25));
+	}
+
+	private static double helper2(double x) {
+
+	    return (Math.abs(x) > 1e-8) ? Math.expm1(x) / x : 1.0 + x * 0.5 * (1.0 + x / 3 * (1.0 + x * 0.25));
+	}
+
+    } // Zipf
+
+
 } // ArrayFactory
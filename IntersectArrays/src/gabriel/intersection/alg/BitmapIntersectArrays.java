@@ -0,0 +1,219 @@
+package gabriel.intersection.alg;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+
+/**
+ * Intersect two arrays of ints whose values fall in a bounded range [0, range).
+ *
+ * Each array is turned into a bitset, stored as a long[] with one bit per 
+ * value of the range; the intersection is then the word-wise AND of the two 
+ * bitsets, and its size is the sum of Long.bitCount over the AND. The bitsets 
+ * take range/8 bytes each, whatever the length of the arrays, and duplicates 
+ * are absorbed for free. For large ranges the AND runs in parallel over 
+ * blocks of words.
+ */
+public class BitmapIntersectArrays {
+
+    // AND in parallel when the bitsets have at least this many words
+    public static final int PARALLEL_WORDS = 1 << 16;
+
+    // Number of words ANDed by one parallel task
+    private static final int BLOCK_WORDS = 1 << 14;
+
+
+    // The values in the arrays are in [0, range)
+    private int range;
+
+
+    //
+    // Constructors
+    //
+    public BitmapIntersectArrays (int range) {
+
+	if ( range <= 0 ) {
+	    throw new IllegalArgumentException("Bitmap range must be positive: " + range);
+	}
+	this.range = range;
+    }
+
+
+
+    public static void main(String[] args) {
+
+	int[] arr1 = {1, 2, 6, 70, 70};
+	int[] arr2 = {10, 2, 5, 1, 70};
+
+	BitmapIntersectArrays bia = new BitmapIntersectArrays(100);
+
+	System.out.println("\n array 1: " + Arrays.toString(arr1));
+	System.out.println(" array 2: " + Arrays.toString(arr2));
+
+	System.out.println(" bitmap intersection has size " + bia.intersectArrays_size(arr1, arr2));
+	System.out.println(" bitmap intersection: " + Arrays.toString(bia.intersectArrays(arr1, arr2)));
+
+    } // main()
+
+
+
+    /**
+     * Find the elements in the intersection, in ascending order
+     */
+    public int[] intersectArrays(int[] a, int[] b) {
+
+	long[] bits = and(toBitmap(a), toBitmap(b));
+
+	return toArray(bits);
+
+    } // intersectArrays
+
+
+
+    /**
+     * Find the size of the intersection
+     */
+    public int intersectArrays_size(int[] a, int[] b) {
+
+	return andCardinality(toBitmap(a), toBitmap(b));
+
+    } // intersectArrays_size
+
+
+
+    /**
+     * Build the bitset of an array
+     */
+    public long[] toBitmap(int[] arr) {
+
+	long[] bits = new long[words(range)];
+
+	for (int elem : arr) {
+
+	    if ( elem < 0 || elem >= range ) {
+		throw new IllegalArgumentException
+		    ("Value " + elem + " is outside the bitmap range [0, " + range + ")");
+	    }
+
+	    bits[elem >>> 6] |= 1L << elem;
+	}
+
+	return bits;
+
+    } // toBitmap
+
+
+
+    /**
+     * Number of bits set in x AND y, in parallel when the bitsets are large, 
+     * with the vector kernels when they are available (IntersectKernels.get())
+     */
+    public static int andCardinality(long[] x, long[] y) {
+
+	IntersectKernels kernels = IntersectKernels.get();
+
+	int n = Math.min(x.length, y.length);
+
+	if ( n < PARALLEL_WORDS ) {
+	    return (int) kernels.andCardinality(x, y, 0, n);
+	}
+
+	int blocks = (n + BLOCK_WORDS - 1) / BLOCK_WORDS;
+
+	long count = IntStream.range(0, blocks).parallel()
+	    .mapToLong(k -> kernels.andCardinality(x, y, k * BLOCK_WORDS, Math.min(n, (k + 1) * BLOCK_WORDS)))
+	    .sum();
+
+	return (int) count;
+
+    } // andCardinality
+
+
+
+    /**
+     * Word-wise x AND y, in parallel when the bitsets are large
+     */
+    public static long[] and(long[] x, long[] y) {
+
+	int n = Math.min(x.length, y.length);
+	long[] res = new long[n];
+
+	if ( n < PARALLEL_WORDS ) {
+	    and(x, y, res, 0, n);
+	    return res;
+	}
+
+	int blocks = (n + BLOCK_WORDS - 1) / BLOCK_WORDS;
+
+	IntStream.range(0, blocks).parallel()
+	    .forEach(k -> and(x, y, res, k * BLOCK_WORDS, Math.min(n, (k + 1) * BLOCK_WORDS)));
+
+	return res;
+
+    } // and
+
+
+
+    /**
+     * The values of the bits set in a bitset, in ascending order
+     */
+    public static int[] toArray(long[] bits) {
+
+	int card = 0;
+	for (long w : bits) {
+	    card += Long.bitCount(w);
+	}
+
+	int[] arr = new int[card];
+	int n = 0;
+
+	for (int i = 0; i < bits.length; i++) {
+
+	    long w = bits[i];
+	    while ( w != 0 ) {
+		arr[n++] = (i << 6) + Long.numberOfTrailingZeros(w);
+		w &= w - 1;
+	    }
+	}
+
+	return arr;
+
+    } // toArray
+
+
+
+    /**
+     * Number of long words needed for a bitset over [0, range)
+     */
+    public static int words(int range) {
+
+	return (int) ((range + 63L) >>> 6);
+    }
+
+
+
+    //
+    // Kernels over a block of words [from, to)
+    //
+
+    static long andCardinality(long[] x, long[] y, int from, int to) {
+
+	long count = 0;
+	for (int i = from; i < to; i++) {
+	    count += Long.bitCount(x[i] & y[i]);
+	}
+	return count;
+
+    } // andCardinality
+
+
+    static void and(long[] x, long[] y, long[] res, int from, int to) {
+
+	for (int i = from; i < to; i++) {
+	    res[i] = x[i] & y[i];
+	}
+
+    } // and
+
+
+} // BitmapIntersectArrays
@@ -0,0 +1,340 @@
+package gabriel.intersection.alg;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+
+/**
+ * Blocked Bloom filter of a set of ints: a compact test of membership
+ * that never misses an element of the set, and wrongly accepts an
+ * element out of it with a small false positive rate.
+ *
+ * The bits are split into blocks of 512 bits, one 64-byte cache line;
+ * an element sets, and is tested against, k bits of a single block,
+ * chosen from one 64-bit hash: the high bits pick the block, and the
+ * low bits, multiplied by k odd salts, the k bits within it (as in the
+ * split block Bloom filters of Impala and Parquet). So a test costs
+ * one cache miss at most, where a plain Bloom filter costs k. Blocks
+ * fill unevenly, hence a blocked filter needs a few more bits per key
+ * than a plain one for the same rate; the rate reported by
+ * falsePositiveRate() is computed from the fill of the actual blocks.
+ *
+ * Filters of the same geometry can be merged (bitwise OR), giving the
+ * filter of the union, and are serializable, so the filter of a set can
+ * be built once and shipped, or stored and reused across runs.
+ */
+public class BloomFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // Bits of a block: a cache line
+    public static final int BLOCK_BITS = 512;
+    private static final int BLOCK_WORDS = BLOCK_BITS / 64;
+
+    // Bits set per element, at most
+    public static final int MAX_HASHES = 16;
+
+    // Extra bits per key of a blocked filter over a plain one
+    private static final double BLOCK_OVERHEAD = 1.1;
+
+    // Seed of the hash of the elements; not the seed of the sketches
+    private static final long SEED = 0x3C6EF372FE94F82BL;
+
+    // Odd multipliers of the low bits of the hash, one per bit set: the
+    // top 9 bits of each product are a bit of the block
+    private static final int[] SALTS = {
+	0x47B6137B, 0x44974D91, 0x8824AD5B, 0xA2B7289D, 0x705495C7, 0x2DF1424B, 0x9EFC4947, 0x5C6BFB31,
+	0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F, 0x165667B1, 0xD3A2646D, 0xFD7046C5, 0xB55A4F09
+    };
+
+
+    private final long[] words;
+
+    // Number of blocks, and of bits set per element
+    private final int blocks;
+    private final int hashes;
+
+
+
+    //
+    // Constructors
+    //
+
+    /**
+     * @param expected: number of distinct elements the filter is sized for
+     * @param fpp: false positive rate wanted at that number, e.g., 0.01
+     */
+    public BloomFilter (long expected, double fpp) {
+
+	if ( ! (fpp > 0 && fpp < 1) ) {
+	    throw new IllegalArgumentException("The false positive rate must be in (0, 1): " + fpp);
+	}
+
+	double bits_per_key = bitsPerKey(fpp);
+	long bits = (long) Math.ceil(Math.max(expected, 1) * bits_per_key);
+
+	long n_blocks = (bits + BLOCK_BITS - 1) / BLOCK_BITS;
+	if ( n_blocks > Integer.MAX_VALUE / BLOCK_WORDS ) {
+	    throw new IllegalArgumentException("Bloom filter too big: " + expected + " elements");
+	}
+
+	this.blocks = (int) n_blocks;
+	this.hashes = hashesFor(bits_per_key);
+	this.words  = new long[blocks * BLOCK_WORDS];
+    }
+
+    public BloomFilter (BloomFilter other) {
+
+	this.blocks = other.blocks;
+	this.hashes = other.hashes;
+	this.words  = other.words.clone();
+    }
+
+
+
+    public static void main(String[] args) throws IOException, ClassNotFoundException {
+
+	ArrayFactory factory = ArrayFactory.getArrayFactory(1 << 30, 42L);
+
+	int[] arr = factory.getIntArray(1000000);
+	int[] others = factory.getIntArray(1000000);
+
+	IntHashSet set = new IntHashSet(arr.length);
+	for (int x : arr) {
+	    set.add(x);
+	}
+
+	boolean ok = true;
+
+	System.out.println("\n 1M elements; fpp wanted, reported, measured; bits per key, hashes");
+
+	for (double fpp : new double[] {0.1, 0.01, 0.001}) {
+
+	    BloomFilter filter = BloomFilter.of(arr, fpp);
+
+	    for (int x : arr) {
+		ok &= filter.mightContain(x);
+	    }
+
+	    long accepted = 0, outside = 0;
+	    for (int x : others) {
+		if ( ! set.contains(x) ) {
+		    outside++;
+		    if ( filter.mightContain(x) ) {
+			accepted++;
+		    }
+		}
+	    }
+
+	    System.out.println(String.format("   %.3f  %.4f  %.4f   %5.1f  %2d", fpp, filter.falsePositiveRate(),
+					     (double) accepted / outside, 8.0 * filter.bytes() / arr.length,
+					     filter.getHashes()));
+	}
+
+	// A filter is shipped, or stored, by serialization
+	BloomFilter filter = BloomFilter.of(arr, 0.01);
+
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+	    out.writeObject(filter);
+	}
+
+	BloomFilter copy;
+	try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+	    copy = (BloomFilter) in.readObject();
+	}
+
+	ok &= copy.equals(filter);
+
+	System.out.println("\n serialized filter: " + bytes.size() + " bytes");
+	System.out.println(" bloom filters: " + (ok ? "ok" : "WRONG"));
+
+    } // main()
+
+
+
+    /**
+     * Filter of the elements of an array, sized for its length
+     */
+    public static BloomFilter of(int[] arr, double fpp) {
+
+	BloomFilter filter = new BloomFilter(arr.length, fpp);
+	filter.addAll(arr);
+
+	return filter;
+
+    } // of
+
+
+
+    /**
+     * Bits per key for a false positive rate: ln(1/fpp) / ln(2)^2 for
+     * a plain filter, plus the overhead of the blocks
+     */
+    static double bitsPerKey(double fpp) {
+
+	return BLOCK_OVERHEAD * Math.log(1 / fpp) / (Math.log(2) * Math.log(2));
+    }
+
+
+    /**
+     * Best number of bits set per key: bits per key times ln(2)
+     */
+    static int hashesFor(double bits_per_key) {
+
+	return (int) Math.max(1, Math.min(MAX_HASHES, Math.round(bits_per_key * Math.log(2))));
+    }
+
+
+    /**
+     * Bytes of a filter of the given number of keys
+     */
+    public static long bytesFor(long keys, double fpp) {
+
+	long bits = (long) Math.ceil(Math.max(keys, 1) * bitsPerKey(fpp));
+
+	return (bits + BLOCK_BITS - 1) / BLOCK_BITS * (BLOCK_BITS / 8);
+
+    } // bytesFor
+
+
+
+    /**
+     * Add an element
+     */
+    public void add(int key) {
+
+	long h = HyperLogLog.hash64(key, SEED);
+
+	int base = block(h) * BLOCK_WORDS;
+	int low = (int) h;
+
+	for (int i = 0; i < hashes; i++) {
+	    int bit = (low * SALTS[i]) >>> 23;
+	    words[base + (bit >>> 6)] |= 1L << bit;
+	}
+
+    } // add
+
+
+
+    public void addAll(int[] arr) {
+
+	for (int key : arr) {
+	    add(key);
+	}
+    }
+
+
+
+    /**
+     * Whether the element may be in the set: false means it is not
+     */
+    public boolean mightContain(int key) {
+
+	long h = HyperLogLog.hash64(key, SEED);
+
+	int base = block(h) * BLOCK_WORDS;
+	int low = (int) h;
+
+	for (int i = 0; i < hashes; i++) {
+	    int bit = (low * SALTS[i]) >>> 23;
+	    if ( (words[base + (bit >>> 6)] & (1L << bit)) == 0 ) {
+		return false;
+	    }
+	}
+	return true;
+
+    } // mightContain
+
+
+
+    /**
+     * Add the elements of another filter of the same geometry to this one
+     */
+    public void merge(BloomFilter other) {
+
+	if ( other.blocks != blocks || other.hashes != hashes ) {
+	    throw new IllegalArgumentException("Cannot merge Bloom filters of different sizes: " +
+					       blocks + "x" + hashes + " and " + other.blocks + "x" + other.hashes);
+	}
+
+	for (int i = 0; i < words.length; i++) {
+	    words[i] |= other.words[i];
+	}
+
+    } // merge
+
+
+
+    /**
+     * Probability that an element out of the set is accepted, from the
+     * bits set in each block: an element tests k bits of a block picked
+     * at random, all set with probability (set / 512)^k
+     */
+    public double falsePositiveRate() {
+
+	double sum = 0.0;
+
+	for (int b = 0; b < blocks; b++) {
+
+	    int set = 0;
+	    for (int w = b * BLOCK_WORDS; w < (b + 1) * BLOCK_WORDS; w++) {
+		set += Long.bitCount(words[w]);
+	    }
+
+	    sum += Math.pow((double) set / BLOCK_BITS, hashes);
+	}
+
+	return sum / blocks;
+
+    } // falsePositiveRate
+
+
+
+    public int getHashes() {
+
+	return hashes;
+    }
+
+
+    // Heap taken by the bits
+    public long bytes() {
+
+	return 8L * words.length;
+    }
+
+
+    public boolean equals(Object o) {
+
+	return (o instanceof BloomFilter) && ((BloomFilter) o).hashes == hashes
+	    && Arrays.equals(words, ((BloomFilter) o).words);
+    }
+
+    public int hashCode() {
+
+	return 31 * hashes + Arrays.hashCode(words);
+    }
+
+
+
+    //
+    // Helpers
+    //
+
+    /**
+     * Block of a hash, from its high 32 bits: multiply and shift, which
+     * maps them evenly to [0, blocks) for any number of blocks
+     */
+    private int block(long h) {
+
+	return (int) (((h >>> 32) * blocks) >>> 32);
+    }
+
+
+} // BloomFilter
@@ -0,0 +1,619 @@
+package gabriel.intersection.alg;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+
+/**
+ * A sorted set of ints, compressed: the values are cut in blocks of
+ * BLOCK values; in a block, the gaps between consecutive values are
+ * bit-packed with the fewest bits b that minimize the size of the
+ * block, and the few gaps that need more than b bits are stored apart
+ * as exceptions (Patched Frame of Reference, PFor). Dense sets take
+ * a byte or two per value, instead of 4 for an int[], and 20 or more
+ * for an Integer[].
+ *
+ * Each block has skip pointers: its first and last values, and the
+ * offset of its words. So the intersection of two compressed sets
+ * only decodes the pairs of blocks whose ranges overlap; the other
+ * blocks are skipped by galloping over the skip pointers, without
+ * being decoded. The sets are immutable, and built from sorted values
+ * by a Builder; duplicates are dropped.
+ *
+ * Layout of a block of n values at data[offset[k]]:
+ *   - a header word: b in bits 0-7, the number of exceptions e in bits 8-15
+ *   - the n-1 gaps v[i] - v[i-1] - 1, b bits each, packed in ceil((n-1) b / 32) words
+ *   - e exceptions, two words each: the index of the gap, and its bits above b
+ * The first value of the block is first[k].
+ */
+public class CompressedIntArray {
+
+    // Values per block
+    public static final int BLOCK = 128;
+
+    // Words of a block at most: header, packed gaps, exceptions
+    private static final int MAX_BLOCK_WORDS = 1 + (BLOCK - 1) + 2 * (BLOCK - 1);
+
+
+    // Number of values
+    private final long size;
+
+    // Number of blocks, and their skip pointers
+    private final int blocks;
+    private final int[] first;
+    private final int[] last;
+    private final int[] offset;
+
+    // The encoded blocks
+    private final int[] data;
+
+
+
+    private CompressedIntArray (long size, int blocks, int[] first, int[] last, int[] offset, int[] data) {
+
+	this.size   = size;
+	this.blocks = blocks;
+	this.first  = first;
+	this.last   = last;
+	this.offset = offset;
+	this.data   = data;
+    }
+
+
+
+    public static void main(String[] args) {
+
+	int[] arr1 = {1, 2, 2, 6, 9, 1000, 1000000};
+	int[] arr2 = {1, 2, 5, 9, 9, 1000000, 2000000};
+
+	CompressedIntArray a = CompressedIntArray.of(arr1);
+	CompressedIntArray b = CompressedIntArray.of(arr2);
+
+	System.out.println("\n array 1: " + Arrays.toString(arr1));
+	System.out.println(" array 2: " + Arrays.toString(arr2));
+	System.out.println(" intersection: " + Arrays.toString(a.intersect(b)));
+	System.out.println(" intersection has size " + a.intersect_size(b));
+
+	//
+	// Compression, and check against the merge of the arrays
+	//
+	int n = 10000000;
+	SplittableRandom rnd = new SplittableRandom(42);
+
+	for (int range : new int[] {n, 8 * n, Integer.MAX_VALUE}) {
+
+	    int[] x = rnd.ints(n, 0, range).toArray();
+	    int[] y = rnd.ints(n / 100, 0, range).toArray();
+	    SortedIntersectArrays.sort(x);
+	    SortedIntersectArrays.sort(y);
+
+	    CompressedIntArray cx = CompressedIntArray.of(x);
+	    CompressedIntArray cy = CompressedIntArray.of(y);
+
+	    long t0 = System.nanoTime();
+	    int size = cx.intersect_size(cy);
+	    long t1 = System.nanoTime();
+
+	    int expected = new SortedIntersectArrays().intersectMerge_size(x, y);
+
+	    System.out.println(String.format("\n range %d: %d values in %.2f bits each, %.1f MB instead of %.1f MB",
+					     range, cx.size(), cx.bitsPerValue(), cx.bytes() / 1e6, 4.0 * n / 1e6));
+	    System.out.println(String.format(" intersection with %d values: %d in %.2f ms (%s)",
+					     cy.size(), size, (t1 - t0) / 1e6,
+					     (size == expected && Arrays.equals(cx.toArray(), distinct(x))) ? "ok" : "WRONG"));
+	}
+
+    } // main()
+
+
+
+    //
+    // Building
+    //
+
+    /**
+     * Compress a sorted array; IllegalArgumentException if it is not sorted
+     */
+    public static CompressedIntArray of(int[] sorted) {
+
+	Builder builder = new Builder();
+
+	for (int x : sorted) {
+	    builder.add(x);
+	}
+
+	return builder.build();
+
+    } // of
+
+
+
+    /**
+     * Compress a sorted int array file, straight from the mapped file
+     */
+    public static CompressedIntArray of(IntArrayFile sorted) {
+
+	Builder builder = new Builder();
+
+	for (int k = 0; k < sorted.regions(); k++) {
+	    IntBuffer buf = sorted.region(k);
+	    for (int i = 0, n = buf.limit(); i < n; i++) {
+		builder.add(buf.get(i));
+	    }
+	}
+
+	return builder.build();
+
+    } // of
+
+
+
+    /**
+     * Builds a CompressedIntArray from values added in increasing order
+     */
+    public static class Builder {
+
+	private long size = 0L;
+
+	// Values of the block being filled
+	private final int[] block = new int[BLOCK];
+	private int n = 0;
+
+	private int blocks = 0;
+	private int[] first  = new int[16];
+	private int[] last   = new int[16];
+	private int[] offset = new int[16];
+
+	private int[] data = new int[64];
+	private int words = 0;
+
+	// Gaps of the block being encoded, and the histogram of their bit lengths
+	private final int[] gaps = new int[BLOCK];
+	private final int[] hist = new int[33];
+
+
+	/**
+	 * Add a value, not smaller than the last one; duplicates are dropped
+	 */
+	public void add(int x) {
+
+	    if ( n > 0 ) {
+		int prev = block[n - 1];
+		if ( x == prev ) {
+		    return;
+		}
+		if ( x < prev ) {
+		    throw new IllegalArgumentException("Values not sorted: " + x + " after " + prev);
+		}
+	    }
+	    else if ( blocks > 0 && x <= last[blocks - 1] ) {
+		if ( x == last[blocks - 1] ) {
+		    return;
+		}
+		throw new IllegalArgumentException("Values not sorted: " + x + " after " + last[blocks - 1]);
+	    }
+
+	    block[n++] = x;
+	    size++;
+
+	    if ( n == BLOCK ) {
+		flush();
+	    }
+
+	} // add
+
+
+
+	public CompressedIntArray build() {
+
+	    if ( n > 0 ) {
+		flush();
+	    }
+
+	    return new CompressedIntArray(size, blocks,
+					  Arrays.copyOf(first, blocks), Arrays.copyOf(last, blocks),
+					  Arrays.copyOf(offset, blocks), Arrays.copyOf(data, words));
+
+	} // build
+
+
+
+	/**
+	 * Encode the block being filled
+	 */
+	private void flush() {
+
+	    if ( blocks == first.length ) {
+		first  = Arrays.copyOf(first,  2 * blocks);
+		last   = Arrays.copyOf(last,   2 * blocks);
+		offset = Arrays.copyOf(offset, 2 * blocks);
+	    }
+	    if ( words + MAX_BLOCK_WORDS > data.length ) {
+		data = Arrays.copyOf(data, Math.max(2 * data.length, words + MAX_BLOCK_WORDS));
+	    }
+
+	    first[blocks]  = block[0];
+	    last[blocks]   = block[n - 1];
+	    offset[blocks] = words;
+	    blocks++;
+
+	    //
+	    // 1. The gaps, as unsigned ints, and the histogram of their bit lengths
+	    //
+	    int m = n - 1;
+	    Arrays.fill(hist, 0);
+
+	    for (int i = 0; i < m; i++) {
+		gaps[i] = block[i + 1] - block[i] - 1;
+		hist[32 - Integer.numberOfLeadingZeros(gaps[i])]++;
+	    }
+
+	    //
+	    // 2. The width b that minimizes the packed gaps plus the exceptions
+	    //
+	    int b = 32;
+	    long best = Long.MAX_VALUE;
+	    int above = m;  // gaps longer than the width
+
+	    for (int w = 0; w <= 32; w++) {
+		above -= hist[w];
+		long cost = ((long) m * w + 31) / 32 + 2L * above;
+		if ( cost < best ) {
+		    best = cost;
+		    b = w;
+		}
+	    }
+
+	    //
+	    // 3. Header, packed gaps, exceptions
+	    //
+	    int exceptions = 0;
+	    for (int w = b + 1; w <= 32; w++) {
+		exceptions += hist[w];
+	    }
+
+	    data[words++] = b | (exceptions << 8);
+
+	    long mask = (b == 32) ? 0xFFFFFFFFL : (1L << b) - 1;
+	    long acc = 0L;
+	    int bits = 0;
+
+	    for (int i = 0; i < m; i++) {
+		acc |= (gaps[i] & mask) << bits;
+		bits += b;
+		if ( bits >= 32 ) {
+		    data[words++] = (int) acc;
+		    acc >>>= 32;
+		    bits -= 32;
+		}
+	    }
+	    if ( bits > 0 ) {
+		data[words++] = (int) acc;
+	    }
+
+	    for (int i = 0; i < m && exceptions > 0; i++) {
+		if ( (gaps[i] & 0xFFFFFFFFL) > mask ) {
+		    data[words++] = i;
+		    data[words++] = gaps[i] >>> b;
+		}
+	    }
+
+	    n = 0;
+
+	} // flush
+
+    } // Builder
+
+
+
+    //
+    // Decoding
+    //
+
+    /**
+     * Number of values in block k
+     */
+    private int count(int k) {
+
+	return (k < blocks - 1) ? BLOCK : (int) (size - (long) (blocks - 1) * BLOCK);
+    }
+
+
+    /**
+     * Decode block k into buf; return the number of values
+     */
+    private int decode(int k, int[] buf) {
+
+	int n = count(k);
+	int m = n - 1;
+
+	int pos = offset[k];
+	int header = data[pos++];
+	int b = header & 0xFF;
+	int exceptions = (header >>> 8) & 0xFF;
+
+	//
+	// 1. Unpack the gaps into buf[1..n-1]
+	//
+	long mask = (b == 32) ? 0xFFFFFFFFL : (1L << b) - 1;
+	long acc = 0L;
+	int bits = 0;
+
+	for (int i = 1; i <= m; i++) {
+	    if ( bits < b ) {
+		acc |= (data[pos++] & 0xFFFFFFFFL) << bits;
+		bits += 32;
+	    }
+	    buf[i] = (int) (acc & mask);
+	    acc >>>= b;
+	    bits -= b;
+	}
+
+	//
+	// 2. Patch the exceptions
+	//
+	pos = offset[k] + 1 + (int) (((long) m * b + 31) / 32);
+
+	for (int e = 0; e < exceptions; e++) {
+	    int i = data[pos++];
+	    buf[i + 1] |= data[pos++] << b;
+	}
+
+	//
+	// 3. Prefix sum of the gaps
+	//
+	buf[0] = first[k];
+	for (int i = 1; i <= m; i++) {
+	    buf[i] = buf[i - 1] + buf[i] + 1;
+	}
+
+	return n;
+
+    } // decode
+
+
+
+    /**
+     * All the values, in increasing order
+     */
+    public int[] toArray() {
+
+	if ( size > Integer.MAX_VALUE - 8 ) {
+	    throw new IllegalStateException("Too many values for an array: " + size);
+	}
+
+	int[] arr = new int[(int) size];
+	int[] buf = new int[BLOCK];
+
+	for (int k = 0, done = 0; k < blocks; k++) {
+	    int n = decode(k, buf);
+	    System.arraycopy(buf, 0, arr, done, n);
+	    done += n;
+	}
+
+	return arr;
+
+    } // toArray
+
+
+
+    /**
+     * Whether x is in the set: only the block that may hold x is decoded
+     */
+    public boolean contains(int x) {
+
+	int k = SortedIntersectArrays.gallop(last, 0, x);
+
+	if ( k == blocks || first[k] > x ) {
+	    return false;
+	}
+
+	int[] buf = new int[BLOCK];
+	int n = decode(k, buf);
+
+	return Arrays.binarySearch(buf, 0, n, x) >= 0;
+
+    } // contains
+
+
+
+    //
+    // Intersection
+    //
+
+    /**
+     * Size of the intersection with another compressed set
+     */
+    public int intersect_size(CompressedIntArray other) {
+
+	return intersect(other, null);
+    }
+
+
+    /**
+     * The intersection with another compressed set, in increasing order
+     */
+    public int[] intersect(CompressedIntArray other) {
+
+	int[] result = new int[(int) Math.min(Math.min(size, other.size), Integer.MAX_VALUE - 8)];
+
+	return Arrays.copyOf(result, intersect(other, result));
+
+    } // intersect
+
+
+
+    /**
+     * Walk the blocks of both sets in order: a block that ends before
+     * the current block of the other set starts is skipped, galloping
+     * over the last values of the blocks; only two blocks that overlap
+     * are decoded, and merged. A block is decoded once, however many
+     * blocks of the other set it overlaps.
+     */
+    private int intersect(CompressedIntArray b, int[] result) {
+
+	CompressedIntArray a = this;
+
+	int[] buf_a = new int[BLOCK];
+	int[] buf_b = new int[BLOCK];
+	int dec_a = -1, dec_b = -1;
+	int n_a = 0, n_b = 0;
+
+	int i = 0, j = 0;
+	int count = 0;
+
+	while ( i < a.blocks && j < b.blocks ) {
+
+	    if ( a.last[i] < b.first[j] ) {
+		i = SortedIntersectArrays.gallop(a.last, i, b.first[j]);
+		continue;
+	    }
+	    if ( b.last[j] < a.first[i] ) {
+		j = SortedIntersectArrays.gallop(b.last, j, a.first[i]);
+		continue;
+	    }
+
+	    if ( dec_a != i ) {
+		n_a = a.decode(i, buf_a);
+		dec_a = i;
+	    }
+	    if ( dec_b != j ) {
+		n_b = b.decode(j, buf_b);
+		dec_b = j;
+	    }
+
+	    count = merge(buf_a, n_a, buf_b, n_b, result, count);
+
+	    int last_a = a.last[i], last_b = b.last[j];
+	    if ( last_a <= last_b ) {
+		i++;
+	    }
+	    if ( last_b <= last_a ) {
+		j++;
+	    }
+	}
+
+	return count;
+
+    } // intersect
+
+
+
+    /**
+     * Merge two blocks of distinct values, appending the common
+     * values to result at count (if result is not null)
+     */
+    private static int merge(int[] x, int n_x, int[] y, int n_y, int[] result, int count) {
+
+	int p = 0, q = 0;
+
+	while ( p < n_x && q < n_y ) {
+
+	    int u = x[p], v = y[q];
+
+	    if ( u < v ) {
+		p++;
+	    }
+	    else if ( u > v ) {
+		q++;
+	    }
+	    else {
+		if ( result != null ) {
+		    result[count] = u;
+		}
+		count++;
+		p++;
+		q++;
+	    }
+	}
+
+	return count;
+
+    } // merge
+
+
+
+    //
+    // Size
+    //
+
+    /**
+     * Number of (distinct) values
+     */
+    public long size() {
+
+	return size;
+    }
+
+
+    public int blocks() {
+
+	return blocks;
+    }
+
+
+    /**
+     * Bytes of the encoded blocks and their skip pointers
+     */
+    public long bytes() {
+
+	return 4L * data.length + 12L * blocks;
+    }
+
+
+    public double bitsPerValue() {
+
+	return (size == 0) ? 0.0 : 8.0 * bytes() / size;
+    }
+
+
+
+    /**
+     * Estimated bytes of a compressed set of n distinct values spread
+     * over [0, range) (range 0 if unknown): the gaps average range/n,
+     * and take about one bit more than their log, plus a header and
+     * three skip pointers per block
+     */
+    public static long estimateBytes(long n, int range) {
+
+	double gap = (range > 0) ? Math.max((double) range / Math.max(n, 1), 1.0) : (double) (1L << 32) / Math.max(n, 1);
+	double bits = Math.min(Math.log(gap) / Math.log(2) + 1, 32);
+
+	long blocks = (n + BLOCK - 1) / BLOCK;
+
+	return (long) Math.ceil(n * bits / 8) + 16L * blocks;
+
+    } // estimateBytes
+
+
+
+    /**
+     * The distinct values of a sorted array
+     */
+    private static int[] distinct(int[] sorted) {
+
+	int n = 0;
+	int[] res = new int[sorted.length];
+
+	for (int i = 0; i < sorted.length; i++) {
+	    if ( i == 0 || sorted[i] != sorted[i - 1] ) {
+		res[n++] = sorted[i];
+	    }
+	}
+
+	return Arrays.copyOf(res, n);
+
+    } // distinct
+
+
+
+    @Override
+    public String toString() {
+
+	return String.format("CompressedIntArray: %d values in %d blocks, %.2f bits per value",
+			     size, blocks, bitsPerValue());
+    }
+
+
+} // CompressedIntArray
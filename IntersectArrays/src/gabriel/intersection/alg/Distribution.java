@@ -0,0 +1,54 @@
+package gabriel.intersection.alg;
+
+
+/**
+ * The distributions of the values that ArrayFactory
+ * can fill the arrays with, in [0, random_range)
+ */
+public enum Distribution {
+
+    /**
+     * Every value equally likely
+     */
+    UNIFORM,
+
+    /**
+     * Value k with probability proportional to 1 / (k+1)^s,
+     * so a few small values are very frequent, like the words
+     * of a text or the keys of production traffic
+     */
+    ZIPF,
+
+    /**
+     * Values in a few dense clusters, uniform within a cluster,
+     * like ids allocated in batches
+     */
+    CLUSTERED,
+
+    /**
+     * Uniform values, sorted in increasing order
+     */
+    SORTED;
+
+
+
+    /**
+     * Parse a distribution name, ignoring case; return null if unknown
+     */
+    public static Distribution parse(String name) {
+
+	if ( name == null ) {
+	    return null;
+	}
+
+	for (Distribution d : values()) {
+	    if ( d.name().equalsIgnoreCase(name.trim()) ) {
+		return d;
+	    }
+	}
+	return null;
+
+    } // parse
+
+
+} // Distribution
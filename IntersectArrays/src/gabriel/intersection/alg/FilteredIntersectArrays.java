@@ -0,0 +1,300 @@
+package gabriel.intersection.alg;
+
+import java.util.Arrays;
+
+
+/**
+ * Intersect two arrays of ints with a Bloom filter in front of the hash
+ * table: for a big array in hash and a small overlap.
+ *
+ * When the IntHashSet of array "a" outgrows the caches and few elements
+ * of "b" are in "a", most probes of the table are misses, each a cache
+ * miss or more. Here a BloomFilter of "a" is built with its table; at
+ * about 10 bits per key it is some 6 times smaller than the table, and
+ * a test reads one cache line of it, so most elements of "b" that are
+ * not in "a" are rejected by the filter, and only the others, the
+ * elements of "a" and the false positives, probe the table.
+ *
+ * The filter alone gives an approximate mode: estimate() counts the
+ * elements of "b" the filter accepts, with no table at all, and corrects
+ * the count by the false positive rate of the filter. The filter of
+ * "a" can be built once, stored or shipped (it is serializable), and
+ * reused for many arrays "b".
+ */
+public class FilteredIntersectArrays {
+
+    // Default false positive rate of the filter
+    public static final double DEFAULT_FPP = 0.01;
+
+
+    private final double fpp;
+
+
+    //
+    // Constructors
+    //
+
+    /**
+     * @param fpp: false positive rate of the filters, e.g., 0.01
+     */
+    public FilteredIntersectArrays (double fpp) {
+
+	if ( ! (fpp > 0 && fpp < 1) ) {
+	    throw new IllegalArgumentException("The false positive rate must be in (0, 1): " + fpp);
+	}
+	this.fpp = fpp;
+    }
+
+    public FilteredIntersectArrays () {
+
+	this(DEFAULT_FPP);
+    }
+
+
+    public double getFpp() {
+
+	return fpp;
+    }
+
+
+
+    public static void main(String[] args) {
+
+	int[] arr1 = {1, 2, 6, 70, 70};
+	int[] arr2 = {10, 2, 5, 1, 70};
+
+	FilteredIntersectArrays fia = new FilteredIntersectArrays();
+
+	System.out.println("\n array 1: " + Arrays.toString(arr1));
+	System.out.println(" array 2: " + Arrays.toString(arr2));
+	System.out.println(" filtered intersection has size " + fia.intersectArrays_size(arr1, arr2));
+	System.out.println(" filtered intersection: " + Arrays.toString(fia.intersectArrays(arr1, arr2)));
+
+	//
+	// A big array in hash, and a small overlap: the probes of the
+	// table, against the probes of the filter, then of the table
+	//
+	ArrayFactory factory = ArrayFactory.getArrayFactory(1 << 30, 42L);
+	int[][] pair = factory.getIntArrays(8000000, 4000000, 0.01);
+	int[] a = pair[0];
+	int[] b = pair[1];
+
+	IntHashSet aSet = new IntHashSet(1 << 20);
+	for (int x : a) {
+	    aSet.add(x);
+	}
+	BloomFilter filter = fia.filter(a);
+
+	boolean ok = true;
+	int exact = new IntersectArrays<Integer>().intersectArrays_size(a, b);
+
+	System.out.println("\n table " + (4L * aSet.slots() >> 20) + " MB, filter " + (filter.bytes() >> 20)
+			   + " MB, false positive rate " + String.format("%.4f", filter.falsePositiveRate()));
+	System.out.println("\n   probe ns/elem  filtered ns/elem");
+
+	for (int rep = 0; rep < 3; rep++) {
+
+	    long t0 = System.nanoTime();
+	    int plain = 0;
+	    for (int x : b) {
+		if ( aSet.contains(x) ) {
+		    plain++;
+		}
+	    }
+	    long t1 = System.nanoTime();
+	    int filtered = 0;
+	    for (int x : b) {
+		if ( filter.mightContain(x) && aSet.contains(x) ) {
+		    filtered++;
+		}
+	    }
+	    long t2 = System.nanoTime();
+
+	    ok &= plain == filtered;
+
+	    System.out.println(String.format("   %13.1f  %16.1f", (t1 - t0) / (double) b.length,
+					     (t2 - t1) / (double) b.length));
+	}
+
+	ok &= fia.intersectArrays_size(a, b) == exact && fia.intersectArrays(a, b).length == exact;
+
+	// Filter only: b has no duplicates here, so the estimate is of |A n B|
+	Estimate est = fia.estimate(filter, b);
+	System.out.println("\n exact size " + exact + ", estimate " + est);
+
+	ok &= Math.abs(est.matches() - exact) < 5 * Math.sqrt(est.falsePositives() + 1) + 0.001 * b.length;
+
+	System.out.println("\n filtered intersections: " + (ok ? "ok" : "WRONG"));
+
+    } // main()
+
+
+
+    /**
+     * Filter of the elements of an array, at the false positive rate
+     * of this instance
+     */
+    public BloomFilter filter(int[] arr) {
+
+	return BloomFilter.of(arr, fpp);
+    }
+
+
+
+    /**
+     * Find the size of the intersection; array "a" is put in hash, and
+     * in the filter in front of it
+     */
+    public int intersectArrays_size(int[] a, int[] b) {
+
+	return intersect(a, b, null);
+
+    } // intersectArrays_size
+
+
+
+    /**
+     * Find the elements in the intersection
+     */
+    public int[] intersectArrays(int[] a, int[] b) {
+
+	int[] result = new int[Math.min(a.length, b.length)];
+
+	int n = intersect(a, b, result);
+
+	return Arrays.copyOf(result, n);
+
+    } // intersectArrays
+
+
+
+    private int intersect(int[] a, int[] b, int[] result) {
+
+	IntHashSet aSet = new IntHashSet(Math.min(a.length, 1 << 20));
+	BloomFilter filter = new BloomFilter(a.length, fpp);
+
+	for (int elem : a) {
+	    aSet.add(elem);
+	    filter.add(elem);
+	}
+
+	int n = 0;
+
+	// Only the elements the filter accepts probe the table; an element
+	// is removed the first time it is found, so it is counted once
+	for (int elem : b) {
+	    if ( filter.mightContain(elem) && aSet.remove(elem) ) {
+		if ( result != null ) {
+		    result[n] = elem;
+		}
+		n++;
+	    }
+	}
+
+	return n;
+
+    } // intersect
+
+
+
+    /**
+     * Approximate mode: the elements of "b" accepted by the filter of
+     * an array "a", and the number of them estimated to be in "a".
+     * The elements are counted with their duplicates in "b"
+     */
+    public Estimate estimate(BloomFilter filter, int[] b) {
+
+	long passed = 0;
+
+	for (int elem : b) {
+	    if ( filter.mightContain(elem) ) {
+		passed++;
+	    }
+	}
+
+	return new Estimate(b.length, passed, filter.falsePositiveRate());
+
+    } // estimate
+
+
+
+    public Estimate estimate(int[] a, int[] b) {
+
+	return estimate(filter(a), b);
+    }
+
+
+
+
+    /**
+     * Result of the approximate mode: of the elements probed, those the
+     * filter accepted, and the false positive rate of the filter
+     */
+    public static class Estimate {
+
+	private final long probed;
+	private final long passed;
+	private final double fpp;
+
+
+	Estimate(long probed, long passed, double fpp) {
+
+	    this.probed = probed;
+	    this.passed = passed;
+	    this.fpp    = fpp;
+	}
+
+
+	public long getProbed() {
+
+	    return probed;
+	}
+
+
+	/**
+	 * Elements accepted by the filter: an upper bound of the matches
+	 */
+	public long getPassed() {
+
+	    return passed;
+	}
+
+
+	public double getFalsePositiveRate() {
+
+	    return fpp;
+	}
+
+
+	/**
+	 * Estimated elements in the set: of the m that are, all pass,
+	 * and of the probed - m that are not, a fraction fpp, so
+	 * passed = m + fpp (probed - m)
+	 */
+	public double matches() {
+
+	    return Math.max(0.0, (passed - fpp * probed) / (1 - fpp));
+	}
+
+
+	/**
+	 * Estimated false positives among the elements accepted
+	 */
+	public double falsePositives() {
+
+	    return passed - matches();
+	}
+
+
+	@Override
+	public String toString() {
+
+	    return String.format("%.0f (%d accepted of %d, about %.0f false positives at rate %.4f)",
+				 matches(), passed, probed, falsePositives(), fpp);
+	}
+
+
+    } // Estimate
+
+
+} // FilteredIntersectArrays
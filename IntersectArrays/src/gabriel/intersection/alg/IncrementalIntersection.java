@@ -0,0 +1,628 @@
+package gabriel.intersection.alg;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.StampedLock;
+
+
+/**
+ * Intersection of two multisets of ints, A and B, kept current as
+ * elements are added to and removed from either side.
+ *
+ * IntersectArrays recomputes the intersection from whole arrays. Here
+ * the count of each element in A and in B is kept in an IntCountMap,
+ * and so is the intersection itself: each element in both, with the
+ * smaller of its two counts. An event changes one count by one, hence
+ * the intersection by at most one element, and its sizes by at most one:
+ * each event costs O(1) hash operations, however big the sets.
+ *
+ * Events may come from many threads; they are applied one at a time,
+ * under the write lock of a StampedLock. The sizes are read without a
+ * lock, by an optimistic read validated against the stamp, and retried
+ * under the read lock only if an event got in between. snapshot() copies
+ * the intersection under the read lock, into an immutable Snapshot that
+ * can be read while the events go on.
+ */
+public class IncrementalIntersection {
+
+    // Count of each element of A, of B, and of the intersection: the
+    // elements in both A and B, with the smaller of their counts
+    private final IntCountMap count_a;
+    private final IntCountMap count_b;
+    private final IntCountMap common;
+
+    // Number of distinct elements of the intersection, and the sum of
+    // their counts, i.e., the size of the intersection as multisets
+    private int size = 0;
+    private long bag_size = 0;
+
+    // Number of events applied
+    private long version = 0;
+
+    private final StampedLock lock = new StampedLock();
+
+
+    //
+    // Constructors
+    //
+    public IncrementalIntersection (int expected) {
+
+	count_a = new IntCountMap(expected);
+	count_b = new IntCountMap(expected);
+	common  = new IntCountMap(expected);
+    }
+
+    public IncrementalIntersection () {
+
+	this(16);
+    }
+
+
+
+    public static void main(String[] args) throws InterruptedException {
+
+	IncrementalIntersection ii = new IncrementalIntersection();
+
+	ii.addAllA(new int[] {1, 2, 2, 6, 70});
+	ii.addAllB(new int[] {10, 2, 2, 2, 5, 1});
+
+	System.out.println("\n A = {1, 2, 2, 6, 70}, B = {10, 2, 2, 2, 5, 1}: " + ii.snapshot());
+
+	ii.removeA(2);
+	ii.addB(70);
+	ii.removeB(1);
+
+	System.out.println(" A - 2, B + 70, B - 1: " + ii.snapshot());
+
+	//
+	// A stream of random events, against the intersection of the
+	// two multisets recomputed from their counts every so often
+	//
+	SplittableRandom random = new SplittableRandom(42L);
+	Map<Integer,Integer> ref_a = new HashMap<Integer,Integer>();
+	Map<Integer,Integer> ref_b = new HashMap<Integer,Integer>();
+
+	ii = new IncrementalIntersection();
+	boolean ok = true;
+	int events = 2000000;
+
+	int[] elems = new int[events];
+	byte[] kinds = new byte[events];
+
+	for (int i = 0; i < events; i++) {
+
+	    int elem = elems[i] = random.nextInt(50000);
+	    boolean side_a = random.nextBoolean();
+	    boolean add = random.nextInt(5) < 3;
+
+	    kinds[i] = (byte) ((side_a ? 2 : 0) + (add ? 1 : 0));
+
+	    Map<Integer,Integer> ref = side_a ? ref_a : ref_b;
+
+	    if ( add ) {
+		ref.merge(elem, 1, Integer::sum);
+		if ( side_a ) {
+		    ii.addA(elem);
+		}
+		else {
+		    ii.addB(elem);
+		}
+	    }
+	    else {
+		Integer ct = ref.get(elem);
+		boolean removed = side_a ? ii.removeA(elem) : ii.removeB(elem);
+		ok &= removed == (ct != null);
+		if ( ct != null ) {
+		    if ( ct == 1 ) {
+			ref.remove(elem);
+		    }
+		    else {
+			ref.put(elem, ct - 1);
+		    }
+		}
+	    }
+
+	    if ( i % 500000 == 0 || i == events - 1 ) {
+		ok &= check(ii, ref_a, ref_b);
+	    }
+	}
+
+	// The same events again, timed
+	System.out.println();
+	for (int rep = 0; rep < 3; rep++) {
+
+	    IncrementalIntersection timed = new IncrementalIntersection();
+
+	    long t0 = System.nanoTime();
+	    for (int i = 0; i < events; i++) {
+		switch ( kinds[i] ) {
+		case 3:  timed.addA(elems[i]);    break;
+		case 2:  timed.removeA(elems[i]); break;
+		case 1:  timed.addB(elems[i]);    break;
+		default: timed.removeB(elems[i]); break;
+		}
+	    }
+	    long t1 = System.nanoTime();
+
+	    ok &= timed.bagSize() == ii.bagSize();
+
+	    System.out.println(String.format(" replay %d: %.0f ns per event", rep, (t1 - t0) / (double) events));
+	}
+
+	System.out.println("\n " + events + " events, " + ii.size() + " distinct and " + ii.bagSize()
+			   + " common elements: " + (ok ? "ok" : "WRONG"));
+
+	//
+	// Readers take snapshots while writers apply events: a snapshot
+	// is always consistent with itself
+	//
+	IncrementalIntersection shared = new IncrementalIntersection();
+	boolean consistent = true;
+
+	Thread[] writers = new Thread[2];
+	for (int w = 0; w < writers.length; w++) {
+	    final long seed = w;
+	    writers[w] = new Thread( () -> {
+		SplittableRandom r = new SplittableRandom(seed);
+		for (int i = 0; i < 500000; i++) {
+		    int elem = r.nextInt(1000);
+		    if ( r.nextBoolean() ) {
+			shared.addA(elem);
+			shared.addB(r.nextInt(1000));
+		    }
+		    else {
+			shared.removeA(elem);
+			shared.removeB(r.nextInt(1000));
+		    }
+		}
+	    });
+	    writers[w].start();
+	}
+
+	int snapshots = 0;
+	while ( writers[0].isAlive() || writers[1].isAlive() ) {
+
+	    Snapshot s = shared.snapshot();
+	    long total = 0;
+	    for (int c : s.counts) {
+		total += c;
+	    }
+	    if ( total != s.bagSize() || s.elements.length != s.size() ) {
+		consistent = false;
+	    }
+	    snapshots++;
+	}
+	for (Thread w : writers) {
+	    w.join();
+	}
+
+	System.out.println(" " + snapshots + " snapshots under concurrent events: "
+			   + (consistent && check(shared, shared.counts(true), shared.counts(false)) ? "ok" : "WRONG"));
+
+    } // main()
+
+
+
+    /**
+     * Whether ii holds the intersection of the multisets ref_a and ref_b
+     */
+    private static boolean check(IncrementalIntersection ii, Map<Integer,Integer> ref_a, Map<Integer,Integer> ref_b) {
+
+	int size = 0;
+	long bag_size = 0;
+	boolean ok = true;
+
+	for (Map.Entry<Integer,Integer> e : ref_a.entrySet()) {
+	    Integer cb = ref_b.get(e.getKey());
+	    if ( cb != null ) {
+		int min = Math.min(e.getValue(), cb);
+		size++;
+		bag_size += min;
+		ok &= ii.count(e.getKey()) == min;
+	    }
+	}
+
+	Snapshot s = ii.snapshot();
+
+	return ok && ii.size() == size && ii.bagSize() == bag_size
+	    && s.size() == size && s.bagSize() == bag_size;
+
+    } // check
+
+
+
+    /**
+     * Counts of side A, or B, as a map: for the checks of main()
+     */
+    private Map<Integer,Integer> counts(boolean side_a) {
+
+	Map<Integer,Integer> map = new HashMap<Integer,Integer>();
+
+	long stamp = lock.readLock();
+	try {
+	    (side_a ? count_a : count_b).forEach( (key, count) -> map.put(key, count) );
+	}
+	finally {
+	    lock.unlockRead(stamp);
+	}
+	return map;
+
+    } // counts
+
+
+
+    //
+    // Events
+    //
+
+    /**
+     * Add one occurrence of elem to A
+     */
+    public void addA(int elem) {
+
+	long stamp = lock.writeLock();
+	try {
+	    added(count_a.increment(elem), count_b.get(elem), elem);
+	}
+	finally {
+	    lock.unlockWrite(stamp);
+	}
+
+    } // addA
+
+
+    /**
+     * Add one occurrence of elem to B
+     */
+    public void addB(int elem) {
+
+	long stamp = lock.writeLock();
+	try {
+	    added(count_b.increment(elem), count_a.get(elem), elem);
+	}
+	finally {
+	    lock.unlockWrite(stamp);
+	}
+
+    } // addB
+
+
+    /**
+     * Remove one occurrence of elem from A; return false if elem is not in A
+     */
+    public boolean removeA(int elem) {
+
+	long stamp = lock.writeLock();
+	try {
+	    return removed(count_a.decrement(elem), count_b.get(elem), elem);
+	}
+	finally {
+	    lock.unlockWrite(stamp);
+	}
+
+    } // removeA
+
+
+    /**
+     * Remove one occurrence of elem from B; return false if elem is not in B
+     */
+    public boolean removeB(int elem) {
+
+	long stamp = lock.writeLock();
+	try {
+	    return removed(count_b.decrement(elem), count_a.get(elem), elem);
+	}
+	finally {
+	    lock.unlockWrite(stamp);
+	}
+
+    } // removeB
+
+
+
+    /**
+     * Add all the elements of an array to A, under one lock
+     */
+    public void addAllA(int[] arr) {
+
+	long stamp = lock.writeLock();
+	try {
+	    for (int elem : arr) {
+		added(count_a.increment(elem), count_b.get(elem), elem);
+	    }
+	}
+	finally {
+	    lock.unlockWrite(stamp);
+	}
+
+    } // addAllA
+
+
+    /**
+     * Add all the elements of an array to B, under one lock
+     */
+    public void addAllB(int[] arr) {
+
+	long stamp = lock.writeLock();
+	try {
+	    for (int elem : arr) {
+		added(count_b.increment(elem), count_a.get(elem), elem);
+	    }
+	}
+	finally {
+	    lock.unlockWrite(stamp);
+	}
+
+    } // addAllB
+
+
+
+    /**
+     * The count of elem on one side went up to count; other is its
+     * count on the other side. The count of elem in the intersection,
+     * min(count, other), goes up by one if count is still at most other
+     */
+    private void added(int count, int other, int elem) {
+
+	version++;
+
+	if ( count <= other ) {
+	    if ( common.increment(elem) == 1 ) {
+		size++;
+	    }
+	    bag_size++;
+	}
+
+    } // added
+
+
+    /**
+     * The count of elem on one side went down to count, -1 if elem was
+     * not on that side; the count of elem in the intersection goes down
+     * by one if count is now below other
+     */
+    private boolean removed(int count, int other, int elem) {
+
+	if ( count < 0 ) {
+	    return false;
+	}
+
+	version++;
+
+	if ( count < other ) {
+	    if ( common.decrement(elem) == 0 ) {
+		size--;
+	    }
+	    bag_size--;
+	}
+	return true;
+
+    } // removed
+
+
+
+    //
+    // Reads
+    //
+
+    /**
+     * Number of distinct elements in both A and B
+     */
+    public int size() {
+
+	long stamp = lock.tryOptimisticRead();
+	int result = size;
+
+	if ( ! lock.validate(stamp) ) {
+	    stamp = lock.readLock();
+	    try {
+		result = size;
+	    }
+	    finally {
+		lock.unlockRead(stamp);
+	    }
+	}
+	return result;
+
+    } // size
+
+
+    /**
+     * Size of the intersection as multisets: the sum over the elements
+     * of the smaller of their counts in A and in B
+     */
+    public long bagSize() {
+
+	long stamp = lock.tryOptimisticRead();
+	long result = bag_size;
+
+	if ( ! lock.validate(stamp) ) {
+	    stamp = lock.readLock();
+	    try {
+		result = bag_size;
+	    }
+	    finally {
+		lock.unlockRead(stamp);
+	    }
+	}
+	return result;
+
+    } // bagSize
+
+
+    /**
+     * Number of events applied so far
+     */
+    public long version() {
+
+	long stamp = lock.tryOptimisticRead();
+	long result = version;
+
+	if ( ! lock.validate(stamp) ) {
+	    stamp = lock.readLock();
+	    try {
+		result = version;
+	    }
+	    finally {
+		lock.unlockRead(stamp);
+	    }
+	}
+	return result;
+
+    } // version
+
+
+    /**
+     * Count of elem in the intersection: the smaller of its counts
+     * in A and in B
+     */
+    public int count(int elem) {
+
+	// A table may be rehashed by an event, so it is read under the lock
+	long stamp = lock.readLock();
+	try {
+	    return common.get(elem);
+	}
+	finally {
+	    lock.unlockRead(stamp);
+	}
+
+    } // count
+
+
+
+    /**
+     * Copy of the intersection as it is now, between two events
+     */
+    public Snapshot snapshot() {
+
+	long stamp = lock.readLock();
+	try {
+	    int[] elements = new int[common.size()];
+	    int[] counts = new int[common.size()];
+	    int[] n = {0};
+
+	    common.forEach( (key, count) -> {
+		elements[n[0]] = key;
+		counts[n[0]++] = count;
+	    });
+
+	    return new Snapshot(elements, counts, bag_size, version);
+	}
+	finally {
+	    lock.unlockRead(stamp);
+	}
+
+    } // snapshot
+
+
+
+    @Override
+    public String toString() {
+
+	return snapshot().toString();
+    }
+
+
+
+
+    /**
+     * Immutable copy of the intersection: its elements in increasing
+     * order, with their counts
+     */
+    public static class Snapshot {
+
+	private final int[] elements;
+	private final int[] counts;
+
+	private final long bag_size;
+	private final long version;
+
+
+	Snapshot(int[] elements, int[] counts, long bag_size, long version) {
+
+	    // Sort the elements, and their counts with them
+	    long[] pairs = new long[elements.length];
+	    for (int i = 0; i < pairs.length; i++) {
+		pairs[i] = ((long) elements[i] << 32) | counts[i];
+	    }
+	    Arrays.sort(pairs);
+
+	    for (int i = 0; i < pairs.length; i++) {
+		elements[i] = (int) (pairs[i] >> 32);
+		counts[i] = (int) pairs[i];
+	    }
+
+	    this.elements = elements;
+	    this.counts = counts;
+	    this.bag_size = bag_size;
+	    this.version = version;
+
+	} // Snapshot
+
+
+	/**
+	 * Number of distinct elements
+	 */
+	public int size() {
+
+	    return elements.length;
+	}
+
+
+	/**
+	 * Sum of the counts of the elements
+	 */
+	public long bagSize() {
+
+	    return bag_size;
+	}
+
+
+	/**
+	 * Number of events applied before the snapshot
+	 */
+	public long version() {
+
+	    return version;
+	}
+
+
+	/**
+	 * The distinct elements, in increasing order
+	 */
+	public int[] elements() {
+
+	    return elements.clone();
+	}
+
+
+	/**
+	 * Count of elem, 0 if it is not in the intersection
+	 */
+	public int count(int elem) {
+
+	    int k = Arrays.binarySearch(elements, elem);
+
+	    return (k >= 0) ? counts[k] : 0;
+	}
+
+
+	@Override
+	public String toString() {
+
+	    StringBuilder sb = new StringBuilder("{");
+	    for (int i = 0; i < elements.length; i++) {
+		sb.append(i > 0 ? ", " : "").append(elements[i]).append("=").append(counts[i]);
+	    }
+	    return sb.append("}").toString();
+
+	} // toString
+
+
+    } // Snapshot
+
+
+} // IncrementalIntersection
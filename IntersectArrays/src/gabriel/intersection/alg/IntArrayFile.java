@@ -0,0 +1,419 @@
+package gabriel.intersection.alg;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+/**
+ * An array of ints stored in a file, in a compact binary format,
+ * and read by mapping the file in memory.
+ *
+ * The file is a 32-byte header followed by the ints, 4 bytes each,
+ * in little-endian order:
+ *
+ *    offset  bytes  field
+ *         0      4  magic, "IARR"
+ *         4      4  version, 1
+ *         8      4  flags; bit 0 is set if the ints are sorted ascending
+ *        12      4  reserved, 0
+ *        16      8  count of ints
+ *        24      4  smallest int (0 if there are none)
+ *        28      4  largest int (0 if there are none)
+ *
+ * open() maps the ints with FileChannel.map, so the engines that scan
+ * an array once (building the hash, probing it, merging) read them
+ * straight from the page cache, without copying them to the heap.
+ * A single mapping is limited to 2 GB, hence the ints are mapped in
+ * regions of 2^28 ints. The files are written by a Writer, which takes
+ * the ints in chunks and fills in the header when it is closed.
+ */
+public class IntArrayFile {
+
+    // "IARR" in ASCII
+    public static final int MAGIC = 0x52524149;
+
+    public static final int VERSION = 1;
+
+    public static final int HEADER_BYTES = 32;
+
+    private static final int FLAG_SORTED = 1;
+
+    // Ints per mapped region (1 GB)
+    private static final int REGION_SHIFT = 28;
+    private static final int REGION_INTS  = 1 << REGION_SHIFT;
+    private static final int REGION_MASK  = REGION_INTS - 1;
+
+    // Largest array toArray() can return
+    private static final int MAX_ARRAY = Integer.MAX_VALUE - 8;
+
+
+    private File file;
+
+    // Fields of the header
+    private long count;
+    private boolean sorted;
+    private int min;
+    private int max;
+
+    // The ints, mapped read-only
+    private IntBuffer[] regions;
+
+
+
+    private IntArrayFile (File file, long count, boolean sorted, int min, int max, IntBuffer[] regions) {
+
+	this.file    = file;
+	this.count   = count;
+	this.sorted  = sorted;
+	this.min     = min;
+	this.max     = max;
+	this.regions = regions;
+    }
+
+
+
+    public static void main(String[] args) throws IOException {
+
+	ArrayFactory factory = ArrayFactory.getArrayFactory(1000);
+
+	int[] arr1 = factory.getIntArray(5000);
+	int[] arr2 = factory.getIntArray(3000);
+	Arrays.sort(arr2);
+
+	File f1 = File.createTempFile("intersect_", ".iarr");
+	File f2 = File.createTempFile("intersect_", ".iarr");
+
+	try {
+	    write(f1, arr1);
+	    write(f2, arr2);
+
+	    IntArrayFile a = open(f1);
+	    IntArrayFile b = open(f2);
+
+	    System.out.println("\n file 1: " + a);
+	    System.out.println(" file 2: " + b);
+
+	    IntersectArrays<Integer> ia = new IntersectArrays<Integer>();
+
+	    System.out.println(" intersection of the arrays has size " + ia.intersectArrays_size(arr1, arr2));
+	    System.out.println(" intersection of the files has size  " + ia.intersectArrays_size(a, b));
+	    System.out.println(" files read back equal the arrays: " +
+			       (Arrays.equals(arr1, a.toArray()) && Arrays.equals(arr2, b.toArray())));
+	}
+	finally {
+	    f1.delete();
+	    f2.delete();
+	}
+
+    } // main()
+
+
+
+    /**
+     * Map a file written by a Writer
+     */
+    public static IntArrayFile open(File file) throws IOException {
+
+	try ( FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ) ) {
+
+	    ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+	    while ( head.hasRemaining() && ch.read(head) >= 0 ) {
+		;
+	    }
+	    head.flip();
+
+	    if ( head.remaining() < HEADER_BYTES || head.getInt(0) != MAGIC ) {
+		throw new IOException(file + " is not an int array file");
+	    }
+	    if ( head.getInt(4) != VERSION ) {
+		throw new IOException(file + " has unsupported version " + head.getInt(4));
+	    }
+
+	    int  flags = head.getInt(8);
+	    long count = head.getLong(16);
+
+	    if ( count < 0 || ch.size() != HEADER_BYTES + 4 * count ) {
+		throw new IOException(file + " is truncated: " + count + " ints in header, " +
+				      ch.size() + " bytes in file");
+	    }
+
+	    // The mappings stay valid after the channel is closed
+	    int n_regions = (int) ((count + REGION_INTS - 1) >>> REGION_SHIFT);
+	    IntBuffer[] regions = new IntBuffer[n_regions];
+
+	    for (int k = 0; k < n_regions; k++) {
+		long from = (long) k << REGION_SHIFT;
+		long ints = Math.min(REGION_INTS, count - from);
+		regions[k] = ch.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + 4 * from, 4 * ints)
+		    .order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+	    }
+
+	    return new IntArrayFile(file, count, (flags & FLAG_SORTED) != 0,
+				    head.getInt(24), head.getInt(28), regions);
+	}
+
+    } // open
+
+
+
+    /**
+     * Write an array to a file
+     */
+    public static void write(File file, int[] arr) throws IOException {
+
+	try ( Writer w = new Writer(file) ) {
+	    w.write(arr, arr.length);
+	}
+    }
+
+
+
+    //
+    // Header
+    //
+
+    public File getFile() {
+
+	return file;
+    }
+
+    // Number of ints in the file
+    public long size() {
+
+	return count;
+    }
+
+    public boolean isSorted() {
+
+	return sorted;
+    }
+
+    public int getMin() {
+
+	return min;
+    }
+
+    public int getMax() {
+
+	return max;
+    }
+
+
+    /**
+     * The range [0, range) of the values, as taken by the BITMAP engine
+     * and the planner; 0 if some value is negative or the range is too big
+     */
+    public int range() {
+
+	if ( count == 0 ) {
+	    return 1;
+	}
+	return (min >= 0 && max < Integer.MAX_VALUE) ? max + 1 : 0;
+
+    } // range
+
+
+
+    //
+    // Access to the ints
+    //
+
+    /**
+     * The int at index i
+     */
+    public int get(long i) {
+
+	return regions[(int) (i >>> REGION_SHIFT)].get((int) (i & REGION_MASK));
+    }
+
+
+    /**
+     * Number of mapped regions, and the ints of region k, which start at
+     * index k * 2^28. The buffers are shared: read them with absolute gets only.
+     */
+    public int regions() {
+
+	return regions.length;
+    }
+
+    public IntBuffer region(int k) {
+
+	return regions[k];
+    }
+
+
+
+    /**
+     * Copy the ints [from, from + len) to dst[0 .. len)
+     */
+    public void read(long from, int[] dst, int len) {
+
+	int n = 0;
+
+	while ( n < len ) {
+
+	    long i = from + n;
+	    IntBuffer buf = regions[(int) (i >>> REGION_SHIFT)].duplicate();
+	    buf.position((int) (i & REGION_MASK));
+
+	    int chunk = Math.min(len - n, buf.remaining());
+	    buf.get(dst, n, chunk);
+	    n += chunk;
+	}
+
+    } // read
+
+
+
+    /**
+     * Copy all the ints to an array in the heap
+     */
+    public int[] toArray() {
+
+	if ( count > MAX_ARRAY ) {
+	    throw new IllegalStateException(file + " has too many ints for an array: " + count);
+	}
+
+	int[] arr = new int[(int) count];
+	read(0, arr, arr.length);
+
+	return arr;
+
+    } // toArray
+
+
+
+    public String toString() {
+
+	return file.getName() + ": " + count + " ints in [" + min + ", " + max + "]" +
+	    (sorted ? ", sorted" : "");
+    }
+
+
+
+    /**
+     * Writes an int array file from chunks of ints, keeping track of
+     * their count, range and order; the header is written by close()
+     */
+    public static class Writer implements Closeable {
+
+	// Ints buffered before they are written
+	private static final int BUFFER_INTS = 8192;
+
+	private FileChannel ch;
+	private ByteBuffer buf;
+
+	private long count = 0;
+	private boolean sorted = true;
+	private int min = Integer.MAX_VALUE;
+	private int max = Integer.MIN_VALUE;
+	private int last = Integer.MIN_VALUE;
+
+
+	public Writer (File file) throws IOException {
+
+	    ch = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				  StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+	    buf = ByteBuffer.allocate(4 * BUFFER_INTS).order(ByteOrder.LITTLE_ENDIAN);
+
+	    // Room for the header
+	    ch.position(HEADER_BYTES);
+	}
+
+
+
+	/**
+	 * Append arr[0 .. len)
+	 */
+	public void write(int[] arr, int len) throws IOException {
+
+	    for (int i = 0; i < len; i++) {
+		write(arr[i]);
+	    }
+
+	} // write
+
+
+
+	/**
+	 * Append one int
+	 */
+	public void write(int x) throws IOException {
+
+	    if ( x < last ) {
+		sorted = false;
+	    }
+	    last = x;
+
+	    if ( x < min ) {
+		min = x;
+	    }
+	    if ( x > max ) {
+		max = x;
+	    }
+
+	    if ( ! buf.hasRemaining() ) {
+		flush();
+	    }
+	    buf.putInt(x);
+
+	    count++;
+
+	} // write
+
+
+
+	/**
+	 * Write the buffered ints and the header, and close the file
+	 */
+	public void close() throws IOException {
+
+	    if ( ch == null ) {
+		return;
+	    }
+
+	    try {
+		flush();
+
+		ByteBuffer head = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		head.putInt(MAGIC).putInt(VERSION).putInt(sorted ? FLAG_SORTED : 0).putInt(0);
+		head.putLong(count);
+		head.putInt(count > 0 ? min : 0).putInt(count > 0 ? max : 0);
+		head.flip();
+
+		long pos = 0;
+		while ( head.hasRemaining() ) {
+		    pos += ch.write(head, pos);
+		}
+	    }
+	    finally {
+		ch.close();
+		ch = null;
+	    }
+
+	} // close
+
+
+
+	private void flush() throws IOException {
+
+	    buf.flip();
+	    while ( buf.hasRemaining() ) {
+		ch.write(buf);
+	    }
+	    buf.clear();
+
+	} // flush
+
+    } // Writer
+
+
+} // IntArrayFile
@@ -0,0 +1,475 @@
+package gabriel.intersection.alg;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+
+/**
+ * Open-addressing hash map from primitive int keys to positive counts.
+ *
+ * It is IntHashSet with a count next to each key: the keys and their
+ * counts are stored in two int[] tables, collisions are resolved by
+ * linear probing, and a key whose count drops to 0 is removed, with the
+ * keys after it shifted back. So counting an element costs neither a
+ * boxed Integer nor a HashMap.Node, and no Integer is rewritten when a
+ * count changes. The key 0 marks a free slot, hence its count is kept
+ * apart.
+ */
+public class IntCountMap {
+
+    // Marker for a free slot in the table
+    private static final int FREE = 0;
+
+    // The table is grown when it is more than half full
+    private static final float LOAD_FACTOR = 0.5F;
+
+    // Smallest table allocated by the constructor
+    private static final int MIN_CAPACITY = 16;
+
+
+    /**
+     * Told of each key of the map and its count
+     */
+    public interface EntryConsumer {
+
+	void accept(int key, int count);
+
+    } // EntryConsumer
+
+
+    // Keys and counts; the length is a power of two
+    private int[] keys;
+    private int[] counts;
+
+    // keys.length - 1, used to reduce a hash to a slot
+    private int mask;
+
+    // Number of keys, including the key 0
+    private int size = 0;
+
+    // Count of the key 0, 0 if it is not in the map
+    private int zero_count = 0;
+
+    // Number of keys that triggers a rehash
+    private int max_fill;
+
+
+    //
+    // Constructors
+    //
+    public IntCountMap (int expected) {
+
+	int capacity = IntHashSet.tableSize(expected);
+
+	keys     = new int[capacity];
+	counts   = new int[capacity];
+	mask     = capacity - 1;
+	max_fill = (int) (capacity * LOAD_FACTOR);
+    }
+
+    public IntCountMap () {
+
+	this(MIN_CAPACITY);
+    }
+
+    public IntCountMap (IntCountMap other) {
+
+	keys       = other.keys.clone();
+	counts     = other.counts.clone();
+	mask       = other.mask;
+	size       = other.size;
+	zero_count = other.zero_count;
+	max_fill   = other.max_fill;
+    }
+
+
+
+    public static void main(String[] args) {
+
+	int[] arr = {1, 2, 2, 0, 70, 70, 70, 0};
+
+	IntCountMap map = new IntCountMap();
+	for (int elem : arr) {
+	    map.increment(elem);
+	}
+
+	System.out.println("\n array: " + Arrays.toString(arr));
+	System.out.println(" counts: " + map + ", " + map.size() + " keys, total " + map.total());
+
+	map.decrement(70);
+	map.add(2, -2);
+	map.add(5, 3);
+	System.out.println(" 70 - 1, 2 - 2, 5 + 3: " + map);
+
+	//
+	// Against a HashMap, on a long run of random increments and decrements
+	//
+	SplittableRandom random = new SplittableRandom(42L);
+	Map<Integer,Integer> ref = new HashMap<Integer,Integer>();
+	map.clear();
+
+	boolean ok = true;
+
+	for (int i = 0; i < 1000000 && ok; i++) {
+
+	    int key = random.nextInt(5000) - 100;
+
+	    if ( random.nextInt(3) == 0 ) {
+		Integer old = ref.get(key);
+		int after = map.decrement(key);
+		if ( old == null ) {
+		    ok = (after == -1);
+		}
+		else {
+		    if ( old == 1 ) {
+			ref.remove(key);
+		    }
+		    else {
+			ref.put(key, old - 1);
+		    }
+		    ok = (after == old - 1);
+		}
+	    }
+	    else {
+		ref.merge(key, 1, Integer::sum);
+		ok = (map.increment(key) == ref.get(key));
+	    }
+	}
+
+	for (Map.Entry<Integer,Integer> e : ref.entrySet()) {
+	    ok &= map.get(e.getKey()) == e.getValue();
+	}
+	ok &= map.size() == ref.size();
+
+	System.out.println("\n counts against HashMap: " + (ok ? "ok" : "WRONG"));
+
+    } // main()
+
+
+
+    /**
+     * Add one to the count of a key; return the new count
+     */
+    public int increment(int key) {
+
+	return add(key, 1);
+    }
+
+
+    /**
+     * Take one from the count of a key, removing the key at 0;
+     * return the new count, or -1 if the key was not in the map
+     */
+    public int decrement(int key) {
+
+	return (get(key) == 0) ? -1 : add(key, -1);
+    }
+
+
+
+    /**
+     * Add delta, which may be negative, to the count of a key; a key
+     * whose count drops to 0 is removed. Return the new count
+     */
+    public int add(int key, int delta) {
+
+	if ( key == FREE ) {
+	    int old = zero_count;
+	    zero_count = checkedCount(old, delta, key);
+	    size += (zero_count > 0 ? 1 : 0) - (old > 0 ? 1 : 0);
+	    return zero_count;
+	}
+
+	int pos = IntHashSet.mix(key) & mask;
+
+	int curr;
+	while ( (curr = keys[pos]) != FREE ) {
+	    if ( curr == key ) {
+		int count = checkedCount(counts[pos], delta, key);
+		if ( count == 0 ) {
+		    size--;
+		    shiftKeys(pos);
+		}
+		else {
+		    counts[pos] = count;
+		}
+		return count;
+	    }
+	    pos = (pos + 1) & mask;
+	}
+
+	if ( delta == 0 ) {
+	    return 0;
+	}
+	checkedCount(0, delta, key);
+
+	if ( size >= mask ) {
+	    throw new IllegalStateException("IntCountMap is full");
+	}
+
+	keys[pos]   = key;
+	counts[pos] = delta;
+
+	if ( ++size > max_fill && keys.length < (1 << 30) ) {
+	    rehash(keys.length * 2);
+	}
+	return delta;
+
+    } // add
+
+
+
+    /**
+     * Count of a key, 0 if it is not in the map
+     */
+    public int get(int key) {
+
+	if ( key == FREE ) {
+	    return zero_count;
+	}
+
+	int pos = IntHashSet.mix(key) & mask;
+
+	int curr;
+	while ( (curr = keys[pos]) != FREE ) {
+	    if ( curr == key ) {
+		return counts[pos];
+	    }
+	    pos = (pos + 1) & mask;
+	}
+	return 0;
+
+    } // get
+
+
+
+    public boolean containsKey(int key) {
+
+	return get(key) > 0;
+    }
+
+
+
+    /**
+     * Remove a key; return its count, 0 if it was not in the map
+     */
+    public int remove(int key) {
+
+	int count = get(key);
+
+	if ( count > 0 ) {
+	    add(key, -count);
+	}
+	return count;
+
+    } // remove
+
+
+
+    /**
+     * Number of keys in the map
+     */
+    public int size() {
+
+	return size;
+    }
+
+
+    public boolean isEmpty() {
+
+	return size == 0;
+    }
+
+
+    /**
+     * Sum of the counts of all the keys
+     */
+    public long total() {
+
+	long total = zero_count;
+	for (int i = 0; i < keys.length; i++) {
+	    if ( keys[i] != FREE ) {
+		total += counts[i];
+	    }
+	}
+	return total;
+
+    } // total
+
+
+
+    /**
+     * Remove all the keys, keeping the tables allocated
+     */
+    public void clear() {
+
+	if ( size > 0 ) {
+	    Arrays.fill(keys, FREE);
+	    zero_count = 0;
+	    size = 0;
+	}
+
+    } // clear
+
+
+
+    /**
+     * Grow the tables, if needed, to hold expected keys below the load factor
+     */
+    public void ensureCapacity(int expected) {
+
+	int capacity = IntHashSet.tableSize(expected);
+
+	if ( capacity > keys.length ) {
+	    rehash(capacity);
+	}
+
+    } // ensureCapacity
+
+
+
+    /**
+     * Pass each key and its count to consumer, in table order
+     */
+    public void forEach(EntryConsumer consumer) {
+
+	if ( zero_count > 0 ) {
+	    consumer.accept(0, zero_count);
+	}
+
+	for (int i = 0; i < keys.length; i++) {
+	    if ( keys[i] != FREE ) {
+		consumer.accept(keys[i], counts[i]);
+	    }
+	}
+
+    } // forEach
+
+
+
+    /**
+     * Copy the keys to an array, in table order
+     */
+    public int[] keys() {
+
+	int[] arr = new int[size];
+	int n = 0;
+
+	if ( zero_count > 0 ) {
+	    arr[n++] = 0;
+	}
+
+	for (int key : keys) {
+	    if ( key != FREE ) {
+		arr[n++] = key;
+	    }
+	}
+
+	return arr;
+
+    } // keys
+
+
+
+    @Override
+    public String toString() {
+
+	StringBuilder sb = new StringBuilder("{");
+
+	forEach( (key, count) -> sb.append(sb.length() > 1 ? ", " : "").append(key).append("=").append(count) );
+
+	return sb.append("}").toString();
+
+    } // toString
+
+
+
+    //
+    // Helpers
+    //
+
+    /**
+     * count + delta, which must be neither negative nor overflow
+     */
+    private static int checkedCount(int count, int delta, int key) {
+
+	long sum = (long) count + delta;
+
+	if ( sum < 0 || sum > Integer.MAX_VALUE ) {
+	    throw new IllegalArgumentException("Count of " + key + " out of range: " + sum);
+	}
+	return (int) sum;
+
+    } // checkedCount
+
+
+
+    /**
+     * Close the gap left at pos by a removed key
+     */
+    private void shiftKeys(int pos) {
+
+	int last, slot, curr;
+
+	for (;;) {
+
+	    last = pos;
+	    pos = (pos + 1) & mask;
+
+	    for (;;) {
+
+		if ( (curr = keys[pos]) == FREE ) {
+		    keys[last] = FREE;
+		    return;
+		}
+
+		// Move curr back to last only if its home slot does not
+		// lie (cyclically) in the interval (last, pos]
+		slot = IntHashSet.mix(curr) & mask;
+		if ( last <= pos ? (last >= slot || slot > pos) : (last >= slot && slot > pos) ) {
+		    break;
+		}
+
+		pos = (pos + 1) & mask;
+	    }
+
+	    keys[last]   = curr;
+	    counts[last] = counts[pos];
+	}
+
+    } // shiftKeys
+
+
+
+    /**
+     * Move the keys and their counts to tables of a new size
+     */
+    private void rehash(int capacity) {
+
+	int[] old_keys = keys;
+	int[] old_counts = counts;
+
+	keys     = new int[capacity];
+	counts   = new int[capacity];
+	mask     = capacity - 1;
+	max_fill = (int) (capacity * LOAD_FACTOR);
+
+	for (int i = 0; i < old_keys.length; i++) {
+
+	    int key = old_keys[i];
+	    if ( key != FREE ) {
+		int pos = IntHashSet.mix(key) & mask;
+		while ( keys[pos] != FREE ) {
+		    pos = (pos + 1) & mask;
+		}
+		keys[pos]   = key;
+		counts[pos] = old_counts[i];
+	    }
+	}
+
+    } // rehash
+
+
+} // IntCountMap
@@ -0,0 +1,368 @@
+package gabriel.intersection.alg;
+
+import java.util.Arrays;
+
+
+/**
+ * Open-addressing hash set of primitive ints.
+ *
+ * The keys are stored directly in an int[] table and collisions
+ * are resolved by linear probing, so adding an element costs
+ * neither a boxed Integer nor a HashMap.Node. The key 0 is used
+ * to mark a free slot, hence it is tracked by a separate flag.
+ */
+public class IntHashSet {
+
+    // Marker for a free slot in the table
+    private static final int FREE = 0;
+
+    // The table is grown when it is more than half full
+    private static final float LOAD_FACTOR = 0.5F;
+
+    // Smallest table allocated by the constructor
+    private static final int MIN_CAPACITY = 16;
+
+
+    // Slots of the table; the length is a power of two
+    private int[] table;
+
+    // table.length - 1, used to reduce a hash to a slot
+    private int mask;
+
+    // Number of keys, including the key 0
+    private int size = 0;
+
+    // Whether the key 0 is in the set
+    private boolean has_zero = false;
+
+    // Number of keys that triggers a rehash
+    private int max_fill;
+
+
+    //
+    // Constructors
+    //
+    public IntHashSet (int expected) {
+
+	int capacity = tableSize(expected);
+
+	table    = new int[capacity];
+	mask     = capacity - 1;
+	max_fill = (int) (capacity * LOAD_FACTOR);
+    }
+
+    public IntHashSet () {
+
+	this(MIN_CAPACITY);
+    }
+
+
+
+    /**
+     * Scramble the bits of a key, so that sequential or clustered
+     * keys are spread over the whole table: the finalizer of murmur3 
+     * (fmix32), where each bit of the key changes each bit of the hash. 
+     * A single multiply leaves the high bits of the key out of the low 
+     * bits of the hash, and keys that are multiples of a power of two 
+     * out of its high bits, which the tables and the partitions all use
+     */
+    static int mix(int key) {
+
+	int h = key;
+	h ^= h >>> 16;
+	h *= 0x85EBCA6B;
+	h ^= h >>> 13;
+	h *= 0xC2B2AE35;
+	return h ^ (h >>> 16);
+
+    } // mix
+
+
+
+    /**
+     * Add a key; return true if the key was not already in the set
+     */
+    public boolean add(int key) {
+
+	if ( key == FREE ) {
+	    if ( has_zero ) {
+		return false;
+	    }
+	    has_zero = true;
+	    size++;
+	    return true;
+	}
+
+	int pos = mix(key) & mask;
+
+	int curr;
+	while ( (curr = table[pos]) != FREE ) {
+	    if ( curr == key ) {
+		return false;
+	    }
+	    pos = (pos + 1) & mask;
+	}
+
+	if ( size >= mask ) {
+	    throw new IllegalStateException("IntHashSet is full");
+	}
+
+	table[pos] = key;
+
+	if ( ++size > max_fill && table.length < (1 << 30) ) {
+	    rehash(table.length * 2);
+	}
+	return true;
+
+    } // add
+
+
+
+    /**
+     * Check if a key is in the set
+     */
+    public boolean contains(int key) {
+
+	if ( key == FREE ) {
+	    return has_zero;
+	}
+
+	int pos = mix(key) & mask;
+
+	int curr;
+	while ( (curr = table[pos]) != FREE ) {
+	    if ( curr == key ) {
+		return true;
+	    }
+	    pos = (pos + 1) & mask;
+	}
+	return false;
+
+    } // contains
+
+
+
+    /**
+     * Slot of a key in the table, or -1 if the key is not in the set;
+     * the key 0 has the slot table.length. A slot stays the key's until
+     * the set is changed, so the slots can index side tables of the keys
+     */
+    public int indexOf(int key) {
+
+	if ( key == FREE ) {
+	    return has_zero ? table.length : -1;
+	}
+
+	int pos = mix(key) & mask;
+
+	int curr;
+	while ( (curr = table[pos]) != FREE ) {
+	    if ( curr == key ) {
+		return pos;
+	    }
+	    pos = (pos + 1) & mask;
+	}
+	return -1;
+
+    } // indexOf
+
+
+
+    /**
+     * Number of slots returned by indexOf(): the table and the key 0
+     */
+    public int slots() {
+
+	return table.length + 1;
+    }
+
+
+
+    /**
+     * Remove a key; return true if the key was in the set.
+     *
+     * The keys that follow the removed one in its probe sequence
+     * are shifted back, so no tombstones are left in the table.
+     */
+    public boolean remove(int key) {
+
+	if ( key == FREE ) {
+	    if ( ! has_zero ) {
+		return false;
+	    }
+	    has_zero = false;
+	    size--;
+	    return true;
+	}
+
+	int pos = mix(key) & mask;
+
+	int curr;
+	while ( (curr = table[pos]) != FREE ) {
+	    if ( curr == key ) {
+		size--;
+		shiftKeys(pos);
+		return true;
+	    }
+	    pos = (pos + 1) & mask;
+	}
+	return false;
+
+    } // remove
+
+
+
+    /**
+     * Number of keys in the set
+     */
+    public int size() {
+
+	return size;
+    }
+
+
+    public boolean isEmpty() {
+
+	return size == 0;
+    }
+
+
+
+    /**
+     * Remove all the keys, keeping the table allocated
+     */
+    public void clear() {
+
+	if ( size > 0 ) {
+	    Arrays.fill(table, FREE);
+	    has_zero = false;
+	    size = 0;
+	}
+
+    } // clear
+
+
+
+    /**
+     * Grow the table, if needed, to hold expected keys below the load factor
+     */
+    public void ensureCapacity(int expected) {
+
+	int capacity = tableSize(expected);
+
+	if ( capacity > table.length ) {
+	    rehash(capacity);
+	}
+
+    } // ensureCapacity
+
+
+
+    /**
+     * Copy the keys to an array, in table order
+     */
+    public int[] toArray() {
+
+	int[] arr = new int[size];
+	int n = 0;
+
+	if ( has_zero ) {
+	    arr[n++] = 0;
+	}
+
+	for (int key : table) {
+	    if ( key != FREE ) {
+		arr[n++] = key;
+	    }
+	}
+
+	return arr;
+
+    } // toArray
+
+
+
+    //
+    // Helpers
+    //
+
+    /**
+     * Power of two table size that holds expected keys below the load factor
+     */
+    static int tableSize(int expected) {
+
+	long needed = (long) Math.ceil(Math.max(expected, 1) / LOAD_FACTOR);
+	int capacity = MIN_CAPACITY;
+
+	while ( capacity < needed && capacity < (1 << 30) ) {
+	    capacity <<= 1;
+	}
+
+	return capacity;
+
+    } // tableSize
+
+
+
+    /**
+     * Close the gap left at pos by a removed key
+     */
+    private void shiftKeys(int pos) {
+
+	int last, slot, curr;
+
+	for (;;) {
+
+	    last = pos;
+	    pos = (pos + 1) & mask;
+
+	    for (;;) {
+
+		if ( (curr = table[pos]) == FREE ) {
+		    table[last] = FREE;
+		    return;
+		}
+
+		// Move curr back to last only if its home slot does not
+		// lie (cyclically) in the interval (last, pos]
+		slot = mix(curr) & mask;
+		if ( last <= pos ? (last >= slot || slot > pos) : (last >= slot && slot > pos) ) {
+		    break;
+		}
+
+		pos = (pos + 1) & mask;
+	    }
+
+	    table[last] = curr;
+	}
+
+    } // shiftKeys
+
+
+
+    /**
+     * Move the keys to a table of a new size
+     */
+    private void rehash(int capacity) {
+
+	int[] old = table;
+
+	table    = new int[capacity];
+	mask     = capacity - 1;
+	max_fill = (int) (capacity * LOAD_FACTOR);
+
+	for (int key : old) {
+
+	    if ( key != FREE ) {
+		int pos = mix(key) & mask;
+		while ( table[pos] != FREE ) {
+		    pos = (pos + 1) & mask;
+		}
+		table[pos] = key;
+	    }
+	}
+
+    } // rehash
+
+
+} // IntHashSet
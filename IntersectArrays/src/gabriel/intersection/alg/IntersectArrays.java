@@ -10,6 +10,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.HashMap;
+import java.nio.IntBuffer;
+import java.util.function.IntUnaryOperator;
 
 
 /**
@@ -18,6 +20,9 @@ import java.util.HashMap;
  */
 public class IntersectArrays<T extends Comparable<? super T> > {
 
+    // Told of the elements hashed and probed by intersectArrays_size(); null for none
+    private IntersectListener listener = null;
+
 
     public static void main(String[] args) {
 	
@@ -52,12 +57,58 @@ public class IntersectArrays<T extends Comparable<? super T> > {
 	ia.printSet(result);
 
 
+	//
+	// Example: Intersect arrays of primitive ints
+	//
+
+	int[] int_arr1 = {1, 2, 6};
+	int[] int_arr2 = {10, 2, 5, 1};
+
+	count = ia.intersectArrays_size(int_arr1, int_arr2);
+	System.out.println("\n int intersection has size " + count );
+
+	int[] int_result = ia.intersectArrays(int_arr1, int_arr2);
+	System.out.println(" int intersection: " + Arrays.toString(int_result));
+
+
+	//
+	// Example: Intersect k arrays
+	//
+
+	Integer[] arr3 = {2, 7, 1, 1};
+
+	System.out.print("\n array 3: ");
+	ia.printArr(arr3);
+
+	System.out.print(" intersection of arrays 1, 2, 3: ");
+	ia.printSet(ia.intersectAll(arr1, arr2, arr3));
+
+	int[] int_arr3 = {2, 7, 1, 1};
+
+	System.out.println(" int intersection of arrays 1, 2, 3: " + 
+			   Arrays.toString(ia.intersectAll(int_arr1, int_arr2, int_arr3)));
+
+
     } // main()
 
 
 
     /**
-    * Generic code to intersect two arrays using a HashSet 
+     * Listener of intersectArrays_size(): it is told of the elements 
+     * hashed and probed, and of the size of the intersection found so 
+     * far, every PROGRESS_STEP elements; a cancelled listener stops 
+     * the intersection with a CancellationException
+     */
+    public void setListener(IntersectListener listener) {
+
+	this.listener = listener;
+    }
+
+
+
+    /**
+    * Generic code to intersect two arrays using a HashSet; 
+    * StreamingIntersectArrays streams the intersection instead
     */
     public Set<T> intersectArrays(T[] a, T[] b) {
 
@@ -92,22 +143,148 @@ public class IntersectArrays<T extends Comparable<? super T> > {
 
 	int result = 0;
 
-	// Convert array "a" to a hash map
-	for (T elem : a) {
-	    aMap.put(elem, 1);
+	// Convert array "a" to a hash map, by steps of the listener
+	for (int from = 0, step = step(a.length); from < a.length; from += step) {
+
+	    int to = from + Math.min(step, a.length - from);
+	    for (int i = from; i < to; i++) {
+		aMap.put(a[i], 1);
+	    }
+	    report(IntersectListener.Phase.HASH, to - from, -1);
 	}
 
 	// Iterate over "b", and count the element, if it is also in aMap
 	// and has not been seen already
-	for (T elem : b) {
-	    if ( aMap.containsKey(elem) ) {
+	for (int from = 0, step = step(b.length); from < b.length; from += step) {
+
+	    int to = from + Math.min(step, b.length - from);
+	    for (int i = from; i < to; i++) {
+
+		T elem = b[i];
+		if ( aMap.containsKey(elem) ) {
+
+		    if ( aMap.get(elem) == 1 ) {
+			result++;
+		    }
+
+		    Integer ct = aMap.get(elem);
+		    aMap.put(elem, ct+1);
+		}
+	    }
+	    report(IntersectListener.Phase.PROBE, to - from, result);
+	}
+
+	return result;
+
+    } // intersectArrays_size
+
+
+
+    /**
+    * Primitive version of intersectArrays(): array "a" is put in an 
+    * open-addressing IntHashSet, so no element is boxed. 
+    * The elements of the intersection are returned as an int[]
+    */
+    public int[] intersectArrays(int[] a, int[] b) {
 
-		if ( aMap.get(elem) == 1 ) {
+	IntHashSet aSet = new IntHashSet(initialCapacity(a.length));
+
+	int[] result = new int[Math.min(a.length, b.length)];
+	int n = 0;
+
+	// Convert array "a" to a hash set
+	for (int elem : a) {
+	    aSet.add(elem);
+	}
+
+	// Iterate over "b"; an element is removed from aSet the first time
+	// it is found, so each element of the intersection is passed once
+	for (int elem : b) {
+	    if ( aSet.remove(elem) ) {
+		result[n++] = elem;
+	    }
+	}
+
+	return Arrays.copyOf(result, n);
+
+    } // intersectArrays
+
+
+
+    /**
+    * Primitive version of intersectArrays_size()
+    */
+    public int intersectArrays_size(int[] a, int[] b) {
+
+	IntHashSet aSet = new IntHashSet(initialCapacity(a.length));
+
+	int result = 0;
+
+	// Convert array "a" to a hash set, by steps of the listener
+	for (int from = 0, step = step(a.length); from < a.length; from += step) {
+
+	    int to = from + Math.min(step, a.length - from);
+	    for (int i = from; i < to; i++) {
+		aSet.add(a[i]);
+	    }
+	    report(IntersectListener.Phase.HASH, to - from, -1);
+	}
+
+	// Iterate over "b", and count the element the first time it is
+	// found in aSet, removing it so that it is not counted again
+	for (int from = 0, step = step(b.length); from < b.length; from += step) {
+
+	    int to = from + Math.min(step, b.length - from);
+	    for (int i = from; i < to; i++) {
+		if ( aSet.remove(b[i]) ) {
 		    result++;
 		}
+	    }
+	    report(IntersectListener.Phase.PROBE, to - from, result);
+	}
+
+	return result;
+
+    } // intersectArrays_size
 
-		Integer ct = aMap.get(elem);
-		aMap.put(elem, ct+1);
+
+
+    /**
+    * Version of intersectArrays_size() for arrays in int array files: 
+    * the ints are read straight from the mapped files, so neither 
+    * array is copied to the heap, only the hash set of "a" is built
+    */
+    public int intersectArrays_size(IntArrayFile a, IntArrayFile b) {
+
+	IntHashSet aSet = new IntHashSet(initialCapacity((int) Math.min(a.size(), Integer.MAX_VALUE)));
+
+	int result = 0;
+
+	// Convert file "a" to a hash set
+	for (int k = 0; k < a.regions(); k++) {
+	    IntBuffer buf = a.region(k);
+	    for (int from = 0, n = buf.limit(), step = step(n); from < n; from += step) {
+
+		int to = from + Math.min(step, n - from);
+		for (int i = from; i < to; i++) {
+		    aSet.add(buf.get(i));
+		}
+		report(IntersectListener.Phase.HASH, to - from, -1);
+	    }
+	}
+
+	// Iterate over "b", counting and removing the elements found in aSet
+	for (int k = 0; k < b.regions(); k++) {
+	    IntBuffer buf = b.region(k);
+	    for (int from = 0, n = buf.limit(), step = step(n); from < n; from += step) {
+
+		int to = from + Math.min(step, n - from);
+		for (int i = from; i < to; i++) {
+		    if ( aSet.remove(buf.get(i)) ) {
+			result++;
+		    }
+		}
+		report(IntersectListener.Phase.PROBE, to - from, result);
 	    }
 	}
 
@@ -117,6 +294,158 @@ public class IntersectArrays<T extends Comparable<? super T> > {
 
 
 
+    /**
+    * Intersect k arrays. The arrays are taken from the smallest to the 
+    * biggest: the smallest one is put in a HashSet of candidates, and 
+    * each other array is probed against the candidates, keeping only 
+    * the candidates it contains; so the set shrinks at each step, and 
+    * the loop stops as soon as it is empty.
+    */
+    @SafeVarargs
+    public final Set<T> intersectAll(T[]... arrays) {
+
+	if ( arrays.length == 0 ) {
+	    return new HashSet<T>();
+	}
+
+	Integer[] order = bySize(arrays.length, i -> arrays[i].length);
+
+	// Candidates: the elements of the smallest array
+	Set<T> candidates = new HashSet<T>(Arrays.asList(arrays[order[0]]));
+
+	for (int k = 1; k < order.length && ! candidates.isEmpty(); k++) {
+
+	    Set<T> found = new HashSet<T>();
+
+	    // A candidate moves to "found" the first time it is seen
+	    for (T elem : arrays[order[k]]) {
+		if ( candidates.remove(elem) ) {
+		    found.add(elem);
+		}
+	    }
+
+	    candidates = found;
+	}
+
+	return candidates;
+
+    } // intersectAll
+
+
+
+    @SafeVarargs
+    public final int intersectAll_size(T[]... arrays) {
+
+	return intersectAll(arrays).size();
+
+    } // intersectAll_size
+
+
+
+    /**
+    * Primitive version of intersectAll(): the candidates are kept 
+    * in an IntHashSet, which is sized for the candidates left
+    */
+    public int[] intersectAll(int[]... arrays) {
+
+	if ( arrays.length == 0 ) {
+	    return new int[0];
+	}
+
+	Integer[] order = bySize(arrays.length, i -> arrays[i].length);
+
+	int[] smallest = arrays[order[0]];
+
+	IntHashSet candidates = new IntHashSet(initialCapacity(smallest.length));
+	for (int elem : smallest) {
+	    candidates.add(elem);
+	}
+
+	for (int k = 1; k < order.length && ! candidates.isEmpty(); k++) {
+
+	    IntHashSet found = new IntHashSet(candidates.size());
+
+	    for (int elem : arrays[order[k]]) {
+		if ( candidates.remove(elem) ) {
+		    found.add(elem);
+		}
+	    }
+
+	    candidates = found;
+	}
+
+	return candidates.toArray();
+
+    } // intersectAll
+
+
+
+    public int intersectAll_size(int[]... arrays) {
+
+	return intersectAll(arrays).length;
+
+    } // intersectAll_size
+
+
+
+    /**
+    * Indices 0 .. k-1 of k arrays, in increasing order of their sizes
+    */
+    static Integer[] bySize(int k, IntUnaryOperator size) {
+
+	Integer[] order = new Integer[k];
+	for (int i = 0; i < k; i++) {
+	    order[i] = i;
+	}
+
+	Arrays.sort(order, (i, j) -> Integer.compare(size.applyAsInt(i), size.applyAsInt(j)));
+
+	return order;
+
+    } // bySize
+
+
+
+    /**
+    * Elements processed between two reports: all of them, in one step, 
+    * when there is no listener
+    */
+    private int step(int n) {
+
+	return (listener == null) ? Math.max(n, 1) : IntersectListener.PROGRESS_STEP;
+    }
+
+
+    /**
+     * Report n elements processed in phase, and the size of the 
+     * intersection found so far (if found >= 0), to the listener
+     */
+    private void report(IntersectListener.Phase phase, int n, int found) {
+
+	if ( listener == null ) {
+	    return;
+	}
+	if ( found >= 0 ) {
+	    listener.found(found);
+	}
+	IntersectListener.report(listener, phase, n);
+
+    } // report
+
+
+
+    /**
+    * Initial capacity of the IntHashSet built from an array of length n:
+    * the arrays may hold many duplicates, so the set is not sized for n 
+    * distinct keys upfront, but is grown as needed beyond 1M keys
+    */
+    private static int initialCapacity(int n) {
+
+	return Math.min(n, 1 << 20);
+    }
+
+
+
 
 
     // 
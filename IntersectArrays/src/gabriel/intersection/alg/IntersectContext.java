@@ -0,0 +1,544 @@
+package gabriel.intersection.alg;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+
+/**
+ * Tables kept from one intersection to the next, one context per thread.
+ *
+ * IntersectArrays builds a new HashMap, or IntHashSet, for each
+ * intersection, and leaves it to the garbage collector. A context
+ * instead keeps its tables. In the table of objects, a slot is in use
+ * only if its stamp is the current generation of the table, so the
+ * table is cleared by moving to the next generation, in O(1) however
+ * big it is, and the stamps are reset only when the generation wraps
+ * around. The ints go to a pooled IntHashSet, cleared by filling its
+ * table: a stamp next to each int would double the table, and its cache
+ * misses cost more than the fill, a sequential write of 4 bytes per slot.
+ * The tables grow to the biggest array put in hash and keep their size,
+ * so once they have grown, repeated intersections of arrays of the same
+ * sizes allocate nothing: no table, no Map.Entry, no Integer.
+ *
+ * A context is not thread-safe: get() returns the context of the calling
+ * thread. So that a context does not keep the objects of its last caller 
+ * alive for as long as its thread, the keys are nulled at the end of each 
+ * intersection of objects: a fill of the table, like the clear of the ints.
+ */
+public class IntersectContext {
+
+    private static final ThreadLocal<IntersectContext> CONTEXTS =
+	ThreadLocal.withInitial(IntersectContext::new);
+
+    // Table grown when more than half full
+    private static final float LOAD_FACTOR = 0.5F;
+
+    // Smallest table
+    private static final int MIN_CAPACITY = 16;
+
+    // A table is first sized for at most this many keys, then grown as
+    // needed: the array in hash may hold duplicates
+    static final int MAX_INITIAL = 1 << 20;
+
+
+    // Set of ints, and its number of slots, to count its allocations
+    private IntHashSet int_set;
+    private int int_slots;
+
+    //
+    // Table of objects: the keys, and their stamps; a key is in the table
+    // if its stamp is gen, and was found in the array probed if its stamp
+    // is gen + 1
+    //
+    private Object[] obj_keys;
+    private int[] obj_stamps;
+    private int obj_gen;
+    private int obj_size;
+
+    // Stamp of the key null, in the table of objects
+    private int null_stamp;
+
+    // Told of the elements hashed and probed; null for none
+    private IntersectListener listener = null;
+
+    // Number of times the tables were allocated
+    private int allocations = 0;
+
+    // What the tables are kept for, e.g., an engine; null for anything
+    private Object purpose = null;
+
+
+
+    public IntersectContext () {
+
+	release();
+    }
+
+
+
+    /**
+     * The context of the calling thread
+     */
+    public static IntersectContext get() {
+
+	return CONTEXTS.get();
+    }
+
+
+
+    public static void main(String[] args) {
+
+	IntersectContext ctx = IntersectContext.get();
+
+	int[] arr1 = {1, 2, 6, 0, 0};
+	int[] arr2 = {10, 2, 5, 1, 0, 2};
+	Integer[] box1 = {1, 2, 6, null};
+	Integer[] box2 = {10, 2, 5, 1, null};
+
+	System.out.println("\n array 1: " + Arrays.toString(arr1));
+	System.out.println(" array 2: " + Arrays.toString(arr2));
+
+	int[] res = new int[arr1.length];
+	int n = ctx.intersectArrays(arr1, arr2, res);
+	System.out.println(" intersection: " + Arrays.toString(Arrays.copyOf(res, n)));
+	System.out.println(" boxed intersection of " + Arrays.toString(box1) + " and " +
+			   Arrays.toString(box2) + " has size " + ctx.intersectArrays_size(box1, box2));
+
+	//
+	// Repeated intersections, against IntersectArrays;
+	// after the first ones, no allocation
+	//
+	ArrayFactory factory = ArrayFactory.getArrayFactory(1 << 22, 42L);
+	int[] a = factory.getIntArray(1000000);
+	int[] b = factory.getIntArray(2000000);
+	Integer[] boxed_a = factory.getArray(1000000);
+	Integer[] boxed_b = factory.getArray(2000000);
+	int[] result = new int[a.length];
+
+	IntersectArrays<Integer> ia = new IntersectArrays<Integer>();
+	int expected = ia.intersectArrays_size(a, b);
+	int expected_boxed = ia.intersectArrays_size(boxed_a, boxed_b);
+
+	boolean ok = true;
+	for (int i = 0; i < 3; i++) {
+	    ok &= ctx.intersectArrays_size(a, b) == expected && ctx.intersectArrays_size(b, a) == expected
+		&& ctx.intersectArrays(a, b, result) == expected
+		&& ctx.intersectArrays_size(boxed_a, boxed_b) == expected_boxed;
+	}
+
+	long bytes = allocatedBytes();
+	long start = System.nanoTime();
+
+	int reps = 20;
+	for (int i = 0; i < reps; i++) {
+	    ok &= ctx.intersectArrays_size(a, b) == expected
+		&& ctx.intersectArrays_size(boxed_a, boxed_b) == expected_boxed;
+	}
+
+	long time = System.nanoTime() - start;
+	bytes = allocatedBytes() - bytes;
+
+	System.out.println("\n " + reps + " repeated intersections: " + (time / reps / 1000000) + " ms each, " +
+			   ((bytes < 0) ? "n/a" : String.valueOf(bytes)) + " bytes allocated, tables allocated " +
+			   ctx.allocations() + " times");
+	System.out.println(" repeated intersections: " + (ok ? "ok" : "WRONG"));
+
+	//
+	// The keys of the last intersection are not kept alive
+	//
+	WeakReference<Object> key = new WeakReference<Object>(boxKey(ctx));
+	System.gc();
+	System.out.println(" keys released after the run: " + ((key.get() == null) ? "ok" : "WRONG"));
+
+	//
+	// Through IntersectDriver, which checks its plan at each run: 
+	// still no allocation
+	//
+	IntersectDriver driver = new IntersectDriver(1 << 22, IntersectEngine.HASH_INT);
+	for (int i = 0; i < 3; i++) {
+	    driver.doIntersection(a, b, true);
+	}
+
+	// Bytes allocated by allocatedBytes() itself
+	long probe = -allocatedBytes() + allocatedBytes();
+
+	bytes = allocatedBytes();
+	for (int i = 0; i < reps; i++) {
+	    ok &= driver.doIntersection(a, b, true) == expected;
+	}
+	bytes = allocatedBytes() - bytes - probe;
+
+	System.out.println(" " + reps + " runs of the driver: " + bytes + " bytes allocated: " + 
+			   ((ok && bytes <= 0) ? "ok" : "WRONG"));
+
+    } // main()
+
+
+    // Intersect a new key with itself in ctx, and return the key
+    private static Object boxKey(IntersectContext ctx) {
+
+	Object[] keys = {new Object()};
+	ctx.intersectArrays_size(keys, keys);
+	return keys[0];
+    }
+
+
+    // Bytes allocated by the current thread, or -1 if unknown
+    private static long allocatedBytes() {
+
+	ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	if ( threads instanceof com.sun.management.ThreadMXBean ) {
+	    return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+	return -1L;
+
+    } // allocatedBytes
+
+
+
+    /**
+     * Listener of the intersections, as in IntersectArrays
+     */
+    public void setListener(IntersectListener listener) {
+
+	this.listener = listener;
+    }
+
+
+    /**
+     * Number of times the tables were allocated, or grown
+     */
+    public int allocations() {
+
+	return allocations;
+    }
+
+
+    /**
+     * Slots of the tables kept for the next intersections, of ints and of 
+     * objects: a run allocates new tables only if it needs bigger ones
+     */
+    public int intSlots() {
+
+	return int_set.slots();
+    }
+
+    public int objectSlots() {
+
+	return obj_keys.length;
+    }
+
+
+    /**
+     * Keep the tables for the runs of a purpose, e.g., an engine and the 
+     * array it puts in hash, and drop them first if they were kept for 
+     * another one. Return whether they were dropped
+     */
+    public boolean keepFor(Object purpose) {
+
+	boolean other = (this.purpose != null) && ! this.purpose.equals(purpose);
+
+	if ( other ) {
+	    release();
+	}
+	this.purpose = purpose;
+
+	return other;
+
+    } // keepFor
+
+
+    /**
+     * Drop the tables, and the keys they refer to
+     */
+    public void release() {
+
+	int_set   = new IntHashSet(MIN_CAPACITY);
+	int_slots = int_set.slots();
+
+	obj_keys   = new Object[MIN_CAPACITY];
+	obj_stamps = new int[MIN_CAPACITY];
+	obj_gen    = 0;
+
+	purpose = null;
+
+    } // release
+
+
+
+    //
+    // Arrays of primitive ints
+    //
+
+    /**
+     * Size of the intersection; array "a" is put in hash
+     */
+    public int intersectArrays_size(int[] a, int[] b) {
+
+	return intersect(a, b, null);
+    }
+
+
+    /**
+     * Write the elements of the intersection to result, which must hold
+     * the smaller array; return their number
+     */
+    public int intersectArrays(int[] a, int[] b, int[] result) {
+
+	if ( result.length < Math.min(a.length, b.length) ) {
+	    throw new IllegalArgumentException("Result array too small: " + result.length +
+					       " < " + Math.min(a.length, b.length));
+	}
+
+	return intersect(a, b, result);
+
+    } // intersectArrays
+
+
+
+    private int intersect(int[] a, int[] b, int[] result) {
+
+	IntHashSet aSet = int_set;
+
+	aSet.clear();
+	aSet.ensureCapacity(Math.min(a.length, MAX_INITIAL));
+
+	// Put "a" in the table, by steps of the listener
+	for (int from = 0, step = step(a.length); from < a.length; from += step) {
+
+	    int to = from + Math.min(step, a.length - from);
+	    for (int i = from; i < to; i++) {
+		aSet.add(a[i]);
+	    }
+	    report(IntersectListener.Phase.HASH, to - from, -1);
+	}
+
+	if ( aSet.slots() != int_slots ) {
+	    int_slots = aSet.slots();
+	    allocations++;
+	}
+
+	int n = 0;
+
+	// Probe "b": a key is removed the first time it is found
+	for (int from = 0, step = step(b.length); from < b.length; from += step) {
+
+	    int to = from + Math.min(step, b.length - from);
+	    for (int i = from; i < to; i++) {
+		if ( aSet.remove(b[i]) ) {
+		    if ( result != null ) {
+			result[n] = b[i];
+		    }
+		    n++;
+		}
+	    }
+	    report(IntersectListener.Phase.PROBE, to - from, n);
+	}
+
+	return n;
+
+    } // intersect
+
+
+
+    //
+    // Arrays of objects
+    //
+
+    /**
+     * Size of the intersection, by equals() and hashCode(); array "a" is put in hash
+     */
+    public <T> int intersectArrays_size(T[] a, T[] b) {
+
+	clearObjects(Math.min(a.length, MAX_INITIAL));
+
+	try {
+	    for (int from = 0, step = step(a.length); from < a.length; from += step) {
+
+		int to = from + Math.min(step, a.length - from);
+		for (int i = from; i < to; i++) {
+		    addObject(a[i]);
+		}
+		report(IntersectListener.Phase.HASH, to - from, -1);
+	    }
+
+	    int n = 0;
+
+	    for (int from = 0, step = step(b.length); from < b.length; from += step) {
+
+		int to = from + Math.min(step, b.length - from);
+		for (int i = from; i < to; i++) {
+		    if ( claimObject(b[i]) ) {
+			n++;
+		    }
+		}
+		report(IntersectListener.Phase.PROBE, to - from, n);
+	    }
+
+	    return n;
+	}
+	finally {
+	    // The stamps stay; only the references to the caller's keys go
+	    if ( obj_size > 0 ) {
+		Arrays.fill(obj_keys, null);
+	    }
+	}
+
+    } // intersectArrays_size
+
+
+
+    private void clearObjects(int expected) {
+
+	int capacity = IntHashSet.tableSize(expected);
+
+	if ( capacity > obj_keys.length ) {
+	    obj_keys   = new Object[capacity];
+	    obj_stamps = new int[capacity];
+	    obj_gen    = 0;
+	    allocations++;
+	}
+
+	obj_gen = nextGeneration(obj_gen, obj_stamps);
+	obj_size = 0;
+	null_stamp = 0;
+
+    } // clearObjects
+
+
+    private void addObject(Object key) {
+
+	if ( key == null ) {
+	    if ( null_stamp < obj_gen ) {
+		null_stamp = obj_gen;
+	    }
+	    return;
+	}
+
+	int mask = obj_keys.length - 1;
+	int pos = IntHashSet.mix(key.hashCode()) & mask;
+
+	while ( obj_stamps[pos] >= obj_gen ) {
+	    if ( key.equals(obj_keys[pos]) ) {
+		return;
+	    }
+	    pos = (pos + 1) & mask;
+	}
+
+	obj_keys[pos]   = key;
+	obj_stamps[pos] = obj_gen;
+
+	if ( ++obj_size > obj_keys.length * LOAD_FACTOR && obj_keys.length < (1 << 30) ) {
+	    growObjects();
+	}
+
+    } // addObject
+
+
+    private boolean claimObject(Object key) {
+
+	if ( key == null ) {
+	    if ( null_stamp == obj_gen ) {
+		null_stamp = obj_gen + 1;
+		return true;
+	    }
+	    return false;
+	}
+
+	int mask = obj_keys.length - 1;
+	int pos = IntHashSet.mix(key.hashCode()) & mask;
+
+	int stamp;
+	while ( (stamp = obj_stamps[pos]) >= obj_gen ) {
+	    if ( key.equals(obj_keys[pos]) ) {
+		if ( stamp == obj_gen ) {
+		    obj_stamps[pos] = obj_gen + 1;
+		    return true;
+		}
+		return false;
+	    }
+	    pos = (pos + 1) & mask;
+	}
+	return false;
+
+    } // claimObject
+
+
+    private void growObjects() {
+
+	Object[] old_keys = obj_keys;
+	int[] old_stamps = obj_stamps;
+	int old_gen = obj_gen;
+
+	obj_keys   = new Object[old_keys.length * 2];
+	obj_stamps = new int[old_keys.length * 2];
+	obj_gen    = nextGeneration(0, obj_stamps);
+	allocations++;
+
+	// The null key keeps its state in the new generation
+	if ( null_stamp >= old_gen ) {
+	    null_stamp = obj_gen + (null_stamp - old_gen);
+	}
+
+	int mask = obj_keys.length - 1;
+
+	for (int i = 0; i < old_keys.length; i++) {
+
+	    if ( old_stamps[i] >= old_gen ) {
+		int pos = IntHashSet.mix(old_keys[i].hashCode()) & mask;
+		while ( obj_stamps[pos] >= obj_gen ) {
+		    pos = (pos + 1) & mask;
+		}
+		obj_keys[pos]   = old_keys[i];
+		obj_stamps[pos] = obj_gen + (old_stamps[i] - old_gen);
+	    }
+	}
+
+    } // growObjects
+
+
+
+    //
+    // Helpers
+    //
+
+    /**
+     * The generation after gen: it takes two stamps, gen and gen + 1,
+     * so every older stamp is below it; when the stamps would overflow,
+     * they are reset and the generations start over
+     */
+    private static int nextGeneration(int gen, int[] stamps) {
+
+	if ( gen >= Integer.MAX_VALUE - 3 ) {
+	    Arrays.fill(stamps, 0);
+	    gen = 0;
+	}
+
+	return gen + 2;
+
+    } // nextGeneration
+
+
+
+    private int step(int n) {
+
+	return (listener == null) ? Math.max(n, 1) : IntersectListener.PROGRESS_STEP;
+    }
+
+
+    private void report(IntersectListener.Phase phase, int n, int found) {
+
+	if ( listener == null ) {
+	    return;
+	}
+	if ( found >= 0 ) {
+	    listener.found(found);
+	}
+	IntersectListener.report(listener, phase, n);
+
+    } // report
+
+
+} // IntersectContext
@@ -2,12 +2,63 @@ package gabriel.intersection.alg;
 
 import java.util.*;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
 import gabriel.intersection.alg.*;
 
 public class IntersectDriver {
 
     private int random_range = 1000;
 
+    // Algorithm used to intersect the arrays
+    private IntersectEngine engine = IntersectEngine.HASH;
+
+    // Whether the sorted engines sort their input first
+    private boolean sort_input = true;
+
+    // Number of threads used by the PARALLEL engine; 0 for one per processor
+    private int parallelism = 0;
+
+    // Whether to also time the single-threaded IntersectArrays baseline
+    private boolean compare_baseline = false;
+
+    // Time of the baseline and speedup of the engine over it, in the last run
+    private float baseline_time = 0.0F;
+    private float speedup = 0.0F;
+
+    // Chooses the engine when the engine is AUTO
+    private IntersectPlanner planner = new IntersectPlanner();
+
+    // Plan of the last run
+    private IntersectPlan last_plan = null;
+
+    // Last plan of doIntersection(int[], int[], boolean), and what it was
+    // made for, so that repeated intersections of the same sizes reuse it
+    private IntersectPlan shape_plan = null;
+    private final long[] plan_shape = new long[9];
+    private final long[] shape = new long[9];
+
+    // Steps of the free heap in the shape of a plan: 64 MB; the free heap 
+    // is read from the Runtime totals, which allocates nothing
+    private static final int HEAP_STEP_BITS = 26;
+
+    // Heap for joining one pair of partitions of the SPILL engine; 0 for half the free heap
+    private long spill_budget = 0L;
+
+    // Directory of the temporary files of the SPILL engine; null for java.io.tmpdir
+    private File spill_dir = null;
+
+    // Distribution of the random arrays
+    private Distribution distribution = Distribution.UNIFORM;
+
+    // Seed of the random arrays; null for a new seed at each run
+    private Long seed = null;
+
+    // Told of the progress of a run; null for none
+    private IntersectListener listener = null;
+
 
     //
     // Constructors
@@ -26,6 +77,135 @@ public class IntersectDriver {
     }
 
 
+    public IntersectDriver (int n, IntersectEngine engine) {
+
+	this(n);
+	setEngine(engine);
+    }
+
+
+
+    //
+    // Select the algorithm
+    //
+    public void setEngine(IntersectEngine engine) {
+
+	if ( engine != null ) {
+	    this.engine = engine;
+	}
+    }
+
+    public IntersectEngine getEngine() {
+
+	return engine;
+    }
+
+
+    /**
+     * Whether the sorted engines (MERGE, GALLOP, SORTED, COMPRESSED) should 
+     * sort the arrays with Arrays.parallelSort before intersecting them; 
+     * turn it off only when the arrays are known to be sorted already. 
+     * A sorted copy is intersected: the arrays given are left as they are
+     */
+    public void setSortInput(boolean sort) {
+
+	sort_input = sort;
+    }
+
+
+    /**
+     * Number of threads used by the PARALLEL engine; 
+     * 0 (the default) uses one thread per available processor
+     */
+    public void setParallelism(int n) {
+
+	parallelism = Math.max(n, 0);
+	planner = new IntersectPlanner(parallelism);
+    }
+
+    public int getParallelism() {
+
+	return parallelism;
+    }
+
+
+
+    /**
+     * When set, buildAndIntesect() also times the single-threaded 
+     * IntersectArrays.intersectArrays_size() on the same arrays, 
+     * and records the speedup of the engine over it
+     */
+    public void setCompareBaseline(boolean compare) {
+
+	compare_baseline = compare;
+    }
+
+    // Time taken by the baseline in the last run, in seconds
+    public float getBaselineTime() {
+
+	return baseline_time;
+    }
+
+    // Baseline time divided by engine time in the last run (0 if unknown)
+    public float getSpeedup() {
+
+	return speedup;
+    }
+
+
+    /**
+     * The plan of the last run: the engine chosen by the planner when the 
+     * engine is AUTO, or the engine set by the user, with its estimated cost
+     */
+    public IntersectPlan getLastPlan() {
+
+	return last_plan;
+    }
+
+
+    /**
+     * Memory budget and directory of the temporary files of the SPILL engine
+     */
+    public void setSpillBudget(long bytes) {
+
+	spill_budget = Math.max(bytes, 0L);
+    }
+
+    public void setSpillDir(File dir) {
+
+	spill_dir = dir;
+    }
+
+
+    /**
+     * Distribution and seed of the random arrays built by buildAndIntesect(); 
+     * with a seed, every run intersects the same arrays
+     */
+    public void setDistribution(Distribution dist) {
+
+	if ( dist != null ) {
+	    distribution = dist;
+	}
+    }
+
+    public void setSeed(Long seed) {
+
+	this.seed = seed;
+    }
+
+
+    /**
+     * Listener told of the elements generated, hashed and probed, and of 
+     * the size of the intersection found so far; cancelling it stops the 
+     * run with a CancellationException. IntersectArrays (HASH, HASH_INT) 
+     * and the SPILL engine report as they go, the other engines once done.
+     */
+    public void setListener(IntersectListener listener) {
+
+	this.listener = listener;
+    }
+
+
 
 
     /** 
@@ -37,18 +217,48 @@ public class IntersectDriver {
 	float time = 0.0F;
 
 	//
-	// 1. Check memory
+	// 1. Plan the run and check memory
 	//
-	checkMemory(sizes, array_A);
+	IntersectPlan plan = plan(sizes[0], sizes[1], random_range, false, false, array_A);
+	long freed = releaseContext(plan);
+	if ( freed >= 0 ) {
+	    plan = plan(sizes[0], sizes[1], random_range, false, false, array_A, freed);
+	}
+	last_plan = plan;
+
+	checkMemory(sizes, plan, random_range);
+
+	//
+	// The SPILL engine streams the arrays to disk as it generates them
+	//
+	if ( plan.getEngine() == IntersectEngine.SPILL ) {
+	    return spillAndIntersect(sizes, plan.isHashA());
+	}
 
 	try {
 
 	    //
 	    // 2. Allocate and initialize the arrays to intersect
 	    //
-	    ArrayFactory factory = ArrayFactory.getArrayFactory(random_range);
-	    Integer[] arr_a = factory.getArray(sizes[0]);
-	    Integer[] arr_b = factory.getArray(sizes[1]);
+	    ArrayFactory factory = arrayFactory();
+
+	    Integer[] arr_a = null, arr_b = null;
+	    int[] int_a = null, int_b = null;
+	    CompressedIntArray cmp_a = null, cmp_b = null;
+
+	    if ( plan.getEngine() == IntersectEngine.HASH ) {
+		arr_a = factory.getArray(sizes[0]);
+		arr_b = factory.getArray(sizes[1]);
+	    }
+	    else if ( plan.getEngine() == IntersectEngine.COMPRESSED ) {
+		// Only the compressed arrays are kept
+		cmp_a = compressed(factory.getIntArray(sizes[0]), false);
+		cmp_b = compressed(factory.getIntArray(sizes[1]), false);
+	    }
+	    else {
+		int_a = factory.getIntArray(sizes[0]);
+		int_b = factory.getIntArray(sizes[1]);
+	    }
 	    
 	
 	    //
@@ -56,19 +266,39 @@ public class IntersectDriver {
 	    // 
 	    
 	    // 3.1 Set start time
-	    long start_time = System.currentTimeMillis();
+	    long start_time = System.nanoTime();
 	    
 	    // 3.2 Perform intersection
-	    int n_res = doIntersection(arr_a, arr_b, array_A);
+	    int n_res;
+	    if ( plan.getEngine() == IntersectEngine.HASH ) {
+		n_res = doIntersection(arr_a, arr_b, plan.isHashA());
+	    }
+	    else if ( plan.getEngine() == IntersectEngine.COMPRESSED ) {
+		n_res = reported(cmp_a.intersect_size(cmp_b), sizes[0], sizes[1]);
+	    }
+	    else {
+		n_res = doIntersection(int_a, int_b, plan, random_range);
+	    }
 	    sizes[2] = n_res;
 	    //System.out.println("# doIntersect() returned " + n_res);
 	    
 
 	    // 3.3 Set end time
-	    long end_time = System.currentTimeMillis();
+	    long end_time = System.nanoTime();
 
 	    // 3.4 Find time taken by doIntersect
-	    time = (end_time - start_time) / 1000F;
+	    time = (end_time - start_time) / 1e9F;
+
+	    // 3.5 Time the single-threaded baseline on the same arrays;
+	    //     ROARING is measured against the HashSet of boxed Integers
+	    if ( compare_baseline && plan.getEngine() == IntersectEngine.ROARING ) {
+		arr_a = boxed(int_a);
+		arr_b = boxed(int_b);
+		int_a = int_b = null;
+	    }
+	    if ( compare_baseline && cmp_a == null ) {
+		timeBaseline(arr_a, arr_b, int_a, int_b, plan.isHashA(), time);
+	    }
 	}
 
 	catch ( OutOfMemoryError err) {
@@ -82,27 +312,124 @@ public class IntersectDriver {
 
 
 
+    /**
+     * Intersect the arrays in two int array files (see IntArrayFile), 
+     * rather than random arrays: sizes[0] and sizes[1] are set to the 
+     * sizes of the files, and sizes[2] to the size of the intersection. 
+     * The sortedness and the range of the values are taken from the 
+     * headers of the files. HASH_INT, and MERGE and COMPRESSED on sorted 
+     * files, read the ints straight from the mapped files; SPILL streams them to its 
+     * partitions; the other engines copy them to arrays in the heap first. 
+     * The time returned includes reading the ints.
+     */
+    public float intersectFiles(File file_a, File file_b, int[] sizes, boolean array_A) 
+	throws IOException, OutOfMemoryError {
+
+	IntArrayFile a = IntArrayFile.open(file_a);
+	IntArrayFile b = IntArrayFile.open(file_b);
+
+	return intersectFiles(a, b, sizes, array_A);
+
+    } // intersectFiles
+
+
+
+    public float intersectFiles(IntArrayFile a, IntArrayFile b, int[] sizes, boolean array_A) 
+	throws OutOfMemoryError {
+
+	if ( a.size() > Integer.MAX_VALUE || b.size() > Integer.MAX_VALUE ) {
+	    throw new IllegalArgumentException("Files of more than 2^31 ints are not supported");
+	}
+
+	sizes[0] = (int) a.size();
+	sizes[1] = (int) b.size();
+
+	// The BITMAP engine needs both files in a bounded range
+	int range = (a.range() > 0 && b.range() > 0) ? Math.max(a.range(), b.range()) : 0;
+
+	//
+	// 1. Plan the run and check memory
+	//
+	IntersectPlan plan = plan(sizes[0], sizes[1], range, a.isSorted(), b.isSorted(), array_A);
+	long freed = releaseContext(plan);
+	if ( freed >= 0 ) {
+	    plan = plan(sizes[0], sizes[1], range, a.isSorted(), b.isSorted(), array_A, freed);
+	}
+	last_plan = plan;
+
+	checkMemory(sizes, plan, range);
+
+	IntersectEngine eng = plan.getEngine();
+	boolean array_a_hash = plan.isHashA();
+
+	if ( eng == IntersectEngine.BITMAP && range <= 0 ) {
+	    throw new IllegalArgumentException("The BITMAP engine needs values in [0, " + Integer.MAX_VALUE + ")");
+	}
+
+	//
+	// 2. Find the intersection
+	//
+	long start_time = System.nanoTime();
+
+	try {
+
+	    if ( eng == IntersectEngine.HASH_INT ) {
+		IntersectArrays<Integer> intersect = new IntersectArrays<Integer>();
+		intersect.setListener(listener);
+		sizes[2] = array_a_hash ? intersect.intersectArrays_size(a, b) : intersect.intersectArrays_size(b, a);
+	    }
+	    else if ( eng == IntersectEngine.COMPRESSED && a.isSorted() && b.isSorted() ) {
+		sizes[2] = reported(CompressedIntArray.of(a).intersect_size(CompressedIntArray.of(b)), sizes[0], sizes[1]);
+	    }
+	    else if ( eng == IntersectEngine.MERGE && a.isSorted() && b.isSorted() ) {
+		sizes[2] = reported(new SortedIntersectArrays().intersectMerge_size(a, b), sizes[0], sizes[1]);
+	    }
+	    else if ( eng == IntersectEngine.SPILL ) {
+		sizes[2] = (int) spillFiles(array_a_hash ? a : b, array_a_hash ? b : a);
+	    }
+	    else if ( eng == IntersectEngine.HASH ) {
+		sizes[2] = doIntersection(boxed(a), boxed(b), array_a_hash);
+	    }
+	    else {
+		sizes[2] = doIntersection(a.toArray(), b.toArray(), plan, range);
+	    }
+	}
+
+	catch ( OutOfMemoryError err) {
+	    throw new OutOfMemoryError("Not enough memory for arrays A and B and HashSet");
+	}
+
+	long end_time = System.nanoTime();
+
+	return (end_time - start_time) / 1e9F;
+
+    } // intersectFiles
+
+
+
     /**
      * Intersect two arrays, when the arrays are already filled in
      */
     public int doIntersection (Integer[] arr_a, Integer[] arr_b, boolean array_a_hash) {
 
-	IntersectArrays<Integer> intersect = new IntersectArrays<Integer>();
+	// The tables of the thread are reused from run to run
+	IntersectContext intersect = IntersectContext.get();
+	intersect.setListener(listener);
 
-        //Set<Integer> s;
-        int size;
+	int size;
 
-	// To find the elements of the intersection, invoke intersectArrays()
-	if ( array_a_hash) {
-	    //s = intersect.intersectArrays(arr_a, arr_b);
-	    size = intersect.intersectArrays_size(arr_a, arr_b);
+	try {
+	    if ( array_a_hash) {
+		size = intersect.intersectArrays_size(arr_a, arr_b);
+	    }
+	    else {
+		size = intersect.intersectArrays_size(arr_b, arr_a);
+	    }
 	}
-	else {
-	    //s = intersect.intersectArrays(arr_b, arr_a);
-	    size = intersect.intersectArrays_size(arr_b, arr_a);
+	finally {
+	    intersect.setListener(null);
 	}
 
-	//return s.size();
 	return size;
 
     }  // doIntersection
@@ -110,56 +437,566 @@ public class IntersectDriver {
 
 
     /**
-     * Check enough memory: before actually allocating the 
-     * two arrays and the HashSet, check ifthere is enough 
-     * space and throw OutOfMemoryError id there is not.
+     * Intersect two arrays of primitive ints, when the arrays are already filled in; 
+     * if the engine is AUTO, the planner chooses the engine and the array put in hash
      */
-    private void checkMemory(int[] sizes, boolean array_A) throws OutOfMemoryError {
+    public int doIntersection (int[] arr_a, int[] arr_b, boolean array_a_hash) {
+
+	boolean sorted = (engine == IntersectEngine.AUTO);
+	boolean sorted_a = sorted && SortedIntersectArrays.isSorted(arr_a);
+	boolean sorted_b = sorted && SortedIntersectArrays.isSorted(arr_b);
+
+	// Plan only when the sizes, the engine, the settings or the free heap change;
+	// a plan made with more free heap may no longer fit
+	shape[0] = arr_a.length;
+	shape[1] = arr_b.length;
+	shape[2] = random_range;
+	shape[3] = sorted_a ? 1 : 0;
+	shape[4] = sorted_b ? 1 : 0;
+	shape[5] = array_a_hash ? 1 : 0;
+	shape[6] = engine.ordinal();
+	shape[7] = parallelism;
+	shape[8] = MemoryFootprint.available() >> HEAP_STEP_BITS;
+
+	if ( shape_plan == null || ! Arrays.equals(shape, plan_shape) ) {
+	    shape_plan = plan(arr_a.length, arr_b.length, random_range, sorted_a, sorted_b, array_a_hash);
+	    long freed = releaseContext(shape_plan);
+	    if ( freed >= 0 ) {
+		shape_plan = plan(arr_a.length, arr_b.length, random_range, sorted_a, sorted_b, array_a_hash, freed);
+	    }
+	    System.arraycopy(shape, 0, plan_shape, 0, shape.length);
+	}
+	last_plan = shape_plan;
 
-	long free = Runtime.getRuntime().freeMemory();
+	return doIntersection(arr_a, arr_b, shape_plan, random_range);
 
-	//System.out.println("\nsize_a =  " + sizes[0]);
-	//System.out.println("size_b =  " + sizes[1]);
+    }  // doIntersection
 
-	//
-	// Compute needed mem
-	//
-	//  one integer takes 32 bits, i.e., 4 Bytes
-	//  there is an overhead of 16 bytes per array (e.g., for array length)
-	//
-	long mem_a = 16L + sizes[0] * 4L; 
-	long mem_b = 16L + sizes[1] * 4L;
 
-	long mem_hash_a = (long) (1.2 * mem_a);
-        long mem_hash_b = (long) (1.2 * mem_b);
 
-	long mem_hash_min = Math.min(mem_hash_a, mem_hash_b);
+    /**
+     * Intersect two arrays of primitive ints, with values in [0, range), 
+     * as set out by a plan
+     */
+    private int doIntersection (int[] arr_a, int[] arr_b, IntersectPlan plan, int range) {
+
+	IntersectEngine eng = plan.getEngine();
+	boolean array_a_hash = plan.isHashA();
+
+	int n_hash  = array_a_hash ? arr_a.length : arr_b.length;
+	int n_probe = array_a_hash ? arr_b.length : arr_a.length;
+
+	if ( eng.isSorted() ) {
+	    return reported(doSortedIntersection(eng, arr_a, arr_b), n_hash, n_probe);
+	}
 
-	long mem_hash = mem_hash_b;
-	if (array_A) {
-	    mem_hash = mem_hash_a;
+	if ( eng == IntersectEngine.COMPRESSED ) {
+	    return reported(compressed(arr_a, true).intersect_size(compressed(arr_b, true)), n_hash, n_probe);
 	}
 
-        long mem_total  = mem_a + mem_b + mem_hash;
-	//System.out.println("\nArrays + HashSet = " + mem_total);
+	if ( eng == IntersectEngine.ROARING ) {
+	    // Built within the time, like the hash of the hash engines
+	    long size = RoaringIntSet.of(arr_a).andCardinality(RoaringIntSet.of(arr_b));
+	    return reported((int) size, n_hash, n_probe);
+	}
 
-	if ( mem_total > free ) {
+	if ( eng == IntersectEngine.BITMAP ) {
+	    return reported(new BitmapIntersectArrays(range).intersectArrays_size(arr_a, arr_b), n_hash, n_probe);
+	}
+
+	if ( eng == IntersectEngine.PARALLEL ) {
+	    return reported(doParallelIntersection(arr_a, arr_b, array_a_hash), n_hash, n_probe);
+	}
 
-	    if ( mem_a + mem_b + mem_hash_min < free ) {
+	if ( eng == IntersectEngine.RADIX ) {
+	    return reported(doRadixIntersection(arr_a, arr_b, array_a_hash), n_hash, n_probe);
+	}
+
+	if ( eng == IntersectEngine.FILTERED ) {
+	    int size = new FilteredIntersectArrays().intersectArrays_size
+		(array_a_hash ? arr_a : arr_b, array_a_hash ? arr_b : arr_a);
+	    return reported(size, n_hash, n_probe);
+	}
+
+	if ( eng == IntersectEngine.SPILL ) {
+	    try {
+		long size = SpillingIntersectArrays.intersectArrays_size
+		    (array_a_hash ? arr_a : arr_b, array_a_hash ? arr_b : arr_a, spillBudget(), spill_dir);
+		return reported((int) size, n_hash, n_probe);
+	    }
+	    catch (IOException ex) {
+		throw new UncheckedIOException(ex);
+	    }
+	}
+
+	// HASH_INT: the tables of the thread are reused from run to run
+	IntersectContext intersect = IntersectContext.get();
+	intersect.setListener(listener);
+
+	int size;
+
+	try {
+	    if ( array_a_hash) {
+		size = intersect.intersectArrays_size(arr_a, arr_b);
+	    }
+	    else {
+		size = intersect.intersectArrays_size(arr_b, arr_a);
+	    }
+	}
+	finally {
+	    intersect.setListener(null);
+	}
+
+	return size;
+
+    }  // doIntersection
+
+
+
+    /**
+     * Intersect two arrays of primitive ints with the PARALLEL engine; 
+     * the buckets of the array put in hash are hashed, the others probed
+     */
+    private int doParallelIntersection (int[] arr_a, int[] arr_b, boolean array_a_hash) {
+
+	ParallelIntersectArrays intersect = new ParallelIntersectArrays(parallelism);
+
+	try {
+	    if ( array_a_hash ) {
+		return intersect.intersectArrays_size(arr_a, arr_b);
+	    }
+	    else {
+		return intersect.intersectArrays_size(arr_b, arr_a);
+	    }
+	}
+	finally {
+	    intersect.shutdown();
+	}
+
+    }  // doParallelIntersection
+
+
+
+    /**
+     * Intersect two arrays of primitive ints with the RADIX engine, on as 
+     * many threads as PARALLEL; the partitions of the array put in hash 
+     * are hashed, the others probed
+     */
+    private int doRadixIntersection (int[] arr_a, int[] arr_b, boolean array_a_hash) {
+
+	RadixIntersectArrays intersect = new RadixIntersectArrays(parallelism);
+
+	try {
+	    if ( array_a_hash ) {
+		return intersect.intersectArrays_size(arr_a, arr_b);
+	    }
+	    else {
+		return intersect.intersectArrays_size(arr_b, arr_a);
+	    }
+	}
+	finally {
+	    intersect.shutdown();
+	}
+
+    }  // doRadixIntersection
+
+
+
+    /**
+     * Intersect with the SPILL engine: generate the arrays in chunks of 
+     * SPILL_CHUNK elements, hash-partition each chunk to the temporary 
+     * files as soon as it is generated, then join the partitions. 
+     * Only one chunk and one pair of partitions are in the heap at a time. 
+     * The time returned excludes the time spent generating the chunks.
+     */
+    private float spillAndIntersect(int[] sizes, boolean array_a_hash) {
+
+	ArrayFactory factory = arrayFactory();
+
+	int n_hash  = array_a_hash ? sizes[0] : sizes[1];
+	int n_probe = array_a_hash ? sizes[1] : sizes[0];
+
+	long keys = IntersectPlanner.distinct(n_hash, random_range);
+
+	long gen_time = 0L;
+	long start_time = System.nanoTime();
+
+	try ( SpillingIntersectArrays spill = new SpillingIntersectArrays(spillBudget(), spill_dir, keys) ) {
+
+	    for (int done = 0; done < n_hash; done += MemoryFootprint.SPILL_CHUNK) {
+		long t0 = System.nanoTime();
+		int[] chunk = factory.getIntArray(Math.min(MemoryFootprint.SPILL_CHUNK, n_hash - done));
+		gen_time += System.nanoTime() - t0;
+		spill.addA(chunk, chunk.length);
+		IntersectListener.report(listener, IntersectListener.Phase.HASH, chunk.length);
+	    }
+
+	    for (int done = 0; done < n_probe; done += MemoryFootprint.SPILL_CHUNK) {
+		long t0 = System.nanoTime();
+		int[] chunk = factory.getIntArray(Math.min(MemoryFootprint.SPILL_CHUNK, n_probe - done));
+		gen_time += System.nanoTime() - t0;
+		spill.addB(chunk, chunk.length);
+		IntersectListener.report(listener, IntersectListener.Phase.PROBE, chunk.length);
+	    }
+
+	    sizes[2] = (int) spill.intersect_size();
+	    if ( listener != null ) {
+		listener.found(sizes[2]);
+	    }
+	}
+	catch (IOException ex) {
+	    throw new UncheckedIOException(ex);
+	}
+
+	long end_time = System.nanoTime();
+
+	return (end_time - start_time - gen_time) / 1e9F;
+
+    } // spillAndIntersect
+
+
+
+    /**
+     * Intersect two int array files with the SPILL engine, streaming 
+     * them to the partitions in chunks of SPILL_CHUNK elements
+     */
+    private long spillFiles(IntArrayFile hash, IntArrayFile probe) {
+
+	long keys = IntersectPlanner.distinct(hash.size(), hash.range());
+
+	int[] chunk = new int[(int) Math.min(MemoryFootprint.SPILL_CHUNK, Math.max(hash.size(), probe.size()))];
+
+	try ( SpillingIntersectArrays spill = new SpillingIntersectArrays(spillBudget(), spill_dir, keys) ) {
+
+	    for (long done = 0; done < hash.size(); done += chunk.length) {
+		int len = (int) Math.min(chunk.length, hash.size() - done);
+		hash.read(done, chunk, len);
+		spill.addA(chunk, len);
+		IntersectListener.report(listener, IntersectListener.Phase.HASH, len);
+	    }
+
+	    for (long done = 0; done < probe.size(); done += chunk.length) {
+		int len = (int) Math.min(chunk.length, probe.size() - done);
+		probe.read(done, chunk, len);
+		spill.addB(chunk, len);
+		IntersectListener.report(listener, IntersectListener.Phase.PROBE, len);
+	    }
+
+	    long size = spill.intersect_size();
+	    if ( listener != null ) {
+		listener.found(size);
+	    }
+	    return size;
+	}
+	catch (IOException ex) {
+	    throw new UncheckedIOException(ex);
+	}
+
+    } // spillFiles
+
+
+
+    /**
+     * Copy the ints of a file to an array of boxed Integers, for the HASH engine
+     */
+    private static Integer[] boxed(IntArrayFile file) {
+
+	Integer[] arr = new Integer[(int) file.size()];
+
+	for (int i = 0; i < arr.length; i++) {
+	    arr[i] = file.get(i);
+	}
+
+	return arr;
+
+    } // boxed
+
+
+    private static Integer[] boxed(int[] ints) {
+
+	Integer[] arr = new Integer[ints.length];
+
+	for (int i = 0; i < arr.length; i++) {
+	    arr[i] = ints[i];
+	}
+
+	return arr;
+
+    } // boxed
+
+
+
+    /**
+     * Factory of the random arrays of a run
+     */
+    private ArrayFactory arrayFactory() {
+
+	ArrayFactory factory = ArrayFactory.getArrayFactory(random_range);
+
+	factory.setDistribution(distribution);
+	factory.setListener(listener);
+	if ( seed != null ) {
+	    factory.setSeed(seed);
+	}
+
+	return factory;
+
+    } // arrayFactory
+
+
+
+    /**
+     * Report to the listener an engine that does not report as it goes: 
+     * n_hash elements hashed, n_probe probed and the size found, once done
+     */
+    private int reported(int size, int n_hash, int n_probe) {
+
+	if ( listener != null ) {
+	    listener.found(size);
+	    IntersectListener.report(listener, IntersectListener.Phase.HASH, n_hash);
+	    IntersectListener.report(listener, IntersectListener.Phase.PROBE, n_probe);
+	}
+
+	return size;
+
+    } // reported
+
+
+
+    /**
+     * Memory budget of the SPILL engine
+     */
+    private long spillBudget() {
+
+	return (spill_budget > 0) ? spill_budget : MemoryFootprint.available() / 2;
+    }
+
+
+
+    /**
+     * Time IntersectArrays.intersectArrays_size() on the arrays just 
+     * intersected (boxed if the engine is HASH or ROARING, primitive otherwise), 
+     * and set baseline_time and speedup against the engine time
+     */
+    private void timeBaseline (Integer[] arr_a, Integer[] arr_b, int[] int_a, int[] int_b, 
+			       boolean array_a_hash, float time) {
+
+	IntersectArrays<Integer> intersect = new IntersectArrays<Integer>();
+
+	long start_time = System.nanoTime();
+
+	if ( int_a == null ) {
+	    intersect.intersectArrays_size(array_a_hash ? arr_a : arr_b, array_a_hash ? arr_b : arr_a);
+	}
+	else {
+	    intersect.intersectArrays_size(array_a_hash ? int_a : int_b, array_a_hash ? int_b : int_a);
+	}
+
+	long end_time = System.nanoTime();
+
+	baseline_time = (end_time - start_time) / 1e9F;
+	speedup = (time > 0) ? baseline_time / time : 0.0F;
+
+    }  // timeBaseline
+
+
+
+    /**
+     * Sort an array (unless sort_input is off) and compress it, for the COMPRESSED engine
+     *
+     * @param copy: whether to sort a copy, when the array is not the driver's
+     */
+    private CompressedIntArray compressed(int[] arr, boolean copy) {
+
+	if ( ! copy && sort_input ) {
+	    SortedIntersectArrays.sort(arr);
+	}
+
+	return CompressedIntArray.of(copy ? sortedInput(arr) : arr);
+
+    } // compressed
+
+
+
+    /**
+     * The array sorted (unless sort_input is off), for the sorted engines: 
+     * a sorted copy, so that the array given is left as it is, and timed 
+     * as it is by the baseline; the array itself if it is sorted already
+     */
+    private int[] sortedInput(int[] arr) {
+
+	if ( ! sort_input || SortedIntersectArrays.isSorted(arr) ) {
+	    return arr;
+	}
+
+	int[] copy = arr.clone();
+	Arrays.parallelSort(copy);
+	return copy;
+
+    } // sortedInput
+
+
+
+    /**
+     * Intersect two arrays of primitive ints with one of the sorted engines; 
+     * no hash is built, so which array is "put in hash" does not matter
+     */
+    private int doSortedIntersection (IntersectEngine eng, int[] arr_a, int[] arr_b) {
+
+	SortedIntersectArrays intersect = new SortedIntersectArrays();
+
+	arr_a = sortedInput(arr_a);
+	arr_b = sortedInput(arr_b);
+
+	switch ( eng ) {
+
+	case MERGE:
+	    return intersect.intersectMerge_size(arr_a, arr_b);
+
+	case GALLOP:
+	    return intersect.intersectGallop_size(arr_a, arr_b);
+
+	default:
+	    return intersect.intersectSorted_size(arr_a, arr_b);
+	}
+
+    }  // doSortedIntersection
+
+
+
+    /**
+     * Plan a run: if the engine is AUTO, the planner chooses the engine 
+     * and the array put in hash; otherwise the engine set by the user 
+     * and the array selected by array_A are kept, and only costed
+     */
+    private IntersectPlan plan(long size_a, long size_b, int range, boolean sorted_a, boolean sorted_b, 
+			       boolean array_A) {
+
+	return plan(size_a, size_b, range, sorted_a, sorted_b, array_A, 0L);
+    }
+
+
+    /**
+     * Plan a run, with freed bytes of the heap in use, garbage since
+     * the last collection, counted as available. The heap in use counts 
+     * the garbage of the last runs too: when the run does not fit, or 
+     * when the planner would choose another plan with more heap, the 
+     * garbage is collected and the run planned again
+     */
+    private IntersectPlan plan(long size_a, long size_b, int range, boolean sorted_a, boolean sorted_b, 
+			       boolean array_A, long freed) {
+
+	long free = MemoryFootprint.available() + freed;
+
+	IntersectPlan plan = planIn(size_a, size_b, range, sorted_a, sorted_b, array_A, free);
+
+	boolean better = false;
+	if ( engine == IntersectEngine.AUTO ) {
+	    IntersectPlan best = planIn(size_a, size_b, range, sorted_a, sorted_b, array_A, MemoryFootprint.maxAvailable());
+	    better = best.getEngine() != plan.getEngine() || best.isHashA() != plan.isHashA();
+	}
+
+	if ( ! plan.fits() || better ) {
+	    // The freed bytes are collected with the rest
+	    free = MemoryFootprint.availableAfterGC();
+	    plan = planIn(size_a, size_b, range, sorted_a, sorted_b, array_A, free);
+	}
+
+	return plan;
+
+    } // plan
+
+
+
+    /**
+     * Plan a run in the given free heap
+     */
+    private IntersectPlan planIn(long size_a, long size_b, int range, boolean sorted_a, boolean sorted_b, 
+				 boolean array_A, long free) {
+
+	if ( engine == IntersectEngine.AUTO ) {
+	    return planner.plan(size_a, size_b, range, sorted_a, sorted_b, free);
+	}
+
+	return planner.estimate(engine, array_A, size_a, size_b, range, 
+				sorted_a, sorted_b, free);
+
+    } // planIn
+
+
+
+    /**
+     * Drop the tables that the IntersectContext of the thread kept from 
+     * the last run when this run does not reuse them: another engine, or 
+     * the other array in hash, whichever driver made the last run. Return 
+     * the bytes of the tables dropped, so that the run is planned again 
+     * without them, or -1 if they are kept
+     */
+    private long releaseContext(IntersectPlan plan) {
+
+	long held = MemoryFootprint.get().contextHeld();
+
+	if ( IntersectContext.get().keepFor(plan.getEngine() + (plan.isHashA() ? ", A in hash" : ", B in hash")) ) {
+	    return held;
+	}
+	return -1L;
+
+    } // releaseContext
+
+
+
+    /**
+     * Check enough memory: before actually allocating the arrays
+     * and the structures of the engine, check that the footprint 
+     * of the plan (see MemoryFootprint) fits in the heap available, 
+     * and throw OutOfMemoryError if it does not. The message 
+     * suggests the other array for the hash, or another plan, 
+     * when they would fit.
+     */
+    private void checkMemory(int[] sizes, IntersectPlan plan, int range) throws OutOfMemoryError {
+
+	if ( plan.fits() ) {
+	    return;
+	}
+
+	if ( plan.isPlanned() ) {
+	    throw new OutOfMemoryError("Not enough memory for any plan; the smallest is \n" + plan);
+	}
+
+	long free = MemoryFootprint.available();
+
+	//
+	// Would the same engine fit with the other array in hash?
+	//
+	if ( plan.getEngine().usesHash() ) {
+
+	    IntersectPlan other = planner.estimate(plan.getEngine(), ! plan.isHashA(), sizes[0], sizes[1], 
+						   range, false, false, free);
+	    if ( other.fits() ) {
 		throw new OutOfMemoryError
 		    (
 		       "Not enough memory for the hashSet; \n" + 
-		       "Consider using HashSet for array " + ((array_A)? "B":"A") 
+		       "Consider using HashSet for array " + ((plan.isHashA())? "B":"A") 
 		     );
 	    }
-	    else {
-		throw new OutOfMemoryError("Not enough memory for arrays A and B and HashSet");
-	    }
 	}
 
+	//
+	// Would the planner find a plan that fits?
+	//
+	IntersectPlan better = planner.plan(sizes[0], sizes[1], range, false, false, free);
+
+	if ( better.fits() ) {
+	    throw new OutOfMemoryError
+		(
+		   "Not enough memory for " + plan.getEngine() + "; \n" + 
+		   "Consider " + better
+		 );
+	}
+
+	throw new OutOfMemoryError("Not enough memory for arrays A and B and HashSet");
 
     } // checkMemory()
 
-
 } // IntersectDriver
 
@@ -0,0 +1,144 @@
+package gabriel.intersection.alg;
+
+
+/**
+ * The algorithms that IntersectDriver can use to intersect 
+ * two arrays of integers
+ */
+public enum IntersectEngine {
+
+    /**
+     * Boxed Integer[] arrays, one of them put in a HashMap
+     * (IntersectArrays.intersectArrays_size on T[])
+     */
+    HASH,
+
+    /**
+     * Primitive int[] arrays, one of them put in an IntHashSet
+     * (IntersectArrays.intersectArrays_size on int[])
+     */
+    HASH_INT,
+
+    /**
+     * Primitive int[] arrays, sorted and then merged
+     * (SortedIntersectArrays.intersectMerge_size)
+     */
+    MERGE,
+
+    /**
+     * Primitive int[] arrays, sorted, then each element of the 
+     * smaller array is searched in the bigger one by galloping
+     * (SortedIntersectArrays.intersectGallop_size)
+     */
+    GALLOP,
+
+    /**
+     * Primitive int[] arrays, sorted, then merged or galloped
+     * depending on the ratio of their sizes
+     * (SortedIntersectArrays.intersectSorted_size)
+     */
+    SORTED,
+
+    /**
+     * Primitive int[] arrays, each turned into a long[] bitset over 
+     * [0, random_range), then ANDed word by word
+     * (BitmapIntersectArrays.intersectArrays_size)
+     */
+    BITMAP,
+
+    /**
+     * Primitive int[] arrays, partitioned by hash into buckets that 
+     * are intersected in parallel on a ForkJoinPool
+     * (ParallelIntersectArrays.intersectArrays_size)
+     */
+    PARALLEL,
+
+    /**
+     * Primitive ints generated in chunks and hash-partitioned into 
+     * temporary files, then intersected one pair of partitions at a 
+     * time within a memory budget, for inputs bigger than the heap
+     * (SpillingIntersectArrays.intersect_size)
+     */
+    SPILL,
+
+    /**
+     * Primitive int[] arrays, each sorted and compressed as it is built 
+     * (delta encoding, bit-packed blocks with skip pointers), so that only 
+     * the compressed sets stay in the heap; then intersected decoding only 
+     * the blocks that overlap (CompressedIntArray.intersect_size)
+     */
+    COMPRESSED,
+
+    /**
+     * Primitive int[] arrays, each turned into a Roaring-style bitmap: 
+     * chunks of 65536 values stored as sorted arrays, bitmaps or runs, 
+     * whichever is smallest; then intersected chunk by chunk, with one 
+     * algorithm for each pairing of containers (RoaringIntSet.andCardinality). 
+     * No range is needed, unlike BITMAP, nor sorted input
+     */
+    ROARING,
+
+    /**
+     * Primitive int[] arrays radix-partitioned by the hash of their 
+     * elements, in one or two passes, into partitions whose IntHashSet 
+     * fits in the cache; then each pair of partitions is hashed and probed 
+     * while its table stays in the cache (RadixIntersectArrays), with as 
+     * many threads as PARALLEL
+     */
+    RADIX,
+
+    /**
+     * Primitive int[] arrays, one of them put in an IntHashSet and in a 
+     * blocked BloomFilter in front of it: only the elements the filter 
+     * accepts probe the table (FilteredIntersectArrays). Chosen by hand 
+     * only: IntersectPlanner never picks it
+     */
+    FILTERED,
+
+    /**
+     * Let IntersectPlanner choose the engine and the array put in hash
+     */
+    AUTO;
+
+
+
+    /**
+     * Whether the engine intersects sorted arrays
+     */
+    public boolean isSorted() {
+
+	return this == MERGE || this == GALLOP || this == SORTED;
+    }
+
+
+    /**
+     * Whether the engine puts one of the arrays in hash, so that 
+     * the choice of the array matters
+     */
+    public boolean usesHash() {
+
+	return this == HASH || this == HASH_INT || this == PARALLEL || this == SPILL || this == RADIX
+	    || this == FILTERED;
+    }
+
+
+    /**
+     * Parse an engine name, ignoring case; return null if unknown
+     */
+    public static IntersectEngine parse(String name) {
+
+	if ( name == null ) {
+	    return null;
+	}
+
+	for (IntersectEngine e : values()) {
+	    if ( e.name().equalsIgnoreCase(name.trim()) ) {
+		return e;
+	    }
+	}
+	return null;
+
+    } // parse
+
+
+} // IntersectEngine
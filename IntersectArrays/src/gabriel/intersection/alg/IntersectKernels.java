@@ -0,0 +1,219 @@
+package gabriel.intersection.alg;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+
+/**
+ * The inner loops of the sorted and bitmap engines: the intersection
+ * of two sorted arrays, and the number of bits set in the AND of two
+ * bitsets.
+ *
+ * Two implementations are provided. The scalar one is the merge and
+ * galloping of SortedIntersectArrays and the Long.bitCount loop of
+ * BitmapIntersectArrays. The vector one, VectorIntersectKernels in the
+ * simd package, uses the Vector API (jdk.incubator.vector) to compare
+ * and count several ints or longs per instruction. It is compiled and
+ * run with "--add-modules jdk.incubator.vector", and loaded by name:
+ * get() returns the vector kernels when their class and the module are
+ * present, and the scalar ones otherwise, or when -Dintersect.simd=false.
+ */
+public abstract class IntersectKernels {
+
+    // Class of the kernels on the Vector API
+    private static final String VECTOR_KERNELS = "gabriel.intersection.simd.VectorIntersectKernels";
+
+    private static final IntersectKernels SCALAR = new Scalar();
+
+    private static final IntersectKernels KERNELS = load();
+
+
+
+    public static void main(String[] args) {
+
+	IntersectKernels kernels = get();
+
+	System.out.println("\n kernels: " + kernels.getName());
+
+	//
+	// Against the hash intersection of IntersectArrays, on sorted
+	// arrays with duplicates, of all sizes and ratios
+	//
+	SplittableRandom random = new SplittableRandom(42L);
+	IntersectArrays<Integer> intersect = new IntersectArrays<Integer>();
+
+	boolean ok = true;
+
+	for (int t = 0; t < 5000 && ok; t++) {
+
+	    int range = 1 + random.nextInt(t < 4000 ? 300 : 100000);
+	    int[] a = random.ints(random.nextInt(t < 4000 ? 200 : 20000), 0, range).toArray();
+	    int[] b = random.ints(random.nextInt(t < 4000 ? 200 : 1000), 0, range).toArray();
+
+	    int expected = intersect.intersectArrays_size(a, b);
+
+	    Arrays.sort(a);
+	    Arrays.sort(b);
+
+	    int[] result = new int[Math.min(a.length, b.length)];
+	    int n = kernels.intersectSorted(a, b, result);
+
+	    ok &= n == expected && kernels.intersectSorted_size(b, a) == expected
+		&& Arrays.equals(Arrays.copyOf(result, n), new SortedIntersectArrays().intersectMerge(a, b));
+
+	    BitmapIntersectArrays bitmap = new BitmapIntersectArrays(range);
+	    long[] x = bitmap.toBitmap(a);
+	    long[] y = bitmap.toBitmap(b);
+
+	    ok &= kernels.andCardinality(x, y, 0, x.length) == expected;
+	}
+
+	System.out.println(" against IntersectArrays: " + (ok ? "ok" : "WRONG"));
+
+	//
+	// Scalar against these kernels, on arrays in the caches
+	//
+	int size = 1 << 16;
+	int[] a = random.ints(size, 0, 4 * size).sorted().toArray();
+	int[] b = random.ints(size, 0, 4 * size).sorted().toArray();
+
+	BitmapIntersectArrays bitmap = new BitmapIntersectArrays(1 << 20);
+	long[] x = bitmap.toBitmap(random.ints(1 << 19, 0, 1 << 20).toArray());
+	long[] y = bitmap.toBitmap(random.ints(1 << 19, 0, 1 << 20).toArray());
+
+	System.out.println("\n              merge ns/elem   AND ns/word");
+
+	for (int rep = 0; rep < 5; rep++) {
+	    for (IntersectKernels k : new IntersectKernels[] {SCALAR, kernels}) {
+
+		long t0 = System.nanoTime();
+		long n = 0;
+		for (int i = 0; i < 100; i++) {
+		    n += k.intersectSorted_size(a, b);
+		}
+		long t1 = System.nanoTime();
+		for (int i = 0; i < 100; i++) {
+		    n += k.andCardinality(x, y, 0, x.length);
+		}
+		long t2 = System.nanoTime();
+
+		System.out.println(String.format("   %-9s  %11.2f  %12.2f", k.getName(),
+						 (t1 - t0) / (100.0 * 2 * size), (t2 - t1) / (100.0 * x.length)));
+	    }
+	}
+
+    } // main()
+
+
+
+    /**
+     * The vector kernels if they can be loaded, else the scalar ones
+     */
+    public static IntersectKernels get() {
+
+	return KERNELS;
+    }
+
+
+    /**
+     * The scalar kernels, always available
+     */
+    public static IntersectKernels scalar() {
+
+	return SCALAR;
+    }
+
+
+
+    public abstract String getName();
+
+
+
+    /**
+     * Intersect two sorted arrays, which may contain duplicates: each
+     * element of the intersection is written once, in ascending order,
+     * to result if it is not null. Return the number of common elements.
+     * Galloping is chosen from the ratio of the sizes, as in
+     * SortedIntersectArrays, and is scalar in both implementations
+     */
+    public int intersectSorted(int[] a, int[] b, int[] result) {
+
+	if ( SortedIntersectArrays.useGallop(a.length, b.length) ) {
+	    return (a.length <= b.length)
+		? SortedIntersectArrays.gallopInto(a, b, result)
+		: SortedIntersectArrays.gallopInto(b, a, result);
+	}
+
+	return merge(a, b, result);
+
+    } // intersectSorted
+
+
+    public int intersectSorted_size(int[] a, int[] b) {
+
+	return intersectSorted(a, b, null);
+    }
+
+
+
+    /**
+     * Intersect two sorted arrays of similar sizes, as intersectSorted
+     */
+    protected abstract int merge(int[] a, int[] b, int[] result);
+
+
+
+    /**
+     * Number of bits set in x AND y, over the words [from, to)
+     */
+    public abstract long andCardinality(long[] x, long[] y, int from, int to);
+
+
+
+    //
+    // Helpers
+    //
+
+    private static IntersectKernels load() {
+
+	if ( ! Boolean.parseBoolean(System.getProperty("intersect.simd", "true")) ) {
+	    return SCALAR;
+	}
+
+	try {
+	    return Class.forName(VECTOR_KERNELS).asSubclass(IntersectKernels.class)
+		.getDeclaredConstructor().newInstance();
+	}
+	catch (ReflectiveOperationException | LinkageError ex) {
+	    // Not compiled, or jdk.incubator.vector not in the module graph
+	    return SCALAR;
+	}
+
+    } // load
+
+
+
+    /**
+     * The kernels of SortedIntersectArrays and BitmapIntersectArrays
+     */
+    private static class Scalar extends IntersectKernels {
+
+	public String getName() {
+
+	    return "scalar";
+	}
+
+	protected int merge(int[] a, int[] b, int[] result) {
+
+	    return SortedIntersectArrays.mergeInto(a, b, result);
+	}
+
+	public long andCardinality(long[] x, long[] y, int from, int to) {
+
+	    return BitmapIntersectArrays.andCardinality(x, y, from, to);
+	}
+
+    } // Scalar
+
+
+} // IntersectKernels
@@ -0,0 +1,81 @@
+package gabriel.intersection.alg;
+
+import java.util.concurrent.CancellationException;
+
+
+/**
+ * Listener of the progress of an intersection: IntersectDriver, and
+ * the ArrayFactory and IntersectArrays it uses, report the elements
+ * generated, hashed and probed by chunks of PROGRESS_STEP elements,
+ * and the size of the intersection found so far, and stop with a
+ * CancellationException at the next chunk once the listener is
+ * cancelled. ArrayFactory fills its arrays in parallel, so the
+ * listener must be thread-safe.
+ */
+public interface IntersectListener {
+
+    // Elements processed between two reports
+    int PROGRESS_STEP = 1 << 16;
+
+
+    /**
+     * The phases of an intersection
+     */
+    enum Phase {
+
+	// Random values generated, or ints read from a file
+	GENERATE,
+
+	// Elements put in hash (or sorted, or set in a bitmap)
+	HASH,
+
+	// Elements probed against the hash
+	PROBE
+    }
+
+
+
+    /**
+     * n more elements were processed in phase
+     */
+    void progress(Phase phase, long n);
+
+
+    /**
+     * The size of the intersection found so far
+     */
+    default void found(long size) {
+
+    }
+
+
+    /**
+     * Whether the run should stop
+     */
+    default boolean isCancelled() {
+
+	return false;
+    }
+
+
+
+    /**
+     * Report progress to a listener, if any, and throw
+     * CancellationException if it is cancelled
+     */
+    static void report(IntersectListener listener, Phase phase, long n) {
+
+	if ( listener == null ) {
+	    return;
+	}
+
+	listener.progress(phase, n);
+
+	if ( listener.isCancelled() ) {
+	    throw new CancellationException("Intersection cancelled");
+	}
+
+    } // report
+
+
+} // IntersectListener
@@ -0,0 +1,119 @@
+package gabriel.intersection.alg;
+
+
+/**
+ * The plan of an intersection, as chosen by IntersectPlanner 
+ * (or set manually): which engine runs, which array is put in hash, 
+ * and the estimated cost in time and heap
+ */
+public class IntersectPlan {
+
+    // The engine that runs the intersection
+    private IntersectEngine engine;
+
+    // Whether array A (rather than B) is put in hash
+    private boolean hash_a;
+
+    // Estimated time, in seconds
+    private double cost;
+
+    // Estimated heap needed, in bytes, including the arrays
+    private long memory;
+
+    // Whether the estimated heap fits in the heap available
+    private boolean fits;
+
+    // Whether the planner chose the plan, rather than the user
+    private boolean planned;
+
+
+    //
+    // Constructor
+    //
+    public IntersectPlan (IntersectEngine engine, boolean hash_a, double cost, 
+			  long memory, boolean fits, boolean planned) {
+
+	this.engine  = engine;
+	this.hash_a  = hash_a;
+	this.cost    = cost;
+	this.memory  = memory;
+	this.fits    = fits;
+	this.planned = planned;
+    }
+
+
+
+    //
+    // Getters
+    //
+    public IntersectEngine getEngine() {
+
+	return engine;
+    }
+
+    public boolean isHashA() {
+
+	return hash_a;
+    }
+
+    public double getCost() {
+
+	return cost;
+    }
+
+    public long getMemory() {
+
+	return memory;
+    }
+
+    public boolean fits() {
+
+	return fits;
+    }
+
+    public boolean isPlanned() {
+
+	return planned;
+    }
+
+
+
+    /**
+     * Copy of this plan, marked as chosen by the planner
+     */
+    IntersectPlan asPlanned() {
+
+	return new IntersectPlan(engine, hash_a, cost, memory, fits, true);
+    }
+
+
+
+    /**
+     * One-line description, e.g., 
+     * "HASH_INT, array A in hash, est. 0.120 sec, 48 MB (planner)"
+     */
+    @Override
+    public String toString() {
+
+	StringBuilder sb = new StringBuilder();
+
+	sb.append(engine);
+
+	if ( engine.usesHash() ) {
+	    sb.append(", array ").append(hash_a ? "A" : "B").append(" in hash");
+	}
+
+	sb.append(String.format(", est. %.3f sec, %d MB", cost, (memory + (1 << 20) - 1) >> 20));
+
+	if ( ! fits ) {
+	    sb.append(", does not fit in heap");
+	}
+
+	sb.append(planned ? " (planner)" : " (manual)");
+
+	return sb.toString();
+
+    } // toString
+
+
+} // IntersectPlan
@@ -0,0 +1,361 @@
+package gabriel.intersection.alg;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * Choose how to intersect two arrays of ints: the engine, and which 
+ * array goes in hash, from the sizes of the arrays, the range of their 
+ * values, whether they are sorted, and the heap available.
+ *
+ * Every engine is given a cost from a simple model, in nanoseconds per 
+ * element, where hashing gets slower as its table outgrows the L2 and 
+ * L3 caches (see "The impact of choosing which array to put in Hash" 
+ * in the README), and a heap footprint from MemoryFootprint. 
+ * The cheapest plan whose footprint 
+ * fits in the heap is chosen. The constants are rough averages for 
+ * a current x86 server; only their ratios matter for the choice.
+ */
+public class IntersectPlanner {
+
+    //
+    // Cost model, in nanoseconds per element
+    //
+
+    // Hash insert and lookup when the table fits in L2, and the extra 
+    // cost of a cache miss, paid more often as the table outgrows the caches
+    private static final double NS_HASH      = 3.0;
+    private static final double NS_MISS      = 5.0;
+
+    // Hashing an element and testing its bits in a block of a Bloom filter:
+    // measured no cheaper than a probe of a table in the cache
+    private static final double NS_FILTER    = 4.0;
+
+    // Boxed Integer in a table of references: pointer chasing 
+    // to the Integer for hashCode() and equals()
+    private static final double NS_BOXED     = 15.0;
+
+    // Sorting, per element and per level (n log n), and checking
+    // that an array is sorted
+    private static final double NS_SORT      = 4.0;
+    private static final double NS_CHECK     = 0.3;
+
+    // Merge step, and galloping step per level (log(n/m))
+    private static final double NS_MERGE     = 1.5;
+    private static final double NS_GALLOP    = 4.0;
+
+    // Compressing a sorted element, and decoding and merging it
+    private static final double NS_PACK      = 3.0;
+    private static final double NS_UNPACK    = 2.0;
+
+    // Partitioning an element by chunk and adding it to its container 
+    // (the sort of the small arrays aside), and ANDing or merging one container element
+    private static final double NS_CHUNK     = 4.0;
+    private static final double NS_CONTAINER = 1.0;
+
+    // Setting one bit in a bitset, and ANDing one word
+    private static final double NS_BIT       = 2.0;
+    private static final double NS_WORD      = 0.5;
+
+    // Writing an element to a partition file, and reading it back
+    private static final double NS_IO        = 10.0;
+
+    // Moving an element to its bucket, and starting the tasks of the pool
+    private static final double NS_PARTITION = 3.0;
+    private static final double NS_POOL      = 200000.0;
+
+    // Cache sizes
+    private static final long L2_BYTES = 1L << 20;
+    private static final long L3_BYTES = 32L << 20;
+
+    // Arrays smaller than this are not worth sorting or scanning in parallel
+    private static final long PARALLEL_MIN = 1L << 16;
+
+
+    // Number of processors used by the parallel engines
+    private int processors;
+
+    // Heap footprint of the engines
+    private MemoryFootprint footprint;
+
+
+    //
+    // Constructors
+    //
+    public IntersectPlanner (int processors, MemoryFootprint footprint) {
+
+	if ( processors <= 0 ) {
+	    processors = Runtime.getRuntime().availableProcessors();
+	}
+	this.processors = processors;
+	this.footprint  = footprint;
+    }
+
+    public IntersectPlanner (int processors) {
+
+	this(processors, MemoryFootprint.get());
+    }
+
+    public IntersectPlanner () {
+
+	this(0); // All the available processors
+    }
+
+
+
+    /**
+     * Choose the cheapest plan that fits in the heap. 
+     *
+     * @param size_a, size_b: sizes of arrays A and B
+     * @param range: the values are in [0, range); 0 if unknown
+     * @param sorted_a, sorted_b: whether the arrays are sorted
+     * @param free_heap: heap available, in bytes
+     */
+    public IntersectPlan plan(long size_a, long size_b, int range, 
+			      boolean sorted_a, boolean sorted_b, long free_heap) {
+
+	List<IntersectPlan> plans = candidates(size_a, size_b, range, sorted_a, sorted_b, free_heap);
+
+	return plans.get(0).asPlanned();
+
+    } // plan
+
+
+
+    /**
+     * All the plans the planner considers, cheapest first; the plans that 
+     * fit in the heap come before those that do not, which are ordered by 
+     * the heap they need
+     */
+    public List<IntersectPlan> candidates(long size_a, long size_b, int range, 
+					  boolean sorted_a, boolean sorted_b, long free_heap) {
+
+	List<IntersectPlan> plans = new ArrayList<IntersectPlan>();
+
+	for (IntersectEngine e : IntersectEngine.values()) {
+
+	    if ( e == IntersectEngine.AUTO || e == IntersectEngine.HASH ) {
+		continue; // The planner always picks primitive arrays
+	    }
+	    if ( e == IntersectEngine.FILTERED ) {
+		continue; // Manual only: it has not been measured faster than HASH_INT
+	    }
+	    if ( e == IntersectEngine.BITMAP && range <= 0 ) {
+		continue; // Needs a bounded range
+	    }
+	    if ( e == IntersectEngine.PARALLEL && processors == 1 ) {
+		continue;
+	    }
+
+	    plans.add(estimate(e, true, size_a, size_b, range, sorted_a, sorted_b, free_heap));
+
+	    if ( e.usesHash() ) {
+		plans.add(estimate(e, false, size_a, size_b, range, sorted_a, sorted_b, free_heap));
+	    }
+	}
+
+	Collections.sort(plans, new Comparator<IntersectPlan>() {
+	    public int compare(IntersectPlan p, IntersectPlan q) {
+		if ( p.fits() != q.fits() ) {
+		    return p.fits() ? -1 : 1;
+		}
+		if ( p.fits() ) {
+		    return Double.compare(p.getCost(), q.getCost());
+		}
+		return Long.compare(p.getMemory(), q.getMemory());
+	    }
+	});
+
+	return plans;
+
+    } // candidates
+
+
+
+    /**
+     * Estimate the cost of running a given engine; this is how 
+     * a manual choice of engine and hash side is reported
+     */
+    public IntersectPlan estimate(IntersectEngine engine, boolean hash_a, 
+				  long size_a, long size_b, int range,
+				  boolean sorted_a, boolean sorted_b, long free_heap) {
+
+	long n_hash  = hash_a ? size_a : size_b;
+	long n_probe = hash_a ? size_b : size_a;
+
+	long keys = distinct(n_hash, range);
+
+	double ns;
+
+	switch ( engine ) {
+
+	case HASH:
+	    ns = (n_hash + n_probe) * (NS_BOXED + NS_MISS * missFactor(footprint.contextTable(keys, true)));
+	    break;
+
+	case MERGE:
+	case GALLOP:
+	case SORTED:
+	    ns = sortNs(size_a, sorted_a) + sortNs(size_b, sorted_b) 
+	       + sortedNs(engine, size_a, size_b);
+	    break;
+
+	case BITMAP:
+	    long bitmap = 8L * BitmapIntersectArrays.words(range);
+	    ns = (size_a + size_b) * (NS_BIT + NS_MISS * missFactor(bitmap) / 4) 
+	       + NS_WORD * (bitmap / 8) / (bitmap / 8 >= BitmapIntersectArrays.PARALLEL_WORDS ? processors : 1);
+	    break;
+
+	case COMPRESSED:
+	    ns = sortNs(size_a, sorted_a) + sortNs(size_b, sorted_b) 
+	       + NS_PACK * (size_a + size_b) 
+	       + NS_UNPACK * (distinct(size_a, range) + distinct(size_b, range));
+	    break;
+
+	case ROARING:
+	    ns = roaringNs(size_a, range) + roaringNs(size_b, range) 
+	       + NS_CONTAINER * Math.min(distinct(size_a, range), distinct(size_b, range));
+	    break;
+
+	case PARALLEL:
+	    long buckets = 4L * processors;
+	    ns = (2 * NS_PARTITION * (size_a + size_b) 
+		  + hashNs(n_hash, n_probe, keys / buckets)) / processors 
+	       + NS_POOL;
+	    break;
+
+	case RADIX:
+	    // One or two passes of partitioning, then tables in the L2 cache
+	    int passes = (8L * n_hash > RadixIntersectArrays.CACHE_BYTES << RadixIntersectArrays.MAX_PASS_BITS) ? 2 : 1;
+	    int threads = (size_a + size_b >= PARALLEL_MIN) ? processors : 1;
+	    ns = (2 * passes * NS_PARTITION * (size_a + size_b) 
+		  + (n_hash + n_probe) * NS_HASH) / threads 
+	       + ((threads > 1) ? NS_POOL : 0.0);
+	    break;
+
+	case FILTERED:
+	    // Every element tests the filter; only the matches and the false 
+	    // positives probe the table. Without a range, all may match
+	    double table  = NS_HASH + NS_MISS * missFactor(4L * IntHashSet.tableSize((int) Math.min(keys, 1 << 29)));
+	    double filter = NS_FILTER + NS_MISS * missFactor(BloomFilter.bytesFor(keys, FilteredIntersectArrays.DEFAULT_FPP));
+	    double hit    = (range > 0) ? Math.min(1.0, (double) keys / range) : 1.0;
+	    double pass   = hit + FilteredIntersectArrays.DEFAULT_FPP * (1 - hit);
+	    ns = n_hash * (table + filter) + n_probe * (filter + pass * table);
+	    break;
+
+	case SPILL:
+	    long parts = SpillingIntersectArrays.partitionsFor(keys, free_heap / 2);
+	    ns = 2 * NS_IO * (size_a + size_b) + hashNs(n_hash, n_probe, keys / parts);
+	    break;
+
+	default: // HASH_INT, in the table of an IntersectContext
+	    ns = hashNs(n_hash, n_probe, keys);
+	    break;
+	}
+
+	long memory = footprint.engine(engine, size_a, size_b, range, hash_a, sorted_a && sorted_b, processors);
+
+	return new IntersectPlan(engine, hash_a, ns / 1e9, memory, memory <= free_heap, false);
+
+    } // estimate
+
+
+
+    //
+    // Helpers of the cost model
+    //
+
+    /**
+     * Building a RoaringIntSet of n values in [0, range): two passes over
+     * the values, then the containers of up to ARRAY_MAX values are sorted
+     */
+    private static double roaringNs(long n, int range) {
+
+	long chunks = (range > 0) ? Math.max(((long) range + (1 << 16) - 1) >>> 16, 1) : Math.min(Math.max(n, 1), 1 << 16);
+	double per_chunk = (double) n / chunks;
+
+	double sort = (per_chunk > 1 && per_chunk <= RoaringIntSet.ARRAY_MAX) 
+	    ? NS_SORT / 4 * n * Math.log(per_chunk) / Math.log(2) : 0.0;
+
+	return 2 * NS_CHUNK * n + sort;
+
+    } // roaringNs
+
+
+
+    /**
+     * Number of distinct values among n values in [0, range)
+     */
+    static long distinct(long n, int range) {
+
+	return (range > 0) ? Math.min(n, range) : n;
+    }
+
+
+    /**
+     * Extra cache misses per access to a structure of the given size
+     */
+    static double missFactor(long bytes) {
+
+	if ( bytes <= L2_BYTES ) {
+	    return 0.0;
+	}
+	if ( bytes <= L3_BYTES ) {
+	    return 0.5;
+	}
+	return 1.5 + Math.log((double) bytes / L3_BYTES) / Math.log(2) / 4;
+
+    } // missFactor
+
+
+    /**
+     * Build an IntHashSet of keys distinct values out of n_hash, probe it n_probe times
+     */
+    static double hashNs(long n_hash, long n_probe, long keys) {
+
+	double per_access = NS_HASH + NS_MISS * missFactor(4L * IntHashSet.tableSize((int) Math.min(keys, 1 << 29)));
+
+	return (n_hash + n_probe) * per_access;
+
+    } // hashNs
+
+
+    double sortNs(long n, boolean sorted) {
+
+	if ( sorted || n < 2 ) {
+	    return NS_CHECK * n; // Just check that it is sorted
+	}
+
+	int p = (n >= PARALLEL_MIN) ? processors : 1;
+
+	return NS_SORT * n * (Math.log(n) / Math.log(2)) / p;
+
+    } // sortNs
+
+
+    static double sortedNs(IntersectEngine engine, long m, long n) {
+
+	long small = Math.min(m, n);
+	long big   = Math.max(m, n);
+
+	double merge  = NS_MERGE * (m + n);
+	double gallop = NS_GALLOP * small * (1 + Math.log(1.0 + (double) big / Math.max(small, 1)) / Math.log(2));
+
+	switch ( engine ) {
+	case MERGE:
+	    return merge;
+	case GALLOP:
+	    return gallop;
+	default:
+	    return SortedIntersectArrays.useGallop((int) Math.min(m, Integer.MAX_VALUE), 
+						   (int) Math.min(n, Integer.MAX_VALUE)) ? gallop : merge;
+	}
+
+    } // sortedNs
+
+
+
+} // IntersectPlanner
@@ -0,0 +1,541 @@
+package gabriel.intersection.alg;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Heap footprint of the intersection engines, on the running JVM.
+ *
+ * The model counts what each engine really allocates: for the boxed HASH 
+ * engine, a reference plus a 16-byte Integer per array element and the 
+ * table of its IntersectContext (a HashMap.Node plus table slots per 
+ * distinct key for the IntersectArrays baseline); for the primitive engines, 
+ * 4 bytes per element plus their hash tables, sort buffers, bucket 
+ * copies or bitsets. The sizes of references and object headers depend on 
+ * compressed oops and compressed class pointers, which are read from the JVM; 
+ * the sizes of a boxed element and of a HashMap entry are then calibrated 
+ * by measuring the bytes allocated by a sample on the current thread.
+ *
+ * The estimates are peaks: a table that is grown by rehashing counts 
+ * both its old and its new array.
+ */
+public class MemoryFootprint {
+
+    // Elements in the calibration sample
+    private static final int SAMPLE = 1 << 16;
+
+    // Objects are aligned to 8 bytes
+    private static final int ALIGN = 8;
+
+    // Share of the free heap a run can count on
+    private static final double USABLE_HEAP = 0.8;
+
+    // Elements generated at a time when the input is spilled to disk
+    public static final int SPILL_CHUNK = 1 << 20;
+
+    // The footprint of the running JVM, calibrated on first use
+    private static MemoryFootprint jvm = null;
+
+
+    // Size of a reference, 4 with compressed oops, 8 otherwise
+    private int ref_bytes;
+
+    // Size of an object header, 12 with compressed class pointers, 16 otherwise
+    private int header_bytes;
+
+    // Size of one element of an Integer[]: a reference plus an Integer
+    private double boxed_bytes;
+
+    // Size of one entry of a HashMap<Integer,Integer>: a Node, table slots excluded
+    private double node_bytes;
+
+    // Whether boxed_bytes and node_bytes were measured, or only modeled
+    private boolean calibrated = false;
+
+
+    //
+    // Constructors
+    //
+
+    /**
+     * Footprint for a given object layout, not calibrated
+     */
+    public MemoryFootprint (boolean compressed_oops, boolean compressed_class_pointers) {
+
+	ref_bytes    = compressed_oops ? 4 : 8;
+	header_bytes = compressed_class_pointers ? 12 : 16;
+
+	boxed_bytes  = ref_bytes + align(header_bytes + 4);
+	node_bytes   = align(header_bytes + 4 + 3 * ref_bytes);
+    }
+
+
+
+    /**
+     * The footprint of the running JVM, calibrated the first time it is requested
+     */
+    public static synchronized MemoryFootprint get() {
+
+	if ( jvm == null ) {
+
+	    boolean oops = vmFlag("UseCompressedOops", Runtime.getRuntime().maxMemory() < (32L << 30));
+	    boolean klass = vmFlag("UseCompressedClassPointers", oops);
+
+	    jvm = new MemoryFootprint(oops, klass);
+	    jvm.calibrate();
+	}
+
+	return jvm;
+
+    } // get
+
+
+
+    /**
+     * Heap that a run can count on: the heap not taken by live objects, 
+     * including the part the heap can still grow by, less a share kept as 
+     * headroom, since the collector cannot hand out every byte of a 
+     * generational or region-based heap to a few big arrays.
+     *
+     * The live objects are taken as all the heap in use now, garbage 
+     * included: the usage after the last collection of a pool 
+     * (MemoryPoolMXBean.getCollectionUsage) misses the objects allocated 
+     * or promoted since, and reads 0 for a pool not yet collected, so it 
+     * counts live data as free. The garbage of the last runs is reclaimed 
+     * by availableAfterGC() when a run does not fit without it.
+     *
+     * It allocates nothing, so that IntersectDriver can check the heap 
+     * at each run of a steady loop
+     */
+    public static long available() {
+
+	Runtime rt = Runtime.getRuntime();
+
+	long free = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+
+	return (long) (Math.max(free, 0L) * USABLE_HEAP);
+
+    } // available
+
+
+
+    /**
+     * Heap that a run can count on once the garbage is collected: 
+     * forces a collection, which is left to the runs that do not fit 
+     * in available()
+     */
+    public static long availableAfterGC() {
+
+	System.gc();
+
+	return available();
+
+    } // availableAfterGC
+
+
+
+    /**
+     * Heap that a run could count on with no live objects at all
+     */
+    public static long maxAvailable() {
+
+	return (long) (Runtime.getRuntime().maxMemory() * USABLE_HEAP);
+    }
+
+
+
+    //
+    // Footprint of arrays and tables
+    //
+
+    /**
+     * Bytes of an int[] of n elements
+     */
+    public long intArray(long n) {
+
+	return align(header_bytes + 4 + 4 * n);
+    }
+
+
+    /**
+     * Bytes of a long[] of n elements
+     */
+    public long longArray(long n) {
+
+	return align(header_bytes + 4 + 8 * n);
+    }
+
+
+    /**
+     * Bytes of an Integer[] of n elements, with its Integers
+     */
+    public long boxedArray(long n) {
+
+	return align(header_bytes + 4) + (long) Math.ceil(boxed_bytes * n);
+    }
+
+
+    /**
+     * Peak bytes of a HashMap<Integer,Integer> with the given number of keys,
+     * grown from the default capacity: Nodes, plus the last two tables
+     */
+    public long hashMap(long keys) {
+
+	long capacity = 16;
+	while ( capacity * 3 / 4 < keys ) {
+	    capacity <<= 1;
+	}
+
+	long tables = align(header_bytes + 4 + ref_bytes * capacity) 
+		    + align(header_bytes + 4 + ref_bytes * (capacity / 2));
+
+	return (long) Math.ceil(node_bytes * keys) + tables;
+
+    } // hashMap
+
+
+    /**
+     * Peak bytes of an IntHashSet with the given number of keys, grown 
+     * from an initial table sized for initial keys: the last two tables
+     */
+    public long intHashSet(long keys, long initial) {
+
+	long table = IntHashSet.tableSize((int) Math.min(keys, 1 << 29));
+	long first = IntHashSet.tableSize((int) Math.min(initial, 1 << 29));
+
+	if ( table <= first ) {
+	    return intArray(first);
+	}
+	return intArray(table) + intArray(table / 2);
+
+    } // intHashSet
+
+
+
+    /**
+     * Peak bytes of a table of an IntersectContext with the given number of 
+     * keys, ints or references, grown from MAX_INITIAL keys: the keys, and 
+     * the stamps of the references, of the last two tables. The table is 
+     * kept by its thread after the run
+     */
+    public long contextTable(long keys, boolean objects) {
+
+	if ( ! objects ) {
+	    return intHashSet(keys, Math.min(keys, IntersectContext.MAX_INITIAL));
+	}
+
+	long table = IntHashSet.tableSize((int) Math.min(keys, 1 << 29));
+	long first = IntHashSet.tableSize((int) Math.min(keys, IntersectContext.MAX_INITIAL));
+
+	long bytes = 2 * align(header_bytes + 4) + (ref_bytes + 4) * table;
+
+	return (table <= first) ? bytes : bytes + bytes / 2;
+
+    } // contextTable
+
+
+
+    /**
+     * Bytes of the tables the IntersectContext of the calling thread holds
+     */
+    public long contextHeld() {
+
+	IntersectContext context = IntersectContext.get();
+
+	return intArray(context.intSlots()) 
+	    + 2 * align(header_bytes + 4) + (ref_bytes + 4) * (long) context.objectSlots();
+
+    } // contextHeld
+
+
+
+    /**
+     * Peak bytes a run of an IntersectContext of the calling thread adds 
+     * to the heap: its tables are kept from run to run, and are already 
+     * in the heap in use, so only the bigger tables it must grow to count
+     */
+    public long contextGrowth(long keys, boolean objects) {
+
+	IntersectContext context = IntersectContext.get();
+	long held = objects ? context.objectSlots() : context.intSlots();
+
+	long table = IntHashSet.tableSize((int) Math.min(keys, 1 << 29));
+	if ( table <= held ) {
+	    return 0L;
+	}
+
+	long first = Math.max(IntHashSet.tableSize((int) Math.min(keys, IntersectContext.MAX_INITIAL)), held);
+
+	long bytes = objects ? 2 * align(header_bytes + 4) + (ref_bytes + 4) * table : intArray(table);
+
+	// Grown from a new table, the last two are live at once
+	return (table <= first || table / 2 <= held) ? bytes : bytes + bytes / 2;
+
+    } // contextGrowth
+
+
+
+    /**
+     * Bytes of a CompressedIntArray of the given number of distinct 
+     * values in [0, range); range 0 if unknown
+     */
+    public long compressed(long keys, int range) {
+
+	return 4 * (align(header_bytes + 4) + ref_bytes) + CompressedIntArray.estimateBytes(keys, range);
+    }
+
+
+
+    /**
+     * Bytes of a RoaringIntSet of the given number of distinct 
+     * values in [0, range); range 0 if unknown
+     */
+    public long roaring(long keys, int range) {
+
+	return align(header_bytes + 4) + 2 * ref_bytes + RoaringIntSet.estimateBytes(keys, range);
+    }
+
+
+
+    /**
+     * Peak heap used by an engine to intersect arrays of sizes size_a and size_b, 
+     * including the arrays themselves. The tables that the IntersectContext 
+     * of the calling thread already holds for HASH and HASH_INT are not 
+     * counted, as they are in the heap in use (see contextGrowth).
+     *
+     * @param range: the values are in [0, range); 0 if unknown
+     * @param hash_a: whether array A is put in hash
+     * @param sorted: whether both arrays are already sorted
+     * @param parallelism: threads of the PARALLEL engine
+     */
+    public long engine(IntersectEngine engine, long size_a, long size_b, int range,
+		       boolean hash_a, boolean sorted, int parallelism) {
+
+	long n_hash = hash_a ? size_a : size_b;
+	long keys   = IntersectPlanner.distinct(n_hash, range);
+	long arrays = intArray(size_a) + intArray(size_b);
+
+	switch ( engine ) {
+
+	case HASH:
+	    return boxedArray(size_a) + boxedArray(size_b) + contextGrowth(keys, true);
+
+	case MERGE:
+	case GALLOP:
+	case SORTED:
+	    // Sorted copies of the arrays, and Arrays.parallelSort merges through 
+	    // a buffer as big as the array
+	    return arrays + (sorted ? 0L : arrays + intArray(Math.max(size_a, size_b)));
+
+	case BITMAP:
+	    return arrays + 2 * longArray(BitmapIntersectArrays.words(range));
+
+	case COMPRESSED:
+	    // One array is built, sorted (through a buffer, on a copy when the 
+	    // array is the caller's) and compressed at a time
+	    long biggest = intArray(Math.max(size_a, size_b));
+	    return biggest + (sorted ? 0L : 2 * biggest) 
+		+ compressed(IntersectPlanner.distinct(size_a, range), range) 
+		+ compressed(IntersectPlanner.distinct(size_b, range), range);
+
+	case ROARING:
+	    // The low 16 bits of an array are partitioned by chunk into a
+	    // buffer of chars, then the containers are built from it
+	    return arrays + 2L * Math.max(size_a, size_b) + intArray(2 << 16)
+		+ roaring(IntersectPlanner.distinct(size_a, range), range) 
+		+ roaring(IntersectPlanner.distinct(size_b, range), range);
+
+	case SPILL:
+	    // The arrays are streamed to disk in chunks; a pair of partitions
+	    // is joined at a time, within half of the heap available
+	    return intArray(SPILL_CHUNK) + SpillingIntersectArrays.footprint(keys, available() / 2);
+
+	case PARALLEL:
+	    // The arrays are copied into buckets, and each thread holds 
+	    // the table of one bucket at a time
+	    long buckets = Integer.highestOneBit(Math.max(parallelism, 1) * 4 - 1) << 1;
+	    long per_bucket = keys / buckets + 1;
+	    return 2 * arrays + parallelism * intHashSet(per_bucket, Math.min(per_bucket, 1 << 20));
+
+	case RADIX:
+	    // The arrays are copied into first-level partitions, at least 4 per 
+	    // thread; each thread copies one pair again, next to a table in the cache
+	    long per_first = Math.max(size_a, size_b) / (4L * Math.max(parallelism, 1)) + 1;
+	    return 2 * arrays + parallelism * (2 * intArray(per_first) + RadixIntersectArrays.CACHE_BYTES);
+
+	case FILTERED:
+	    // A table grown from 1M keys, and the filter in front of it
+	    return arrays + intHashSet(keys, Math.min(keys, 1 << 20)) 
+		+ longArray(BloomFilter.bytesFor(keys, FilteredIntersectArrays.DEFAULT_FPP) / 8);
+
+	default: // HASH_INT, and AUTO before it is planned
+	    return arrays + contextGrowth(keys, false);
+	}
+
+    } // engine
+
+
+
+    //
+    // Getters
+    //
+
+    public int getRefBytes() {
+
+	return ref_bytes;
+    }
+
+    public double getBoxedBytes() {
+
+	return boxed_bytes;
+    }
+
+    public double getNodeBytes() {
+
+	return node_bytes;
+    }
+
+    public boolean isCalibrated() {
+
+	return calibrated;
+    }
+
+
+    @Override
+    public String toString() {
+
+	return String.format("ref=%d B, header=%d B, boxed element=%.1f B, HashMap entry=%.1f B%s",
+			     ref_bytes, header_bytes, boxed_bytes, node_bytes, 
+			     calibrated ? " (measured)" : " (modeled)");
+    }
+
+
+
+    public static void main(String[] args) {
+
+	MemoryFootprint fp = MemoryFootprint.get();
+
+	System.out.println("\n " + fp);
+
+	long n = 50000000L;
+	for (IntersectEngine e : IntersectEngine.values()) {
+	    if ( e != IntersectEngine.AUTO ) {
+		long bytes = fp.engine(e, n, n, 13000, true, false, 8);
+		System.out.println(" " + e + ": " + (bytes >> 20) + " MB for two arrays of " + n);
+	    }
+	}
+
+	//
+	// Live data allocated since the last collection, in the old generation 
+	// for the big arrays, is not free
+	//
+	long before = availableAfterGC();
+
+	int[][] live = new int[(int) (maxAvailable() / 3 >> 24)][];
+	for (int i = 0; i < live.length; i++) {
+	    live[i] = new int[1 << 22];
+	}
+
+	long after = available();
+	long slack = maxAvailable() / 50;
+
+	System.out.println("\n available: " + (before >> 20) + " MB, " + (after >> 20) + " MB with " 
+			   + (16L * live.length) + " MB live: " 
+			   + ((after <= before - (long) ((16L << 20) * live.length * USABLE_HEAP) + slack) ? "ok" : "WRONG"));
+
+    } // main()
+
+
+
+    //
+    // Helpers
+    //
+
+    static long align(long bytes) {
+
+	return (bytes + ALIGN - 1) / ALIGN * ALIGN;
+    }
+
+
+
+    /**
+     * Read a boolean flag of the HotSpot VM; the default if it cannot be read
+     */
+    static boolean vmFlag(String name, boolean dflt) {
+
+	try {
+	    com.sun.management.HotSpotDiagnosticMXBean bean = 
+		ManagementFactory.getPlatformMXBean(com.sun.management.HotSpotDiagnosticMXBean.class);
+
+	    return Boolean.parseBoolean(bean.getVMOption(name).getValue());
+	}
+	catch (Throwable ex) {
+	    return dflt;
+	}
+
+    } // vmFlag
+
+
+
+    /**
+     * Measure the bytes allocated per boxed element and per HashMap entry, 
+     * and keep them when they are larger than the model: the model then 
+     * never underestimates what this JVM allocates
+     */
+    private void calibrate() {
+
+	ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+
+	if ( !(mx instanceof com.sun.management.ThreadMXBean) ) {
+	    return;
+	}
+
+	com.sun.management.ThreadMXBean tmx = (com.sun.management.ThreadMXBean) mx;
+
+	try {
+	    if ( ! tmx.isThreadAllocatedMemorySupported() ) {
+		return;
+	    }
+	    tmx.setThreadAllocatedMemoryEnabled(true);
+
+	    long tid = Thread.currentThread().getId();
+
+	    // Boxed elements, outside of the Integer cache
+	    long before = tmx.getThreadAllocatedBytes(tid);
+
+	    Integer[] arr = new Integer[SAMPLE];
+	    for (int i = 0; i < SAMPLE; i++) {
+		arr[i] = 1000 + i;
+	    }
+
+	    long boxed = tmx.getThreadAllocatedBytes(tid) - before;
+
+	    // HashMap entries, in a map sized upfront so that no table is rehashed
+	    int capacity = (int) (SAMPLE / 0.75F) + 1;
+	    before = tmx.getThreadAllocatedBytes(tid);
+
+	    Map<Integer,Integer> map = new HashMap<Integer,Integer>(capacity);
+	    for (Integer elem : arr) {
+		map.put(elem, 1);
+	    }
+
+	    long entries = tmx.getThreadAllocatedBytes(tid) - before;
+	    long table = align(header_bytes + 4 + (long) ref_bytes * Integer.highestOneBit(capacity * 2 - 1));
+
+	    if ( boxed > 0 && entries > table && map.size() == SAMPLE ) {
+		boxed_bytes = Math.max(boxed_bytes, (double) boxed / SAMPLE);
+		node_bytes  = Math.max(node_bytes, (double) (entries - table) / SAMPLE);
+		calibrated  = true;
+	    }
+	}
+	catch (UnsupportedOperationException ex) {
+	    ; // Keep the model
+	}
+
+    } // calibrate
+
+
+} // MemoryFootprint
@@ -0,0 +1,218 @@
+package gabriel.intersection.alg;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+
+/**
+ * MinHash sketch of a set of ints, estimating the Jaccard similarity
+ * |A n B| / |A u B| of two sets.
+ *
+ * This is one-permutation MinHash: each element is hashed once, the low
+ * bits of the hash select one of k buckets, and the bucket keeps the
+ * smallest of the other bits seen in it. Two sets agree on the minimum
+ * of a bucket with probability about J, hence the fraction of buckets
+ * where the sketches agree estimates J, with a standard error of at
+ * most sqrt(J (1 - J) / k) <= 1 / (2 sqrt(k)).
+ *
+ * Sketches with the same k can be merged (bucket-wise minimum), giving
+ * the sketch of the union, and are serializable.
+ */
+public class MinHash implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    // Marker for a bucket that has seen no element
+    private static final int EMPTY = Integer.MAX_VALUE;
+
+    // Seed of the hash of the elements; not the seed of HyperLogLog
+    private static final long SEED = 0x632BE59BD9B4E019L;
+
+
+    private final int[] mins;
+
+    // log2 of the number of buckets
+    private final int shift;
+
+
+
+    //
+    // Constructors
+    //
+
+    /**
+     * @param buckets: number of buckets, rounded up to a power of two
+     */
+    public MinHash (int buckets) {
+
+	int k = Integer.highestOneBit(Math.max(buckets - 1, 1)) << 1;
+
+	this.shift = Integer.numberOfTrailingZeros(k);
+	this.mins = new int[k];
+
+	Arrays.fill(mins, EMPTY);
+    }
+
+    public MinHash (MinHash other) {
+
+	this.shift = other.shift;
+	this.mins = other.mins.clone();
+    }
+
+
+
+    public static void main(String[] args) {
+
+	ArrayFactory factory = ArrayFactory.getArrayFactory(2000000);
+
+	int[] arr1 = factory.getIntArray(1000000);
+	int[] arr2 = factory.getIntArray(1000000);
+
+	MinHash a = new MinHash(4096);
+	MinHash b = new MinHash(4096);
+	a.addAll(arr1);
+	b.addAll(arr2);
+
+	IntHashSet set1 = new IntHashSet(), set2 = new IntHashSet();
+	for (int x : arr1) {
+	    set1.add(x);
+	}
+	for (int x : arr2) {
+	    set2.add(x);
+	}
+
+	int common = new IntersectArrays<Integer>().intersectArrays_size(arr1, arr2);
+	double jaccard = (double) common / (set1.size() + set2.size() - common);
+
+	System.out.println("\n Jaccard similarity: " + jaccard);
+	System.out.println(" MinHash estimate:   " + jaccard(a, b) +
+			   " (standard error at most " + a.maxError() + ")");
+
+    } // main()
+
+
+
+    /**
+     * Number of buckets such that the standard error of jaccard() is at most error
+     */
+    public static int bucketsFor(double error) {
+
+	return (int) Math.ceil(1.0 / (4 * error * error));
+    }
+
+
+
+    /**
+     * Add an element
+     */
+    public void add(int key) {
+
+	long h = HyperLogLog.hash64(key, SEED);
+
+	int bucket = (int) h & (mins.length - 1);
+
+	// 31 bits other than the bucket bits, so never EMPTY
+	int value = (int) (h >>> 33);
+
+	if ( value < mins[bucket] ) {
+	    mins[bucket] = value;
+	}
+
+    } // add
+
+
+
+    public void addAll(int[] arr) {
+
+	for (int key : arr) {
+	    add(key);
+	}
+    }
+
+
+
+    /**
+     * Add the elements of another sketch with the same buckets to this one
+     */
+    public void merge(MinHash other) {
+
+	check(other);
+
+	for (int i = 0; i < mins.length; i++) {
+	    if ( other.mins[i] < mins[i] ) {
+		mins[i] = other.mins[i];
+	    }
+	}
+
+    } // merge
+
+
+
+    /**
+     * Estimated Jaccard similarity of the sets of two sketches: the
+     * fraction of the buckets, among those not empty in both,
+     * where the two sketches have the same minimum
+     */
+    public static double jaccard(MinHash a, MinHash b) {
+
+	a.check(b);
+
+	int same = 0, used = 0;
+
+	for (int i = 0; i < a.mins.length; i++) {
+
+	    int x = a.mins[i];
+	    int y = b.mins[i];
+
+	    if ( x != EMPTY || y != EMPTY ) {
+		used++;
+		if ( x == y ) {
+		    same++;
+		}
+	    }
+	}
+
+	return (used > 0) ? (double) same / used : 0.0;
+
+    } // jaccard
+
+
+
+    public int getBuckets() {
+
+	return mins.length;
+    }
+
+
+    /**
+     * Bound on the standard error of jaccard(), 1 / (2 sqrt(k))
+     */
+    public double maxError() {
+
+	return 0.5 / Math.sqrt(mins.length);
+    }
+
+
+    public boolean equals(Object o) {
+
+	return (o instanceof MinHash) && Arrays.equals(mins, ((MinHash) o).mins);
+    }
+
+    public int hashCode() {
+
+	return Arrays.hashCode(mins);
+    }
+
+
+
+    private void check(MinHash other) {
+
+	if ( other.mins.length != mins.length ) {
+	    throw new IllegalArgumentException("Cannot compare sketches of " +
+					       mins.length + " and " + other.mins.length + " buckets");
+	}
+
+    } // check
+
+
+} // MinHash
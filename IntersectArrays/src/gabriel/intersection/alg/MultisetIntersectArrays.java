@@ -0,0 +1,452 @@
+package gabriel.intersection.alg;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Intersect two arrays as multisets (bags): each element common to both
+ * is found with the smaller of its counts in the two arrays, e.g., the
+ * intersection of {1, 2, 2, 2} and {2, 2, 5} is {2=2}.
+ *
+ * intersectArrays_size of IntersectArrays keeps a count per element in
+ * a HashMap<T,Integer>, but only to count each element once, and boxes a
+ * new Integer at each hit. Here the elements of array "a" are counted,
+ * and each element of "b" takes one from its count while it is positive:
+ * what it takes is the count of the element in the intersection. Objects
+ * are counted in a HashMap with a mutable int[] per element, and ints in
+ * an IntCountMap, with no boxing at all.
+ *
+ * Sorted arrays are intersected by runs instead: the equal elements of
+ * each array are next to each other, so a run of each is matched at once,
+ * and skipped by galloping. The parallel version partitions both arrays
+ * into buckets by hash on the pool of ParallelIntersectArrays, and counts
+ * each pair of buckets in its own task, with its own IntCountMap.
+ */
+public class MultisetIntersectArrays {
+
+    // A count map is first sized for at most this many keys, then grown
+    // as needed: the arrays may hold many duplicates
+    private static final int MAX_INITIAL = 1 << 20;
+
+
+    private final ParallelIntersectArrays parallel;
+
+
+    //
+    // Constructors
+    //
+    public MultisetIntersectArrays (int parallelism) {
+
+	this.parallel = new ParallelIntersectArrays(parallelism);
+    }
+
+    public MultisetIntersectArrays () {
+
+	this(0); // One thread per available processor
+    }
+
+
+    public int getParallelism() {
+
+	return parallel.getParallelism();
+    }
+
+
+    /**
+     * Release the worker threads of the pool
+     */
+    public void shutdown() {
+
+	parallel.shutdown();
+    }
+
+
+
+    public static void main(String[] args) {
+
+	Integer[] arr1 = {1, 2, 2, 2, 6, 70, 70};
+	Integer[] arr2 = {2, 2, 70, 70, 70, 5, 1};
+
+	int[] int_arr1 = {1, 2, 2, 2, 6, 70, 70};
+	int[] int_arr2 = {2, 2, 70, 70, 70, 5, 1};
+
+	MultisetIntersectArrays mia = new MultisetIntersectArrays();
+
+	System.out.println("\n array 1: " + Arrays.toString(arr1));
+	System.out.println(" array 2: " + Arrays.toString(arr2));
+
+	System.out.println(" bag intersection: " + mia.intersectBags(arr1, arr2)
+			   + ", size " + mia.intersectBags_size(arr1, arr2));
+	System.out.println(" int bag intersection: " + mia.intersectBags(int_arr1, int_arr2)
+			   + ", size " + mia.intersectBags_size(int_arr1, int_arr2));
+
+	//
+	// Duplicate-heavy arrays: each variant against the others, and
+	// against counting in a HashMap<Integer,Integer>
+	//
+	boolean ok = true;
+
+	System.out.println("\n  range   boxed ms  hash ms  sorted ms  parallel ms   distinct   common");
+
+	for (int range : new int[] {1000, 100000, 10000000}) {
+
+	    ArrayFactory factory = ArrayFactory.getArrayFactory(range, 42L);
+	    int[] a = factory.getIntArray(2000000);
+	    int[] b = factory.getIntArray(1000000);
+
+	    int[] sorted_a = a.clone();
+	    int[] sorted_b = b.clone();
+	    SortedIntersectArrays.sort(sorted_a);
+	    SortedIntersectArrays.sort(sorted_b);
+
+	    // Warm up
+	    mia.intersectBags_size(a, b);
+	    mia.intersectBagsParallel_size(a, b);
+
+	    long t0 = System.nanoTime();
+	    Map<Integer,Integer> boxed = boxedBags(a, b);
+	    long t1 = System.nanoTime();
+	    IntCountMap hash = mia.intersectBags(a, b);
+	    long t2 = System.nanoTime();
+	    IntCountMap sorted = mia.intersectSortedBags(sorted_a, sorted_b);
+	    long t3 = System.nanoTime();
+	    IntCountMap par = mia.intersectBagsParallel(a, b);
+	    long t4 = System.nanoTime();
+
+	    long size = mia.intersectBags_size(a, b);
+
+	    ok &= equal(hash, boxed) && equal(sorted, boxed) && equal(par, boxed)
+		&& size == hash.total()
+		&& size == mia.intersectSortedBags_size(sorted_a, sorted_b)
+		&& size == mia.intersectBagsParallel_size(a, b);
+
+	    System.out.println(String.format("%9d  %8d  %7d  %9d  %11d  %9d  %7d", range,
+					     (t1 - t0) / 1000000, (t2 - t1) / 1000000, (t3 - t2) / 1000000,
+					     (t4 - t3) / 1000000, hash.size(), size));
+	}
+
+	System.out.println("\n bag intersections: " + (ok ? "ok" : "WRONG"));
+
+	mia.shutdown();
+
+    } // main()
+
+
+
+    /**
+     * The bag intersection counted in a HashMap<Integer,Integer>, boxing
+     * a new count at each element: the baseline of main()
+     */
+    private static Map<Integer,Integer> boxedBags(int[] a, int[] b) {
+
+	Map<Integer,Integer> aMap = new HashMap<Integer,Integer>();
+	for (int elem : a) {
+	    aMap.merge(elem, 1, Integer::sum);
+	}
+
+	Map<Integer,Integer> result = new HashMap<Integer,Integer>();
+	for (int elem : b) {
+	    Integer ct = aMap.get(elem);
+	    if ( ct != null && ct > 0 ) {
+		aMap.put(elem, ct - 1);
+		result.merge(elem, 1, Integer::sum);
+	    }
+	}
+	return result;
+
+    } // boxedBags
+
+
+    private static boolean equal(IntCountMap map, Map<Integer,Integer> ref) {
+
+	boolean[] ok = {map.size() == ref.size()};
+
+	map.forEach( (key, count) -> ok[0] &= Integer.valueOf(count).equals(ref.get(key)) );
+
+	return ok[0];
+
+    } // equal
+
+
+
+    //
+    // Arrays of objects
+    //
+
+    /**
+     * The elements common to a and b, by equals() and hashCode(), each
+     * with the smaller of its counts in a and in b
+     */
+    public <T> Map<T,Integer> intersectBags(T[] a, T[] b) {
+
+	Map<T,int[]> counts = bagCounts(a, b);
+
+	Map<T,Integer> result = new HashMap<T,Integer>();
+
+	for (Map.Entry<T,int[]> e : counts.entrySet()) {
+	    if ( e.getValue()[1] > 0 ) {
+		result.put(e.getKey(), e.getValue()[1]);
+	    }
+	}
+	return result;
+
+    } // intersectBags
+
+
+
+    /**
+     * Size of the bag intersection: the sum of its counts
+     */
+    public <T> long intersectBags_size(T[] a, T[] b) {
+
+	long result = 0;
+
+	for (int[] ct : bagCounts(a, b).values()) {
+	    result += ct[1];
+	}
+	return result;
+
+    } // intersectBags_size
+
+
+
+    /**
+     * For each element of a: its count in a not matched by b, and its
+     * count matched, i.e., its count in the intersection
+     */
+    private static <T> Map<T,int[]> bagCounts(T[] a, T[] b) {
+
+	Map<T,int[]> counts = new HashMap<T,int[]>();
+
+	for (T elem : a) {
+	    int[] ct = counts.get(elem);
+	    if ( ct == null ) {
+		counts.put(elem, new int[] {1, 0});
+	    }
+	    else {
+		ct[0]++;
+	    }
+	}
+
+	for (T elem : b) {
+	    int[] ct = counts.get(elem);
+	    if ( ct != null && ct[0] > 0 ) {
+		ct[0]--;
+		ct[1]++;
+	    }
+	}
+
+	return counts;
+
+    } // bagCounts
+
+
+
+    //
+    // Arrays of ints, by hash
+    //
+
+    /**
+     * The elements common to a and b, each with the smaller of its
+     * counts in a and in b; array "a" is counted in hash
+     */
+    public IntCountMap intersectBags(int[] a, int[] b) {
+
+	IntCountMap result = new IntCountMap(Math.min(Math.min(a.length, b.length), MAX_INITIAL));
+
+	bagIntersect(a, 0, a.length, b, 0, b.length, result);
+
+	return result;
+
+    } // intersectBags
+
+
+
+    public long intersectBags_size(int[] a, int[] b) {
+
+	return bagIntersect(a, 0, a.length, b, 0, b.length, null);
+
+    } // intersectBags_size
+
+
+
+    /**
+     * Intersect a[from_a, to_a) and b[from_b, to_b) as bags: add the
+     * common elements and their counts to result, if not null; return
+     * the sum of the counts
+     */
+    static long bagIntersect(int[] a, int from_a, int to_a, int[] b, int from_b, int to_b, IntCountMap result) {
+
+	IntCountMap aCounts = new IntCountMap(Math.min(to_a - from_a, MAX_INITIAL));
+
+	for (int i = from_a; i < to_a; i++) {
+	    aCounts.increment(a[i]);
+	}
+
+	long total = 0;
+
+	// Each element of "b" takes one from its count in "a", while any is left
+	for (int i = from_b; i < to_b; i++) {
+	    if ( aCounts.decrement(b[i]) >= 0 ) {
+		if ( result != null ) {
+		    result.increment(b[i]);
+		}
+		total++;
+	    }
+	}
+
+	return total;
+
+    } // bagIntersect
+
+
+
+    //
+    // Sorted arrays of ints, by runs
+    //
+
+    /**
+     * The bag intersection of two sorted arrays
+     */
+    public IntCountMap intersectSortedBags(int[] a, int[] b) {
+
+	IntCountMap result = new IntCountMap(Math.min(Math.min(a.length, b.length), MAX_INITIAL));
+
+	sortedRuns(a, b, result);
+
+	return result;
+
+    } // intersectSortedBags
+
+
+
+    public long intersectSortedBags_size(int[] a, int[] b) {
+
+	return sortedRuns(a, b, null);
+
+    } // intersectSortedBags_size
+
+
+
+    /**
+     * Merge the runs of equal elements of two sorted arrays: a run common
+     * to both adds the shorter of its two lengths. When an array is much
+     * bigger, it is galloped through; a run is always galloped over
+     */
+    private static long sortedRuns(int[] a, int[] b, IntCountMap result) {
+
+	boolean gallop = SortedIntersectArrays.useGallop(a.length, b.length);
+
+	int i = 0, j = 0;
+	long total = 0;
+
+	while ( i < a.length && j < b.length ) {
+
+	    int x = a[i];
+	    int y = b[j];
+
+	    if ( x < y ) {
+		i = gallop ? SortedIntersectArrays.gallop(a, i, y) : i + 1;
+	    }
+	    else if ( x > y ) {
+		j = gallop ? SortedIntersectArrays.gallop(b, j, x) : j + 1;
+	    }
+	    else {
+		int end_a = runEnd(a, i);
+		int end_b = runEnd(b, j);
+
+		int count = Math.min(end_a - i, end_b - j);
+		if ( result != null ) {
+		    result.add(x, count);
+		}
+		total += count;
+
+		i = end_a;
+		j = end_b;
+	    }
+	}
+
+	return total;
+
+    } // sortedRuns
+
+
+
+    /**
+     * End of the run of arr[from] in the sorted array arr
+     */
+    private static int runEnd(int[] arr, int from) {
+
+	int x = arr[from];
+
+	return (x == Integer.MAX_VALUE) ? arr.length : SortedIntersectArrays.gallop(arr, from, x + 1);
+
+    } // runEnd
+
+
+
+    //
+    // Arrays of ints, in parallel
+    //
+
+    /**
+     * The bag intersection, one pair of buckets per task: the equal
+     * elements fall in the same bucket, so the buckets have no element
+     * in common, and their results are just put together
+     */
+    public IntCountMap intersectBagsParallel(int[] a, int[] b) {
+
+	int buckets = parallel.numBuckets();
+
+	ParallelIntersectArrays.Partition pa = parallel.partition(a, buckets);
+	ParallelIntersectArrays.Partition pb = parallel.partition(b, buckets);
+
+	IntCountMap[] found = new IntCountMap[buckets];
+
+	parallel.forEach(buckets, k -> {
+	    found[k] = new IntCountMap(Math.min(Math.min(pa.size(k), pb.size(k)), MAX_INITIAL));
+	    bagIntersect(pa.elems, pa.start[k], pa.start[k + 1], pb.elems, pb.start[k], pb.start[k + 1], found[k]);
+	});
+
+	int total = 0;
+	for (IntCountMap f : found) {
+	    total += f.size();
+	}
+
+	IntCountMap result = new IntCountMap(total);
+	for (IntCountMap f : found) {
+	    f.forEach(result::add);
+	}
+
+	return result;
+
+    } // intersectBagsParallel
+
+
+
+    public long intersectBagsParallel_size(int[] a, int[] b) {
+
+	int buckets = parallel.numBuckets();
+
+	ParallelIntersectArrays.Partition pa = parallel.partition(a, buckets);
+	ParallelIntersectArrays.Partition pb = parallel.partition(b, buckets);
+
+	long[] counts = new long[buckets];
+
+	parallel.forEach(buckets, k -> {
+	    counts[k] = bagIntersect(pa.elems, pa.start[k], pa.start[k + 1], pb.elems, pb.start[k], pb.start[k + 1], null);
+	});
+
+	long result = 0;
+	for (long ct : counts) {
+	    result += ct;
+	}
+
+	return result;
+
+    } // intersectBagsParallel_size
+
+
+} // MultisetIntersectArrays
@@ -0,0 +1,314 @@
+package gabriel.intersection.alg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+
+/**
+ * Intersect two arrays of ints in parallel, on a ForkJoinPool.
+ *
+ * Both arrays are partitioned by the hash of their elements into the 
+ * same number of buckets, so that equal elements of the two arrays land 
+ * in buckets with the same index. Then each pair of buckets is intersected 
+ * by its own task with its own IntHashSet: the tasks share no table and take 
+ * no lock, and the per-bucket counts (or elements) are merged at the end.
+ *
+ * The partitioning itself is parallel too: each chunk of an array counts 
+ * its elements per bucket, a prefix sum over the counts gives every chunk 
+ * a disjoint slice of each bucket, and the chunks scatter their elements 
+ * into their slices.
+ */
+public class ParallelIntersectArrays {
+
+    // Number of buckets per worker thread, so that work stealing can
+    // even out buckets of uneven sizes
+    private static final int BUCKETS_PER_THREAD = 4;
+
+    // Arrays shorter than this are partitioned in a single chunk
+    private static final int MIN_CHUNK = 1 << 16;
+
+
+    // The pool that runs the tasks
+    private ForkJoinPool pool;
+
+    // Number of worker threads in the pool
+    private int parallelism;
+
+
+    //
+    // Constructors
+    //
+    public ParallelIntersectArrays (int parallelism) {
+
+	if ( parallelism <= 0 ) {
+	    parallelism = Runtime.getRuntime().availableProcessors();
+	}
+
+	this.parallelism = parallelism;
+	this.pool = new ForkJoinPool(parallelism);
+    }
+
+    public ParallelIntersectArrays () {
+
+	this(0); // One thread per available processor
+    }
+
+
+    public int getParallelism() {
+
+	return parallelism;
+    }
+
+
+    /**
+     * Release the worker threads of the pool
+     */
+    public void shutdown() {
+
+	pool.shutdown();
+    }
+
+
+
+    public static void main(String[] args) {
+
+	int[] arr1 = {1, 2, 6, 70, 70};
+	int[] arr2 = {10, 2, 5, 1, 70};
+
+	ParallelIntersectArrays pia = new ParallelIntersectArrays();
+
+	System.out.println("\n array 1: " + Arrays.toString(arr1));
+	System.out.println(" array 2: " + Arrays.toString(arr2));
+
+	System.out.println(" parallel intersection has size " + pia.intersectArrays_size(arr1, arr2));
+	System.out.println(" parallel intersection: " + Arrays.toString(pia.intersectArrays(arr1, arr2)));
+
+	pia.shutdown();
+
+    } // main()
+
+
+
+    /**
+     * Find the size of the intersection; the buckets of array "a" 
+     * are put in hash, the buckets of array "b" are probed
+     */
+    public int intersectArrays_size(int[] a, int[] b) {
+
+	int buckets = numBuckets();
+
+	Partition pa = partition(a, buckets);
+	Partition pb = partition(b, buckets);
+
+	int[] counts = new int[buckets];
+
+	forEach(buckets, k -> counts[k] = bucketIntersect(pa, pb, k, null));
+
+	int result = 0;
+	for (int ct : counts) {
+	    result += ct;
+	}
+
+	return result;
+
+    } // intersectArrays_size
+
+
+
+    /**
+     * Find the elements in the intersection
+     */
+    public int[] intersectArrays(int[] a, int[] b) {
+
+	int buckets = numBuckets();
+
+	Partition pa = partition(a, buckets);
+	Partition pb = partition(b, buckets);
+
+	int[][] found = new int[buckets][];
+
+	forEach(buckets, k -> {
+	    int[] res = new int[Math.min(pa.size(k), pb.size(k))];
+	    int n = bucketIntersect(pa, pb, k, res);
+	    found[k] = Arrays.copyOf(res, n);
+	});
+
+	int total = 0;
+	for (int[] f : found) {
+	    total += f.length;
+	}
+
+	int[] result = new int[total];
+	int pos = 0;
+	for (int[] f : found) {
+	    System.arraycopy(f, 0, result, pos, f.length);
+	    pos += f.length;
+	}
+
+	return result;
+
+    } // intersectArrays
+
+
+
+    //
+    // Partitioning
+    //
+
+    /**
+     * An array whose elements are grouped by bucket:
+     * bucket k is elems[start[k] .. start[k+1])
+     */
+    static class Partition {
+
+	int[] elems;
+	int[] start;
+
+	int size(int k) {
+	    return start[k + 1] - start[k];
+	}
+
+    } // Partition
+
+
+
+    /**
+     * Number of buckets: a power of two, 
+     * at least BUCKETS_PER_THREAD per worker thread
+     */
+    int numBuckets() {
+
+	return Integer.highestOneBit(parallelism * BUCKETS_PER_THREAD - 1) << 1;
+    }
+
+
+
+    /**
+     * Bucket of an element; it uses the high bits of the hash, while 
+     * IntHashSet uses the low bits, so the keys of one bucket still 
+     * spread over the whole table of the bucket
+     */
+    static int bucket(int elem, int shift) {
+
+	return IntHashSet.mix(elem) >>> shift;
+    }
+
+
+
+    /**
+     * Group the elements of arr by bucket, in parallel over chunks of arr
+     */
+    Partition partition(int[] arr, int buckets) {
+
+	int n = arr.length;
+	int shift = 32 - Integer.numberOfTrailingZeros(buckets);
+
+	int chunks = Math.max(1, Math.min(parallelism * BUCKETS_PER_THREAD, n / MIN_CHUNK));
+	int chunk_len = (n + chunks - 1) / chunks;
+
+	// 1. Count the elements of each chunk per bucket
+	int[][] counts = new int[chunks][buckets];
+
+	forEach(chunks, c -> {
+	    int[] ct = counts[c];
+	    int to = Math.min(n, (c + 1) * chunk_len);
+	    for (int i = c * chunk_len; i < to; i++) {
+		ct[bucket(arr[i], shift)]++;
+	    }
+	});
+
+	// 2. Prefix sums: start of each bucket, and start of the slice
+	//    of each chunk within each bucket
+	Partition p = new Partition();
+	p.elems = new int[n];
+	p.start = new int[buckets + 1];
+
+	int pos = 0;
+	for (int k = 0; k < buckets; k++) {
+	    p.start[k] = pos;
+	    for (int c = 0; c < chunks; c++) {
+		int ct = counts[c][k];
+		counts[c][k] = pos;
+		pos += ct;
+	    }
+	}
+	p.start[buckets] = pos;
+
+	// 3. Scatter the elements of each chunk into its slices
+	forEach(chunks, c -> {
+	    int[] next = counts[c];
+	    int to = Math.min(n, (c + 1) * chunk_len);
+	    for (int i = c * chunk_len; i < to; i++) {
+		int elem = arr[i];
+		p.elems[next[bucket(elem, shift)]++] = elem;
+	    }
+	});
+
+	return p;
+
+    } // partition
+
+
+
+    /**
+     * Intersect bucket k of pa and pb, writing the common elements 
+     * to result, if result is not null; return their number
+     */
+    static int bucketIntersect(Partition pa, Partition pb, int k, int[] result) {
+
+	IntHashSet aSet = new IntHashSet(Math.min(pa.size(k), 1 << 20));
+
+	int[] ea = pa.elems;
+	for (int i = pa.start[k]; i < pa.start[k + 1]; i++) {
+	    aSet.add(ea[i]);
+	}
+
+	int n = 0;
+
+	int[] eb = pb.elems;
+	for (int i = pb.start[k]; i < pb.start[k + 1]; i++) {
+	    if ( aSet.remove(eb[i]) ) {
+		if ( result != null ) {
+		    result[n] = eb[i];
+		}
+		n++;
+	    }
+	}
+
+	return n;
+
+    } // bucketIntersect
+
+
+
+    /**
+     * Run body(0) .. body(n-1) as n tasks in the pool, and wait for all of them
+     */
+    void forEach(int n, IntConsumer body) {
+
+	List<RecursiveAction> tasks = new ArrayList<RecursiveAction>(n);
+
+	for (int i = 0; i < n; i++) {
+	    final int k = i;
+	    tasks.add(new RecursiveAction() {
+		protected void compute() {
+		    body.accept(k);
+		}
+	    });
+	}
+
+	pool.invoke(new RecursiveAction() {
+	    protected void compute() {
+		ForkJoinTask.invokeAll(tasks);
+	    }
+	});
+
+    } // forEach
+
+
+} // ParallelIntersectArrays
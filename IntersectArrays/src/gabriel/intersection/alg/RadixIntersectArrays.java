@@ -0,0 +1,339 @@
+package gabriel.intersection.alg;
+
+import java.util.Arrays;
+
+
+/**
+ * Intersect two arrays of ints with hash tables that fit in the cache.
+ *
+ * Once the IntHashSet of the array in hash outgrows the L2 and L3 caches,
+ * each probe of the other array is a cache miss. Here both arrays are
+ * first radix-partitioned by the bits of the hash of their elements,
+ * so that the elements of one partition of the array in hash fill a
+ * table of at most cache_bytes; then each pair of partitions is
+ * intersected with a small table, built and probed while it stays
+ * in the cache, and cleared for the next pair.
+ *
+ * A pass of partitioning writes to at most 2^MAX_PASS_BITS partitions
+ * at a time, so that the partitions being written stay within the TLB
+ * and the write-combining buffers; more partitions take a second pass.
+ * The first pass is the parallel partitioning of ParallelIntersectArrays,
+ * on its pool; then each first-level partition, with its second pass and
+ * its tables, is a task of the pool. So the engine runs in parallel with
+ * as many threads as ParallelIntersectArrays, and single-threaded with one.
+ *
+ * The partitions use the high bits of the hash, and IntHashSet the low
+ * bits, so the keys of a partition still spread over its whole table.
+ */
+public class RadixIntersectArrays {
+
+    // Default size of the table of a partition: the L2 cache of a core
+    public static final long CACHE_BYTES = 256L << 10;
+
+    // Partitions written by one pass
+    static final int MAX_PASS_BITS = 8;
+
+    // Bytes of an IntHashSet per key: an int slot at load factor 1/2
+    private static final int TABLE_BYTES_PER_KEY = 8;
+
+
+    private final ParallelIntersectArrays parallel;
+
+    private final long cache_bytes;
+
+
+    //
+    // Constructors
+    //
+    public RadixIntersectArrays (int parallelism, long cache_bytes) {
+
+	if ( cache_bytes < 1024 ) {
+	    throw new IllegalArgumentException("Cache size too small: " + cache_bytes);
+	}
+
+	this.parallel    = new ParallelIntersectArrays(parallelism);
+	this.cache_bytes = cache_bytes;
+    }
+
+    public RadixIntersectArrays (int parallelism) {
+
+	this(parallelism, CACHE_BYTES);
+    }
+
+    public RadixIntersectArrays () {
+
+	this(0); // One thread per available processor
+    }
+
+
+    public int getParallelism() {
+
+	return parallel.getParallelism();
+    }
+
+
+    /**
+     * Release the worker threads of the pool
+     */
+    public void shutdown() {
+
+	parallel.shutdown();
+    }
+
+
+
+    public static void main(String[] args) {
+
+	int[] arr1 = {1, 2, 6, 70, 70};
+	int[] arr2 = {10, 2, 5, 1, 70};
+
+	RadixIntersectArrays ria = new RadixIntersectArrays();
+
+	System.out.println("\n array 1: " + Arrays.toString(arr1));
+	System.out.println(" array 2: " + Arrays.toString(arr2));
+
+	System.out.println(" radix intersection has size " + ria.intersectArrays_size(arr1, arr2));
+	System.out.println(" radix intersection: " + Arrays.toString(ria.intersectArrays(arr1, arr2)));
+
+	//
+	// Throughput as the array in hash grows, against one IntHashSet;
+	// a small cache size forces the second pass
+	//
+	IntersectArrays<Integer> hash = new IntersectArrays<Integer>();
+	RadixIntersectArrays tiny = new RadixIntersectArrays(0, 1024);
+	boolean ok = true;
+
+	System.out.println("\n   size    bits  hash_int ns/elem  radix ns/elem");
+
+	for (int size = 1 << 18; size <= 1 << 23; size <<= 1) {
+
+	    ArrayFactory factory = ArrayFactory.getArrayFactory(4 * size, 42L);
+	    int[] a = factory.getIntArray(size);
+	    int[] b = factory.getIntArray(size);
+
+	    // Warm up
+	    hash.intersectArrays_size(a, b);
+	    ria.intersectArrays_size(a, b);
+
+	    long t0 = System.nanoTime();
+	    int expected = hash.intersectArrays_size(a, b);
+	    long t1 = System.nanoTime();
+	    int found = ria.intersectArrays_size(a, b);
+	    long t2 = System.nanoTime();
+
+	    ok &= found == expected && tiny.intersectArrays_size(a, b) == expected
+		&& ria.intersectArrays(a, b).length == expected;
+
+	    System.out.println(String.format("%9d  %4d  %14.1f  %14.1f", size, ria.radixBits(size),
+					     (t1 - t0) / (2.0 * size), (t2 - t1) / (2.0 * size)));
+	}
+
+	System.out.println("\n radix intersections: " + (ok ? "ok" : "WRONG"));
+
+	ria.shutdown();
+	tiny.shutdown();
+
+    } // main()
+
+
+
+    /**
+     * Find the size of the intersection; the partitions of array "a"
+     * are put in hash, the partitions of array "b" are probed
+     */
+    public int intersectArrays_size(int[] a, int[] b) {
+
+	int[][] found = intersect(a, b, false);
+
+	int result = 0;
+	for (int[] f : found) {
+	    result += f[0];
+	}
+
+	return result;
+
+    } // intersectArrays_size
+
+
+
+    /**
+     * Find the elements in the intersection
+     */
+    public int[] intersectArrays(int[] a, int[] b) {
+
+	int[][] found = intersect(a, b, true);
+
+	int total = 0;
+	for (int[] f : found) {
+	    total += f.length;
+	}
+
+	int[] result = new int[total];
+	int pos = 0;
+	for (int[] f : found) {
+	    System.arraycopy(f, 0, result, pos, f.length);
+	    pos += f.length;
+	}
+
+	return result;
+
+    } // intersectArrays
+
+
+
+    /**
+     * Bits of the hash that partition an array in hash of n elements,
+     * so that the table of a partition fits in cache_bytes
+     */
+    int radixBits(long n) {
+
+	long partitions = (n * TABLE_BYTES_PER_KEY + cache_bytes - 1) / cache_bytes;
+
+	int bits = 64 - Long.numberOfLeadingZeros(Math.max(partitions - 1, 0));
+
+	return Math.min(bits, 2 * MAX_PASS_BITS);
+
+    } // radixBits
+
+
+
+    /**
+     * Partitions of the first pass: all of them if one pass is enough,
+     * and at least the buckets that keep the threads of the pool busy
+     */
+    private int firstPassBits(int bits) {
+
+	int min_bits = Integer.numberOfTrailingZeros(parallel.numBuckets());
+
+	return Math.max(Math.min(bits, MAX_PASS_BITS), Math.min(min_bits, MAX_PASS_BITS));
+
+    } // firstPassBits
+
+
+
+    /**
+     * Intersect each first-level partition in its own task: the common
+     * elements of partition k, or only their number in found[k][0]
+     */
+    private int[][] intersect(int[] a, int[] b, boolean elements) {
+
+	int bits = radixBits(a.length);
+	int bits1 = firstPassBits(bits);
+	int bits2 = Math.max(bits - bits1, 0);
+
+	int buckets = 1 << bits1;
+
+	// 1. First pass, in parallel over chunks of the arrays
+	ParallelIntersectArrays.Partition pa = parallel.partition(a, buckets);
+	ParallelIntersectArrays.Partition pb = parallel.partition(b, buckets);
+
+	// 2. Second pass and tables, one task per first-level partition
+	int[][] found = new int[buckets][];
+
+	parallel.forEach(buckets, k -> found[k] = intersectPartition(pa, pb, k, bits1, bits2, elements));
+
+	return found;
+
+    } // intersect
+
+
+
+    /**
+     * Split partition k of pa and pb into 2^bits2 partitions by the bits
+     * of the hash that follow the first bits1, and intersect each pair
+     * with one IntHashSet, cleared between pairs
+     */
+    private static int[] intersectPartition(ParallelIntersectArrays.Partition pa,
+					    ParallelIntersectArrays.Partition pb,
+					    int k, int bits1, int bits2, boolean elements) {
+
+	int parts = 1 << bits2;
+
+	int[] ea, sa, eb, sb;
+
+	if ( bits2 == 0 ) {
+	    ea = pa.elems;
+	    eb = pb.elems;
+	    sa = new int[] {pa.start[k], pa.start[k + 1]};
+	    sb = new int[] {pb.start[k], pb.start[k + 1]};
+	}
+	else {
+	    sa = new int[parts + 1];
+	    sb = new int[parts + 1];
+	    ea = scatter(pa.elems, pa.start[k], pa.start[k + 1], bits1, bits2, sa);
+	    eb = scatter(pb.elems, pb.start[k], pb.start[k + 1], bits1, bits2, sb);
+	}
+
+	int biggest = 0;
+	for (int j = 0; j < parts; j++) {
+	    biggest = Math.max(biggest, sa[j + 1] - sa[j]);
+	}
+
+	IntHashSet aSet = new IntHashSet(biggest);
+
+	int[] result = elements ? new int[Math.min(pa.size(k), pb.size(k))] : null;
+	int n = 0;
+
+	for (int j = 0; j < parts; j++) {
+
+	    aSet.clear();
+
+	    for (int i = sa[j]; i < sa[j + 1]; i++) {
+		aSet.add(ea[i]);
+	    }
+
+	    for (int i = sb[j]; i < sb[j + 1]; i++) {
+		if ( aSet.remove(eb[i]) ) {
+		    if ( result != null ) {
+			result[n] = eb[i];
+		    }
+		    n++;
+		}
+	    }
+	}
+
+	return elements ? Arrays.copyOf(result, n) : new int[] {n};
+
+    } // intersectPartition
+
+
+
+    /**
+     * Second pass: group src[from, to) by the bits2 bits of the hash that
+     * follow the first bits1, into a new array; start gets the bounds of
+     * the 2^bits2 groups
+     */
+    private static int[] scatter(int[] src, int from, int to, int bits1, int bits2, int[] start) {
+
+	int parts = 1 << bits2;
+	int shift = 32 - bits1 - bits2;
+	int mask = parts - 1;
+
+	int[] next = new int[parts];
+
+	for (int i = from; i < to; i++) {
+	    next[(IntHashSet.mix(src[i]) >>> shift) & mask]++;
+	}
+
+	int pos = 0;
+	for (int j = 0; j < parts; j++) {
+	    start[j] = pos;
+	    int ct = next[j];
+	    next[j] = pos;
+	    pos += ct;
+	}
+	start[parts] = pos;
+
+	int[] dst = new int[to - from];
+
+	for (int i = from; i < to; i++) {
+	    int elem = src[i];
+	    dst[next[(IntHashSet.mix(elem) >>> shift) & mask]++] = elem;
+	}
+
+	return dst;
+
+    } // scatter
+
+
+} // RadixIntersectArrays
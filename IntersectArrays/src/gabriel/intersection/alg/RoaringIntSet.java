@@ -0,0 +1,1068 @@
+package gabriel.intersection.alg;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.SplittableRandom;
+import java.util.function.IntConsumer;
+
+
+/**
+ * A compressed bitmap of ints, after Roaring bitmaps: the values are
+ * split by their high 16 bits into chunks of 65536 values, and each chunk
+ * is stored in the smallest of three containers:
+ *   - an array of the sorted low 16 bits, 2 bytes per value, for sparse chunks
+ *     (at most ARRAY_MAX values);
+ *   - a bitmap of 65536 bits, 8 KB, for dense chunks;
+ *   - a list of runs (start, length), 4 bytes per run, for clustered chunks.
+ * So, unlike a plain bitmap, it needs no bounded range, and unlike a hash
+ * set, a dense cluster takes a bit per value, or less.
+ *
+ * The intersection walks the chunks of both sets by their high bits,
+ * and intersects the containers of the chunks they share, with one
+ * algorithm for each pairing: merge or gallop for two arrays, bit probes
+ * for an array and a bitmap, a walk over the runs for an array and runs,
+ * word ANDs for two bitmaps, masked ranges for a bitmap and runs, and
+ * overlapping intervals for two lists of runs. andCardinality() only
+ * counts, without building any container.
+ *
+ * The high bits are taken with the sign bit flipped, so that the chunks,
+ * and the iteration, follow the order of the signed ints.
+ */
+public class RoaringIntSet {
+
+    // Most values of an array container; a bitmap is smaller beyond
+    public static final int ARRAY_MAX = 4096;
+
+    // Words of a bitmap container
+    private static final int WORDS = 1024;
+
+    // Gallop in an array when the other array is this many times smaller
+    private static final int GALLOP_RATIO = 32;
+
+
+    // High 16 bits of the chunks, increasing, and their containers
+    private final char[] keys;
+    private final Container[] containers;
+    private final int n;
+
+
+
+    private RoaringIntSet (char[] keys, Container[] containers, int n) {
+
+	this.keys       = keys;
+	this.containers = containers;
+	this.n          = n;
+    }
+
+
+
+    public static void main(String[] args) {
+
+	int[] arr1 = {1, 2, 2, 6, 9, 70000, 70001, 70002, -5};
+	int[] arr2 = {10, 2, 5, 1, 9, 9, 70001, -5};
+
+	RoaringIntSet a = RoaringIntSet.of(arr1);
+	RoaringIntSet b = RoaringIntSet.of(arr2);
+
+	System.out.println("\n array 1: " + Arrays.toString(arr1));
+	System.out.println(" array 2: " + Arrays.toString(arr2));
+	System.out.println(" intersection: " + Arrays.toString(a.and(b).toArray()));
+	System.out.println(" intersection has size " + a.andCardinality(b));
+
+	//
+	// Every pairing of containers, checked against IntersectArrays
+	//
+	SplittableRandom rnd = new SplittableRandom(42);
+
+	int[][] inputs = {
+	    rnd.ints(200000, 0, 1 << 30).toArray(),        // arrays
+	    rnd.ints(2000000, 0, 1 << 22).toArray(),       // bitmaps
+	    runs(rnd, 1 << 22, 1000),                      // runs
+	    rnd.ints(500000, -(1 << 22), 1 << 22).toArray() // arrays and bitmaps, negative values
+	};
+
+	IntersectArrays<Integer> hash = new IntersectArrays<Integer>();
+	boolean ok = true;
+
+	for (int[] x : inputs) {
+	    for (int[] y : inputs) {
+
+		RoaringIntSet rx = RoaringIntSet.of(x);
+		RoaringIntSet ry = RoaringIntSet.of(y);
+
+		int expected = hash.intersectArrays_size(x, y);
+		int[] and = rx.and(ry).toArray();
+
+		ok &= rx.andCardinality(ry) == expected && and.length == expected
+		    && SortedIntersectArrays.isSorted(and);
+	    }
+	    System.out.println("\n " + RoaringIntSet.of(x));
+	}
+
+	System.out.println("\n all pairings of containers: " + (ok ? "ok" : "WRONG"));
+
+    } // main()
+
+
+    // n values in runs of 1 to max_run values, in [0, range)
+    private static int[] runs(SplittableRandom rnd, int range, int max_run) {
+
+	int[] arr = new int[range / 8];
+
+	for (int i = 0; i < arr.length; ) {
+	    int start = rnd.nextInt(range - max_run);
+	    for (int len = 1 + rnd.nextInt(max_run); len > 0 && i < arr.length; len--) {
+		arr[i++] = start++;
+	    }
+	}
+
+	return arr;
+
+    } // runs
+
+
+
+    //
+    // Building
+    //
+
+    /**
+     * The set of the values of an array, in any order, with duplicates.
+     * The low 16 bits of the values are first partitioned by their high
+     * bits (a counting sort on the high bits), then each chunk is made
+     * a bitmap if it has more than ARRAY_MAX values, or else a sorted
+     * array, and finally turned into runs if they are smaller.
+     */
+    public static RoaringIntSet of(int[] values) {
+
+	//
+	// 1. Count the values of each chunk, and partition their low bits
+	//
+	int[] start = new int[(1 << 16) + 1];
+
+	for (int x : values) {
+	    start[high(x) + 1]++;
+	}
+
+	int chunks = 0;
+	for (int k = 0; k < (1 << 16); k++) {
+	    if ( start[k + 1] > 0 ) {
+		chunks++;
+	    }
+	    start[k + 1] += start[k];
+	}
+
+	char[] lows = new char[values.length];
+	int[] pos = Arrays.copyOf(start, 1 << 16);
+
+	for (int x : values) {
+	    lows[pos[high(x)]++] = (char) x;
+	}
+
+	//
+	// 2. One container per chunk
+	//
+	char[] keys = new char[chunks];
+	Container[] containers = new Container[chunks];
+	int n = 0;
+
+	for (int k = 0; k < (1 << 16); k++) {
+
+	    int from = start[k], to = start[k + 1];
+	    if ( from == to ) {
+		continue;
+	    }
+
+	    Container c;
+
+	    if ( to - from > ARRAY_MAX ) {
+		c = BitmapContainer.of(lows, from, to);
+	    }
+	    else {
+		c = ArrayContainer.of(lows, from, to);
+	    }
+
+	    keys[n] = (char) k;
+	    containers[n++] = optimize(c);
+	}
+
+	return new RoaringIntSet(keys, containers, n);
+
+    } // of
+
+
+
+    //
+    // Queries
+    //
+
+    /**
+     * Number of (distinct) values
+     */
+    public long cardinality() {
+
+	long card = 0L;
+	for (int i = 0; i < n; i++) {
+	    card += containers[i].cardinality();
+	}
+	return card;
+
+    } // cardinality
+
+
+    public boolean contains(int x) {
+
+	int i = Arrays.binarySearch(keys, 0, n, (char) high(x));
+
+	return i >= 0 && containers[i].contains((char) x);
+    }
+
+
+
+    /**
+     * Size of the intersection with another set; no container is built
+     */
+    public long andCardinality(RoaringIntSet other) {
+
+	long card = 0L;
+
+	for (int i = 0, j = 0; i < n && j < other.n; ) {
+
+	    char ki = keys[i], kj = other.keys[j];
+
+	    if ( ki < kj ) {
+		i++;
+	    }
+	    else if ( ki > kj ) {
+		j++;
+	    }
+	    else {
+		card += andCardinality(containers[i++], other.containers[j++]);
+	    }
+	}
+
+	return card;
+
+    } // andCardinality
+
+
+
+    /**
+     * The intersection with another set
+     */
+    public RoaringIntSet and(RoaringIntSet other) {
+
+	int max = Math.min(n, other.n);
+	char[] res_keys = new char[max];
+	Container[] res = new Container[max];
+	int m = 0;
+
+	for (int i = 0, j = 0; i < n && j < other.n; ) {
+
+	    char ki = keys[i], kj = other.keys[j];
+
+	    if ( ki < kj ) {
+		i++;
+	    }
+	    else if ( ki > kj ) {
+		j++;
+	    }
+	    else {
+		Container c = and(containers[i++], other.containers[j++]);
+		if ( c != null ) {
+		    res_keys[m] = ki;
+		    res[m++] = c;
+		}
+	    }
+	}
+
+	return new RoaringIntSet(res_keys, res, m);
+
+    } // and
+
+
+
+    //
+    // Iteration
+    //
+
+    /**
+     * Pass each value to action, in increasing order
+     */
+    public void forEach(IntConsumer action) {
+
+	for (int i = 0; i < n; i++) {
+	    containers[i].forEach(base(keys[i]), action);
+	}
+    }
+
+
+    /**
+     * The values, in increasing order
+     */
+    public int[] toArray() {
+
+	long card = cardinality();
+	if ( card > Integer.MAX_VALUE - 8 ) {
+	    throw new IllegalStateException("Too many values for an array: " + card);
+	}
+
+	int[] arr = new int[(int) card];
+	int[] pos = {0};
+
+	forEach(x -> arr[pos[0]++] = x);
+
+	return arr;
+
+    } // toArray
+
+
+
+    /**
+     * Iterator over the values, in increasing order; the values of
+     * one container are expanded at a time
+     */
+    public PrimitiveIterator.OfInt iterator() {
+
+	return new PrimitiveIterator.OfInt() {
+
+	    private final int[] buf = new int[1 << 16];
+	    private int len = 0, pos = 0;
+	    private int next_container = 0;
+
+	    public boolean hasNext() {
+
+		while ( pos == len && next_container < n ) {
+		    int[] k = {0};
+		    containers[next_container].forEach(base(keys[next_container]), x -> buf[k[0]++] = x);
+		    next_container++;
+		    len = k[0];
+		    pos = 0;
+		}
+		return pos < len;
+	    }
+
+	    public int nextInt() {
+
+		if ( ! hasNext() ) {
+		    throw new NoSuchElementException();
+		}
+		return buf[pos++];
+	    }
+	};
+
+    } // iterator
+
+
+
+    //
+    // Size
+    //
+
+    /**
+     * Bytes of the containers and of the keys
+     */
+    public long bytes() {
+
+	long bytes = 2L * keys.length + 8L * containers.length;
+	for (int i = 0; i < n; i++) {
+	    bytes += containers[i].bytes();
+	}
+	return bytes;
+
+    } // bytes
+
+
+    /**
+     * Estimated bytes of the set of n distinct values spread uniformly
+     * over [0, range) (range 0 if unknown): a bitmap for the chunks of
+     * more than ARRAY_MAX values, else an array
+     */
+    public static long estimateBytes(long n, int range) {
+
+	long chunks = (range > 0) ? ((long) range + (1 << 16) - 1) >>> 16 : Math.min(n, 1L << 16);
+	chunks = Math.max(Math.min(chunks, n), 1);
+
+	long per_chunk = n / chunks + 1;
+
+	return chunks * (Math.min(2 * per_chunk, 8L * WORDS) + 32) + 2L * n;
+
+    } // estimateBytes
+
+
+
+    @Override
+    public String toString() {
+
+	int arrays = 0, bitmaps = 0, runs = 0;
+
+	for (int i = 0; i < n; i++) {
+	    if ( containers[i] instanceof ArrayContainer ) {
+		arrays++;
+	    }
+	    else if ( containers[i] instanceof BitmapContainer ) {
+		bitmaps++;
+	    }
+	    else {
+		runs++;
+	    }
+	}
+
+	return String.format("RoaringIntSet: %d values, %d chunks (%d arrays, %d bitmaps, %d runs), %.2f bits per value",
+			     cardinality(), n, arrays, bitmaps, runs, 8.0 * bytes() / Math.max(cardinality(), 1));
+
+    } // toString
+
+
+
+    //
+    // Keys
+    //
+
+    // High 16 bits of x, with the sign flipped
+    static int high(int x) {
+
+	return (x ^ Integer.MIN_VALUE) >>> 16;
+    }
+
+    // The value of low bits 0 in a chunk
+    private static int base(char key) {
+
+	return (key << 16) ^ Integer.MIN_VALUE;
+    }
+
+
+
+    //
+    // Containers
+    //
+
+    /**
+     * The low 16 bits of the values of one chunk
+     */
+    private static abstract class Container {
+
+	abstract int cardinality();
+
+	abstract boolean contains(char x);
+
+	// Pass base | low to action, for each low value, in increasing order
+	abstract void forEach(int base, IntConsumer action);
+
+	abstract long bytes();
+    }
+
+
+
+    /**
+     * Sorted low values
+     */
+    private static final class ArrayContainer extends Container {
+
+	final char[] values;
+	final int card;
+
+	ArrayContainer (char[] values, int card) {
+
+	    this.values = values;
+	    this.card   = card;
+	}
+
+	// The distinct values of lows[from, to), sorted in place
+	static ArrayContainer of(char[] lows, int from, int to) {
+
+	    Arrays.sort(lows, from, to);
+
+	    char[] values = new char[to - from];
+	    int card = 0;
+
+	    for (int i = from; i < to; i++) {
+		if ( card == 0 || values[card - 1] != lows[i] ) {
+		    values[card++] = lows[i];
+		}
+	    }
+
+	    return new ArrayContainer((card == values.length) ? values : Arrays.copyOf(values, card), card);
+
+	} // of
+
+	int cardinality() {
+
+	    return card;
+	}
+
+	boolean contains(char x) {
+
+	    return Arrays.binarySearch(values, 0, card, x) >= 0;
+	}
+
+	void forEach(int base, IntConsumer action) {
+
+	    for (int i = 0; i < card; i++) {
+		action.accept(base | values[i]);
+	    }
+	}
+
+	long bytes() {
+
+	    return 2L * values.length + 16;
+	}
+
+	// Number of runs of consecutive values
+	int runs() {
+
+	    int runs = 0;
+	    for (int i = 0; i < card; i++) {
+		if ( i == 0 || values[i] != values[i - 1] + 1 ) {
+		    runs++;
+		}
+	    }
+	    return runs;
+
+	} // runs
+
+    } // ArrayContainer
+
+
+
+    /**
+     * A bit per low value
+     */
+    private static final class BitmapContainer extends Container {
+
+	final long[] words;
+	final int card;
+
+	BitmapContainer (long[] words, int card) {
+
+	    this.words = words;
+	    this.card  = card;
+	}
+
+	static BitmapContainer of(char[] lows, int from, int to) {
+
+	    long[] words = new long[WORDS];
+
+	    for (int i = from; i < to; i++) {
+		words[lows[i] >>> 6] |= 1L << lows[i];
+	    }
+
+	    return new BitmapContainer(words, popcount(words));
+
+	} // of
+
+	int cardinality() {
+
+	    return card;
+	}
+
+	boolean contains(char x) {
+
+	    return (words[x >>> 6] & (1L << x)) != 0;
+	}
+
+	void forEach(int base, IntConsumer action) {
+
+	    for (int w = 0; w < WORDS; w++) {
+		long word = words[w];
+		while ( word != 0 ) {
+		    action.accept(base | (w << 6) + Long.numberOfTrailingZeros(word));
+		    word &= word - 1;
+		}
+	    }
+	}
+
+	long bytes() {
+
+	    return 8L * WORDS + 16;
+	}
+
+	// Number of runs of set bits
+	int runs() {
+
+	    int runs = 0;
+	    for (int w = 0; w < WORDS; w++) {
+		long word = words[w];
+		// A run starts at each set bit whose lower neighbour is clear
+		long prev = (word << 1) | ((w > 0) ? words[w - 1] >>> 63 : 0L);
+		runs += Long.bitCount(word & ~prev);
+	    }
+	    return runs;
+
+	} // runs
+
+	ArrayContainer toArrayContainer() {
+
+	    char[] values = new char[card];
+	    int k = 0;
+
+	    for (int w = 0; w < WORDS; w++) {
+		long word = words[w];
+		while ( word != 0 ) {
+		    values[k++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+		    word &= word - 1;
+		}
+	    }
+
+	    return new ArrayContainer(values, card);
+
+	} // toArrayContainer
+
+    } // BitmapContainer
+
+
+
+    /**
+     * Runs of consecutive low values: starts[i] .. starts[i] + lengths[i]
+     */
+    private static final class RunContainer extends Container {
+
+	final char[] starts;
+	final char[] lengths;  // length - 1
+	final int runs;
+	final int card;
+
+	RunContainer (char[] starts, char[] lengths, int runs) {
+
+	    this.starts  = starts;
+	    this.lengths = lengths;
+	    this.runs    = runs;
+
+	    int c = 0;
+	    for (int i = 0; i < runs; i++) {
+		c += lengths[i] + 1;
+	    }
+	    this.card = c;
+	}
+
+	static RunContainer of(Container c, int runs) {
+
+	    char[] starts = new char[runs];
+	    char[] lengths = new char[runs];
+	    int[] r = {-1};
+	    int[] prev = {-2};
+
+	    c.forEach(0, x -> {
+		    if ( x != prev[0] + 1 ) {
+			starts[++r[0]] = (char) x;
+		    }
+		    lengths[r[0]] = (char) (x - starts[r[0]]);
+		    prev[0] = x;
+		});
+
+	    return new RunContainer(starts, lengths, runs);
+
+	} // of
+
+	int cardinality() {
+
+	    return card;
+	}
+
+	boolean contains(char x) {
+
+	    // The last run starting at or before x
+	    int i = Arrays.binarySearch(starts, 0, runs, x);
+	    if ( i < 0 ) {
+		i = -i - 2;
+	    }
+	    return i >= 0 && x <= starts[i] + lengths[i];
+	}
+
+	void forEach(int base, IntConsumer action) {
+
+	    for (int i = 0; i < runs; i++) {
+		for (int x = starts[i], end = starts[i] + lengths[i]; x <= end; x++) {
+		    action.accept(base | x);
+		}
+	    }
+	}
+
+	long bytes() {
+
+	    return 4L * starts.length + 32;
+	}
+
+	int end(int i) {
+
+	    return starts[i] + lengths[i];
+	}
+
+    } // RunContainer
+
+
+
+    /**
+     * The smallest container holding the values of c
+     */
+    private static Container optimize(Container c) {
+
+	int card = c.cardinality();
+
+	int runs;
+	if ( c instanceof ArrayContainer ) {
+	    runs = ((ArrayContainer) c).runs();
+	}
+	else if ( c instanceof BitmapContainer ) {
+	    runs = ((BitmapContainer) c).runs();
+	}
+	else {
+	    runs = ((RunContainer) c).runs;
+	}
+
+	long as_runs  = 4L * runs;
+	long as_array = (card <= ARRAY_MAX) ? 2L * card : Long.MAX_VALUE;
+	long as_bitmap = 8L * WORDS;
+
+	if ( as_runs < Math.min(as_array, as_bitmap) ) {
+	    return (c instanceof RunContainer) ? c : RunContainer.of(c, runs);
+	}
+
+	if ( as_array <= as_bitmap ) {
+	    if ( c instanceof ArrayContainer ) {
+		return c;
+	    }
+	    if ( c instanceof BitmapContainer ) {
+		return ((BitmapContainer) c).toArrayContainer();
+	    }
+	    char[] values = new char[card];
+	    int[] k = {0};
+	    c.forEach(0, x -> values[k[0]++] = (char) x);
+	    return new ArrayContainer(values, card);
+	}
+
+	if ( c instanceof BitmapContainer ) {
+	    return c;
+	}
+	long[] words = new long[WORDS];
+	c.forEach(0, x -> words[x >>> 6] |= 1L << x);
+	return new BitmapContainer(words, card);
+
+    } // optimize
+
+
+
+    //
+    // Intersection of two containers, for each pairing
+    //
+
+    private static int andCardinality(Container x, Container y) {
+
+	if ( x instanceof ArrayContainer ) {
+	    ArrayContainer a = (ArrayContainer) x;
+	    if ( y instanceof ArrayContainer ) {
+		return andArrays(a, (ArrayContainer) y, null);
+	    }
+	    if ( y instanceof BitmapContainer ) {
+		return andArrayBitmap(a, (BitmapContainer) y, null);
+	    }
+	    return andArrayRuns(a, (RunContainer) y, null);
+	}
+
+	if ( x instanceof BitmapContainer ) {
+	    BitmapContainer b = (BitmapContainer) x;
+	    if ( y instanceof ArrayContainer ) {
+		return andArrayBitmap((ArrayContainer) y, b, null);
+	    }
+	    if ( y instanceof BitmapContainer ) {
+		return andBitmaps(b, (BitmapContainer) y, null);
+	    }
+	    return andBitmapRuns(b, (RunContainer) y, null);
+	}
+
+	RunContainer r = (RunContainer) x;
+	if ( y instanceof ArrayContainer ) {
+	    return andArrayRuns((ArrayContainer) y, r, null);
+	}
+	if ( y instanceof BitmapContainer ) {
+	    return andBitmapRuns((BitmapContainer) y, r, null);
+	}
+	return andRuns(r, (RunContainer) y, null, null);
+
+    } // andCardinality
+
+
+
+    /**
+     * The intersection of two containers, in the smallest container; null if empty
+     */
+    private static Container and(Container x, Container y) {
+
+	int card;
+	Container c;
+
+	if ( x instanceof RunContainer && y instanceof RunContainer ) {
+
+	    RunContainer r = (RunContainer) x, s = (RunContainer) y;
+	    char[] starts  = new char[r.runs + s.runs];
+	    char[] lengths = new char[r.runs + s.runs];
+	    int runs = andRuns(r, s, starts, lengths);
+	    c = new RunContainer(starts, lengths, runs);
+	    card = c.cardinality();
+	}
+	else if ( x instanceof ArrayContainer || y instanceof ArrayContainer ) {
+
+	    // The intersection is at most as big as the array
+	    ArrayContainer a = (ArrayContainer) ((x instanceof ArrayContainer) ? x : y);
+	    Container o = (a == x) ? y : x;
+	    char[] values = new char[a.card];
+
+	    if ( o instanceof ArrayContainer ) {
+		card = andArrays(a, (ArrayContainer) o, values);
+	    }
+	    else if ( o instanceof BitmapContainer ) {
+		card = andArrayBitmap(a, (BitmapContainer) o, values);
+	    }
+	    else {
+		card = andArrayRuns(a, (RunContainer) o, values);
+	    }
+	    c = new ArrayContainer(values, card);
+	}
+	else {
+
+	    // Two bitmaps, or a bitmap and runs
+	    long[] words = new long[WORDS];
+	    BitmapContainer b = (BitmapContainer) ((x instanceof BitmapContainer) ? x : y);
+	    Container o = (b == x) ? y : x;
+
+	    if ( o instanceof BitmapContainer ) {
+		card = andBitmaps(b, (BitmapContainer) o, words);
+	    }
+	    else {
+		card = andBitmapRuns(b, (RunContainer) o, words);
+	    }
+	    c = new BitmapContainer(words, card);
+	}
+
+	return (card == 0) ? null : optimize(c);
+
+    } // and
+
+
+
+    /**
+     * Two arrays: merge them, or gallop in the bigger one
+     */
+    private static int andArrays(ArrayContainer a, ArrayContainer b, char[] out) {
+
+	if ( a.card > b.card ) {
+	    ArrayContainer t = a;
+	    a = b;
+	    b = t;
+	}
+
+	char[] x = a.values, y = b.values;
+	int n = 0;
+
+	if ( (long) a.card * GALLOP_RATIO < b.card ) {
+
+	    int lo = 0;
+	    for (int i = 0; i < a.card && lo < b.card; i++) {
+
+		char v = x[i];
+
+		// Gallop to the first y[lo] >= v, then binary search
+		int step = 1;
+		while ( lo + step < b.card && y[lo + step] < v ) {
+		    lo += step;
+		    step <<= 1;
+		}
+		int k = Arrays.binarySearch(y, lo, Math.min(lo + step + 1, b.card), v);
+		if ( k >= 0 ) {
+		    if ( out != null ) {
+			out[n] = v;
+		    }
+		    n++;
+		    lo = k + 1;
+		}
+		else {
+		    lo = -k - 1;
+		}
+	    }
+	    return n;
+	}
+
+	for (int i = 0, j = 0; i < a.card && j < b.card; ) {
+
+	    char u = x[i], v = y[j];
+
+	    if ( u < v ) {
+		i++;
+	    }
+	    else if ( u > v ) {
+		j++;
+	    }
+	    else {
+		if ( out != null ) {
+		    out[n] = u;
+		}
+		n++;
+		i++;
+		j++;
+	    }
+	}
+
+	return n;
+
+    } // andArrays
+
+
+
+    /**
+     * An array and a bitmap: probe the bit of each value of the array
+     */
+    private static int andArrayBitmap(ArrayContainer a, BitmapContainer b, char[] out) {
+
+	int n = 0;
+
+	for (int i = 0; i < a.card; i++) {
+	    char v = a.values[i];
+	    if ( (b.words[v >>> 6] & (1L << v)) != 0 ) {
+		if ( out != null ) {
+		    out[n] = v;
+		}
+		n++;
+	    }
+	}
+
+	return n;
+
+    } // andArrayBitmap
+
+
+
+    /**
+     * An array and runs: walk both, in order
+     */
+    private static int andArrayRuns(ArrayContainer a, RunContainer r, char[] out) {
+
+	int n = 0;
+	int k = 0;
+
+	for (int i = 0; i < a.card && k < r.runs; i++) {
+
+	    char v = a.values[i];
+
+	    while ( k < r.runs && r.end(k) < v ) {
+		k++;
+	    }
+	    if ( k < r.runs && r.starts[k] <= v ) {
+		if ( out != null ) {
+		    out[n] = v;
+		}
+		n++;
+	    }
+	}
+
+	return n;
+
+    } // andArrayRuns
+
+
+
+    /**
+     * Two bitmaps: AND them word by word
+     */
+    private static int andBitmaps(BitmapContainer a, BitmapContainer b, long[] out) {
+
+	int n = 0;
+
+	for (int w = 0; w < WORDS; w++) {
+	    long word = a.words[w] & b.words[w];
+	    if ( out != null ) {
+		out[w] = word;
+	    }
+	    n += Long.bitCount(word);
+	}
+
+	return n;
+
+    } // andBitmaps
+
+
+
+    /**
+     * A bitmap and runs: the bits of the bitmap within each run
+     */
+    private static int andBitmapRuns(BitmapContainer b, RunContainer r, long[] out) {
+
+	int n = 0;
+
+	for (int k = 0; k < r.runs; k++) {
+
+	    int start = r.starts[k], end = r.end(k);
+	    int first = start >>> 6, last = end >>> 6;
+
+	    for (int w = first; w <= last; w++) {
+
+		long mask = -1L;
+		if ( w == first ) {
+		    mask &= -1L << start;
+		}
+		if ( w == last ) {
+		    mask &= -1L >>> (63 - (end & 63));
+		}
+
+		long word = b.words[w] & mask;
+		if ( out != null ) {
+		    out[w] |= word;
+		}
+		n += Long.bitCount(word);
+	    }
+	}
+
+	return n;
+
+    } // andBitmapRuns
+
+
+
+    /**
+     * Two lists of runs: the overlaps of their intervals
+     */
+    private static int andRuns(RunContainer r, RunContainer s, char[] starts, char[] lengths) {
+
+	int n = 0;
+	int runs = 0;
+
+	for (int i = 0, j = 0; i < r.runs && j < s.runs; ) {
+
+	    int lo = Math.max(r.starts[i], s.starts[j]);
+	    int hi = Math.min(r.end(i), s.end(j));
+
+	    if ( lo <= hi ) {
+		n += hi - lo + 1;
+		if ( starts != null ) {
+		    starts[runs]  = (char) lo;
+		    lengths[runs] = (char) (hi - lo);
+		}
+		runs++;
+	    }
+
+	    if ( r.end(i) < s.end(j) ) {
+		i++;
+	    }
+	    else {
+		j++;
+	    }
+	}
+
+	return (starts != null) ? runs : n;
+
+    } // andRuns
+
+
+
+    private static int popcount(long[] words) {
+
+	int n = 0;
+	for (long w : words) {
+	    n += Long.bitCount(w);
+	}
+	return n;
+
+    } // popcount
+
+
+} // RoaringIntSet
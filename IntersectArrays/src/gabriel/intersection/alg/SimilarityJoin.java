@@ -0,0 +1,772 @@
+package gabriel.intersection.alg;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * All-pairs set-similarity join of many arrays of ints: every pair of
+ * arrays whose overlap, or Jaccard similarity, reaches a threshold, with
+ * the size of their intersection.
+ *
+ * Intersecting the N (N - 1) / 2 pairs one at a time would put each
+ * array in hash N - 1 times. Here each array is made a set once: its
+ * elements are renamed by their rank in increasing order of frequency,
+ * so that the rarest come first, and sorted. Two sets that reach the
+ * threshold then share an element in their prefixes (the prefix filter
+ * of AllPairs): the first |x| - ceil(t |x|) + 1 elements of a set x for
+ * a Jaccard threshold t, the first |x| - c + 1 for a minimum overlap c.
+ * Only the prefixes go in the inverted index, from element to the sets
+ * whose prefix holds it, and the rare elements of the prefixes keep its
+ * lists short.
+ *
+ * A set x is probed against the index only for the sets y no bigger
+ * than x, so each pair is seen once, and only if |y| >= t |x|, or
+ * |y| >= c (the size filter); the candidates left are verified by
+ * merging the two sorted sets, stopping as soon as the overlap needed
+ * is out of reach.
+ *
+ * The sets are probed in parallel on the pool of ParallelIntersectArrays,
+ * each task with its own counters. The result is a sparse, symmetric
+ * SimilarityJoin.Matrix, from which topK() takes the nearest neighbours
+ * of each array.
+ */
+public class SimilarityJoin {
+
+    // Slack on the thresholds, so that rounding never prunes a pair that
+    // reaches them; the pairs found are still checked exactly
+    private static final double EPS = 1e-9;
+
+
+    public enum Measure {
+
+	OVERLAP,  // Size of the intersection
+	JACCARD;  // |A n B| / |A u B|
+
+    } // Measure
+
+
+    private final ParallelIntersectArrays parallel;
+
+
+    //
+    // Constructors
+    //
+    public SimilarityJoin (int parallelism) {
+
+	this.parallel = new ParallelIntersectArrays(parallelism);
+    }
+
+    public SimilarityJoin () {
+
+	this(0); // One thread per available processor
+    }
+
+
+    public int getParallelism() {
+
+	return parallel.getParallelism();
+    }
+
+
+    /**
+     * Release the worker threads of the pool
+     */
+    public void shutdown() {
+
+	parallel.shutdown();
+    }
+
+
+
+    public static void main(String[] args) {
+
+	int[][] small = {
+	    {1, 2, 3, 4},
+	    {2, 3, 4, 5, 5},
+	    {7, 8, 9},
+	    {1, 2, 3, 4, 6},
+	    {8, 9}
+	};
+
+	SimilarityJoin join = new SimilarityJoin();
+
+	System.out.println();
+	for (int i = 0; i < small.length; i++) {
+	    System.out.println(" array " + i + ": " + Arrays.toString(small[i]));
+	}
+
+	System.out.println("\n pairs with Jaccard >= 0.5: " + join.jaccard(small, 0.5));
+	System.out.println(" pairs with overlap >= 2:   " + join.overlap(small, 2));
+	System.out.println(" top 1 by overlap >= 1:     " + Arrays.deepToString(join.overlap(small, 1).topK(1)));
+
+	//
+	// Segments: each array keeps 60% to 100% of one of 20 base arrays,
+	// plus random elements, and is checked against the intersection
+	// of every pair with IntersectArrays
+	//
+	int n = 400;
+	SplittableRandom random = new SplittableRandom(42L);
+	ArrayFactory factory = ArrayFactory.getArrayFactory(1 << 20, 42L);
+
+	int[][] bases = new int[20][];
+	for (int i = 0; i < bases.length; i++) {
+	    bases[i] = factory.getIntArray(100 + random.nextInt(1900));
+	}
+
+	int[][] arrays = new int[n][];
+	for (int i = 0; i < n; i++) {
+
+	    int[] base = bases[random.nextInt(bases.length)];
+	    double keep = 0.6 + 0.4 * random.nextDouble();
+
+	    int[] arr = new int[base.length];
+	    int len = 0;
+	    for (int elem : base) {
+		arr[len++] = (random.nextDouble() < keep) ? elem : random.nextInt(1 << 20);
+	    }
+	    arrays[i] = arr;
+	}
+
+	IntersectArrays<Integer> ia = new IntersectArrays<Integer>();
+
+	long t0 = System.nanoTime();
+	int[][] overlaps = new int[n][n];
+	for (int i = 0; i < n; i++) {
+	    for (int j = i + 1; j < n; j++) {
+		overlaps[i][j] = overlaps[j][i] = ia.intersectArrays_size(arrays[i], arrays[j]);
+	    }
+	}
+	long t1 = System.nanoTime();
+
+	boolean ok = true;
+
+	System.out.println("\n " + n + " arrays, " + (n * (n - 1L) / 2) + " pairs, one at a time: "
+			   + (t1 - t0) / 1000000 + " ms");
+	System.out.println("\n   threshold   pairs  candidates     ms");
+
+	for (double t : new double[] {0.3, 0.5, 0.8}) {
+
+	    long t2 = System.nanoTime();
+	    Matrix m = join.jaccard(arrays, t);
+	    long t3 = System.nanoTime();
+
+	    ok &= check(m, arrays, overlaps, t, 0);
+
+	    System.out.println(String.format("   J >= %.1f  %6d  %10d  %5d", t, m.pairs(), m.candidates(),
+					     (t3 - t2) / 1000000));
+	}
+
+	for (int c : new int[] {100, 400}) {
+
+	    long t2 = System.nanoTime();
+	    Matrix m = join.overlap(arrays, c);
+	    long t3 = System.nanoTime();
+
+	    ok &= check(m, arrays, overlaps, 0, c);
+
+	    System.out.println(String.format("   O >= %3d  %6d  %10d  %5d", c, m.pairs(), m.candidates(),
+					     (t3 - t2) / 1000000));
+	}
+
+	System.out.println("\n similarity joins: " + (ok ? "ok" : "WRONG"));
+
+	join.shutdown();
+
+    } // main()
+
+
+
+    /**
+     * Whether m holds exactly the pairs of arrays that reach Jaccard t,
+     * or overlap c, by their intersection in overlaps
+     */
+    private static boolean check(Matrix m, int[][] arrays, int[][] overlaps, double t, int c) {
+
+	for (int i = 0; i < arrays.length; i++) {
+	    for (int j = 0; j < arrays.length; j++) {
+
+		int o = overlaps[i][j];
+		int union = m.setSize(i) + m.setSize(j) - o;
+
+		boolean in = (i != j) && (c > 0 ? o >= c : o > 0 && o >= t * union);
+
+		if ( in != (m.overlap(i, j) > 0) || (in && m.overlap(i, j) != o) ) {
+		    return false;
+		}
+	    }
+	}
+	return true;
+
+    } // check
+
+
+
+    /**
+     * Pairs of arrays with a Jaccard similarity of at least threshold,
+     * in (0, 1]; the arrays are taken as sets
+     */
+    public Matrix jaccard(int[][] arrays, double threshold) {
+
+	if ( ! (threshold > 0 && threshold <= 1) ) {
+	    throw new IllegalArgumentException("Jaccard threshold not in (0, 1]: " + threshold);
+	}
+
+	return join(arrays, Measure.JACCARD, threshold);
+
+    } // jaccard
+
+
+
+    /**
+     * Pairs of arrays with at least min_overlap elements in common
+     */
+    public Matrix overlap(int[][] arrays, int min_overlap) {
+
+	if ( min_overlap < 1 ) {
+	    throw new IllegalArgumentException("Minimum overlap below 1: " + min_overlap);
+	}
+
+	return join(arrays, Measure.OVERLAP, min_overlap);
+
+    } // overlap
+
+
+
+    private Matrix join(int[][] arrays, Measure measure, double threshold) {
+
+	int n = arrays.length;
+
+	// 1. The arrays as sets of ranks, rarest elements first
+	int[][] by_id = ranks(arrays);
+
+	// 2. The sets by increasing size: position p holds set ids[p]
+	long[] keys = new long[n];
+	for (int i = 0; i < n; i++) {
+	    keys[i] = ((long) by_id[i].length << 32) | i;
+	}
+	Arrays.sort(keys);
+
+	int[] ids = new int[n];
+	int[][] sets = new int[n][];
+	int[] sizes = new int[n];
+	for (int p = 0; p < n; p++) {
+	    ids[p] = (int) keys[p];
+	    sets[p] = by_id[ids[p]];
+	    sizes[p] = sets[p].length;
+	}
+
+	// 3. Inverted index of the prefixes: the positions of the sets
+	//    whose prefix holds a rank, in increasing order
+	int ranks = 0;
+	for (int[] set : sets) {
+	    for (int r : set) {
+		ranks = Math.max(ranks, r + 1);
+	    }
+	}
+
+	int[] start = new int[ranks + 1];
+	for (int p = 0; p < n; p++) {
+	    for (int k = 0, len = prefix(measure, threshold, sizes[p]); k < len; k++) {
+		start[sets[p][k] + 1]++;
+	    }
+	}
+	for (int r = 0; r < ranks; r++) {
+	    start[r + 1] += start[r];
+	}
+
+	int[] postings = new int[start[ranks]];
+	int[] next = Arrays.copyOf(start, ranks);
+	for (int p = 0; p < n; p++) {
+	    for (int k = 0, len = prefix(measure, threshold, sizes[p]); k < len; k++) {
+		postings[next[sets[p][k]]++] = p;
+	    }
+	}
+
+	// 4. Probe the sets in parallel; task k takes the positions k,
+	//    k + tasks, ..., so that each task gets small and big sets
+	int tasks = Math.max(Math.min(parallel.numBuckets(), n), 1);
+	int[][] found = new int[tasks][];
+	AtomicLong candidates = new AtomicLong();
+
+	parallel.forEach(tasks, k -> {
+	    found[k] = probe(k, tasks, sets, sizes, start, postings, measure, threshold, candidates);
+	});
+
+	// 5. Back to the ids of the arrays
+	return new Matrix(measure, by_id, ids, found, candidates.get());
+
+    } // join
+
+
+
+    /**
+     * Probe the sets at positions k, k + step, ... against the index;
+     * return the pairs found as triples (position x, position y, overlap)
+     */
+    private static int[] probe(int k, int step, int[][] sets, int[] sizes, int[] start, int[] postings,
+			       Measure measure, double threshold, AtomicLong candidates) {
+
+	int n = sets.length;
+
+	int[] seen = new int[n];
+	int[] cands = new int[n];
+
+	int[] pairs = new int[3 * 16];
+	int np = 0;
+	long nc = 0;
+
+	for (int x = k; x < n; x += step) {
+
+	    int[] set = sets[x];
+
+	    // Size filter: the first position with a set big enough
+	    int min_size = minSize(measure, threshold, sizes[x]);
+	    int from = lowerBound(sizes, 0, x, min_size);
+
+	    int c = 0;
+
+	    for (int i = 0, len = prefix(measure, threshold, sizes[x]); i < len; i++) {
+
+		int r = set[i];
+		for (int j = lowerBound(postings, start[r], start[r + 1], from); j < start[r + 1]; j++) {
+
+		    int y = postings[j];
+		    if ( y >= x ) {
+			break;
+		    }
+		    if ( seen[y]++ == 0 ) {
+			cands[c++] = y;
+		    }
+		}
+	    }
+
+	    nc += c;
+
+	    for (int i = 0; i < c; i++) {
+
+		int y = cands[i];
+		seen[y] = 0;
+
+		int o = overlap(set, sets[y], minOverlap(measure, threshold, sizes[x], sizes[y]));
+		if ( o > 0 ) {
+		    if ( np == pairs.length ) {
+			pairs = Arrays.copyOf(pairs, 2 * np);
+		    }
+		    pairs[np++] = x;
+		    pairs[np++] = y;
+		    pairs[np++] = o;
+		}
+	    }
+	}
+
+	candidates.addAndGet(nc);
+
+	return Arrays.copyOf(pairs, np);
+
+    } // probe
+
+
+
+    /**
+     * Each array as the sorted set of the ranks of its elements, the
+     * elements ranked by increasing number of arrays that hold them
+     */
+    static int[][] ranks(int[][] arrays) {
+
+	int n = arrays.length;
+
+	// Each array as a sorted set
+	int[][] sets = new int[n][];
+	long total = 0;
+
+	for (int i = 0; i < n; i++) {
+
+	    int[] set = arrays[i].clone();
+	    Arrays.sort(set);
+
+	    int len = 0;
+	    for (int j = 0; j < set.length; j++) {
+		if ( j == 0 || set[j] != set[j - 1] ) {
+		    set[len++] = set[j];
+		}
+	    }
+	    sets[i] = Arrays.copyOf(set, len);
+	    total += len;
+	}
+
+	if ( total > Integer.MAX_VALUE - 8 ) {
+	    throw new IllegalArgumentException("Too many elements to join: " + total);
+	}
+
+	// The distinct elements, and the number of sets that hold each
+	int[] all = new int[(int) total];
+	int pos = 0;
+	for (int[] set : sets) {
+	    System.arraycopy(set, 0, all, pos, set.length);
+	    pos += set.length;
+	}
+	Arrays.sort(all);
+
+	int distinct = 0;
+	int[] freq = new int[all.length];
+	for (int j = 0; j < all.length; j++) {
+	    if ( j == 0 || all[j] != all[j - 1] ) {
+		all[distinct++] = all[j];
+	    }
+	    freq[distinct - 1]++;
+	}
+
+	// Rank of each distinct element, by frequency then value
+	long[] keys = new long[distinct];
+	for (int e = 0; e < distinct; e++) {
+	    keys[e] = ((long) freq[e] << 32) | e;
+	}
+	Arrays.sort(keys);
+
+	int[] rank = new int[distinct];
+	for (int r = 0; r < distinct; r++) {
+	    rank[(int) keys[r]] = r;
+	}
+
+	for (int[] set : sets) {
+	    for (int j = 0; j < set.length; j++) {
+		set[j] = rank[Arrays.binarySearch(all, 0, distinct, set[j])];
+	    }
+	    Arrays.sort(set);
+	}
+
+	return sets;
+
+    } // ranks
+
+
+
+    /**
+     * Length of the prefix of a set of the given size that must share
+     * an element with any set it is paired with; 0 if it cannot be paired
+     */
+    static int prefix(Measure measure, double threshold, int size) {
+
+	int needed = (measure == Measure.JACCARD) ? (int) Math.ceil(threshold * size - EPS) : (int) threshold;
+
+	return (size == 0 || needed > size) ? 0 : size - Math.max(needed, 1) + 1;
+
+    } // prefix
+
+
+
+    /**
+     * Smallest set that can be paired with a set of the given size
+     * that is not smaller than it
+     */
+    static int minSize(Measure measure, double threshold, int size) {
+
+	int min = (measure == Measure.JACCARD) ? (int) Math.ceil(threshold * size - EPS) : (int) threshold;
+
+	return Math.max(min, 1);
+
+    } // minSize
+
+
+
+    /**
+     * Overlap that two sets of sizes size_x and size_y need to be paired
+     */
+    static int minOverlap(Measure measure, double threshold, int size_x, int size_y) {
+
+	if ( measure == Measure.OVERLAP ) {
+	    return (int) threshold;
+	}
+
+	// |x n y| / (|x| + |y| - |x n y|) >= t  <=>  |x n y| >= t (|x| + |y|) / (1 + t)
+	int min = (int) Math.ceil(threshold * (size_x + size_y) / (1 + threshold) - EPS);
+
+	return Math.max(min, 1);
+
+    } // minOverlap
+
+
+
+    /**
+     * Size of the intersection of two sorted sets, or 0 as soon as it
+     * cannot reach needed
+     */
+    static int overlap(int[] x, int[] y, int needed) {
+
+	int i = 0, j = 0, o = 0;
+
+	while ( i < x.length && j < y.length ) {
+
+	    if ( o + Math.min(x.length - i, y.length - j) < needed ) {
+		return 0;
+	    }
+
+	    if ( x[i] < y[j] ) {
+		i++;
+	    }
+	    else if ( x[i] > y[j] ) {
+		j++;
+	    }
+	    else {
+		o++;
+		i++;
+		j++;
+	    }
+	}
+
+	return (o >= needed) ? o : 0;
+
+    } // overlap
+
+
+
+    /**
+     * First index in a[from, to) of a value >= key; a is sorted
+     */
+    private static int lowerBound(int[] a, int from, int to, int key) {
+
+	while ( from < to ) {
+	    int mid = (from + to) >>> 1;
+	    if ( a[mid] < key ) {
+		from = mid + 1;
+	    }
+	    else {
+		to = mid;
+	    }
+	}
+	return from;
+
+    } // lowerBound
+
+
+
+
+    /**
+     * Sparse, symmetric matrix of the pairs of arrays found by a join:
+     * row i holds the arrays paired with array i, in increasing order,
+     * and the size of their intersection with it
+     */
+    public static class Matrix {
+
+	private final Measure measure;
+
+	// Number of distinct elements of each array
+	private final int[] set_sizes;
+
+	// Row i is cols[row_start[i] .. row_start[i + 1]), and its overlaps
+	private final int[] row_start;
+	private final int[] cols;
+	private final int[] overlaps;
+
+	// Pairs verified by merging, after the prefix and size filters
+	private final long candidates;
+
+
+	/**
+	 * Build the rows from the triples (position, position, overlap)
+	 * found by the tasks; ids maps a position to the id of its array
+	 */
+	Matrix(Measure measure, int[][] sets, int[] ids, int[][] found, long candidates) {
+
+	    int n = sets.length;
+
+	    this.measure = measure;
+	    this.candidates = candidates;
+
+	    set_sizes = new int[n];
+	    for (int i = 0; i < n; i++) {
+		set_sizes[i] = sets[i].length;
+	    }
+
+	    row_start = new int[n + 1];
+	    for (int[] f : found) {
+		for (int k = 0; k < f.length; k += 3) {
+		    row_start[ids[f[k]] + 1]++;
+		    row_start[ids[f[k + 1]] + 1]++;
+		}
+	    }
+	    for (int i = 0; i < n; i++) {
+		row_start[i + 1] += row_start[i];
+	    }
+
+	    // Each pair in both rows, as (column, overlap), then sorted by column
+	    long[] entries = new long[row_start[n]];
+	    int[] next = Arrays.copyOf(row_start, n);
+
+	    for (int[] f : found) {
+		for (int k = 0; k < f.length; k += 3) {
+		    int i = ids[f[k]];
+		    int j = ids[f[k + 1]];
+		    entries[next[i]++] = ((long) j << 32) | f[k + 2];
+		    entries[next[j]++] = ((long) i << 32) | f[k + 2];
+		}
+	    }
+
+	    cols = new int[entries.length];
+	    overlaps = new int[entries.length];
+
+	    for (int i = 0; i < n; i++) {
+		Arrays.sort(entries, row_start[i], row_start[i + 1]);
+	    }
+	    for (int k = 0; k < entries.length; k++) {
+		cols[k] = (int) (entries[k] >>> 32);
+		overlaps[k] = (int) entries[k];
+	    }
+
+	} // Matrix
+
+
+	public Measure getMeasure() {
+
+	    return measure;
+	}
+
+
+	/**
+	 * Number of arrays joined
+	 */
+	public int size() {
+
+	    return set_sizes.length;
+	}
+
+
+	/**
+	 * Number of distinct elements of array i
+	 */
+	public int setSize(int i) {
+
+	    return set_sizes[i];
+	}
+
+
+	/**
+	 * Number of pairs of arrays in the matrix
+	 */
+	public long pairs() {
+
+	    return cols.length / 2;
+	}
+
+
+	/**
+	 * Number of pairs verified by merging their sets: what was left
+	 * of the n (n - 1) / 2 pairs by the prefix and size filters
+	 */
+	public long candidates() {
+
+	    return candidates;
+	}
+
+
+	/**
+	 * The arrays paired with array i, in increasing order
+	 */
+	public int[] neighbours(int i) {
+
+	    return Arrays.copyOfRange(cols, row_start[i], row_start[i + 1]);
+	}
+
+
+	/**
+	 * Size of the intersection of arrays i and j, or 0 if they are
+	 * not paired
+	 */
+	public int overlap(int i, int j) {
+
+	    int k = Arrays.binarySearch(cols, row_start[i], row_start[i + 1], j);
+
+	    return (k >= 0) ? overlaps[k] : 0;
+
+	} // overlap
+
+
+	/**
+	 * Jaccard similarity of arrays i and j, or 0 if they are not paired
+	 */
+	public double jaccard(int i, int j) {
+
+	    int o = overlap(i, j);
+
+	    return (o == 0) ? 0.0 : (double) o / (set_sizes[i] + set_sizes[j] - o);
+
+	} // jaccard
+
+
+	/**
+	 * Similarity of arrays i and j by the measure of the join
+	 */
+	public double similarity(int i, int j) {
+
+	    return (measure == Measure.JACCARD) ? jaccard(i, j) : overlap(i, j);
+	}
+
+
+	/**
+	 * The k arrays most similar to array i, by decreasing similarity,
+	 * then increasing id; fewer if i has fewer neighbours
+	 */
+	public int[] topK(int i, int k) {
+
+	    int from = row_start[i];
+	    int len = row_start[i + 1] - from;
+
+	    double[] sims = new double[len];
+	    for (int m = 0; m < len; m++) {
+		sims[m] = similarity(i, cols[from + m]);
+	    }
+
+	    Integer[] order = new Integer[len];
+	    for (int m = 0; m < len; m++) {
+		order[m] = m;
+	    }
+	    Arrays.sort(order, (a, b) -> (sims[a] != sims[b]) ? Double.compare(sims[b], sims[a])
+								: Integer.compare(cols[from + a], cols[from + b]));
+
+	    int[] top = new int[Math.min(k, len)];
+	    for (int m = 0; m < top.length; m++) {
+		top[m] = cols[from + order[m]];
+	    }
+	    return top;
+
+	} // topK
+
+
+	/**
+	 * The k nearest neighbours of each array
+	 */
+	public int[][] topK(int k) {
+
+	    int[][] top = new int[size()][];
+	    for (int i = 0; i < top.length; i++) {
+		top[i] = topK(i, k);
+	    }
+	    return top;
+
+	} // topK
+
+
+	@Override
+	public String toString() {
+
+	    StringBuilder sb = new StringBuilder("{");
+	    for (int i = 0; i < size(); i++) {
+		for (int k = row_start[i]; k < row_start[i + 1]; k++) {
+		    if ( cols[k] > i ) {
+			sb.append(sb.length() > 1 ? ", " : "")
+			    .append("(").append(i).append(",").append(cols[k]).append("): ")
+			    .append(overlaps[k]);
+		    }
+		}
+	    }
+	    return sb.append("}").toString();
+
+	} // toString
+
+
+    } // Matrix
+
+
+} // SimilarityJoin
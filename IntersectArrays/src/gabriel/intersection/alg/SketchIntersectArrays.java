@@ -0,0 +1,226 @@
+package gabriel.intersection.alg;
+
+import java.io.Serializable;
+
+
+/**
+ * Estimate the size of the intersection of two arrays of ints from
+ * small sketches of the arrays, rather than from a hash of one array.
+ *
+ * The sketch of an array holds a HyperLogLog, which estimates the number
+ * of its distinct elements, and a MinHash, which estimates its Jaccard
+ * similarity J with another array. Then |A n B| = J |A u B|, where
+ * |A u B| is estimated by the HyperLogLog of the merged sketches.
+ *
+ * The sketches are sized from the error wanted: for an error e, the
+ * standard error of the estimate is at most e |A u B|. Note that the
+ * bound is relative to the union, not to the intersection: a small
+ * intersection of big arrays is estimated with a big relative error.
+ * The HyperLogLog sketches alone give another estimate, by inclusion-
+ * exclusion |A| + |B| - |A u B|, which needs no MinHash, but has no
+ * such bound: the errors of the three terms add up.
+ *
+ * A sketch is computed once per array, can be merged with the sketch
+ * of more elements, and is serializable, so it can be stored and reused
+ * across many queries.
+ */
+public class SketchIntersectArrays {
+
+    // Error of the estimates, relative to the size of the union
+    private final double rel_error;
+
+    // Sizes of the sketches for that error
+    private final int precision;
+    private final int buckets;
+
+
+
+    //
+    // Constructors
+    //
+
+    /**
+     * @param rel_error: bound on the standard error of the estimated size
+     *        of the intersection, relative to the size of the union, e.g., 0.01
+     */
+    public SketchIntersectArrays (double rel_error) {
+
+	if ( ! (rel_error > 0 && rel_error < 1) ) {
+	    throw new IllegalArgumentException("The error must be in (0, 1): " + rel_error);
+	}
+
+	this.rel_error = rel_error;
+
+	// Half of the error for J, and half for |A u B|
+	this.precision = HyperLogLog.precisionFor(rel_error / 2);
+	this.buckets = MinHash.bucketsFor(rel_error / 2);
+    }
+
+    public SketchIntersectArrays () {
+
+	this(0.01);
+    }
+
+
+
+    public static void main(String[] args) {
+
+	ArrayFactory factory = ArrayFactory.getArrayFactory(4000000);
+
+	int[] arr1 = factory.getIntArray(4000000);
+	int[] arr2 = factory.getIntArray(2000000);
+
+	SketchIntersectArrays sketches = new SketchIntersectArrays(0.01);
+
+	Sketch a = sketches.sketch(arr1);
+	Sketch b = sketches.sketch(arr2);
+
+	int exact = new IntersectArrays<Integer>().intersectArrays_size(arr1, arr2);
+
+	System.out.println("\n exact intersection size:         " + exact);
+	System.out.println(" estimate by Jaccard:              " + sketches.intersectArrays_size(a, b) +
+			   " +/- " + Math.round(sketches.errorBound(a, b)));
+	System.out.println(" estimate by inclusion-exclusion:  " + inclusionExclusion_size(a, b));
+	System.out.println(" sketch size:                      " + sketches.sketchBytes() + " bytes");
+
+    } // main()
+
+
+
+    /**
+     * Sketch of the elements of an array
+     */
+    public Sketch sketch(int[] arr) {
+
+	Sketch s = new Sketch(precision, buckets);
+	s.addAll(arr);
+
+	return s;
+
+    } // sketch
+
+
+
+    /**
+     * Estimated size of the intersection of two arrays, from their sketches
+     */
+    public long intersectArrays_size(Sketch a, Sketch b) {
+
+	double jaccard = MinHash.jaccard(a.min_hash, b.min_hash);
+	long union = HyperLogLog.union(a.hll, b.hll).cardinality();
+
+	return Math.round(jaccard * union);
+
+    } // intersectArrays_size
+
+
+
+    /**
+     * Estimated size of the intersection of two arrays, sketching both
+     */
+    public long intersectArrays_size(int[] a, int[] b) {
+
+	return intersectArrays_size(sketch(a), sketch(b));
+    }
+
+
+
+    /**
+     * Estimated size of the intersection by inclusion-exclusion,
+     * |A| + |B| - |A u B|, from the HyperLogLog sketches only
+     */
+    public static long inclusionExclusion_size(Sketch a, Sketch b) {
+
+	long union = HyperLogLog.union(a.hll, b.hll).cardinality();
+
+	return Math.max(0L, a.hll.cardinality() + b.hll.cardinality() - union);
+
+    } // inclusionExclusion_size
+
+
+
+    /**
+     * Bound on the standard error of intersectArrays_size(a, b), in elements
+     */
+    public double errorBound(Sketch a, Sketch b) {
+
+	return rel_error * HyperLogLog.union(a.hll, b.hll).cardinality();
+    }
+
+
+    public double getRelError() {
+
+	return rel_error;
+    }
+
+
+    // Heap taken by the registers and buckets of one sketch
+    public long sketchBytes() {
+
+	return (1L << precision) + 4L * Integer.highestOneBit(Math.max(buckets - 1, 1)) * 2;
+    }
+
+
+
+    /**
+     * The sketch of a set of ints: its HyperLogLog and its MinHash
+     */
+    public static class Sketch implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	final HyperLogLog hll;
+	final MinHash min_hash;
+
+
+	public Sketch (int precision, int buckets) {
+
+	    hll = new HyperLogLog(precision);
+	    min_hash = new MinHash(buckets);
+	}
+
+
+	public void add(int key) {
+
+	    hll.add(key);
+	    min_hash.add(key);
+	}
+
+	public void addAll(int[] arr) {
+
+	    hll.addAll(arr);
+	    min_hash.addAll(arr);
+	}
+
+
+	/**
+	 * Add the elements of another sketch of the same sizes, e.g.,
+	 * the sketch of another chunk of the same array
+	 */
+	public void merge(Sketch other) {
+
+	    hll.merge(other.hll);
+	    min_hash.merge(other.min_hash);
+	}
+
+
+	// Estimated number of distinct elements
+	public long cardinality() {
+
+	    return hll.cardinality();
+	}
+
+	public HyperLogLog getHyperLogLog() {
+
+	    return hll;
+	}
+
+	public MinHash getMinHash() {
+
+	    return min_hash;
+	}
+
+    } // Sketch
+
+
+} // SketchIntersectArrays
@@ -0,0 +1,388 @@
+package gabriel.intersection.alg;
+
+import java.util.Arrays;
+
+
+/**
+ * Intersect two sorted arrays of ints without building any hash.
+ *
+ * Two algorithms are provided: a linear merge, which scans both 
+ * arrays in O(m + n) and suits arrays of similar sizes; and galloping 
+ * (exponential search), which looks up each element of the small 
+ * array in the big one in O(m log(n/m)) and wins when one array is 
+ * much smaller than the other. Both scan memory sequentially, and
+ * the inputs may contain duplicates: each element of the intersection
+ * is reported once.
+ */
+public class SortedIntersectArrays {
+
+    // Gallop when the big array is at least this many times the small one
+    public static final int GALLOP_RATIO = 32;
+
+
+    public static void main(String[] args) {
+
+	int[] arr1 = {1, 2, 2, 6, 9};
+	int[] arr2 = {10, 2, 5, 1, 9, 9};
+
+	SortedIntersectArrays sia = new SortedIntersectArrays();
+
+	sort(arr1);
+	sort(arr2);
+
+	System.out.println("\n array 1: " + Arrays.toString(arr1));
+	System.out.println(" array 2: " + Arrays.toString(arr2));
+
+	System.out.println(" merge intersection has size " + sia.intersectMerge_size(arr1, arr2));
+	System.out.println(" merge intersection: " + Arrays.toString(sia.intersectMerge(arr1, arr2)));
+
+	System.out.println(" gallop intersection has size " + sia.intersectGallop_size(arr1, arr2));
+	System.out.println(" gallop intersection: " + Arrays.toString(sia.intersectGallop(arr1, arr2)));
+
+	int[] arr3 = {2, 9, 11};
+
+	System.out.println("\n array 3: " + Arrays.toString(arr3));
+	System.out.println(" intersection of arrays 1, 2, 3: " + Arrays.toString(sia.intersectAll(arr1, arr2, arr3)));
+
+    } // main()
+
+
+
+    /**
+     * Intersect two sorted arrays, choosing merge or galloping
+     * from the ratio of their sizes; the merge is run by the vector
+     * kernels when they are available (IntersectKernels.get())
+     */
+    public int[] intersectSorted(int[] a, int[] b) {
+
+	int[] result = new int[Math.min(a.length, b.length)];
+	int n = IntersectKernels.get().intersectSorted(a, b, result);
+
+	return Arrays.copyOf(result, n);
+
+    } // intersectSorted
+
+
+    public int intersectSorted_size(int[] a, int[] b) {
+
+	return IntersectKernels.get().intersectSorted_size(a, b);
+
+    } // intersectSorted_size
+
+
+
+    /**
+     * Linear merge of two sorted arrays
+     */
+    public int[] intersectMerge(int[] a, int[] b) {
+
+	int[] result = new int[Math.min(a.length, b.length)];
+	int n = mergeInto(a, b, result);
+
+	return Arrays.copyOf(result, n);
+
+    } // intersectMerge
+
+
+    public int intersectMerge_size(int[] a, int[] b) {
+
+	return mergeInto(a, b, null);
+
+    } // intersectMerge_size
+
+
+
+    /**
+     * Galloping intersection of two sorted arrays: 
+     * each element of the smaller array is searched in the bigger one
+     */
+    public int[] intersectGallop(int[] a, int[] b) {
+
+	int[] result = new int[Math.min(a.length, b.length)];
+	int n = (a.length <= b.length) ? gallopInto(a, b, result) : gallopInto(b, a, result);
+
+	return Arrays.copyOf(result, n);
+
+    } // intersectGallop
+
+
+    public int intersectGallop_size(int[] a, int[] b) {
+
+	return (a.length <= b.length) ? gallopInto(a, b, null) : gallopInto(b, a, null);
+
+    } // intersectGallop_size
+
+
+
+    /**
+     * Intersect k sorted arrays. The distinct elements of the smallest 
+     * array are the candidates, and each bigger array in turn is 
+     * searched by galloping for the candidates left, which are compacted 
+     * in place; the loop stops as soon as no candidate is left.
+     */
+    public int[] intersectAll(int[]... arrays) {
+
+	if ( arrays.length == 0 ) {
+	    return new int[0];
+	}
+
+	Integer[] order = IntersectArrays.bySize(arrays.length, i -> arrays[i].length);
+
+	int[] smallest = arrays[order[0]];
+
+	// Candidates: the distinct elements of the smallest array
+	int[] candidates = new int[smallest.length];
+	int n = 0;
+
+	for (int i = 0; i < smallest.length; i++) {
+	    if ( i == 0 || smallest[i] != smallest[i - 1] ) {
+		candidates[n++] = smallest[i];
+	    }
+	}
+
+	for (int k = 1; k < order.length && n > 0; k++) {
+
+	    int[] big = arrays[order[k]];
+	    int lo = 0, kept = 0;
+
+	    for (int i = 0; i < n && lo < big.length; i++) {
+
+		lo = gallop(big, lo, candidates[i]);
+
+		if ( lo < big.length && big[lo] == candidates[i] ) {
+		    candidates[kept++] = candidates[i];
+		    lo++;
+		}
+	    }
+
+	    n = kept;
+	}
+
+	return Arrays.copyOf(candidates, n);
+
+    } // intersectAll
+
+
+
+    public int intersectAll_size(int[]... arrays) {
+
+	return intersectAll(arrays).length;
+
+    } // intersectAll_size
+
+
+
+    /**
+     * Linear merge of two sorted int array files, read straight from 
+     * the mapped files
+     */
+    public int intersectMerge_size(IntArrayFile a, IntArrayFile b) {
+
+	if ( ! a.isSorted() || ! b.isSorted() ) {
+	    throw new IllegalArgumentException("The files to merge must be sorted");
+	}
+
+	long i = 0, j = 0;
+	long na = a.size(), nb = b.size();
+	int n = 0;
+
+	while ( i < na && j < nb ) {
+
+	    int x = a.get(i);
+	    int y = b.get(j);
+
+	    if ( x < y ) {
+		i++;
+	    }
+	    else if ( x > y ) {
+		j++;
+	    }
+	    else {
+		n++;
+
+		// Skip the duplicates of x in both files
+		while ( i < na && a.get(i) == x ) {
+		    i++;
+		}
+		while ( j < nb && b.get(j) == x ) {
+		    j++;
+		}
+	    }
+	}
+
+	return n;
+
+    } // intersectMerge_size
+
+
+
+    //
+    // Utilities
+    //
+
+    /**
+     * Whether galloping beats merging for arrays of sizes m and n
+     */
+    public static boolean useGallop(int m, int n) {
+
+	long small = Math.min(m, n);
+	long big   = Math.max(m, n);
+
+	return big >= small * GALLOP_RATIO;
+
+    } // useGallop
+
+
+
+    /**
+     * Check if an array is sorted in ascending order
+     */
+    public static boolean isSorted(int[] arr) {
+
+	for (int i = 1; i < arr.length; i++) {
+	    if ( arr[i - 1] > arr[i] ) {
+		return false;
+	    }
+	}
+	return true;
+
+    } // isSorted
+
+
+
+    /**
+     * Sort an array in place, with Arrays.parallelSort, 
+     * unless it is already sorted
+     */
+    public static void sort(int[] arr) {
+
+	if ( ! isSorted(arr) ) {
+	    Arrays.parallelSort(arr);
+	}
+
+    } // sort
+
+
+
+    /**
+     * Merge a and b, writing the common elements to result, 
+     * if result is not null; return the number of common elements
+     */
+    static int mergeInto(int[] a, int[] b, int[] result) {
+
+	int i = 0, j = 0, n = 0;
+	int na = a.length, nb = b.length;
+
+	while ( i < na && j < nb ) {
+
+	    int x = a[i];
+	    int y = b[j];
+
+	    if ( x < y ) {
+		i++;
+	    }
+	    else if ( x > y ) {
+		j++;
+	    }
+	    else {
+		if ( result != null ) {
+		    result[n] = x;
+		}
+		n++;
+
+		// Skip the duplicates of x in both arrays
+		while ( i < na && a[i] == x ) {
+		    i++;
+		}
+		while ( j < nb && b[j] == x ) {
+		    j++;
+		}
+	    }
+	}
+
+	return n;
+
+    } // mergeInto
+
+
+
+    /**
+     * Search each distinct element of small in big, 
+     * writing the common elements to result, if result is not null;
+     * return the number of common elements
+     */
+    static int gallopInto(int[] small, int[] big, int[] result) {
+
+	int n = 0;
+	int lo = 0;
+	int ns = small.length, nb = big.length;
+
+	for (int i = 0; i < ns && lo < nb; i++) {
+
+	    int x = small[i];
+
+	    // Skip the duplicates of x in small
+	    if ( i > 0 && small[i - 1] == x ) {
+		continue;
+	    }
+
+	    lo = gallop(big, lo, x);
+
+	    if ( lo < nb && big[lo] == x ) {
+		if ( result != null ) {
+		    result[n] = x;
+		}
+		n++;
+		lo++;
+	    }
+	}
+
+	return n;
+
+    } // gallopInto
+
+
+
+    /**
+     * Index of the first element of arr[from..] that is not less than x,
+     * or arr.length if there is none. The search first doubles its step 
+     * to bracket x, then does a binary search inside the bracket.
+     */
+    static int gallop(int[] arr, int from, int x) {
+
+	int n = arr.length;
+
+	if ( from >= n || arr[from] >= x ) {
+	    return from;
+	}
+
+	// arr[lo] < x holds throughout
+	int lo = from;
+	int step = 1;
+
+	while ( lo + step < n && arr[lo + step] < x ) {
+	    lo += step;
+	    step <<= 1;
+	}
+
+	int hi = Math.min(lo + step, n);
+
+	// Binary search in (lo, hi]: arr[lo] < x, and arr[hi] >= x or hi == n
+	while ( hi - lo > 1 ) {
+
+	    int mid = (lo + hi) >>> 1;
+
+	    if ( arr[mid] < x ) {
+		lo = mid;
+	    }
+	    else {
+		hi = mid;
+	    }
+	}
+
+	return hi;
+
+    } // gallop
+
+
+} // SortedIntersectArrays
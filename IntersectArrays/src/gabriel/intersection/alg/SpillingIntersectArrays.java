@@ -0,0 +1,500 @@
+package gabriel.intersection.alg;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+
+/**
+ * Intersect two arrays of ints that together do not fit in the heap, 
+ * by grace hash join.
+ *
+ * The elements of A and B are fed in chunks (addA, addB) and are 
+ * hash-partitioned into temporary files, one file per partition and side, 
+ * so that equal elements of A and B land in partitions with the same index. 
+ * Then the pairs of partitions are intersected one at a time: partition 
+ * A_k is read into an IntHashSet, and partition B_k is streamed against it. 
+ * The number of partitions is chosen so that the table of one partition 
+ * fits in the memory budget; a partition of A whose distinct elements turn 
+ * out too many for it (skewed data) is partitioned again, with another hash, 
+ * before it is joined. A partition that is big only from duplicates fits, 
+ * and is joined as it is, and one that a pass does not split is not 
+ * partitioned again.
+ *
+ * Array A is the one put in hash. The temporary files are deleted by close().
+ */
+public class SpillingIntersectArrays implements Closeable {
+
+    // Ints buffered per partition file before they are written
+    private static final int BUFFER_INTS = 8192;
+
+    // Bounds on the number of partitions of one pass: a pass keeps a file 
+    // open per partition of each side, 2 x 128 descriptors, well under the 
+    // usual limit of the process; more partitions are made by partitioning again
+    private static final int MIN_PARTITIONS = 2;
+    private static final int MAX_PARTITIONS = 128;
+
+    // Passes over a partition too big for the budget, from skewed data or 
+    // from more partitions than one pass makes, before it is joined as it is
+    private static final int MAX_LEVEL = 3;
+
+
+    // Heap that the join of one pair of partitions may use, in bytes
+    private long mem_budget;
+
+    // Directory of the temporary files
+    private File tmp_dir;
+
+    // Partitions of A and B of the first pass
+    private PartitionFiles part_a;
+    private PartitionFiles part_b;
+
+
+    //
+    // Constructors
+    //
+
+    /**
+     * @param mem_budget: heap for the join of one pair of partitions, in bytes
+     * @param tmp_dir: directory of the temporary files; null for java.io.tmpdir
+     * @param expected_a: expected number of distinct elements in A, 
+     *        used to choose the number of partitions
+     */
+    public SpillingIntersectArrays (long mem_budget, File tmp_dir, long expected_a) throws IOException {
+
+	this.mem_budget = mem_budget;
+	this.tmp_dir = (tmp_dir != null) ? tmp_dir : new File(System.getProperty("java.io.tmpdir"));
+
+	int partitions = partitionsFor(expected_a, mem_budget);
+
+	part_a = new PartitionFiles("a", partitions, 0);
+
+	try {
+	    part_b = new PartitionFiles("b", partitions, 0);
+	}
+	catch (IOException | RuntimeException ex) {
+	    part_a.delete();
+	    throw ex;
+	}
+    }
+
+
+
+    public static void main(String[] args) throws IOException {
+
+	int[] arr1 = {1, 2, 6, 70, 70};
+	int[] arr2 = {10, 2, 5, 1, 70};
+
+	System.out.println("\n array 1: " + Arrays.toString(arr1));
+	System.out.println(" array 2: " + Arrays.toString(arr2));
+
+	try ( SpillingIntersectArrays sia = new SpillingIntersectArrays(1 << 20, null, arr1.length) ) {
+
+	    sia.addA(arr1, arr1.length);
+	    sia.addB(arr2, arr2.length);
+
+	    System.out.println(" spilled intersection has size " + sia.intersect_size());
+	}
+
+    } // main()
+
+
+
+    /**
+     * Number of partitions such that the IntHashSet of one partition of 
+     * a side with the given distinct elements, and the write buffers of 
+     * all the partitions, fit in the memory budget
+     */
+    public static int partitionsFor(long distinct, long mem_budget) {
+
+	long buffers = 2L * MAX_PARTITIONS * 4 * BUFFER_INTS;
+	long for_table = Math.max(mem_budget - buffers, mem_budget / 2);
+
+	// An IntHashSet takes at most 16 bytes per key, counting a rehash
+	long per_part = Math.max(for_table / 16, 1);
+
+	long parts = (distinct + per_part - 1) / per_part;
+
+	return (int) Math.max(MIN_PARTITIONS, Math.min(parts, MAX_PARTITIONS));
+
+    } // partitionsFor
+
+
+
+    /**
+     * Heap used while joining: write buffers plus one partition table; 
+     * a partition too big for the budget is partitioned again
+     */
+    public static long footprint(long distinct, long mem_budget) {
+
+	int parts = partitionsFor(distinct, mem_budget);
+
+	return 2L * parts * 4 * BUFFER_INTS + 16L * Math.min(distinct / parts + 1, Math.max(mem_budget / 16, 1));
+
+    } // footprint
+
+
+
+    /**
+     * Spill arr[0 .. len) to the partitions of A (the side put in hash)
+     */
+    public void addA(int[] arr, int len) throws IOException {
+
+	part_a.add(arr, 0, len);
+    }
+
+
+    /**
+     * Spill arr[0 .. len) to the partitions of B (the side probed)
+     */
+    public void addB(int[] arr, int len) throws IOException {
+
+	part_b.add(arr, 0, len);
+    }
+
+
+
+    /**
+     * Intersect A and B, one pair of partitions at a time; 
+     * return the number of distinct common elements
+     */
+    public long intersect_size() throws IOException {
+
+	part_a.flush();
+	part_b.flush();
+
+	return join(part_a, part_b);
+
+    } // intersect_size
+
+
+
+    /**
+     * Convenience method: intersect two arrays held in memory, 
+     * through the temporary files
+     */
+    public static long intersectArrays_size(int[] a, int[] b, long mem_budget, File tmp_dir) 
+	throws IOException {
+
+	try ( SpillingIntersectArrays sia = new SpillingIntersectArrays(mem_budget, tmp_dir, a.length) ) {
+
+	    sia.addA(a, a.length);
+	    sia.addB(b, b.length);
+
+	    return sia.intersect_size();
+	}
+
+    } // intersectArrays_size
+
+
+
+    /**
+     * Delete the temporary files
+     */
+    @Override
+    public void close() throws IOException {
+
+	part_a.delete();
+	part_b.delete();
+
+    } // close
+
+
+
+    //
+    // Join
+    //
+
+    /**
+     * Join each pair of partitions of pa and pb
+     */
+    private long join(PartitionFiles pa, PartitionFiles pb) throws IOException {
+
+	long result = 0;
+
+	// Keys that the table of one partition may hold
+	long max_keys = Math.max(mem_budget / 16, 1);
+
+	for (int k = 0; k < pa.partitions; k++) {
+
+	    long n_a = pa.count[k];
+
+	    if ( n_a == 0 || pb.count[k] == 0 ) {
+		pa.delete(k);
+		pb.delete(k);
+		continue;
+	    }
+
+	    // Partitioned again only if its distinct elements do not fit, 
+	    // and if the pass that made it split its parent
+	    boolean split = n_a > max_keys && pa.level < MAX_LEVEL && n_a < pa.parent_count;
+
+	    long found = joinPair(pa, pb, k, split ? max_keys : Long.MAX_VALUE);
+
+	    if ( found < 0 ) {
+		found = rejoin(pa, pb, k, n_a);
+	    }
+	    result += found;
+
+	    pa.delete(k);
+	    pb.delete(k);
+	}
+
+	return result;
+
+    } // join
+
+
+
+    /**
+     * Partition again a pair of partitions whose side A is too big, 
+     * with the hash of the next level, and join the sub-partitions
+     */
+    private long rejoin(PartitionFiles pa, PartitionFiles pb, int k, long n_a) throws IOException {
+
+	int parts = partitionsFor(n_a, mem_budget);
+
+	PartitionFiles sub_a = new PartitionFiles(pa.name + k + "_", parts, pa.level + 1);
+	sub_a.parent_count = n_a;
+
+	try {
+	    PartitionFiles sub_b = new PartitionFiles(pb.name + k + "_", parts, pb.level + 1);
+
+	    try {
+		pa.scan(k, (arr, len) -> sub_a.add(arr, 0, len));
+		pb.scan(k, (arr, len) -> sub_b.add(arr, 0, len));
+
+		sub_a.flush();
+		sub_b.flush();
+
+		return join(sub_a, sub_b);
+	    }
+	    finally {
+		sub_b.delete();
+	    }
+	}
+	finally {
+	    sub_a.delete();
+	}
+
+    } // rejoin
+
+
+
+    /**
+     * Read partition k of A in an IntHashSet, and stream partition k of B 
+     * against it; an element is removed from the set the first time 
+     * it is found, so it is counted once. Return -1, with no join, if 
+     * A has more than max_keys distinct elements
+     */
+    private static long joinPair(PartitionFiles pa, PartitionFiles pb, int k, long max_keys) throws IOException {
+
+	IntHashSet aSet = new IntHashSet((int) Math.min(pa.count[k], 1 << 20));
+	boolean[] over = {false};
+
+	pa.scan(k, (arr, len) -> {
+	    for (int i = 0; i < len && ! over[0]; i++) {
+		aSet.add(arr[i]);
+		over[0] = aSet.size() > max_keys;
+	    }
+	});
+
+	if ( over[0] ) {
+	    return -1L;
+	}
+
+	long[] found = {0};
+
+	pb.scan(k, (arr, len) -> {
+	    for (int i = 0; i < len; i++) {
+		if ( aSet.remove(arr[i]) ) {
+		    found[0]++;
+		}
+	    }
+	});
+
+	return found[0];
+
+    } // joinPair
+
+
+
+    //
+    // Partition files
+    //
+
+    /**
+     * Consumer of a chunk arr[0 .. len) read back from a file
+     */
+    interface ChunkConsumer {
+
+	void accept(int[] arr, int len) throws IOException;
+    }
+
+
+
+    /**
+     * The files of the partitions of one side, at one level of partitioning
+     */
+    private class PartitionFiles {
+
+	String name;
+	int partitions;
+	int level;
+
+	File[] files;
+	FileChannel[] channels;
+	ByteBuffer[] buffers;
+	long[] count;
+
+	// Elements of the partition these were split from
+	long parent_count = Long.MAX_VALUE;
+
+
+	PartitionFiles (String name, int partitions, int level) throws IOException {
+
+	    this.name = name;
+	    this.partitions = partitions;
+	    this.level = level;
+
+	    files    = new File[partitions];
+	    channels = new FileChannel[partitions];
+	    buffers  = new ByteBuffer[partitions];
+	    count    = new long[partitions];
+
+	    try {
+		for (int k = 0; k < partitions; k++) {
+		    files[k] = File.createTempFile("intersect_" + name + k + "_", ".bin", tmp_dir);
+		    channels[k] = FileChannel.open(files[k].toPath(), StandardOpenOption.WRITE);
+		    buffers[k] = ByteBuffer.allocate(4 * BUFFER_INTS).order(ByteOrder.nativeOrder());
+		}
+	    }
+	    catch (IOException | RuntimeException ex) {
+		// Close and delete the files opened so far
+		try {
+		    delete();
+		}
+		catch (IOException suppressed) {
+		    ex.addSuppressed(suppressed);
+		}
+		throw ex;
+	    }
+	}
+
+
+	/**
+	 * Partition of an element: the hash is salted with the level, 
+	 * so a partition that is split again spreads over all the sub-partitions
+	 */
+	int partition(int elem) {
+
+	    int h = IntHashSet.mix(elem ^ (level * 0x5BD1E995));
+	    return (int) (((h & 0xFFFFFFFFL) * partitions) >>> 32);
+	}
+
+
+	void add(int[] arr, int from, int to) throws IOException {
+
+	    for (int i = from; i < to; i++) {
+
+		int k = partition(arr[i]);
+		ByteBuffer buf = buffers[k];
+
+		buf.putInt(arr[i]);
+		count[k]++;
+
+		if ( ! buf.hasRemaining() ) {
+		    write(k);
+		}
+	    }
+	}
+
+
+	void write(int k) throws IOException {
+
+	    ByteBuffer buf = buffers[k];
+	    buf.flip();
+	    while ( buf.hasRemaining() ) {
+		channels[k].write(buf);
+	    }
+	    buf.clear();
+	}
+
+
+	/**
+	 * Write the buffers and close the files for writing
+	 */
+	void flush() throws IOException {
+
+	    for (int k = 0; k < partitions; k++) {
+		if ( channels[k] != null ) {
+		    write(k);
+		    channels[k].close();
+		    channels[k] = null;
+		}
+	    }
+	    buffers = null;
+	}
+
+
+	/**
+	 * Read partition k back, in chunks
+	 */
+	void scan(int k, ChunkConsumer consumer) throws IOException {
+
+	    ByteBuffer buf = ByteBuffer.allocate(4 * BUFFER_INTS).order(ByteOrder.nativeOrder());
+	    int[] chunk = new int[BUFFER_INTS];
+
+	    try ( FileChannel ch = FileChannel.open(files[k].toPath(), StandardOpenOption.READ) ) {
+
+		while ( ch.read(buf) >= 0 || buf.position() > 0 ) {
+
+		    buf.flip();
+		    IntBuffer ib = buf.asIntBuffer();
+		    int len = ib.remaining();
+		    ib.get(chunk, 0, len);
+		    buf.position(4 * len);
+		    buf.compact();
+
+		    if ( len > 0 ) {
+			consumer.accept(chunk, len);
+		    }
+		    else if ( ch.position() == ch.size() ) {
+			break;
+		    }
+		}
+	    }
+	}
+
+
+	void delete(int k) throws IOException {
+
+	    if ( files[k] == null ) {
+		return; // Not created
+	    }
+	    if ( channels != null && channels[k] != null ) {
+		channels[k].close();
+		channels[k] = null;
+	    }
+	    Files.deleteIfExists(files[k].toPath());
+	}
+
+
+	void delete() throws IOException {
+
+	    for (int k = 0; k < partitions; k++) {
+		delete(k);
+	    }
+	}
+
+    } // PartitionFiles
+
+
+} // SpillingIntersectArrays
@@ -0,0 +1,498 @@
+package gabriel.intersection.alg;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.PrimitiveIterator;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+
+/**
+ * Intersect two arrays into a stream of the elements of the intersection,
+ * rather than into a set: array "a" is put in hash, and the elements of
+ * array "b" are probed only as the caller asks for them, through an
+ * Iterator, a Spliterator or a Stream, or pushed one at a time to a
+ * callback (forEach). So the intersection is never held in memory, and
+ * a pipeline can write it to a file, or stop early, as it is found.
+ *
+ * Each element of the intersection is passed once, by the first element
+ * of "b" that claims it in the hash. Sequentially the claim removes the
+ * element from the hash, as intersectArrays(int[], int[]) does. The
+ * spliterators of spliterator() and of the parallel streams split "b"
+ * in halves, and claim the elements atomically: for ints, by a CAS on a
+ * bit per slot of the IntHashSet (IntHashSet.indexOf); for objects, by
+ * removing them from a concurrent set. The hash of "a" is built when
+ * the iterator, spliterator or stream is created.
+ */
+public class StreamingIntersectArrays {
+
+    // Smallest part of array "b" split off by a spliterator
+    private static final int MIN_SPLIT = 1 << 12;
+
+
+
+    public static void main(String[] args) throws IOException {
+
+	StreamingIntersectArrays streaming = new StreamingIntersectArrays();
+
+	Integer[] arr1 = {1, 2, 6, 2};
+	Integer[] arr2 = {10, 2, 5, 1, 2};
+
+	System.out.println("\n array 1: " + Arrays.toString(arr1));
+	System.out.println(" array 2: " + Arrays.toString(arr2));
+
+	System.out.print(" intersection, iterated: ");
+	for (Iterator<Integer> it = streaming.iterator(arr1, arr2); it.hasNext(); ) {
+	    System.out.print(it.next() + " ");
+	}
+	System.out.println();
+
+	int[] int_arr1 = {1, 2, 6, 2, 0};
+	int[] int_arr2 = {10, 2, 5, 1, 2, 0};
+
+	System.out.print(" int intersection, streamed: ");
+	streaming.stream(int_arr1, int_arr2, false).forEach(x -> System.out.print(x + " "));
+	System.out.println();
+
+	//
+	// Big arrays: sequential and parallel, against intersectArrays_size
+	//
+	ArrayFactory factory = ArrayFactory.getArrayFactory(1 << 22, 42L);
+	int[] a = factory.getIntArray(2000000);
+	int[] b = factory.getIntArray(3000000);
+
+	int expected = new IntersectArrays<Integer>().intersectArrays_size(a, b);
+
+	long sequential = streaming.stream(a, b, false).count();
+	long parallel   = streaming.stream(a, b, true).count();
+	long distinct   = streaming.stream(a, b, true).distinct().count();
+	long pushed     = streaming.forEach(a, b, x -> { });
+
+	Integer[] boxed_a = Arrays.stream(a).boxed().toArray(Integer[]::new);
+	Integer[] boxed_b = Arrays.stream(b).boxed().toArray(Integer[]::new);
+	long boxed = streaming.stream(boxed_a, boxed_b, true).count();
+
+	System.out.println("\n intersection has size " + expected +
+			   ": sequential " + sequential + ", parallel " + parallel +
+			   " (" + distinct + " distinct), callback " + pushed + ", boxed parallel " + boxed);
+
+	// Straight to a file, with no array of the result
+	File file = File.createTempFile("intersection", ".iarr");
+	file.deleteOnExit();
+
+	try ( IntArrayFile.Writer out = new IntArrayFile.Writer(file) ) {
+	    streaming.write(a, b, out);
+	}
+	System.out.println(" written to " + IntArrayFile.open(file));
+
+	boolean ok = sequential == expected && parallel == expected && distinct == expected
+	    && pushed == expected && boxed == expected && IntArrayFile.open(file).size() == expected;
+
+	System.out.println(" streaming intersections: " + (ok ? "ok" : "WRONG"));
+
+    } // main()
+
+
+
+    //
+    // Arrays of objects
+    //
+
+    /**
+     * Lazy iterator over the elements of the intersection, in the order of "b"
+     */
+    public <T> Iterator<T> iterator(T[] a, T[] b) {
+
+	return Spliterators.iterator(sequential(a, b));
+    }
+
+
+
+    /**
+     * Spliterator over the elements of the intersection, which can be
+     * split to run in parallel
+     */
+    public <T> Spliterator<T> spliterator(T[] a, T[] b) {
+
+	Set<T> aSet = ConcurrentHashMap.newKeySet(initialCapacity(a.length));
+
+	// A concurrent set holds no null
+	AtomicBoolean has_null = new AtomicBoolean(false);
+
+	for (T elem : a) {
+	    if ( elem == null ) {
+		has_null.set(true);
+	    }
+	    else {
+		aSet.add(elem);
+	    }
+	}
+
+	return new ArraySpliterator<T>(b, 0, b.length,
+				       elem -> (elem == null) ? has_null.getAndSet(false) : aSet.remove(elem),
+				       true);
+
+    } // spliterator
+
+
+
+    public <T> Stream<T> stream(T[] a, T[] b, boolean parallel) {
+
+	return StreamSupport.stream(parallel ? spliterator(a, b) : sequential(a, b), parallel);
+    }
+
+
+
+    /**
+     * Pass each element of the intersection to action, as it is found;
+     * return the size of the intersection
+     */
+    public <T> long forEach(T[] a, T[] b, Consumer<? super T> action) {
+
+	Set<T> aSet = hashSet(a);
+	long n = 0L;
+
+	for (T elem : b) {
+	    if ( aSet.remove(elem) ) {
+		action.accept(elem);
+		n++;
+	    }
+	}
+
+	return n;
+
+    } // forEach
+
+
+
+    //
+    // Arrays of primitive ints
+    //
+
+    /**
+     * Lazy iterator over the elements of the intersection, in the order of "b"
+     */
+    public PrimitiveIterator.OfInt iterator(int[] a, int[] b) {
+
+	return Spliterators.iterator(sequential(a, b));
+    }
+
+
+
+    /**
+     * Spliterator over the elements of the intersection, which can be
+     * split to run in parallel: an element is claimed by setting the bit
+     * of its slot in the IntHashSet of "a", with a CAS
+     */
+    public Spliterator.OfInt spliterator(int[] a, int[] b) {
+
+	return new IntArraySpliterator(b, 0, b.length, new SlotClaims(intHashSet(a)), true);
+    }
+
+
+
+    public IntStream stream(int[] a, int[] b, boolean parallel) {
+
+	return StreamSupport.intStream(parallel ? spliterator(a, b) : sequential(a, b), parallel);
+    }
+
+
+
+    /**
+     * Pass each element of the intersection to action, as it is found;
+     * return the size of the intersection
+     */
+    public long forEach(int[] a, int[] b, IntConsumer action) {
+
+	IntHashSet aSet = intHashSet(a);
+	long n = 0L;
+
+	for (int elem : b) {
+	    if ( aSet.remove(elem) ) {
+		action.accept(elem);
+		n++;
+	    }
+	}
+
+	return n;
+
+    } // forEach
+
+
+
+    /**
+     * Write the elements of the intersection to a file as they are found;
+     * return the size of the intersection
+     */
+    public long write(int[] a, int[] b, IntArrayFile.Writer out) throws IOException {
+
+	try {
+	    return forEach(a, b, elem -> {
+		    try {
+			out.write(elem);
+		    }
+		    catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		    }
+		});
+	}
+	catch (UncheckedIOException ex) {
+	    throw ex.getCause();
+	}
+
+    } // write
+
+
+
+    //
+    // Helpers
+    //
+
+    // Sequential spliterators: the claim removes the element from the hash
+
+    private <T> Spliterator<T> sequential(T[] a, T[] b) {
+
+	return new ArraySpliterator<T>(b, 0, b.length, hashSet(a)::remove, false);
+    }
+
+
+    private Spliterator.OfInt sequential(int[] a, int[] b) {
+
+	return new IntArraySpliterator(b, 0, b.length, intHashSet(a)::remove, false);
+    }
+
+
+
+    private static <T> Set<T> hashSet(T[] a) {
+
+	Set<T> aSet = new HashSet<T>(Math.max(initialCapacity(a.length) * 4 / 3, 16));
+	for (T elem : a) {
+	    aSet.add(elem);
+	}
+	return aSet;
+
+    } // hashSet
+
+
+    private static IntHashSet intHashSet(int[] a) {
+
+	IntHashSet aSet = new IntHashSet(initialCapacity(a.length));
+	for (int elem : a) {
+	    aSet.add(elem);
+	}
+	return aSet;
+
+    } // intHashSet
+
+
+    // Initial size of the hash, grown as needed: "a" may hold duplicates
+    private static int initialCapacity(int n) {
+
+	return Math.min(n, 1 << 20);
+    }
+
+
+
+    /**
+     * Claims the keys of an IntHashSet, once each, from any thread:
+     * a bit per slot of the set, set by a CAS. The set is not changed
+     */
+    private static final class SlotClaims implements IntPredicate {
+
+	private final IntHashSet set;
+	private final AtomicLongArray bits;
+
+	SlotClaims (IntHashSet set) {
+
+	    this.set  = set;
+	    this.bits = new AtomicLongArray((set.slots() + 63) >>> 6);
+	}
+
+	// Whether x is in the set and was not claimed yet
+	public boolean test(int x) {
+
+	    int slot = set.indexOf(x);
+	    if ( slot < 0 ) {
+		return false;
+	    }
+
+	    int w = slot >>> 6;
+	    long bit = 1L << slot;
+
+	    for (;;) {
+		long old = bits.get(w);
+		if ( (old & bit) != 0 ) {
+		    return false;
+		}
+		if ( bits.compareAndSet(w, old, old | bit) ) {
+		    return true;
+		}
+	    }
+
+	} // test
+
+    } // SlotClaims
+
+
+
+    /**
+     * The elements of b[from, to) that claim an element of the hash
+     */
+    private static final class ArraySpliterator<T> implements Spliterator<T> {
+
+	private final T[] b;
+	private int from;
+	private final int to;
+	private final Predicate<? super T> claim;
+	private final boolean splittable;
+
+	ArraySpliterator (T[] b, int from, int to, Predicate<? super T> claim, boolean splittable) {
+
+	    this.b          = b;
+	    this.from       = from;
+	    this.to         = to;
+	    this.claim      = claim;
+	    this.splittable = splittable;
+	}
+
+	public boolean tryAdvance(Consumer<? super T> action) {
+
+	    while ( from < to ) {
+		T elem = b[from++];
+		if ( claim.test(elem) ) {
+		    action.accept(elem);
+		    return true;
+		}
+	    }
+	    return false;
+
+	} // tryAdvance
+
+	public void forEachRemaining(Consumer<? super T> action) {
+
+	    for (; from < to; from++) {
+		T elem = b[from];
+		if ( claim.test(elem) ) {
+		    action.accept(elem);
+		}
+	    }
+
+	} // forEachRemaining
+
+	public Spliterator<T> trySplit() {
+
+	    if ( ! splittable || to - from < 2 * MIN_SPLIT ) {
+		return null;
+	    }
+
+	    int mid = (from + to) >>> 1;
+	    Spliterator<T> prefix = new ArraySpliterator<T>(b, from, mid, claim, true);
+	    from = mid;
+
+	    return prefix;
+
+	} // trySplit
+
+	// At most the elements of "b" left
+	public long estimateSize() {
+
+	    return to - from;
+	}
+
+	public int characteristics() {
+
+	    return DISTINCT | (splittable ? 0 : ORDERED);
+	}
+
+    } // ArraySpliterator
+
+
+
+    /**
+     * The elements of b[from, to) that claim an element of the hash
+     */
+    private static final class IntArraySpliterator implements Spliterator.OfInt {
+
+	private final int[] b;
+	private int from;
+	private final int to;
+	private final IntPredicate claim;
+	private final boolean splittable;
+
+	IntArraySpliterator (int[] b, int from, int to, IntPredicate claim, boolean splittable) {
+
+	    this.b          = b;
+	    this.from       = from;
+	    this.to         = to;
+	    this.claim      = claim;
+	    this.splittable = splittable;
+	}
+
+	public boolean tryAdvance(IntConsumer action) {
+
+	    while ( from < to ) {
+		int elem = b[from++];
+		if ( claim.test(elem) ) {
+		    action.accept(elem);
+		    return true;
+		}
+	    }
+	    return false;
+
+	} // tryAdvance
+
+	public void forEachRemaining(IntConsumer action) {
+
+	    for (; from < to; from++) {
+		int elem = b[from];
+		if ( claim.test(elem) ) {
+		    action.accept(elem);
+		}
+	    }
+
+	} // forEachRemaining
+
+	public Spliterator.OfInt trySplit() {
+
+	    if ( ! splittable || to - from < 2 * MIN_SPLIT ) {
+		return null;
+	    }
+
+	    int mid = (from + to) >>> 1;
+	    Spliterator.OfInt prefix = new IntArraySpliterator(b, from, mid, claim, true);
+	    from = mid;
+
+	    return prefix;
+
+	} // trySplit
+
+	// At most the elements of "b" left
+	public long estimateSize() {
+
+	    return to - from;
+	}
+
+	public int characteristics() {
+
+	    return DISTINCT | NONNULL | (splittable ? 0 : ORDERED);
+	}
+
+    } // IntArraySpliterator
+
+
+} // StreamingIntersectArrays
@@ -0,0 +1,387 @@
+package gabriel.intersection.bench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import gabriel.intersection.alg.*;
+
+
+/**
+ * JMH benchmark of the intersection engines.
+ *
+ * Each benchmark intersects the same two arrays, generated once per trial
+ * by ArrayFactory from a fixed seed, with one engine. The parameters are
+ * the sizes of arrays A and B, the range of the values, the array put in
+ * hash (for the hash engines; the others ignore it), the distribution of
+ * the values and the overlap of the arrays. Run it with the GC profiler
+ * to get the allocation rate and the bytes allocated per operation next
+ * to the time:
+ *
+ *   $ make bench JMH_CP=...
+ *   $ make bench JMH_CP=... BENCH_ARGS="-p sizeA=10000000 -p hashSide=B hashInt"
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g"})
+@State(Scope.Benchmark)
+public class IntersectBenchmark {
+
+    @Param({"1000000"})
+    public int sizeA;
+
+    @Param({"100000", "1000000"})
+    public int sizeB;
+
+    @Param({"1000000", "100000000"})
+    public int range;
+
+    // Array put in hash: A or B
+    @Param({"A", "B"})
+    public String hashSide;
+
+    // A Distribution of ArrayFactory: UNIFORM, ZIPF, CLUSTERED, SORTED
+    @Param({"UNIFORM", "SORTED"})
+    public String distribution;
+
+    // Fraction of the elements of B copied from A; -1 for independent arrays
+    @Param({"-1"})
+    public double overlap;
+
+
+    // Seed of the arrays, the same in every fork
+    private static final long SEED = 42L;
+
+    // Heap of the SPILL engine for one pair of partitions
+    private static final long SPILL_BUDGET = 8L << 20;
+
+
+    // The arrays, with the array put in hash first
+    private int[] hash, probe;
+    private Integer[] boxed_hash, boxed_probe;
+
+    // Sorted copies, for the sorted engines
+    private int[] sorted_hash, sorted_probe;
+
+    // Compressed copies of the sorted ones
+    private CompressedIntArray compressed_hash, compressed_probe;
+
+    private IntersectArrays<Integer> intersect;
+    private SortedIntersectArrays sorted;
+    private BitmapIntersectArrays bitmap;
+
+    // Bitsets of the arrays, for the AND kernels
+    private long[] bits_hash, bits_probe;
+    private ParallelIntersectArrays parallel;
+    private RadixIntersectArrays radix, radix_parallel;
+    private SketchIntersectArrays sketch;
+    private FilteredIntersectArrays filtered;
+    private BloomFilter hash_filter;
+    private MultisetIntersectArrays multiset;
+
+
+
+    public static void main(String[] args) throws RunnerException {
+
+	Options opts = new OptionsBuilder()
+	    .include(IntersectBenchmark.class.getSimpleName())
+	    .addProfiler(GCProfiler.class)
+	    .build();
+
+	new Runner(opts).run();
+
+    } // main()
+
+
+
+    @Setup(Level.Trial)
+    public void setUp() {
+
+	ArrayFactory factory = ArrayFactory.getArrayFactory(range, SEED);
+	factory.setDistribution(Distribution.valueOf(distribution));
+
+	int[] a, b;
+
+	if ( overlap < 0 ) {
+	    a = factory.getIntArray(sizeA);
+	    b = factory.getIntArray(sizeB);
+	}
+	else {
+	    int[][] pair = factory.getIntArrays(sizeA, sizeB, overlap);
+	    a = pair[0];
+	    b = pair[1];
+	}
+
+	boolean hash_a = hashSide.equals("A");
+
+	hash  = hash_a ? a : b;
+	probe = hash_a ? b : a;
+
+	boxed_hash  = box(hash);
+	boxed_probe = box(probe);
+
+	sorted_hash  = hash.clone();
+	sorted_probe = probe.clone();
+	SortedIntersectArrays.sort(sorted_hash);
+	SortedIntersectArrays.sort(sorted_probe);
+
+	compressed_hash  = CompressedIntArray.of(sorted_hash);
+	compressed_probe = CompressedIntArray.of(sorted_probe);
+
+	intersect = new IntersectArrays<Integer>();
+	sorted    = new SortedIntersectArrays();
+	bitmap    = new BitmapIntersectArrays(range);
+	bits_hash  = bitmap.toBitmap(hash);
+	bits_probe = bitmap.toBitmap(probe);
+	parallel  = new ParallelIntersectArrays();
+	radix     = new RadixIntersectArrays(1);
+	radix_parallel = new RadixIntersectArrays();
+	sketch    = new SketchIntersectArrays(0.01);
+	filtered  = new FilteredIntersectArrays();
+	hash_filter = filtered.filter(hash);
+	multiset  = new MultisetIntersectArrays();
+
+    } // setUp
+
+
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+
+	parallel.shutdown();
+	radix.shutdown();
+	radix_parallel.shutdown();
+	multiset.shutdown();
+    }
+
+
+
+    //
+    // HASH: boxed arrays in a HashSet / HashMap
+    //
+
+    @Benchmark
+    public int hash_intersectArrays() {
+
+	return intersect.intersectArrays(boxed_hash, boxed_probe).size();
+    }
+
+    @Benchmark
+    public int hash_intersectArrays_size() {
+
+	return intersect.intersectArrays_size(boxed_hash, boxed_probe);
+    }
+
+
+
+    //
+    // HASH_INT: primitive arrays in an IntHashSet
+    //
+
+    @Benchmark
+    public int hashInt_intersectArrays() {
+
+	return intersect.intersectArrays(hash, probe).length;
+    }
+
+    @Benchmark
+    public int hashInt_intersectArrays_size() {
+
+	return intersect.intersectArrays_size(hash, probe);
+    }
+
+
+
+    //
+    // Sorted engines, on arrays sorted in the setup
+    //
+
+    @Benchmark
+    public int merge_size() {
+
+	return sorted.intersectMerge_size(sorted_hash, sorted_probe);
+    }
+
+    @Benchmark
+    public int gallop_size() {
+
+	return sorted.intersectGallop_size(sorted_hash, sorted_probe);
+    }
+
+    // Sorting included: the sort is skipped only if the arrays are sorted
+    @Benchmark
+    public int sortAndMerge_size() {
+
+	int[] h = hash.clone();
+	int[] p = probe.clone();
+	SortedIntersectArrays.sort(h);
+	SortedIntersectArrays.sort(p);
+
+	return sorted.intersectSorted_size(h, p);
+    }
+
+    // The merge kernels, scalar and on the Vector API: the second one is 
+    // scalar too unless run with --add-modules jdk.incubator.vector
+    @Benchmark
+    public int scalarSorted_size() {
+
+	return IntersectKernels.scalar().intersectSorted_size(sorted_hash, sorted_probe);
+    }
+
+    @Benchmark
+    public int simdSorted_size() {
+
+	return IntersectKernels.get().intersectSorted_size(sorted_hash, sorted_probe);
+    }
+
+    // Compressed in the setup: decoding only the blocks that overlap
+    @Benchmark
+    public int compressed_size() {
+
+	return compressed_hash.intersect_size(compressed_probe);
+    }
+
+
+
+    //
+    // Other engines
+    //
+
+    // Built within the benchmark, like the hash of hashInt_intersectArrays_size
+    @Benchmark
+    public long roaring_size() {
+
+	return RoaringIntSet.of(hash).andCardinality(RoaringIntSet.of(probe));
+    }
+
+    @Benchmark
+    public int bitmap_size() {
+
+	return bitmap.intersectArrays_size(hash, probe);
+    }
+
+    // The AND and count of the bitsets built in the setup, single-threaded
+    @Benchmark
+    public long scalarAnd_size() {
+
+	return IntersectKernels.scalar().andCardinality(bits_hash, bits_probe, 0, bits_hash.length);
+    }
+
+    @Benchmark
+    public long simdAnd_size() {
+
+	return IntersectKernels.get().andCardinality(bits_hash, bits_probe, 0, bits_hash.length);
+    }
+
+    @Benchmark
+    public int parallel_size() {
+
+	return parallel.intersectArrays_size(hash, probe);
+    }
+
+    // Tables of the partitions in the cache: run with growing sizeA and 
+    // hashSide=A, the time per element holds, unlike hashInt_intersectArrays_size
+    @Benchmark
+    public int radix_size() {
+
+	return radix.intersectArrays_size(hash, probe);
+    }
+
+    @Benchmark
+    public int radixParallel_size() {
+
+	return radix_parallel.intersectArrays_size(hash, probe);
+    }
+
+    @Benchmark
+    public long spill_size() throws IOException {
+
+	return SpillingIntersectArrays.intersectArrays_size(hash, probe, SPILL_BUDGET, null);
+    }
+
+    // Bloom filter in front of the table: run with a small overlap and 
+    // growing sizeA, against hashInt_intersectArrays_size
+    @Benchmark
+    public int filtered_size() {
+
+	return filtered.intersectArrays_size(hash, probe);
+    }
+
+    // Filter only, built once: the probes, corrected by the false positive rate
+    @Benchmark
+    public double filterEstimate() {
+
+	return filtered.estimate(hash_filter, probe).matches();
+    }
+
+    // An estimate, within 1% of the union
+    @Benchmark
+    public long sketch_size() {
+
+	return sketch.intersectArrays_size(hash, probe);
+    }
+
+
+
+    //
+    // Bag intersection: the duplicates count, up to the smaller count
+    //
+
+    @Benchmark
+    public long bagHash_size() {
+
+	return multiset.intersectBags_size(hash, probe);
+    }
+
+    @Benchmark
+    public long bagSorted_size() {
+
+	return multiset.intersectSortedBags_size(sorted_hash, sorted_probe);
+    }
+
+    @Benchmark
+    public long bagParallel_size() {
+
+	return multiset.intersectBagsParallel_size(hash, probe);
+    }
+
+
+
+    //
+    // Helpers
+    //
+
+    private static Integer[] box(int[] arr) {
+
+	Integer[] res = new Integer[arr.length];
+
+	for (int i = 0; i < arr.length; i++) {
+	    res[i] = arr[i];
+	}
+
+	return res;
+
+    } // box
+
+
+} // IntersectBenchmark
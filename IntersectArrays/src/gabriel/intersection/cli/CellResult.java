@@ -0,0 +1,255 @@
+package gabriel.intersection.cli;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import gabriel.intersection.alg.*;
+
+
+/**
+ * The measurements of one cell of an experiment: the time of each
+ * repetition, the size of the intersection, the plan, the peak heap
+ * and the garbage collections; or the error that stopped the cell
+ */
+public class CellResult {
+
+    static final String CSV_HEADER =
+	"size_a,size_b,range,distribution,engine,hash,plan,reps,result_size," +
+	"min_ms,p50_ms,p90_ms,p99_ms,max_ms,mean_ms,peak_heap_mb,gc_count,gc_ms,times_ms,error";
+
+    // Prefix of the line that a forked JVM prints its result on
+    static final String RECORD = "#RESULT";
+
+
+    final ExperimentCell cell;
+
+    String plan = "";
+    int result_size = -1;
+
+    // Time of each repetition, in milliseconds
+    double[] times_ms = new double[0];
+
+    // Peak heap used while the cell ran, in bytes
+    long peak_heap = 0L;
+
+    // Garbage collections while the cell ran, and their time
+    long gc_count = 0L;
+    long gc_ms = 0L;
+
+    // Why the cell did not complete; empty if it did
+    String error = "";
+
+
+
+    public CellResult (ExperimentCell cell) {
+
+	this.cell = cell;
+    }
+
+
+
+    //
+    // Statistics of the times
+    //
+
+    /**
+     * Percentile p (in [0, 100]) of the times, by nearest rank; NaN if none
+     */
+    public double percentile(double p) {
+
+	if ( times_ms.length == 0 ) {
+	    return Double.NaN;
+	}
+
+	double[] sorted = times_ms.clone();
+	Arrays.sort(sorted);
+
+	int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+
+	return sorted[Math.min(Math.max(rank, 1), sorted.length) - 1];
+
+    } // percentile
+
+
+    public double mean() {
+
+	return (times_ms.length == 0) ? Double.NaN : Arrays.stream(times_ms).average().getAsDouble();
+    }
+
+
+    public boolean ok() {
+
+	return error.isEmpty();
+    }
+
+
+
+    //
+    // Output
+    //
+
+    public String toCsv() {
+
+	return String.join(",",
+			   String.valueOf(cell.size_a), String.valueOf(cell.size_b),
+			   String.valueOf(cell.range), cell.distribution.name(),
+			   cell.engine.name(), cell.hashSide(), quote(plan),
+			   String.valueOf(times_ms.length), String.valueOf(result_size),
+			   num(percentile(0)), num(percentile(50)), num(percentile(90)),
+			   num(percentile(99)), num(percentile(100)), num(mean()),
+			   num(peak_heap / (1024.0 * 1024.0)),
+			   String.valueOf(gc_count), String.valueOf(gc_ms),
+			   quote(times()), quote(error));
+
+    } // toCsv
+
+
+
+    public String toJson() {
+
+	StringBuilder sb = new StringBuilder();
+
+	sb.append("{\"size_a\": ").append(cell.size_a)
+	  .append(", \"size_b\": ").append(cell.size_b)
+	  .append(", \"range\": ").append(cell.range)
+	  .append(", \"distribution\": \"").append(cell.distribution).append('"')
+	  .append(", \"engine\": \"").append(cell.engine).append('"')
+	  .append(", \"hash\": \"").append(cell.hashSide()).append('"')
+	  .append(", \"plan\": \"").append(escape(plan)).append('"')
+	  .append(", \"result_size\": ").append(result_size)
+	  .append(", \"times_ms\": [").append(times().replace(";", ", ")).append(']');
+
+	if ( times_ms.length > 0 ) {
+	    sb.append(", \"min_ms\": ").append(num(percentile(0)))
+	      .append(", \"p50_ms\": ").append(num(percentile(50)))
+	      .append(", \"p90_ms\": ").append(num(percentile(90)))
+	      .append(", \"p99_ms\": ").append(num(percentile(99)))
+	      .append(", \"max_ms\": ").append(num(percentile(100)))
+	      .append(", \"mean_ms\": ").append(num(mean()));
+	}
+
+	sb.append(", \"peak_heap_bytes\": ").append(peak_heap)
+	  .append(", \"gc_count\": ").append(gc_count)
+	  .append(", \"gc_ms\": ").append(gc_ms)
+	  .append(", \"error\": \"").append(escape(error)).append("\"}");
+
+	return sb.toString();
+
+    } // toJson
+
+
+
+    static void writeCsv(File file, List<CellResult> results) throws IOException {
+
+	try ( PrintWriter out = new PrintWriter(file, "UTF-8") ) {
+
+	    out.println(CSV_HEADER);
+	    for (CellResult r : results) {
+		out.println(r.toCsv());
+	    }
+	}
+
+    } // writeCsv
+
+
+
+    static void writeJson(File file, List<CellResult> results) throws IOException {
+
+	try ( PrintWriter out = new PrintWriter(file, "UTF-8") ) {
+
+	    out.println("[");
+	    for (int i = 0; i < results.size(); i++) {
+		out.println("  " + results.get(i).toJson() + (i < results.size() - 1 ? "," : ""));
+	    }
+	    out.println("]");
+	}
+
+    } // writeJson
+
+
+
+    //
+    // The record a forked JVM prints, and its parsing
+    //
+
+    String toRecord() {
+
+	return String.join("\t", RECORD, clean(plan), String.valueOf(result_size), times(),
+			   String.valueOf(peak_heap), String.valueOf(gc_count),
+			   String.valueOf(gc_ms), clean(error));
+
+    } // toRecord
+
+
+
+    static CellResult fromRecord(ExperimentCell cell, String line) {
+
+	String[] f = line.split("\t", -1);
+
+	CellResult r = new CellResult(cell);
+
+	r.plan        = f[1];
+	r.result_size = Integer.parseInt(f[2]);
+	r.times_ms    = f[3].isEmpty() ? new double[0] :
+	    Arrays.stream(f[3].split(";")).mapToDouble(Double::parseDouble).toArray();
+	r.peak_heap   = Long.parseLong(f[4]);
+	r.gc_count    = Long.parseLong(f[5]);
+	r.gc_ms       = Long.parseLong(f[6]);
+	r.error       = f[7];
+
+	return r;
+
+    } // fromRecord
+
+
+
+    //
+    // Helpers
+    //
+
+    // The times, separated by ';'
+    private String times() {
+
+	StringBuilder sb = new StringBuilder();
+
+	for (double t : times_ms) {
+	    if ( sb.length() > 0 ) {
+		sb.append(';');
+	    }
+	    sb.append(num(t));
+	}
+
+	return sb.toString();
+
+    } // times
+
+
+    private static String num(double x) {
+
+	return Double.isNaN(x) ? "" : String.format(Locale.ROOT, "%.3f", x);
+    }
+
+
+    private static String quote(String s) {
+
+	return "\"" + s.replace("\"", "\"\"") + "\"";
+    }
+
+
+    private static String escape(String s) {
+
+	return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+
+    private static String clean(String s) {
+
+	return s.replace('\t', ' ').replace('\n', ' ');
+    }
+
+
+} // CellResult
@@ -0,0 +1,75 @@
+package gabriel.intersection.cli;
+
+import gabriel.intersection.alg.*;
+
+
+/**
+ * One cell of an experiment matrix: the sizes of arrays A and B,
+ * the range and distribution of their values, the engine and the
+ * array put in hash
+ */
+public class ExperimentCell {
+
+    final int size_a;
+    final int size_b;
+    final int range;
+    final Distribution distribution;
+    final IntersectEngine engine;
+    final boolean hash_a;
+
+
+
+    public ExperimentCell (int size_a, int size_b, int range, Distribution distribution,
+			   IntersectEngine engine, boolean hash_a) {
+
+	this.size_a       = size_a;
+	this.size_b       = size_b;
+	this.range        = range;
+	this.distribution = distribution;
+	this.engine       = engine;
+	this.hash_a       = hash_a;
+    }
+
+
+
+    /**
+     * The cell as the options of IntersectBatch, to run it in another JVM
+     */
+    String[] toArgs() {
+
+	return new String[] {
+	    "--sizes-a", String.valueOf(size_a),
+	    "--sizes-b", String.valueOf(size_b),
+	    "--ranges", String.valueOf(range),
+	    "--distributions", distribution.name(),
+	    "--engines", engine.name(),
+	    "--hash", hash_a ? "A" : "B"
+	};
+
+    } // toArgs
+
+
+
+    // Name of the array put in hash
+    String hashSide() {
+
+	return hash_a ? "A" : "B";
+    }
+
+
+    // The array put in hash is the bigger one
+    boolean bigInHash() {
+
+	return hash_a ? size_a >= size_b : size_b >= size_a;
+    }
+
+
+
+    public String toString() {
+
+	return "A=" + size_a + " B=" + size_b + " range=" + range + " " + distribution +
+	    " " + engine + " hash=" + hashSide();
+    }
+
+
+} // ExperimentCell
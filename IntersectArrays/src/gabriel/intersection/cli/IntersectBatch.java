@@ -0,0 +1,568 @@
+package gabriel.intersection.cli;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import gabriel.intersection.alg.*;
+
+
+/**
+ * Run IntersectDriver headless over an experiment matrix, and write
+ * the results to CSV and/or JSON.
+ *
+ * The matrix is the cartesian product of the sizes of arrays A and B,
+ * the ranges and distributions of the values, the engines and the array
+ * put in hash. Each cell is run some untimed warmup repetitions, then
+ * some timed ones, either all in this JVM (warmed up by the cells before)
+ * or each cell in a fresh JVM (--fork). For each cell the runner records
+ * the time of each repetition and its percentiles, the size of the
+ * intersection, the plan, the peak heap and the garbage collections.
+ *
+ * The arrays are regenerated at each repetition, from the same seed,
+ * as in the UI; their generation is not timed. The runner collects the
+ * garbage before each repetition, so that the memory check of the driver
+ * does not see the arrays of the previous one; these collections are
+ * not counted.
+ *
+ *   java gabriel.intersection.cli.IntersectBatch --sizes-a 1M,10M --sizes-b 100K \
+ *        --ranges 13000 --engines HASH,HASH_INT --hash A,B --reps 10 --csv out.csv
+ *
+ *   java gabriel.intersection.cli.IntersectBatch --experiment hash-side --fork --json out.json
+ */
+public class IntersectBatch {
+
+    // The matrix
+    private List<Integer> sizes_a = Arrays.asList(1000000);
+    private List<Integer> sizes_b = Arrays.asList(100000);
+    private List<Integer> ranges  = Arrays.asList(13000);
+    private List<Distribution> distributions = Arrays.asList(Distribution.UNIFORM);
+    private List<IntersectEngine> engines = Arrays.asList(IntersectEngine.HASH);
+    private List<Boolean> hash_sides = Arrays.asList(true, false);
+
+    // Repetitions of each cell
+    private int reps = 10;
+    private int warmup = 2;
+
+    // Seed of the arrays
+    private long seed = 42L;
+
+    // Run each cell in a fresh JVM, with these options
+    private boolean fork = false;
+    private List<String> jvm_args = new ArrayList<String>();
+
+    // Output files; null for none
+    private File csv_file = null;
+    private File json_file = null;
+
+    // Run one cell and print its record (in a forked JVM)
+    private boolean child = false;
+
+
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+
+	IntersectBatch batch = new IntersectBatch();
+
+	try {
+	    batch.parse(args);
+	}
+	catch (IllegalArgumentException ex) {
+	    System.err.println(ex.getMessage());
+	    usage();
+	    System.exit(1);
+	}
+
+	List<ExperimentCell> cells = batch.cells();
+
+	if ( batch.child ) {
+	    System.out.println(batch.runCell(cells.get(0)).toRecord());
+	    return;
+	}
+
+	List<CellResult> results = new ArrayList<CellResult>();
+
+	for (int i = 0; i < cells.size(); i++) {
+
+	    ExperimentCell cell = cells.get(i);
+	    System.out.println("[" + (i + 1) + "/" + cells.size() + "] " + cell);
+
+	    CellResult r = batch.fork ? batch.forkCell(cell) : batch.runCell(cell);
+	    results.add(r);
+
+	    System.out.println(r.ok() ?
+			       String.format(Locale.ROOT, "    size %d, p50 %.3f ms, p90 %.3f ms, peak heap %d MB, %d GCs",
+					     r.result_size, r.percentile(50), r.percentile(90),
+					     r.peak_heap >> 20, r.gc_count) :
+			       "    " + r.error);
+	}
+
+	if ( batch.csv_file != null ) {
+	    CellResult.writeCsv(batch.csv_file, results);
+	    System.out.println("\nWrote " + batch.csv_file);
+	}
+	if ( batch.json_file != null ) {
+	    CellResult.writeJson(batch.json_file, results);
+	    System.out.println("Wrote " + batch.json_file);
+	}
+
+	printHashSides(results);
+
+    } // main()
+
+
+
+    private static void usage() {
+
+	System.err.println
+	    (
+	       "Usage: java gabriel.intersection.cli.IntersectBatch [options]\n" +
+	       "  --sizes-a N,...         sizes of array A, e.g. 1M,10M (default 1M)\n" +
+	       "  --sizes-b N,...         sizes of array B (default 100K)\n" +
+	       "  --ranges N,...          ranges of the values (default 13000)\n" +
+	       "  --distributions D,...   UNIFORM, ZIPF, CLUSTERED, SORTED (default UNIFORM)\n" +
+	       "  --engines E,...         HASH, HASH_INT, MERGE, ..., AUTO (default HASH)\n" +
+	       "  --hash A,B              array put in hash (default A,B)\n" +
+	       "  --reps N                timed repetitions per cell (default 10)\n" +
+	       "  --warmup N              untimed repetitions per cell (default 2)\n" +
+	       "  --seed N                seed of the arrays (default 42)\n" +
+	       "  --fork                  run each cell in a fresh JVM\n" +
+	       "  --jvm-args \"ARGS\"       options of the forked JVMs, e.g. \"-Xmx8g\"\n" +
+	       "  --csv FILE              write the results as CSV\n" +
+	       "  --json FILE             write the results as JSON\n" +
+	       "  --experiment hash-side  the README experiment, big vs small array in hash,\n" +
+	       "                          at larger sizes; later options override it"
+	     );
+
+    } // usage
+
+
+
+    /**
+     * Parse the options
+     */
+    void parse(String[] args) {
+
+	for (int i = 0; i < args.length; i++) {
+
+	    String opt = args[i];
+
+	    if ( opt.equals("--fork") ) {
+		fork = true;
+		continue;
+	    }
+	    if ( opt.equals("--child") ) {
+		child = true;
+		continue;
+	    }
+
+	    if ( i + 1 >= args.length ) {
+		throw new IllegalArgumentException("Missing value of " + opt);
+	    }
+	    String val = args[++i];
+
+	    switch ( opt ) {
+
+	    case "--sizes-a":
+		sizes_a = parseSizes(val);
+		break;
+
+	    case "--sizes-b":
+		sizes_b = parseSizes(val);
+		break;
+
+	    case "--ranges":
+		ranges = parseSizes(val);
+		break;
+
+	    case "--distributions":
+		distributions = new ArrayList<Distribution>();
+		for (String s : val.split(",")) {
+		    Distribution d = Distribution.parse(s);
+		    if ( d == null ) {
+			throw new IllegalArgumentException("Unknown distribution " + s);
+		    }
+		    distributions.add(d);
+		}
+		break;
+
+	    case "--engines":
+		engines = new ArrayList<IntersectEngine>();
+		for (String s : val.split(",")) {
+		    IntersectEngine e = IntersectEngine.parse(s);
+		    if ( e == null ) {
+			throw new IllegalArgumentException("Unknown engine " + s);
+		    }
+		    engines.add(e);
+		}
+		break;
+
+	    case "--hash":
+		hash_sides = new ArrayList<Boolean>();
+		for (String s : val.split(",")) {
+		    if ( ! s.trim().matches("[AaBb]") ) {
+			throw new IllegalArgumentException("The hash side must be A or B: " + s);
+		    }
+		    hash_sides.add(s.trim().equalsIgnoreCase("A"));
+		}
+		break;
+
+	    case "--reps":
+		reps = Integer.parseInt(val);
+		if ( reps < 1 ) {
+		    throw new IllegalArgumentException("At least one repetition: " + val);
+		}
+		break;
+
+	    case "--warmup":
+		warmup = Integer.parseInt(val);
+		if ( warmup < 0 ) {
+		    throw new IllegalArgumentException("Negative warmup: " + val);
+		}
+		break;
+
+	    case "--seed":
+		seed = Long.parseLong(val);
+		break;
+
+	    case "--jvm-args":
+		jvm_args = new ArrayList<String>(Arrays.asList(val.trim().split("\\s+")));
+		break;
+
+	    case "--csv":
+		csv_file = new File(val);
+		break;
+
+	    case "--json":
+		json_file = new File(val);
+		break;
+
+	    case "--experiment":
+		experiment(val);
+		break;
+
+	    default:
+		throw new IllegalArgumentException("Unknown option " + opt);
+	    }
+	}
+
+    } // parse
+
+
+
+    /**
+     * Presets of the matrix
+     */
+    private void experiment(String name) {
+
+	if ( ! name.equals("hash-side") ) {
+	    throw new IllegalArgumentException("Unknown experiment " + name);
+	}
+
+	//
+	// The README experiment, big versus small array in hash, with
+	// arrays up to 100 times bigger, for boxed and primitive arrays,
+	// and for ranges from mostly duplicates to mostly distinct values
+	//
+	sizes_a = parseSizes("1M,10M,100M");
+	sizes_b = parseSizes("100K,1M,10M");
+	ranges  = parseSizes("13000,1M,1G");
+	engines = Arrays.asList(IntersectEngine.HASH, IntersectEngine.HASH_INT);
+	hash_sides = Arrays.asList(true, false);
+	reps = 10;
+	warmup = 2;
+
+    } // experiment
+
+
+
+    /**
+     * The cells of the matrix
+     */
+    List<ExperimentCell> cells() {
+
+	List<ExperimentCell> cells = new ArrayList<ExperimentCell>();
+
+	for (int size_a : sizes_a) {
+	    for (int size_b : sizes_b) {
+		for (int range : ranges) {
+		    for (Distribution dist : distributions) {
+			for (IntersectEngine engine : engines) {
+			    for (boolean hash_a : hash_sides) {
+				cells.add(new ExperimentCell(size_a, size_b, range, dist, engine, hash_a));
+			    }
+			}
+		    }
+		}
+	    }
+	}
+
+	return cells;
+
+    } // cells
+
+
+
+    //
+    // Running the cells
+    //
+
+    /**
+     * Run a cell in this JVM
+     */
+    CellResult runCell(ExperimentCell cell) {
+
+	CellResult r = new CellResult(cell);
+
+	// The tables kept by the last cell are not reused by this one
+	IntersectContext.get().release();
+
+	IntersectDriver driver = new IntersectDriver(cell.range, cell.engine);
+	driver.setDistribution(cell.distribution);
+	driver.setSeed(seed);
+
+	double[] times = new double[reps];
+	int[] sizes = new int[3];
+
+	try {
+
+	    for (int i = 0; i < warmup; i++) {
+		collect();
+		sizes[0] = cell.size_a;
+		sizes[1] = cell.size_b;
+		driver.buildAndIntesect(sizes, cell.hash_a);
+	    }
+
+	    for (int i = 0; i < reps; i++) {
+
+		collect();
+		resetPeakHeap();
+
+		long gc_count = gcCount();
+		long gc_ms = gcTime();
+
+		sizes[0] = cell.size_a;
+		sizes[1] = cell.size_b;
+		times[i] = driver.buildAndIntesect(sizes, cell.hash_a) * 1000.0;
+
+		r.gc_count += gcCount() - gc_count;
+		r.gc_ms += gcTime() - gc_ms;
+		r.peak_heap = Math.max(r.peak_heap, peakHeap());
+	    }
+
+	    r.times_ms = times;
+	    r.result_size = sizes[2];
+	}
+	catch (OutOfMemoryError | RuntimeException ex) {
+	    r.error = (ex.getMessage() != null) ? ex.getMessage() : ex.toString();
+	}
+
+	r.plan = String.valueOf(driver.getLastPlan());
+
+	return r;
+
+    } // runCell
+
+
+
+    /**
+     * Run a cell in a fresh JVM, with the same classpath
+     */
+    CellResult forkCell(ExperimentCell cell) throws IOException, InterruptedException {
+
+	List<String> cmd = new ArrayList<String>();
+
+	cmd.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+	cmd.addAll(jvm_args);
+	cmd.add("-cp");
+	cmd.add(System.getProperty("java.class.path"));
+	cmd.add(IntersectBatch.class.getName());
+	cmd.add("--child");
+	cmd.addAll(Arrays.asList(cell.toArgs()));
+	cmd.addAll(Arrays.asList("--reps", String.valueOf(reps),
+				 "--warmup", String.valueOf(warmup),
+				 "--seed", String.valueOf(seed)));
+
+	Process proc = new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+
+	String record = null;
+
+	try ( BufferedReader in = new BufferedReader(new InputStreamReader(proc.getInputStream(), "UTF-8")) ) {
+
+	    String line;
+	    while ( (line = in.readLine()) != null ) {
+		if ( line.startsWith(CellResult.RECORD) ) {
+		    record = line;
+		}
+	    }
+	}
+
+	int status = proc.waitFor();
+
+	if ( record == null ) {
+	    CellResult r = new CellResult(cell);
+	    r.error = "The forked JVM exited with status " + status + " and no result";
+	    return r;
+	}
+
+	return CellResult.fromRecord(cell, record);
+
+    } // forkCell
+
+
+
+    /**
+     * For each cell run with both arrays in hash, compare the median
+     * time with the big array in hash to that with the small one
+     */
+    static void printHashSides(List<CellResult> results) {
+
+	boolean header = false;
+
+	for (CellResult big : results) {
+
+	    ExperimentCell c = big.cell;
+
+	    if ( ! big.ok() || c.size_a == c.size_b || ! c.bigInHash() ) {
+		continue;
+	    }
+
+	    for (CellResult small : results) {
+
+		ExperimentCell d = small.cell;
+
+		if ( small.ok() && d.size_a == c.size_a && d.size_b == c.size_b && d.range == c.range &&
+		     d.distribution == c.distribution && d.engine == c.engine && d.hash_a != c.hash_a ) {
+
+		    if ( ! header ) {
+			System.out.println("\nMedian time with the big array in hash vs the small array in hash:");
+			header = true;
+		    }
+
+		    System.out.println(String.format(Locale.ROOT, "  A=%d B=%d range=%d %s %s: %.3f ms vs %.3f ms (x%.2f)",
+						     c.size_a, c.size_b, c.range, c.distribution, c.engine,
+						     big.percentile(50), small.percentile(50),
+						     big.percentile(50) / small.percentile(50)));
+		}
+	    }
+	}
+
+    } // printHashSides
+
+
+
+    //
+    // Heap and garbage collections
+    //
+
+    /**
+     * Collect the garbage between repetitions, outside of the measures
+     */
+    private static void collect() {
+
+	System.gc();
+    }
+
+
+    private static void resetPeakHeap() {
+
+	for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+	    if ( pool.getType() == MemoryType.HEAP ) {
+		pool.resetPeakUsage();
+	    }
+	}
+
+    } // resetPeakHeap
+
+
+    /**
+     * Sum of the peaks of the heap pools since the reset: an upper bound
+     * on the peak heap, as the pools need not peak at the same time
+     */
+    private static long peakHeap() {
+
+	long peak = 0L;
+
+	for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+	    if ( pool.getType() == MemoryType.HEAP ) {
+		peak += pool.getPeakUsage().getUsed();
+	    }
+	}
+
+	return peak;
+
+    } // peakHeap
+
+
+    private static long gcCount() {
+
+	long n = 0L;
+	for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+	    n += Math.max(gc.getCollectionCount(), 0L);
+	}
+	return n;
+    }
+
+
+    private static long gcTime() {
+
+	long ms = 0L;
+	for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+	    ms += Math.max(gc.getCollectionTime(), 0L);
+	}
+	return ms;
+    }
+
+
+
+    //
+    // Helpers
+    //
+
+    /**
+     * Parse a list of sizes, with an optional K, M or G suffix (powers of 1000)
+     */
+    static List<Integer> parseSizes(String val) {
+
+	List<Integer> res = new ArrayList<Integer>();
+
+	for (String s : val.split(",")) {
+
+	    s = s.trim().toUpperCase(Locale.ROOT);
+	    long mult = 1;
+
+	    if ( s.endsWith("K") ) {
+		mult = 1000L;
+	    }
+	    else if ( s.endsWith("M") ) {
+		mult = 1000000L;
+	    }
+	    else if ( s.endsWith("G") ) {
+		mult = 1000000000L;
+	    }
+	    if ( mult > 1 ) {
+		s = s.substring(0, s.length() - 1);
+	    }
+
+	    long n = Long.parseLong(s) * mult;
+	    if ( n <= 0 || n > Integer.MAX_VALUE ) {
+		throw new IllegalArgumentException("Size out of range: " + s);
+	    }
+	    res.add((int) n);
+	}
+
+	return res;
+
+    } // parseSizes
+
+
+} // IntersectBatch
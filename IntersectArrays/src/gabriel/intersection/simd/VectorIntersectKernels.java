@@ -0,0 +1,186 @@
+package gabriel.intersection.simd;
+
+import gabriel.intersection.alg.IntersectKernels;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+
+/**
+ * The kernels of IntersectKernels on the Vector API, with the widest
+ * vectors of the machine (e.g., 8 ints and 4 longs with AVX2).
+ *
+ * Sorted arrays: each distinct element x of a is compared at once with
+ * a block of as many elements of b as the vector holds. The block is
+ * moved ahead while its last element is below x, then a broadcast of x
+ * is compared with all of it; a single test then decides, where the
+ * scalar merge takes one unpredictable branch per element of either
+ * array (the V1 algorithm of Lemire, Boytsov and Kurz).
+ *
+ * Bitsets: the words are ANDed a vector at a time, and the bits of
+ * the AND counted within each lane by the shifts and masks of the SWAR
+ * population count: JDK 17 has no vector BIT_COUNT. The per-byte counts
+ * are summed in the lanes for up to 31 vectors, before they can overflow
+ * a byte, and then folded into per-lane totals.
+ *
+ * Compiled and run with "--add-modules jdk.incubator.vector"; it is
+ * loaded by IntersectKernels.get().
+ */
+public class VectorIntersectKernels extends IntersectKernels {
+
+    private static final VectorSpecies<Integer> INTS  = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Long>    LONGS = LongVector.SPECIES_PREFERRED;
+
+    // Vectors of byte counts summed before a byte can overflow: 31 * 8 < 256
+    private static final int BYTE_SUMS = 31;
+
+
+    //
+    // Constructors
+    //
+    public VectorIntersectKernels () {
+
+	if ( INTS.length() < 4 ) {
+	    // Comparing fewer ints per instruction does not pay
+	    throw new UnsupportedOperationException("No vectors of at least 4 ints: " + INTS);
+	}
+    }
+
+
+
+    public String getName() {
+
+	return "vector" + INTS.vectorBitSize();
+    }
+
+
+
+    /**
+     * Each distinct element of the smaller array against a block of the other
+     */
+    protected int merge(int[] a, int[] b, int[] result) {
+
+	if ( a.length > b.length ) {
+	    int[] tmp = a;
+	    a = b;
+	    b = tmp;
+	}
+
+	int lanes = INTS.length();
+	int na = a.length, nb = b.length;
+	int i = 0, j = 0, n = 0;
+
+	while ( i < na && j + lanes <= nb ) {
+
+	    int x = a[i];
+
+	    // Skip the duplicates of x, and the blocks of b below it
+	    if ( i > 0 && a[i - 1] == x ) {
+		i++;
+		continue;
+	    }
+	    while ( b[j + lanes - 1] < x ) {
+		j += lanes;
+		if ( j + lanes > nb ) {
+		    return n + mergeTail(a, i, b, j, result, n);
+		}
+	    }
+
+	    if ( IntVector.fromArray(INTS, b, j).eq(x).anyTrue() ) {
+		if ( result != null ) {
+		    result[n] = x;
+		}
+		n++;
+	    }
+	    i++;
+	}
+
+	return n + mergeTail(a, i, b, j, result, n);
+
+    } // merge
+
+
+
+    /**
+     * AND a vector of words at a time, and count its bits lane by lane
+     */
+    public long andCardinality(long[] x, long[] y, int from, int to) {
+
+	int lanes = LONGS.length();
+	int bound = from + (to - from) / lanes * lanes;
+	int i = from;
+
+	LongVector total = LongVector.zero(LONGS);
+
+	while ( i < bound ) {
+
+	    // 1. Count the bits in each byte, and sum the counts per byte
+	    LongVector bytes = LongVector.zero(LONGS);
+	    int end = Math.min(bound, i + BYTE_SUMS * lanes);
+
+	    for (; i < end; i += lanes) {
+		LongVector v = LongVector.fromArray(LONGS, x, i).and(LongVector.fromArray(LONGS, y, i));
+		v = v.sub(v.lanewise(VectorOperators.LSHR, 1).and(0x5555555555555555L));
+		v = v.and(0x3333333333333333L).add(v.lanewise(VectorOperators.LSHR, 2).and(0x3333333333333333L));
+		v = v.add(v.lanewise(VectorOperators.LSHR, 4)).and(0x0F0F0F0F0F0F0F0FL);
+		bytes = bytes.add(v);
+	    }
+
+	    // 2. Fold the 8 byte sums of each lane into the lane total
+	    bytes = bytes.and(0x00FF00FF00FF00FFL).add(bytes.lanewise(VectorOperators.LSHR, 8).and(0x00FF00FF00FF00FFL));
+	    bytes = bytes.add(bytes.lanewise(VectorOperators.LSHR, 16));
+	    bytes = bytes.add(bytes.lanewise(VectorOperators.LSHR, 32)).and(0xFFFFL);
+	    total = total.add(bytes);
+	}
+
+	long count = total.reduceLanes(VectorOperators.ADD);
+
+	for (; i < to; i++) {
+	    count += Long.bitCount(x[i] & y[i]);
+	}
+	return count;
+
+    } // andCardinality
+
+
+
+    //
+    // Helpers
+    //
+
+    /**
+     * Scalar merge of a from i with the last elements of b from j,
+     * fewer than a vector; the common elements are written to result
+     * from offset
+     */
+    private static int mergeTail(int[] a, int i, int[] b, int j, int[] result, int offset) {
+
+	int na = a.length, nb = b.length;
+	int n = 0;
+
+	for (; i < na && j < nb; i++) {
+
+	    int x = a[i];
+	    if ( i > 0 && a[i - 1] == x ) {
+		continue;
+	    }
+
+	    while ( j < nb && b[j] < x ) {
+		j++;
+	    }
+	    if ( j < nb && b[j] == x ) {
+		if ( result != null ) {
+		    result[offset + n] = x;
+		}
+		n++;
+	    }
+	}
+
+	return n;
+
+    } // mergeTail
+
+
+} // VectorIntersectKernels
@@ -0,0 +1,252 @@
+package gabriel.intersection.ui;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import gabriel.intersection.alg.*;
+
+
+/**
+ * Run IntersectDriver off the JavaFX application thread.
+ *
+ * The task is the listener of the driver: it turns the elements
+ * generated, hashed and probed into its progress, and into a message
+ * with their counts and rates (elements per second); the size of the
+ * intersection found so far and the time elapsed are published as
+ * partial values, and the final size and time as the value of the task.
+ * Cancelling the task stops the driver at its next report.
+ */
+public class IntersectTask extends Task<IntersectTask.Result> {
+
+
+    /**
+     * Size of the intersection and time: partial while the task runs
+     */
+    public static class Result {
+
+	public final long size;
+	public final float time;
+	public final boolean partial;
+
+	Result (long size, float time, boolean partial) {
+
+	    this.size    = size;
+	    this.time    = time;
+	    this.partial = partial;
+	}
+    }
+
+
+    // Minimum time between two updates of the progress and message, in ns
+    private static final long UPDATE_NS = 100_000_000L;
+
+
+    private final IntersectDriver driver;
+
+    // sizes[0], sizes[1]: sizes of arrays A and B; sizes[2]: size of the intersection
+    private final int[] sizes;
+
+    private final boolean array_A;
+
+    // Arrays A and B are read from these files if both are set
+    private final File file_a;
+    private final File file_b;
+
+    // Run on the application thread when call() returns, even if cancelled
+    private Runnable on_exit = null;
+
+    // Sampler of the JVM metrics of the run, stopped when call() returns; null for none
+    private MetricsSampler sampler = null;
+
+
+    //
+    // Progress of the run: for each phase, the elements processed,
+    // and the time and count of its first report, for its rate
+    //
+    private final AtomicLong[] counts = new AtomicLong[IntersectListener.Phase.values().length];
+    private final long[] first_time  = new long[counts.length];
+    private final long[] first_count = new long[counts.length];
+
+    private volatile long found = 0L;
+
+    private long start_time;
+    private volatile long last_update = 0L;
+
+
+
+    public IntersectTask (IntersectDriver driver, int[] sizes, boolean array_A, File file_a, File file_b) {
+
+	this.driver  = driver;
+	this.sizes   = sizes;
+	this.array_A = array_A;
+	this.file_a  = file_a;
+	this.file_b  = file_b;
+
+	for (int i = 0; i < counts.length; i++) {
+	    counts[i] = new AtomicLong();
+	}
+    }
+
+
+
+    /**
+     * Action run on the application thread once the run has really
+     * stopped: a cancelled task is done at once, its run is not
+     */
+    public void setOnExit(Runnable action) {
+
+	on_exit = action;
+    }
+
+
+
+    /**
+     * Sampler of the JVM metrics of the run: the final sample is taken 
+     * by the thread of the run, so that its allocations are counted
+     */
+    public void setSampler(MetricsSampler sampler) {
+
+	this.sampler = sampler;
+    }
+
+
+
+    @Override
+    protected Result call() throws Exception {
+
+	start_time = System.nanoTime();
+
+	driver.setListener(new IntersectListener() {
+
+		public void progress(Phase phase, long n) {
+		    IntersectTask.this.progress(phase, n);
+		}
+
+		public void found(long size) {
+		    found = size;
+		}
+
+		public boolean isCancelled() {
+		    return IntersectTask.this.isCancelled();
+		}
+	    });
+
+	try {
+
+	    float time;
+
+	    if ( file_a != null && file_b != null ) {
+		time = driver.intersectFiles(file_a, file_b, sizes, array_A);
+	    }
+	    else {
+		time = driver.buildAndIntesect(sizes, array_A);
+	    }
+
+	    update(true);
+
+	    return new Result(sizes[2], time, false);
+	}
+
+	finally {
+
+	    driver.setListener(null);
+
+	    if ( sampler != null ) {
+		sampler.stop();
+	    }
+
+	    if ( on_exit != null ) {
+		Platform.runLater(on_exit);
+	    }
+	}
+
+    } // call
+
+
+
+    /**
+     * Count n elements of a phase; called by the threads of the driver
+     */
+    private void progress(IntersectListener.Phase phase, long n) {
+
+	int k = phase.ordinal();
+
+	long count = counts[k].addAndGet(n);
+
+	synchronized ( first_time ) {
+	    if ( first_time[k] == 0L ) {
+		first_time[k]  = System.nanoTime();
+		first_count[k] = count;
+	    }
+	}
+
+	update(false);
+
+    } // progress
+
+
+
+    /**
+     * Publish the progress, the message and the partial result,
+     * at most once every UPDATE_NS unless forced
+     */
+    private void update(boolean force) {
+
+	long now = System.nanoTime();
+
+	if ( ! force && now - last_update < UPDATE_NS ) {
+	    return;
+	}
+	last_update = now;
+
+	// Random arrays are generated, then hashed and probed; files are only hashed and probed
+	long work = (long) sizes[0] + sizes[1];
+	long total = (file_a != null && file_b != null) ? work : 2 * work;
+
+	long done = 0L;
+	StringBuilder msg = new StringBuilder();
+
+	for (IntersectListener.Phase phase : IntersectListener.Phase.values()) {
+
+	    int k = phase.ordinal();
+	    long count = counts[k].get();
+	    done += count;
+
+	    if ( count == 0 ) {
+		continue;
+	    }
+
+	    if ( msg.length() > 0 ) {
+		msg.append(", ");
+	    }
+	    msg.append(phase.name().toLowerCase(Locale.ROOT)).append(' ').append(millions(count));
+
+	    long t, c;
+	    synchronized ( first_time ) {
+		t = first_time[k];
+		c = first_count[k];
+	    }
+	    if ( now > t && count > c ) {
+		msg.append(" (").append(millions((count - c) * 1e9 / (now - t))).append("/s)");
+	    }
+	}
+
+	updateProgress(Math.min(done, total), total);
+	updateMessage(msg.toString());
+	updateValue(new Result(found, (now - start_time) / 1e9F, true));
+
+    } // update
+
+
+
+    private static String millions(double n) {
+
+	return (n >= 1e6) ? String.format(Locale.ROOT, "%.1fM", n / 1e6) : String.format(Locale.ROOT, "%.0f", n);
+    }
+
+
+} // IntersectTask
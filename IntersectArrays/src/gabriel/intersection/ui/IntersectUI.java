@@ -15,13 +15,23 @@ import javafx.scene.Scene;
 import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.RadioButton;
 import javafx.scene.control.ToggleGroup;
 import javafx.scene.control.Toggle;
+import javafx.scene.control.ProgressBar;
 
 import javafx.scene.layout.GridPane; 
+import javafx.scene.layout.BorderPane; 
 import javafx.scene.text.Text;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 
@@ -39,6 +49,7 @@ public class IntersectUI extends Application {
     final int width_scene      = 650; 
     final int height_scene     = 520;
     final int width_text_field = 8; 
+    final int width_metrics    = 420; 
 
     // Whether or not to put array A in HashSeet
     boolean array_A = true;
@@ -53,6 +64,25 @@ public class IntersectUI extends Application {
     int random_range = 13000;
 
 
+    //
+    // Algorithm used to intersect the arrays.
+    //
+    // Override with -Dintersect.engine=HASH_INT 
+    //
+    IntersectEngine engine = IntersectEngine.HASH;
+
+
+    //
+    // Runs the intersections, one at a time; its single thread keeps 
+    // the tables of its IntersectContext from one run to the next
+    //
+    final ExecutorService worker = Executors.newSingleThreadExecutor( r -> {
+	    Thread t = new Thread(r, "intersect");
+	    t.setDaemon(true);
+	    return t;
+	});
+
+
     /**
      * Launch the app
      */
@@ -84,6 +114,11 @@ public class IntersectUI extends Application {
 	    random_range = range;
 	}
 
+	IntersectEngine eng = util.get_engine();
+	if ( eng != null ) {
+	    engine = eng;
+	}
+
 
 
 
@@ -150,12 +185,27 @@ public class IntersectUI extends Application {
 	radio_group.selectedToggleProperty().addListener(cl);
 	
 
+	//
+	// 4.3 Add check box letting the planner choose the engine and 
+	//     the array put in hash (6); when it is cleared, the engine 
+	//     set by -Dintersect.engine and the radio buttons are used
+	//
+	CheckBox plan_box = util.add_check_box(grid, "Let the planner choose", true, offset + 1);
+
+
 
 	//
 	// 5. Set Start Button, and add it to the grid
 	//
 	offset += 3;
-        Button start_btn = util.add_button(grid, "Find intersection", offset); // 8
+	Button start_btn = util.add_button(grid, "Find intersection", offset); // 8
+
+	// 5.1 Cancel Button, next to it, enabled while an intersection runs
+	Button cancel_btn = util.add_button_next(start_btn, "Cancel");
+	cancel_btn.setDisable(true);
+
+	// 5.2 Progress bar of the run, under them (9)
+	ProgressBar progress_bar = util.add_progress_bar(grid, offset + 1);
 
 
 
@@ -197,6 +247,13 @@ public class IntersectUI extends Application {
 
 
 
+	//
+	// 8.1 Panel of the JVM metrics of a run, right of the grid
+	//
+	MetricsPanel metrics = new MetricsPanel(new MetricsSampler(), width_metrics);
+
+
+
 	//
 	// 9. Handle Start Button Events
 	//	
@@ -229,40 +286,123 @@ public class IntersectUI extends Application {
 	      // 9.2.2 Get sizes of arrays A and B into the "sizes" array
 	      util.parse_validate_input(array1, array2, sizes);
 
+	      // 9.2.3 Arrays A and B are read from files, if both are given
+	      File file_a = util.get_input_file("a");
+	      File file_b = util.get_input_file("b");
+	      boolean from_files = (file_a != null) && (file_b != null);
+
 	      String time_stamp = ZonedDateTime.now().format(DateTimeFormatter.RFC_1123_DATE_TIME);
 
 
 	      //
 	      // 9.3 If valid arrays sizes, perform the array intersection
 	      //		  
-	      if ( (sizes[0] > 0) && (sizes[1] > 0) ) {  
+	      if ( from_files || ((sizes[0] > 0) && (sizes[1] > 0)) ) {  
 
 		  // 9.3.1 Emit time stamp 
 		  util.write_text_msg(1, "Done: " + time_stamp  + 
-                    "\nrandom_range=" + random_range + ". To change it use -Drandom.range=N");
+                    "\nrandom_range=" + random_range + ". To change it use -Drandom.range=N" +
+                    "\nengine=" + engine + ". To change it use -Dintersect.engine=HASH_INT");
 		
-		  // 9.3.2 Perform intersection and set size of the intersection in sizes[2]
-		  boolean ok = true;
-		  float time = 0.0f;
-		  IntersectDriver driver = new IntersectDriver(random_range);
-		  try {
-		      time = driver.buildAndIntesect(sizes, array_A);
-		  }
-		  catch (OutOfMemoryError ex) { 
-		      util.write_text_msg(2, time_stamp + "\n" + ex.getMessage() );
-		      ok = false;
-		  }
-		  finally {
-		      // Release heap resources 
-		      System.gc();
-		  }
-
-		  // 9.3.3 Write the size of the result and the time taken to compute 
+		  // 9.3.2 Set up the driver, and the task that runs it off the 
+		  //       application thread and sets the size of the intersection in sizes[2]
+		  IntersectEngine run_engine = plan_box.isSelected() ? IntersectEngine.AUTO : engine;
+		  IntersectDriver driver = new IntersectDriver(random_range, run_engine);
+		  driver.setParallelism(util.get_parallelism());
+		  driver.setDistribution(util.get_distribution());
+		  driver.setSeed(util.get_random_seed());
+		  driver.setCompareBaseline(run_engine == IntersectEngine.PARALLEL || run_engine == IntersectEngine.ROARING);
+
+		  IntersectTask task = new IntersectTask(driver, sizes, array_A, 
+							 from_files ? file_a : null, from_files ? file_b : null);
+		  task.setSampler(metrics.getSampler());
+
+		  // 9.3.3 While the task runs: show its progress, the elements generated, 
+		  //       hashed and probed per second, and the partial result
+		  progress_bar.progressProperty().bind(task.progressProperty());
+
+		  task.messageProperty().addListener( (ov, old_text, text) -> 
+		      util.write_text_msg(1, "Running: " + time_stamp + "\n" + text) );
+
+		  task.valueProperty().addListener( (ov, old_res, res) -> {
+		      if ( res != null && res.partial ) {
+			  result_field.setText( res.size + " so far" );
+			  time_field.setText( String.format("%.1f sec elapsed", res.time) );
+		      }
+		  });
+
+		  // 9.3.4 Write the size of the result and the time taken to compute 
 		  //       the result in the result field and time field, respectively
-		  if  ( ok ) {
-		      result_field.setText( String.valueOf(sizes[2]) );
-		      time_field.setText( time + " sec");
-		  }
+		  task.setOnSucceeded( event -> {
+
+		      IntersectTask.Result res = task.getValue();
+
+		      result_field.setText( String.valueOf(res.size) );
+		      time_field.setText( res.time + " sec");
+
+		      if ( from_files ) {
+			  array1.setText( String.valueOf(sizes[0]) );
+			  array2.setText( String.valueOf(sizes[1]) );
+		      }
+
+		      if ( run_engine == IntersectEngine.ROARING ) {
+			  util.write_text_msg(1, "Done: " + time_stamp +
+			    "\nengine=" + engine + ", HashSet baseline " + 
+			    driver.getBaselineTime() + " sec, speedup " + driver.getSpeedup() + "x");
+		      }
+		      else if ( run_engine == IntersectEngine.PARALLEL ) {
+			  util.write_text_msg(1, "Done: " + time_stamp +
+			    "\nengine=" + engine + ", single-threaded baseline " + 
+			    driver.getBaselineTime() + " sec, speedup " + driver.getSpeedup() + "x" +
+			    "\nTo change the number of threads use -Dintersect.parallelism=N");
+		      }
+		      else {
+			  util.write_text_msg(1, "Done: " + time_stamp +
+			    "\nrandom_range=" + random_range + ". To change it use -Drandom.range=N" +
+			    "\nplan: " + driver.getLastPlan());
+		      }
+		  });
+
+		  // 9.3.5 Report why the task failed
+		  task.setOnFailed( event -> {
+
+		      Throwable ex = task.getException();
+
+		      if ( ex instanceof UncheckedIOException ) {
+			  // The SPILL engine could not write its temporary files
+			  util.write_text_msg(2, time_stamp + "\n" + ex.getCause().getMessage() );
+		      }
+		      else if ( ex instanceof CancellationException ) {
+			  // Cancelled by the listener, before the task was
+			  util.write_text_msg(2, time_stamp + "\nCancelled");
+		      }
+		      else {
+			  // Not enough memory; or the input files could not be read, 
+			  // or do not suit the engine
+			  util.write_text_msg(2, time_stamp + "\n" + ex.getMessage() );
+		      }
+		  });
+
+		  // 9.3.6 The partial result stays in the result and time fields
+		  task.setOnCancelled( event -> 
+		      util.write_text_msg(2, "Cancelled: " + time_stamp + 
+					  "\nThe result and time are those found before cancelling") );
+
+		  // 9.3.7 Start and Cancel buttons: only one run at a time; 
+		  //       a cancelled run stops at its next progress report
+		  task.setOnExit( () -> {
+		      progress_bar.progressProperty().unbind();
+		      start_btn.setDisable(false);
+		      cancel_btn.setDisable(true);
+		  });
+		  cancel_btn.setOnAction( event -> task.cancel() );
+
+		  start_btn.setDisable(true);
+		  cancel_btn.setDisable(false);
+
+		  // 9.3.8 Run the task, sampling the JVM metrics while it runs
+		  metrics.start(sizes);
+		  worker.execute(task);
 		  
 	      } // if ( (sizes[0] > 0) && (sizes[1] > 0) ) { ... }
 
@@ -276,8 +416,11 @@ public class IntersectUI extends Application {
 	// 10. Create scene, add it to the stage and show the stage
 	//
 
-	// 10.1 Create scene
-	Scene scene = new Scene(grid, width_scene, height_scene);
+	// 10.1 Create scene, with the grid and the metrics panel on its right
+	BorderPane root = new BorderPane();
+	root.setCenter(grid);
+	root.setRight(metrics);
+	Scene scene = new Scene(root, width_scene + width_metrics, height_scene);
 
 	// 10.2 Set title of the stage
         primaryStage.setTitle("Intersection of Arrays Application");
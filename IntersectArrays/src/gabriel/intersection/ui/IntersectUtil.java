@@ -10,9 +10,11 @@ import javafx.scene.control.Label;
 import javafx.scene.control.TextField;
 import javafx.scene.control.TextArea;
 import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.RadioButton;
 import javafx.scene.control.ToggleGroup;
 import javafx.scene.control.Toggle;
+import javafx.scene.control.ProgressBar;
 
 import javafx.scene.layout.StackPane;
 import javafx.scene.layout.GridPane; 
@@ -28,6 +30,8 @@ import javafx.scene.text.FontWeight;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 
+import java.io.File;
+
 import gabriel.intersection.alg.*;
 import gabriel.intersection.ui.*;
 
@@ -127,6 +131,22 @@ public class IntersectUtil {
 
 
 
+    /**
+     * Add a check box to the grid
+     */
+    protected CheckBox add_check_box(GridPane grid, String label, boolean selected, int offset) {
+
+	CheckBox cb = new CheckBox(label);
+	cb.setSelected(selected);
+
+	grid.add(cb, 1, offset);
+
+	return cb;
+
+    } // add_check_box
+
+
+
     /**
      * Add title box
      */
@@ -206,6 +226,37 @@ public class IntersectUtil {
 
 
 
+    /**
+     * Add a button to the right of a button added by add_button()
+     */
+    protected Button add_button_next(Button prev, String label) {
+
+	Button btn = new Button(label);
+
+	((HBox) prev.getParent()).getChildren().add(btn);
+
+	return btn;
+
+    } // add_button_next
+
+
+
+    /**
+     * Add a progress bar, spanning the first and second column
+     */
+    protected ProgressBar add_progress_bar(GridPane grid, int offset) {
+
+	ProgressBar bar = new ProgressBar(0);
+	bar.setMaxWidth(Double.MAX_VALUE);
+
+	grid.add(bar, 0, offset, 2, 1);
+
+	return bar;
+
+    } // add_progress_bar
+
+
+
     /**
      * Write a message to a specified text box
      * @type: meesage type: 1 for info, 2 for error
@@ -276,6 +327,127 @@ public class IntersectUtil {
 
 
 
+    /**
+     * Get the value of the system property "random.distribution",
+     * the distribution of the random numbers; null if not set
+     */
+    public Distribution get_distribution() {
+
+	Distribution res = null;
+
+	String s = System.getProperty("random.distribution");
+
+	if ( (s != null) && !( s.isEmpty() ) ) {
+
+	    res = Distribution.parse(s);
+	    if ( res == null ) {
+		System.err.println("Could not parse property random.distribution ");
+	    }
+	}
+
+	return res;
+
+    } // get_distribution
+
+
+
+    /**
+     * Get the value of the system property "random.seed", the seed 
+     * of the random numbers; null if not set
+     */
+    public Long get_random_seed() {
+
+	Long res = null;
+
+	try {
+
+	    String s = System.getProperty("random.seed");
+
+	    if ( (s != null) && !( s.isEmpty() ) ) {
+		res = Long.valueOf(s);
+	    }
+	}
+	catch (Exception ex) {
+
+	    System.err.println("Could not parse property random.seed ");
+	}
+
+	return res;
+
+    } // get_random_seed
+
+
+
+    /**
+     * Get the value of the system property "intersect.engine",
+     * e.g., -Dintersect.engine=HASH_INT; null if not set
+     */
+    public IntersectEngine get_engine() {
+
+	IntersectEngine res = null;
+
+	String s = System.getProperty("intersect.engine");
+
+	if ( (s != null) && !( s.isEmpty() ) ) {
+
+	    res = IntersectEngine.parse(s);
+	    if ( res == null ) {
+		System.err.println("Could not parse property intersect.engine ");
+	    }
+	}
+
+	return res;
+
+    } // get_engine
+
+
+
+    /**
+     * Get the value of the system property "intersect.parallelism",
+     * the number of threads of the PARALLEL engine; 0 if not set
+     */
+    public int get_parallelism() {
+
+	int res = 0;
+
+	try {
+
+	    String s = System.getProperty("intersect.parallelism");
+
+	    if ( (s != null) && !( s.isEmpty() ) ) {
+		res = Integer.valueOf(s);
+	    }
+	}
+	catch (Exception ex) {
+
+	    System.err.println("Could not parse property intersect.parallelism ");
+	}
+
+	return res;
+
+    } // get_parallelism
+
+
+
+    /**
+     * Get the value of the system property "intersect.file.a" or 
+     * "intersect.file.b", an int array file to intersect instead 
+     * of a random array; null if not set
+     */
+    public File get_input_file(String array) {
+
+	String s = System.getProperty("intersect.file." + array);
+
+	if ( (s != null) && !( s.isEmpty() ) ) {
+	    return new File(s);
+	}
+
+	return null;
+
+    } // get_input_file
+
+
+
     /**
      * Parse the data in the text fields for array1 and array2 sizes
      * Write outcome to the text box. 
@@ -0,0 +1,198 @@
+package gabriel.intersection.ui;
+
+import javafx.animation.AnimationTimer;
+
+import javafx.scene.chart.LineChart;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.chart.XYChart;
+
+import javafx.scene.control.Label;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Text;
+import javafx.scene.text.Font;
+import javafx.scene.text.FontWeight;
+
+import javafx.geometry.Insets;
+
+import java.util.Locale;
+
+
+/**
+ * Panel of the JVM metrics of a run, sampled by a MetricsSampler every
+ * SAMPLE_NS: the heap used over time, and next to the wall time, the
+ * CPU time of the process, the GC pauses, the JIT compilation time and
+ * the bytes allocated, per element of arrays A and B. So the time of a
+ * run can be split into collecting, compiling and allocating, e.g.,
+ * the boxing of the HASH engine against HASH_INT.
+ */
+public class MetricsPanel extends VBox {
+
+    // Time between two samples, in ns
+    private static final long SAMPLE_NS = 100_000_000L;
+
+
+    private final MetricsSampler sampler;
+
+    // Heap used, in MB, over the time of the run, in seconds
+    private final XYChart.Series<Number,Number> heap = new XYChart.Series<Number,Number>();
+
+    private final Label wall_label  = new Label();
+    private final Label cpu_label   = new Label();
+    private final Label gc_label    = new Label();
+    private final Label jit_label   = new Label();
+    private final Label alloc_label = new Label();
+
+    // Sizes of arrays A and B of the run, for the bytes per element
+    private int[] sizes = {0, 0, 0};
+
+    // Samples drawn so far
+    private int drawn = 0;
+
+    private final AnimationTimer timer = new AnimationTimer() {
+
+	    private long last = 0L;
+
+	    @Override
+	    public void handle(long now) {
+
+		if ( now - last < SAMPLE_NS ) {
+		    return;
+		}
+		last = now;
+
+		boolean stopped = sampler.isStopped();
+		if ( ! stopped ) {
+		    sampler.sample();
+		}
+
+		draw();
+
+		if ( stopped ) {
+		    stop();
+		}
+	    }
+	};
+
+
+
+    public MetricsPanel (MetricsSampler sampler, int width) {
+
+	super(10);
+
+	this.sampler = sampler;
+
+	setPadding(new Insets(25, 25, 25, 0));
+	setPrefWidth(width);
+
+	//
+	// 1. Title
+	//
+	Text title = new Text("JVM metrics of the run");
+	title.setFont(Font.font("Tahoma", FontWeight.NORMAL, 16));
+
+	//
+	// 2. Heap used over time
+	//
+	NumberAxis time_axis = new NumberAxis();
+	time_axis.setLabel("sec");
+	time_axis.setForceZeroInRange(true);
+
+	NumberAxis heap_axis = new NumberAxis();
+	heap_axis.setLabel("heap used, MB");
+
+	LineChart<Number,Number> chart = new LineChart<Number,Number>(time_axis, heap_axis);
+	chart.setAnimated(false);
+	chart.setCreateSymbols(false);
+	chart.setLegendVisible(false);
+	chart.getData().add(heap);
+
+	//
+	// 3. Totals of the run
+	//
+	GridPane totals = new GridPane();
+	totals.setHgap(10);
+	totals.setVgap(5);
+
+	String[] names = {"Wall time", "CPU time", "GC pauses", "JIT time", "Allocated"};
+	Label[] values = {wall_label, cpu_label, gc_label, jit_label, alloc_label};
+
+	for (int i = 0; i < names.length; i++) {
+	    totals.add(new Label(names[i] + ":"), 0, i);
+	    totals.add(values[i], 1, i);
+	}
+
+	getChildren().addAll(title, chart, totals);
+
+    } // MetricsPanel
+
+
+
+    public MetricsSampler getSampler() {
+
+	return sampler;
+    }
+
+
+
+    /**
+     * Start sampling a run of arrays of sizes[0] and sizes[1] elements;
+     * the sampling stops when the sampler is stopped, by the run
+     */
+    public void start(int[] sizes) {
+
+	this.sizes = sizes;
+
+	heap.getData().clear();
+	drawn = 0;
+
+	sampler.start();
+	timer.start();
+
+    } // start
+
+
+
+    /**
+     * Add the new samples to the chart, and show the totals of the last one
+     */
+    private void draw() {
+
+	for (MetricsSampler.Sample s : sampler.samples(drawn)) {
+	    heap.getData().add(new XYChart.Data<Number,Number>(s.time, s.heap_used / (1024.0 * 1024.0)));
+	    drawn++;
+	}
+
+	MetricsSampler.Sample s = sampler.last();
+	if ( s == null ) {
+	    return;
+	}
+
+	wall_label.setText(format("%.3f sec", s.time));
+
+	cpu_label.setText(s.cpu_ns < 0 ? "n/a" :
+			  format("%.3f sec, %.1f cores busy", s.cpu_ns / 1e9,
+				 (s.time > 0) ? s.cpu_ns / 1e9 / s.time : 0.0));
+
+	gc_label.setText(format("%d, %d ms, %.1f%% of the wall time", s.gc_count, s.gc_ms,
+				(s.time > 0) ? s.gc_ms / 10.0 / s.time : 0.0));
+
+	jit_label.setText(s.jit_ms < 0 ? "n/a" : format("%d ms", s.jit_ms));
+
+	long elements = (long) sizes[0] + sizes[1];
+
+	alloc_label.setText(s.allocated < 0 ? "n/a" :
+			    format("%.1f MB, %.1f bytes per element", s.allocated / (1024.0 * 1024.0),
+				   (elements > 0) ? (double) s.allocated / elements : 0.0));
+
+    } // draw
+
+
+
+    private static String format(String fmt, Object... args) {
+
+	return String.format(Locale.ROOT, fmt, args);
+    }
+
+
+} // MetricsPanel
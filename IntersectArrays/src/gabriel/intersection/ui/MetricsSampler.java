@@ -0,0 +1,275 @@
+package gabriel.intersection.ui;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Sample the JVM during a run: heap used, garbage collections, bytes
+ * allocated, CPU time and JIT compilation time, each relative to the
+ * start of the run.
+ *
+ * The bytes allocated are summed over the threads, from the per-thread
+ * counters of the HotSpot ThreadMXBean; a thread that ends is counted
+ * up to its last sample, so the thread of the run should take the
+ * final sample (stop()) itself. The GC pauses are the collections of
+ * the collectors that stop the application, not the concurrent cycles
+ * of G1, ZGC or Shenandoah.
+ */
+public class MetricsSampler {
+
+
+    /**
+     * One sample, relative to the start of the run
+     */
+    public static class Sample {
+
+	// Wall time since the start, in seconds
+	public final double time;
+
+	public final long heap_used;
+
+	// Pauses of the collectors since the start, and their total time
+	public final long gc_count;
+	public final long gc_ms;
+
+	// Bytes allocated since the start, or -1 if unknown
+	public final long allocated;
+
+	// CPU time of the process since the start, in ns, or -1 if unknown
+	public final long cpu_ns;
+
+	// Time of the JIT compiler since the start, or -1 if unknown
+	public final long jit_ms;
+
+	Sample (double time, long heap_used, long gc_count, long gc_ms, long allocated, long cpu_ns, long jit_ms) {
+
+	    this.time      = time;
+	    this.heap_used = heap_used;
+	    this.gc_count  = gc_count;
+	    this.gc_ms     = gc_ms;
+	    this.allocated = allocated;
+	    this.cpu_ns    = cpu_ns;
+	    this.jit_ms    = jit_ms;
+	}
+    }
+
+
+
+    private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+    private final CompilationMXBean jit = ManagementFactory.getCompilationMXBean();
+    private final List<GarbageCollectorMXBean> pauses = new ArrayList<GarbageCollectorMXBean>();
+
+    // Counters at the start of the run
+    private long start_ns;
+    private long start_gc_count;
+    private long start_gc_ms;
+    private long start_cpu_ns;
+    private long start_jit_ms;
+
+    // Bytes allocated by each thread at the start, and at its last sample
+    private final Map<Long,Long> start_allocated = new HashMap<Long,Long>();
+    private final Map<Long,Long> last_allocated  = new HashMap<Long,Long>();
+
+    private final List<Sample> samples = new ArrayList<Sample>();
+    private boolean stopped = true;
+
+
+
+    public MetricsSampler () {
+
+	for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+	    String name = gc.getName();
+	    if ( ! name.contains("Concurrent") && ! name.contains("Cycles") ) {
+		pauses.add(gc);
+	    }
+	}
+
+	if ( threads instanceof com.sun.management.ThreadMXBean ) {
+	    com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean) threads;
+	    if ( t.isThreadAllocatedMemorySupported() && ! t.isThreadAllocatedMemoryEnabled() ) {
+		t.setThreadAllocatedMemoryEnabled(true);
+	    }
+	}
+    }
+
+
+
+    /**
+     * Start a run: take the counters, and drop the samples of the last run
+     */
+    public synchronized void start() {
+
+	samples.clear();
+	stopped = false;
+
+	start_ns       = System.nanoTime();
+	start_gc_count = gcCount();
+	start_gc_ms    = gcTime();
+	start_cpu_ns   = cpuTime();
+	start_jit_ms   = jitTime();
+
+	start_allocated.clear();
+	last_allocated.clear();
+	allocated(start_allocated);
+
+	samples.add(new Sample(0.0, memory.getHeapMemoryUsage().getUsed(), 0L, 0L,
+			       start_allocated.isEmpty() ? -1L : 0L,
+			       (start_cpu_ns < 0) ? -1L : 0L, (start_jit_ms < 0) ? -1L : 0L));
+
+    } // start
+
+
+
+    /**
+     * Take a sample, unless the run is stopped; return the last sample
+     */
+    public synchronized Sample sample() {
+
+	if ( stopped ) {
+	    return last();
+	}
+
+	allocated(last_allocated);
+
+	long allocated = -1L;
+	if ( ! start_allocated.isEmpty() ) {
+	    allocated = 0L;
+	    for (Map.Entry<Long,Long> e : last_allocated.entrySet()) {
+		Long start = start_allocated.get(e.getKey());
+		allocated += e.getValue() - ((start != null) ? start : 0L);
+	    }
+	}
+
+	long cpu_ns = cpuTime();
+	long jit_ms = jitTime();
+
+	Sample s = new Sample((System.nanoTime() - start_ns) / 1e9,
+			      memory.getHeapMemoryUsage().getUsed(),
+			      gcCount() - start_gc_count,
+			      gcTime() - start_gc_ms,
+			      allocated,
+			      (cpu_ns < 0 || start_cpu_ns < 0) ? -1L : cpu_ns - start_cpu_ns,
+			      (jit_ms < 0 || start_jit_ms < 0) ? -1L : jit_ms - start_jit_ms);
+
+	samples.add(s);
+
+	return s;
+
+    } // sample
+
+
+
+    /**
+     * Take the final sample of the run
+     */
+    public synchronized Sample stop() {
+
+	Sample s = sample();
+	stopped = true;
+
+	return s;
+
+    } // stop
+
+
+
+    public synchronized boolean isStopped() {
+
+	return stopped;
+    }
+
+
+    public synchronized Sample last() {
+
+	return samples.isEmpty() ? null : samples.get(samples.size() - 1);
+    }
+
+
+    /**
+     * The samples taken since the first "from" ones
+     */
+    public synchronized List<Sample> samples(int from) {
+
+	return new ArrayList<Sample>(samples.subList(Math.min(from, samples.size()), samples.size()));
+    }
+
+
+
+    //
+    // Counters
+    //
+
+    /**
+     * Bytes allocated so far by each live thread, into counts
+     */
+    private void allocated(Map<Long,Long> counts) {
+
+	if ( ! (threads instanceof com.sun.management.ThreadMXBean) ) {
+	    return;
+	}
+
+	com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean) threads;
+	if ( ! t.isThreadAllocatedMemoryEnabled() ) {
+	    return;
+	}
+
+	long[] ids = t.getAllThreadIds();
+	long[] bytes = t.getThreadAllocatedBytes(ids);
+
+	for (int i = 0; i < ids.length; i++) {
+	    if ( bytes[i] >= 0 ) {
+		counts.put(ids[i], bytes[i]);
+	    }
+	}
+
+    } // allocated
+
+
+    private long gcCount() {
+
+	long n = 0L;
+	for (GarbageCollectorMXBean gc : pauses) {
+	    n += Math.max(gc.getCollectionCount(), 0L);
+	}
+	return n;
+    }
+
+
+    private long gcTime() {
+
+	long ms = 0L;
+	for (GarbageCollectorMXBean gc : pauses) {
+	    ms += Math.max(gc.getCollectionTime(), 0L);
+	}
+	return ms;
+    }
+
+
+    private long cpuTime() {
+
+	if ( os instanceof com.sun.management.OperatingSystemMXBean ) {
+	    return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+	}
+	return -1L;
+    }
+
+
+    private long jitTime() {
+
+	return (jit != null && jit.isCompilationTimeMonitoringSupported()) ? jit.getTotalCompilationTime() : -1L;
+    }
+
+
+} // MetricsSampler